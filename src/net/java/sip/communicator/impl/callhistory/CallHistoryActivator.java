@@ -49,6 +49,11 @@ public class CallHistoryActivator
      */
     private static ResourceManagementService resourcesService;
 
+    /**
+     * The service normalizing phone numbers.
+     */
+    private static PhoneNumberI18nService phoneNumberI18nService;
+
     /**
      * The map containing all registered
      */
@@ -137,6 +142,24 @@ public class CallHistoryActivator
         return resourcesService;
     }
 
+    /**
+     * Returns the <tt>PhoneNumberI18nService</tt>.
+     *
+     * @return the <tt>PhoneNumberI18nService</tt> or <tt>null</tt> if it is
+     * not registered.
+     */
+    public static PhoneNumberI18nService getPhoneNumberI18nService()
+    {
+        if (phoneNumberI18nService == null)
+        {
+            phoneNumberI18nService
+                = ServiceUtils.getService(
+                        bundleContext,
+                        PhoneNumberI18nService.class);
+        }
+        return phoneNumberI18nService;
+    }
+
     /**
      * Returns all <tt>ProtocolProviderFactory</tt>s obtained from the bundle
      * context.
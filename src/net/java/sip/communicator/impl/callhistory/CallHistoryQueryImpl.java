@@ -26,8 +26,22 @@ public class CallHistoryQueryImpl
 
     private final Collection<CallRecord> callRecords = new Vector<CallRecord>();
 
+    /**
+     * The underlying <tt>HistoryQuery</tt> or <tt>null</tt> if the records
+     * are found without querying the history.
+     */
     private final HistoryQuery historyQuery;
 
+    /**
+     * The query string, this query was created for.
+     */
+    private final String queryString;
+
+    /**
+     * Whether this query has been canceled.
+     */
+    private boolean canceled = false;
+
     /**
      * Creates an instance of <tt>CallHistoryQueryImpl</tt> by specifying the
      * underlying <tt>HistoryQuery</tt>.
@@ -36,6 +50,7 @@ public class CallHistoryQueryImpl
     public CallHistoryQueryImpl(HistoryQuery query)
     {
         this.historyQuery = query;
+        this.queryString = null;
 
         historyQuery.addHistoryRecordsListener(new HistoryQueryListener()
         {
@@ -68,12 +83,56 @@ public class CallHistoryQueryImpl
         }
     }
 
+    /**
+     * Creates an instance of <tt>CallHistoryQueryImpl</tt> which records are
+     * added by the call history service as it finds them.
+     * @param queryString the query string, this query is created for
+     */
+    CallHistoryQueryImpl(String queryString)
+    {
+        this.historyQuery = null;
+        this.queryString = queryString;
+    }
+
     /**
      * Cancels this query.
      */
     public void cancel()
     {
-        historyQuery.cancel();
+        canceled = true;
+        if (historyQuery != null)
+            historyQuery.cancel();
+    }
+
+    /**
+     * Indicates whether this query has been canceled.
+     * @return <tt>true</tt> if this query has been canceled
+     */
+    boolean isCanceled()
+    {
+        return canceled;
+    }
+
+    /**
+     * Adds a record found by the call history service and notifies the
+     * listeners.
+     * @param callRecord the found <tt>CallRecord</tt>
+     */
+    void addCallRecord(CallRecord callRecord)
+    {
+        callRecords.add(callRecord);
+        fireQueryEvent(callRecord);
+    }
+
+    /**
+     * Notifies the listeners that the call history service has finished
+     * looking for records.
+     * @param status the new status, one of the <tt>QUERY_XXX</tt> constants
+     * of <tt>HistoryQueryStatusEvent</tt>
+     */
+    void setStatus(int status)
+    {
+        fireQueryStatusEvent(status);
     }
 
     /**
@@ -159,6 +218,8 @@ public class CallHistoryQueryImpl
      */
     public String getQueryString()
     {
+        if (historyQuery == null)
+            return queryString;
         return historyQuery.getQueryString();
     }
 }
@@ -9,6 +9,7 @@ package net.java.sip.communicator.impl.callhistory;
 import java.io.*;
 import java.text.*;
 import java.util.*;
+import java.util.concurrent.*;
 
 import net.java.sip.communicator.service.callhistory.*;
 import net.java.sip.communicator.service.callhistory.event.*;
@@ -78,6 +79,43 @@ public class CallHistoryServiceImpl
     private List<CallHistoryPeerRecordListener> callHistoryRecordlisteners
         = new LinkedList<CallHistoryPeerRecordListener>();
 
+    /**
+     * The index of the call records by peer address, built the first time
+     * the calls of a peer are searched.
+     */
+    private final CallPeerIndex peerIndex = new CallPeerIndex();
+
+    /**
+     * The executor running the searches by peer address, its thread stops
+     * when it is idle.
+     */
+    private final ExecutorService peerSearchExecutor;
+
+    /**
+     * Creates the call history service.
+     */
+    public CallHistoryServiceImpl()
+    {
+        ThreadPoolExecutor executor
+            = new ThreadPoolExecutor(
+                    1, 1,
+                    30, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(),
+                    new ThreadFactory()
+                    {
+                        public Thread newThread(Runnable r)
+                        {
+                            Thread t = new Thread(r, "CallHistoryPeerSearch");
+
+                            t.setDaemon(true);
+                            return t;
+                        }
+                    });
+
+        executor.allowCoreThreadTimeOut(true);
+        peerSearchExecutor = executor;
+    }
+
     /**
      * Returns the underlying history service.
      * @return the underlying history service
@@ -297,31 +335,77 @@ public class CallHistoryServiceImpl
      * @return Collection of CallRecords with CallPeerRecord
      * @throws RuntimeException
      */
-    public CallHistoryQuery findByPeer(String address, int recordCount)
+    public CallHistoryQuery findByPeer(final String address,
+                                       final int recordCount)
         throws RuntimeException
     {
-        CallHistoryQueryImpl callQuery = null;
+        final CallHistoryQueryImpl callQuery
+            = new CallHistoryQueryImpl(address);
 
-        try
+        peerSearchExecutor.execute(new Runnable()
         {
-            // the default ones
-            History history = this.getHistory(null, null);
-            InteractiveHistoryReader historyReader
-                = history.getInteractiveReader();
-            HistoryQuery historyQuery
-                = historyReader.findByKeyword(
-                    address, "callParticipantIDs", recordCount);
+            public void run()
+            {
+                int status = HistoryQueryStatusEvent.QUERY_COMPLETED;
 
-            callQuery = new CallHistoryQueryImpl(historyQuery);
-        }
-        catch (IOException ex)
-        {
-            logger.error("Could not read history", ex);
-        }
+                try
+                {
+                    for (CallRecord callRecord
+                            : getPeerIndex().find(address, recordCount))
+                    {
+                        if (callQuery.isCanceled())
+                            break;
+                        callQuery.addCallRecord(callRecord);
+                    }
+                    if (callQuery.isCanceled())
+                        status = HistoryQueryStatusEvent.QUERY_CANCELED;
+                }
+                catch (IOException ex)
+                {
+                    logger.error("Could not read history", ex);
+                    status = HistoryQueryStatusEvent.QUERY_ERROR;
+                }
+                callQuery.setStatus(status);
+            }
+        });
 
         return callQuery;
     }
 
+    /**
+     * Returns the index of the call records by peer address, reading the
+     * whole call history to build it the first time.
+     *
+     * @return the index of the call records by peer address
+     * @throws IOException if the call history could not be read
+     */
+    private CallPeerIndex getPeerIndex()
+        throws IOException
+    {
+        // writeCall adds the records to the index while holding its lock, so
+        // no record is missed or added twice while the history is read
+        synchronized (peerIndex)
+        {
+            if (!peerIndex.isBuilt())
+            {
+                List<CallRecord> callRecords = new ArrayList<CallRecord>();
+                QueryResultSet<HistoryRecord> rs
+                    = getHistory(null, null).getReader().findByStartDate(
+                            new Date(0));
+
+                while (rs.hasNext())
+                {
+                    callRecords.add(
+                        convertHistoryRecordToCallRecord(rs.next()));
+                }
+                peerIndex.build(
+                    callRecords,
+                    CallHistoryActivator.getPhoneNumberI18nService());
+            }
+        }
+        return peerIndex;
+    }
+
     /**
      * Returns the history by specified local and remote contact
      * if one of them is null the default is used
@@ -713,7 +797,7 @@ public class CallHistoryServiceImpl
 
             }
 
-            historyWriter.addRecord(new String[] {
+            String[] propertyValues = new String[] {
                     callRecord.getSourceCall().getProtocolProvider()
                         .getAccountID().getAccountUniqueID(),
                     sdf.format(callRecord.getStartTime()),
@@ -725,9 +809,27 @@ public class CallHistoryServiceImpl
                     callPeerStates.toString(),
                     String.valueOf(callRecord.getEndReason()),
                     callPeerNames.toString(),
-                    callPeerSecondaryIDs.toString()},
-                    new Date());    // this date is when the history
-                                    // record is written
+                    callPeerSecondaryIDs.toString()};
+
+            // the record is read when the index is built if it is written
+            // before
+            synchronized (peerIndex)
+            {
+                Date date = new Date(); // this date is when the history
+                                        // record is written
+
+                historyWriter.addRecord(propertyValues, date);
+
+                // index the record as it is read from the history, which
+                // does not hold the call
+                if (peerIndex.isBuilt())
+                {
+                    peerIndex.add(
+                        convertHistoryRecordToCallRecord(
+                            new HistoryRecord(
+                                STRUCTURE_NAMES, propertyValues, date)));
+                }
+            }
         }
         catch (IOException e)
         {
@@ -784,6 +886,7 @@ public class CallHistoryServiceImpl
         HistoryID historyId = HistoryID.createFromRawID(
                     new String[] {  "callhistory" });
         historyService.purgeLocallyStoredHistory(historyId);
+        peerIndex.clear();
     }
 
     /**
@@ -1127,6 +1230,8 @@ public class CallHistoryServiceImpl
         if(callRecordFound)
             return;
 
+        peerIndex.updateSecondaryAddress(date, peerAddress, address);
+
         History history;
         try
         {
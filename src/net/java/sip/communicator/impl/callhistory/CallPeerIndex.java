@@ -0,0 +1,235 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package net.java.sip.communicator.impl.callhistory;
+
+import java.util.*;
+
+import net.java.sip.communicator.service.callhistory.*;
+import net.java.sip.communicator.service.protocol.*;
+
+/**
+ * Finds the call records by the address of their peers without reading the
+ * call history. Every peer address is indexed under the suffixes of its lower
+ * case form and, for phone numbers, of the normalized number, so that a
+ * query matches the addresses containing it, as a search of the call history
+ * did, and a phone number matches whatever the way it is written.
+ * <p>
+ * The index is built from the call history the first time it is searched
+ * and then kept up to date by the call history service as it writes and
+ * updates records.
+ */
+class CallPeerIndex
+{
+    /**
+     * The service normalizing phone numbers or <tt>null</tt> if phone numbers
+     * are indexed as they are written.
+     */
+    private PhoneNumberI18nService phoneNumberService;
+
+    /**
+     * The call records by key of the addresses of their peers.
+     */
+    private final TreeMap<String, List<CallRecord>> records
+        = new TreeMap<String, List<CallRecord>>();
+
+    /**
+     * Whether the call history has been indexed.
+     */
+    private boolean built = false;
+
+    /**
+     * Checks whether the call history has been indexed. Until then the
+     * written records are not added to the index as they are read when it is
+     * built.
+     *
+     * @return whether the call history has been indexed.
+     */
+    synchronized boolean isBuilt()
+    {
+        return built;
+    }
+
+    /**
+     * Adds the records read from the call history.
+     *
+     * @param callRecords all the records of the call history.
+     * @param phoneNumberService the service normalizing phone numbers or
+     * <tt>null</tt>
+     */
+    synchronized void build(Collection<CallRecord> callRecords,
+                            PhoneNumberI18nService phoneNumberService)
+    {
+        this.phoneNumberService = phoneNumberService;
+        records.clear();
+        for (CallRecord callRecord : callRecords)
+            add(callRecord);
+        built = true;
+    }
+
+    /**
+     * Adds a record written to the call history.
+     *
+     * @param callRecord the record.
+     */
+    synchronized void add(CallRecord callRecord)
+    {
+        Set<String> keys = new HashSet<String>();
+
+        for (CallPeerRecord peerRecord : callRecord.getPeerRecords())
+            addKeys(peerRecord.getPeerAddress(), keys);
+
+        for (String key : keys)
+        {
+            List<CallRecord> keyRecords = records.get(key);
+
+            if (keyRecords == null)
+            {
+                keyRecords = new ArrayList<CallRecord>(1);
+                records.put(key, keyRecords);
+            }
+            keyRecords.add(callRecord);
+        }
+    }
+
+    /**
+     * Sets the secondary address of the peer of a record, as it is updated
+     * in the call history.
+     *
+     * @param date the start date of the peer.
+     * @param peerAddress the address of the peer.
+     * @param address the secondary address of the peer.
+     */
+    synchronized void updateSecondaryAddress(Date date,
+                                             String peerAddress,
+                                             String address)
+    {
+        List<CallRecord> keyRecords = records.get(peerAddress.toLowerCase());
+
+        if (keyRecords == null)
+            return;
+
+        for (CallRecord callRecord : keyRecords)
+        {
+            for (CallPeerRecord peerRecord : callRecord.getPeerRecords())
+            {
+                if (peerRecord.getPeerAddress().equals(peerAddress)
+                        && peerRecord.getStartTime().equals(date))
+                    peerRecord.setPeerSecondaryAddress(address);
+            }
+        }
+    }
+
+    /**
+     * Forgets all the records, the call history having been erased.
+     */
+    synchronized void clear()
+    {
+        records.clear();
+    }
+
+    /**
+     * Finds the most recent records having a peer which address matches a
+     * query.
+     *
+     * @param query the address or a part of the address of the peer.
+     * @param count the maximum number of records to return.
+     * @return the matching records from the most recent one.
+     */
+    synchronized List<CallRecord> find(String query, int count)
+    {
+        Set<String> keys = new HashSet<String>();
+
+        keys.add(query.toLowerCase());
+        if (phoneNumberService != null
+                && phoneNumberService.isPhoneNumber(query))
+        {
+            String number = phoneNumberService.normalize(query);
+
+            if (number != null)
+                keys.add(number);
+        }
+
+        Set<CallRecord> found
+            = Collections.newSetFromMap(
+                    new IdentityHashMap<CallRecord, Boolean>());
+
+        for (String key : keys)
+        {
+            if (key.length() == 0)
+                continue;
+
+            for (List<CallRecord> keyRecords
+                    : records.subMap(key, key + Character.MAX_VALUE).values())
+                found.addAll(keyRecords);
+        }
+
+        List<CallRecord> result = new ArrayList<CallRecord>(found);
+
+        Collections.sort(
+            result,
+            new Comparator<CallRecord>()
+            {
+                public int compare(CallRecord r1, CallRecord r2)
+                {
+                    return r2.getStartTime().compareTo(r1.getStartTime());
+                }
+            });
+        return (result.size() > count) ? result.subList(0, count) : result;
+    }
+
+    /**
+     * Adds the keys of a peer address.
+     *
+     * @param address the address of a peer.
+     * @param keys the set to add the keys to.
+     */
+    private void addKeys(String address, Set<String> keys)
+    {
+        if (address == null || address.length() == 0)
+            return;
+
+        String lowerCaseAddress = address.toLowerCase();
+        int schemeEnd = lowerCaseAddress.indexOf(':');
+        String userAddress
+            = (schemeEnd == -1)
+                ? lowerCaseAddress
+                : lowerCaseAddress.substring(schemeEnd + 1);
+        int domainStart = userAddress.indexOf('@');
+        String user
+            = (domainStart == -1)
+                ? userAddress
+                : userAddress.substring(0, domainStart);
+
+        addSuffixes(lowerCaseAddress, keys);
+
+        if (phoneNumberService != null
+                && phoneNumberService.isPhoneNumber(user))
+        {
+            String number = phoneNumberService.normalize(user);
+
+            if (number != null && number.length() > 0)
+                addSuffixes(number, keys);
+        }
+    }
+
+    /**
+     * Adds the suffixes of a key, so that the part of the key starting at
+     * any of its characters is found by a prefix lookup.
+     *
+     * @param key the key.
+     * @param keys the set to add the suffixes to.
+     */
+    private static void addSuffixes(String key, Set<String> keys)
+    {
+        int i = 0;
+        while (i < key.length())
+        {
+            keys.add(key.substring(i));
+            i += Character.charCount(key.codePointAt(i));
+        }
+    }
+}
@@ -11,6 +11,7 @@ import java.io.*;
 import java.sql.*;
 import java.sql.Statement;
 import java.util.*;
+import java.util.concurrent.*;
 
 import org.jitsi.service.configuration.*;
 import org.jitsi.service.fileaccess.*;
@@ -20,6 +21,11 @@ import com.google.common.collect.*;
 
 /**
  * Implementation of the {@link ConfigurationService} based on JDBC.
+ * <p>
+ * All stored properties are loaded in memory when the service is created and
+ * are read without locking or querying the database. Changed properties are
+ * written back to the database by a background thread, which writes all
+ * the properties changed since its last write in one batched transaction.
  * 
  * @author Ingo Bauersachs
  */
@@ -76,14 +82,55 @@ public final class JdbcConfigService
     private SetMultimap<String, PropertyChangeListener> listeners
         = HashMultimap.create();
 
+    /**
+     * The default time in milliseconds changed properties wait before being
+     * written to the database.
+     */
+    static final long DEFAULT_WRITE_DELAY = 500;
+
+    /**
+     * The time in milliseconds changed properties wait before being written
+     * to the database, zero to write every change immediately.
+     */
+    private final long writeDelay;
+
+    /**
+     * The stored properties, sorted by name so the properties with a prefix
+     * are a range of the map.
+     */
+    private final ConcurrentNavigableMap<String, String> properties
+        = new ConcurrentSkipListMap<String, String>();
+
+    /**
+     * The names of the stored properties by the last part of their name.
+     */
+    private final ConcurrentMap<String, Set<String>> namesBySuffix
+        = new ConcurrentHashMap<String, Set<String>>();
+
+    /**
+     * The properties changed since they were last written to the database,
+     * with <tt>null</tt> values for removed properties.
+     */
+    private final Map<String, String> dirtyProperties
+        = new LinkedHashMap<String, String>();
+
+    /**
+     * The thread writing the changed properties, started with the first
+     * change.
+     */
+    private Thread writerThread = null;
+
+    /**
+     * The lock guarding the connection and the prepared statements.
+     */
+    private final Object connectionLock = new Object();
+
     /**
      * Connection to the JDBC database.
      */
     private Connection connection;
 
     // SQL statements for queries against the database
-    private PreparedStatement selectExact;
-    private PreparedStatement selectLike;
     private PreparedStatement selectAll;
     private PreparedStatement insertOrUpdate;
     private PreparedStatement delete;
@@ -99,8 +146,22 @@ public final class JdbcConfigService
      * @throws Exception
      */
     public JdbcConfigService(FileAccessService fas) throws Exception
+    {
+        this(fas, DEFAULT_WRITE_DELAY);
+    }
+
+    /**
+     * Creates a new instance of this class.
+     * @param fas Reference to the {@link FileAccessService}.
+     * @param writeDelay the time in milliseconds changed properties wait
+     * before being written to the database, zero to write every change
+     * immediately.
+     * @throws Exception
+     */
+    JdbcConfigService(FileAccessService fas, long writeDelay) throws Exception
     {
         this.fas = fas;
+        this.writeDelay = writeDelay;
         File dataFile = fas.getPrivatePersistentFile(
             "props.hsql.script",
             FileCategory.PROFILE);
@@ -116,9 +177,19 @@ public final class JdbcConfigService
             migrate = true;
         }
 
-        // open the connection
+        // open the connection and load the stored properties
         Class.forName("org.hsqldb.jdbc.JDBCDriver");
-        checkConnection();
+        synchronized (connectionLock)
+        {
+            checkConnection();
+
+            ResultSet q = this.selectAll.executeQuery();
+            while (q.next())
+            {
+                putStoredProperty(q.getString(1), q.getString(2));
+            }
+            q.close();
+        }
 
         // then do the actual migration
         if (migrate)
@@ -126,14 +197,13 @@ public final class JdbcConfigService
             Properties p = new Properties();
             p.load(new FileInputStream(oldProps));
 
-            this.connection.setAutoCommit(false);
             for (Map.Entry<Object, Object> e : p.entrySet())
             {
-                this.setProperty(e.getKey().toString(), e.getValue(), false);
+                this.setPropertyInternal(
+                    e.getKey().toString(), e.getValue(), false);
             }
 
-            this.connection.commit();
-            this.connection.setAutoCommit(true);
+            this.writeDirtyProperties();
         }
 
         // and finally load the (mandatory) system properties
@@ -191,10 +261,6 @@ public final class JdbcConfigService
             + "k LONGVARCHAR UNIQUE, v LONGVARCHAR"
             + ")");
 
-        this.selectExact = this.connection.prepareStatement(
-            "SELECT v FROM Props WHERE k=?");
-        this.selectLike = this.connection.prepareStatement(
-            "SELECT k, v FROM Props WHERE k LIKE ?");
         this.selectAll = this.connection.prepareStatement(
             "SELECT k, v FROM Props");
         this.insertOrUpdate = this.connection.prepareStatement(
@@ -229,6 +295,22 @@ public final class JdbcConfigService
     @Override
     public synchronized void setProperty(String propertyName, Object property,
         boolean isSystem)
+    {
+        this.setPropertyInternal(propertyName, property, isSystem);
+        this.scheduleWrite();
+    }
+
+    /**
+     * Sets a property without scheduling the write of the changed
+     * properties.
+     *
+     * @param propertyName the name of the property to change.
+     * @param property the new value of the property or <tt>null</tt> to
+     * remove it.
+     * @param isSystem whether the property is a system property.
+     */
+    private synchronized void setPropertyInternal(String propertyName,
+        Object property, boolean isSystem)
     {
         // a property with the same name as an existing system property cannot
         // be set, so mark it as a system property
@@ -254,29 +336,25 @@ public final class JdbcConfigService
                 return;
             }
 
-            try
-            {
-                this.checkConnection();
-                Object oldValue = this.getProperty(propertyName);
-                this.fireVetoableChange(propertyName, oldValue, property);
-                if (property == null)
-                {
-                    this.delete.setString(1, propertyName);
-                    this.delete.execute();
-                }
-                else
-                {
-                    this.insertOrUpdate.setString(1, propertyName);
-                    this.insertOrUpdate.setString(2, property.toString());
-                    this.insertOrUpdate.execute();
-                }
+            Object oldValue = this.getProperty(propertyName);
+            this.fireVetoableChange(propertyName, oldValue, property);
 
-                this.fireChange(propertyName, oldValue, property);
+            String value = (property == null) ? null : property.toString();
+            if (value == null)
+            {
+                removeStoredProperty(propertyName);
             }
-            catch (SQLException e)
+            else
             {
-                throw new RuntimeException(e);
+                putStoredProperty(propertyName, value);
+            }
+
+            synchronized (dirtyProperties)
+            {
+                dirtyProperties.put(propertyName, value);
             }
+
+            this.fireChange(propertyName, oldValue, property);
         }
     }
 
@@ -290,22 +368,12 @@ public final class JdbcConfigService
     @Override
     public synchronized void setProperties(Map<String, Object> properties)
     {
-        try
+        for (Map.Entry<String, Object> e : properties.entrySet())
         {
-            checkConnection();
-            this.connection.setAutoCommit(false);
-            for (Map.Entry<String, Object> e : properties.entrySet())
-            {
-                this.setProperty(e.getKey(), e.getValue(), false);
-            }
-
-            this.connection.commit();
-            this.connection.setAutoCommit(true);
-        }
-        catch (SQLException e1)
-        {
-            throw new RuntimeException(e1);
+            this.setPropertyInternal(e.getKey(), e.getValue(), false);
         }
+
+        this.scheduleWrite();
     }
 
     /*
@@ -316,7 +384,7 @@ public final class JdbcConfigService
      * .lang.String)
      */
     @Override
-    public synchronized Object getProperty(String propertyName)
+    public Object getProperty(String propertyName)
     {
         Object value = immutableDefaultProperties.get(propertyName);
         if (value != null)
@@ -324,34 +392,238 @@ public final class JdbcConfigService
             return value;
         }
 
-        try
+        value = properties.get(propertyName);
+        if (value != null)
+        {
+            return value;
+        }
+
+        value = defaultProperties.get(propertyName);
+        if (value != null)
+        {
+            return value;
+        }
+
+        return System.getProperty(propertyName);
+    }
+
+    /**
+     * Adds or replaces a stored property in memory.
+     *
+     * @param name the name of the property.
+     * @param value the value of the property.
+     */
+    private void putStoredProperty(String name, String value)
+    {
+        if (properties.put(name, value) != null)
+        {
+            return;
+        }
+
+        int ix = name.lastIndexOf('.');
+        if (ix == -1)
+        {
+            return;
+        }
+
+        String suffix = name.substring(ix + 1);
+        Set<String> names = namesBySuffix.get(suffix);
+        if (names == null)
         {
-            this.checkConnection();
-            this.selectExact.setString(1, propertyName);
-            ResultSet q = this.selectExact.executeQuery();
-            if (q.next())
+            names = Collections.newSetFromMap(
+                new ConcurrentHashMap<String, Boolean>());
+            Set<String> existing = namesBySuffix.putIfAbsent(suffix, names);
+            if (existing != null)
             {
-                value = q.getString(1);
+                names = existing;
             }
         }
-        catch (SQLException e)
+        names.add(name);
+    }
+
+    /**
+     * Removes a stored property from memory.
+     *
+     * @param name the name of the property.
+     */
+    private void removeStoredProperty(String name)
+    {
+        if (properties.remove(name) == null)
         {
-            logger.error(e);
-            throw new RuntimeException(e);
+            return;
         }
 
-        if (value != null)
+        int ix = name.lastIndexOf('.');
+        if (ix == -1)
         {
-            return value;
+            return;
         }
 
-        value = defaultProperties.get(propertyName);
-        if (value != null)
+        Set<String> names = namesBySuffix.get(name.substring(ix + 1));
+        if (names != null)
         {
-            return value;
+            names.remove(name);
         }
+    }
 
-        return System.getProperty(propertyName);
+    /**
+     * Writes the changed properties now if changes are not delayed, or
+     * makes sure the writer thread will write them.
+     */
+    private void scheduleWrite()
+    {
+        if (writeDelay <= 0)
+        {
+            writeDirtyProperties();
+            return;
+        }
+
+        synchronized (dirtyProperties)
+        {
+            if (dirtyProperties.isEmpty())
+            {
+                return;
+            }
+
+            if (writerThread == null)
+            {
+                writerThread = new Thread("JdbcConfigService writer")
+                {
+                    @Override
+                    public void run()
+                    {
+                        runWriter();
+                    }
+                };
+                writerThread.setDaemon(true);
+                writerThread.start();
+            }
+
+            dirtyProperties.notifyAll();
+        }
+    }
+
+    /**
+     * Waits for changed properties and writes them once they waited for the
+     * write delay, so the changes made meanwhile are written with them.
+     */
+    private void runWriter()
+    {
+        try
+        {
+            while (true)
+            {
+                synchronized (dirtyProperties)
+                {
+                    while (dirtyProperties.isEmpty())
+                    {
+                        dirtyProperties.wait();
+                    }
+                }
+
+                Thread.sleep(writeDelay);
+                writeDirtyProperties();
+            }
+        }
+        catch (InterruptedException e)
+        {
+            synchronized (dirtyProperties)
+            {
+                writerThread = null;
+            }
+        }
+    }
+
+    /**
+     * Writes the properties changed since the last write in one
+     * transaction. The changes are kept to be written again if the
+     * transaction fails.
+     */
+    private void writeDirtyProperties()
+    {
+        synchronized (connectionLock)
+        {
+            Map<String, String> changes;
+
+            synchronized (dirtyProperties)
+            {
+                if (dirtyProperties.isEmpty())
+                {
+                    return;
+                }
+
+                changes = new LinkedHashMap<String, String>(dirtyProperties);
+                dirtyProperties.clear();
+            }
+
+            try
+            {
+                this.checkConnection();
+                this.connection.setAutoCommit(false);
+                try
+                {
+                    int deletes = 0;
+                    int updates = 0;
+
+                    for (Map.Entry<String, String> e : changes.entrySet())
+                    {
+                        if (e.getValue() == null)
+                        {
+                            this.delete.setString(1, e.getKey());
+                            this.delete.addBatch();
+                            deletes++;
+                        }
+                        else
+                        {
+                            this.insertOrUpdate.setString(1, e.getKey());
+                            this.insertOrUpdate.setString(2, e.getValue());
+                            this.insertOrUpdate.addBatch();
+                            updates++;
+                        }
+                    }
+
+                    // every property appears once, so the order of the
+                    // batches does not matter
+                    if (updates > 0)
+                    {
+                        this.insertOrUpdate.executeBatch();
+                    }
+                    if (deletes > 0)
+                    {
+                        this.delete.executeBatch();
+                    }
+                    this.connection.commit();
+                }
+                catch (SQLException e)
+                {
+                    this.insertOrUpdate.clearBatch();
+                    this.delete.clearBatch();
+                    this.connection.rollback();
+                    throw e;
+                }
+                finally
+                {
+                    this.connection.setAutoCommit(true);
+                }
+            }
+            catch (SQLException e)
+            {
+                logger.error("Cannot write " + changes.size()
+                    + " changed properties, will retry", e);
+
+                synchronized (dirtyProperties)
+                {
+                    // keep the newer changes made meanwhile
+                    for (Map.Entry<String, String> e2 : changes.entrySet())
+                    {
+                        if (!dirtyProperties.containsKey(e2.getKey()))
+                        {
+                            dirtyProperties.put(e2.getKey(), e2.getValue());
+                        }
+                    }
+                }
+            }
+        }
     }
 
     /*
@@ -386,20 +658,7 @@ public final class JdbcConfigService
         List<String> data = new ArrayList<String>(
             immutableDefaultProperties.keySet());
         data.addAll(defaultProperties.keySet());
-        try
-        {
-            this.checkConnection();
-            ResultSet q = this.selectAll.executeQuery();
-            while (q.next())
-            {
-                data.add(q.getString(1));
-            }
-        }
-        catch (SQLException e)
-        {
-            logger.error(e);
-            throw new RuntimeException(e);
-        }
+        data.addAll(properties.keySet());
 
         return data;
     }
@@ -415,46 +674,40 @@ public final class JdbcConfigService
     public List<String> getPropertyNamesByPrefix(String prefix,
         boolean exactPrefixMatch)
     {
-        try
+        List<String> resultSet = new ArrayList<String>(50);
+
+        if (exactPrefixMatch)
         {
-            List<String> resultSet = new ArrayList<String>(50);
-            this.checkConnection();
-            this.selectLike.setString(1, prefix + "%");
-            ResultSet q = this.selectLike.executeQuery();
-            while (q.next())
-            {
-                String key = q.getString(1);
+            // the part of the name before its last dot has to be the prefix
+            String start = prefix + ".";
 
-                if(exactPrefixMatch)
+            for (String key : properties.tailMap(start).keySet())
+            {
+                if (!key.startsWith(start))
                 {
-                    int ix = key.lastIndexOf('.');
-                    if(ix == -1)
-                    {
-                        continue;
-                    }
-
-                    String keyPrefix = key.substring(0, ix);
-
-                    if(prefix.equals(keyPrefix))
-                    {
-                        resultSet.add(key);
-                    }
+                    break;
                 }
-                else
+
+                if (key.indexOf('.', start.length()) == -1)
                 {
-                    if(key.startsWith(prefix))
-                    {
-                        resultSet.add(key);
-                    }
+                    resultSet.add(key);
                 }
             }
-
-            return resultSet;
         }
-        catch (SQLException e)
+        else
         {
-            throw new RuntimeException(e);
+            for (String key : properties.tailMap(prefix).keySet())
+            {
+                if (!key.startsWith(prefix))
+                {
+                    break;
+                }
+
+                resultSet.add(key);
+            }
         }
+
+        return resultSet;
     }
 
     /*
@@ -467,26 +720,11 @@ public final class JdbcConfigService
     @Override
     public List<String> getPropertyNamesBySuffix(String suffix)
     {
-        try
-        {
-            List<String> resultKeySet = new ArrayList<String>(20);
-            this.checkConnection();
-            this.selectLike.setString(1, "%" + suffix);
-            ResultSet q = this.selectLike.executeQuery();
-            while (q.next())
-            {
-                String key = q.getString(1);
-                int ix = key.lastIndexOf('.');
-                if (ix != -1 && suffix.equals(key.substring(ix + 1)))
-                    resultKeySet.add(key);
-            }
+        Set<String> names = namesBySuffix.get(suffix);
 
-            return resultKeySet;
-        }
-        catch (SQLException e)
-        {
-            throw new RuntimeException(e);
-        }
+        return (names == null)
+            ? new ArrayList<String>(0)
+            : new ArrayList<String>(names);
     }
 
     /*
@@ -724,17 +962,27 @@ public final class JdbcConfigService
     @Override
     public void storeConfiguration() throws IOException
     {
-        try
-        {
-            this.connection.close();
-        }
-        catch (SQLException e)
-        {
-            logger.error(e);
-        }
-        finally
+        this.writeDirtyProperties();
+
+        synchronized (connectionLock)
         {
-            this.connection = null;
+            if (this.connection == null)
+            {
+                return;
+            }
+
+            try
+            {
+                this.connection.close();
+            }
+            catch (SQLException e)
+            {
+                logger.error(e);
+            }
+            finally
+            {
+                this.connection = null;
+            }
         }
     }
 
@@ -755,18 +1003,28 @@ public final class JdbcConfigService
      * ()
      */
     @Override
-    public void purgeStoredConfiguration()
+    public synchronized void purgeStoredConfiguration()
     {
-        try
-        {
-            this.checkConnection();
-            Statement st = this.connection.createStatement();
-            st.executeUpdate("TRUNCATE TABLE Props");
-        }
-        catch (SQLException e)
+        synchronized (connectionLock)
         {
-            logger.error(e);
-            throw new RuntimeException(e);
+            synchronized (dirtyProperties)
+            {
+                dirtyProperties.clear();
+            }
+            properties.clear();
+            namesBySuffix.clear();
+
+            try
+            {
+                this.checkConnection();
+                Statement st = this.connection.createStatement();
+                st.executeUpdate("TRUNCATE TABLE Props");
+            }
+            catch (SQLException e)
+            {
+                logger.error(e);
+                throw new RuntimeException(e);
+            }
         }
     }
 
@@ -0,0 +1,422 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package net.java.sip.communicator.impl.contactlist;
+
+import java.io.*;
+import java.util.*;
+
+import net.java.sip.communicator.util.*;
+
+import org.w3c.dom.*;
+
+/**
+ * The change log of the contact list file. Every entry replaces or removes
+ * one meta contact or meta contact group node of the contact list document,
+ * so replaying the entries over the document they were written after
+ * rebuilds the current document, and replaying them again over a newer
+ * document changes nothing.
+ * <p>
+ * The journal starts with the generation it belongs to. The contact list
+ * file records the generation of the last journal merged into it, so a
+ * journal which was merged but not removed before a crash is recognized
+ * and dropped. Entries are appended in batches which are synced to disk,
+ * an incomplete or damaged entry and the ones after it are ignored.
+ */
+class MclJournal
+{
+    /**
+     * The logger for this class.
+     */
+    private static final Logger logger = Logger.getLogger(MclJournal.class);
+
+    /**
+     * The version of the journal format.
+     */
+    private static final int VERSION = 1;
+
+    /**
+     * Entry replacing or adding a meta contact group node and its content.
+     */
+    static final byte OP_PUT_GROUP = 1;
+
+    /**
+     * Entry replacing or adding a meta contact node.
+     */
+    static final byte OP_PUT_CONTACT = 2;
+
+    /**
+     * Entry removing the meta contact or meta contact group node with a UID.
+     */
+    static final byte OP_REMOVE = 3;
+
+    /**
+     * Encoded element node.
+     */
+    private static final byte NODE_ELEMENT = 1;
+
+    /**
+     * Encoded text node.
+     */
+    private static final byte NODE_TEXT = 2;
+
+    /**
+     * The journal file.
+     */
+    private final File file;
+
+    /**
+     * Creates the journal stored in <tt>file</tt>.
+     *
+     * @param file the journal file.
+     */
+    MclJournal(File file)
+    {
+        this.file = file;
+    }
+
+    /**
+     * Returns the size of the journal.
+     *
+     * @return the size of the journal file in bytes.
+     */
+    long length()
+    {
+        return file.length();
+    }
+
+    /**
+     * Removes the journal.
+     */
+    void delete()
+    {
+        file.delete();
+    }
+
+    /**
+     * Returns the generation of the journal.
+     *
+     * @return the generation of the journal or <tt>-1</tt> if there is no
+     * journal or it cannot be read.
+     */
+    long getGeneration()
+    {
+        if (!file.exists())
+            return -1;
+
+        try
+        {
+            DataInputStream in
+                = new DataInputStream(
+                    new BufferedInputStream(new FileInputStream(file)));
+            try
+            {
+                if (in.readInt() != VERSION)
+                    return -1;
+                return in.readLong();
+            }
+            finally
+            {
+                in.close();
+            }
+        }
+        catch (IOException e)
+        {
+            return -1;
+        }
+    }
+
+    /**
+     * Reads the entries of the journal, stopping at the first incomplete or
+     * damaged one.
+     *
+     * @param doc the document the nodes of the entries are created with.
+     * @return the entries before the first incomplete or damaged one, in
+     * the order they were written.
+     * @throws IOException if the journal cannot be opened or its header
+     * cannot be read.
+     */
+    List<Entry> read(Document doc)
+        throws IOException
+    {
+        List<Entry> entries = new ArrayList<Entry>();
+        long limit = file.length();
+        DataInputStream in
+            = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)));
+
+        try
+        {
+            if (in.readInt() != VERSION)
+                throw new IOException("Unsupported version");
+            in.readLong();
+
+            try
+            {
+                int op;
+
+                while ((op = in.read()) != -1)
+                {
+                    if (op != OP_PUT_GROUP
+                        && op != OP_PUT_CONTACT
+                        && op != OP_REMOVE)
+                    {
+                        throw new IOException("Unknown journal entry " + op);
+                    }
+
+                    String uid = in.readUTF();
+                    String parentUID = null;
+                    Element element = null;
+
+                    if (op != OP_REMOVE)
+                    {
+                        parentUID = in.readUTF();
+
+                        Node node = readNode(in, doc, limit);
+
+                        if (!(node instanceof Element))
+                            throw new IOException("Journal entry node");
+                        element = (Element) node;
+                    }
+                    entries.add(new Entry((byte) op, uid, parentUID, element));
+                }
+            }
+            catch (EOFException e)
+            {
+                // the end of the last complete entry
+            }
+            catch (IOException e)
+            {
+                logger.warn("Ignoring damaged contact list journal entry in "
+                    + file, e);
+            }
+            catch (DOMException e)
+            {
+                logger.warn("Ignoring damaged contact list journal entry in "
+                    + file, e);
+            }
+        }
+        finally
+        {
+            in.close();
+        }
+        return entries;
+    }
+
+    /**
+     * Appends entries to the journal and syncs it to disk, starting the
+     * journal if it does not exist.
+     *
+     * @param generation the generation of the journal.
+     * @param entries the entries to append.
+     * @throws IOException if writing fails.
+     */
+    void append(long generation, List<Entry> entries)
+        throws IOException
+    {
+        boolean start = file.length() == 0;
+        FileOutputStream fos = new FileOutputStream(file, true);
+
+        try
+        {
+            DataOutputStream out
+                = new DataOutputStream(new BufferedOutputStream(fos));
+
+            if (start)
+            {
+                out.writeInt(VERSION);
+                out.writeLong(generation);
+            }
+            for (Entry entry : entries)
+            {
+                out.writeByte(entry.op);
+                out.writeUTF(entry.uid);
+                if (entry.op != OP_REMOVE)
+                {
+                    out.writeUTF(entry.parentUID);
+                    writeNode(out, entry.element);
+                }
+            }
+            out.flush();
+            fos.getFD().sync();
+        }
+        finally
+        {
+            fos.close();
+        }
+    }
+
+    /**
+     * Writes an element or text node and its content.
+     *
+     * @param out the stream to write to.
+     * @param node the node.
+     * @throws IOException if writing fails.
+     */
+    private static void writeNode(DataOutputStream out, Node node)
+        throws IOException
+    {
+        if (node.getNodeType() != Node.ELEMENT_NODE)
+        {
+            out.writeByte(NODE_TEXT);
+            writeString(out, node.getNodeValue());
+            return;
+        }
+
+        out.writeByte(NODE_ELEMENT);
+        out.writeUTF(node.getNodeName());
+
+        NamedNodeMap attributes = node.getAttributes();
+        out.writeInt(attributes.getLength());
+        for (int i = 0; i < attributes.getLength(); i++)
+        {
+            Node attribute = attributes.item(i);
+
+            out.writeUTF(attribute.getNodeName());
+            writeString(out, attribute.getNodeValue());
+        }
+
+        List<Node> children = new ArrayList<Node>();
+        for (Node child = node.getFirstChild();
+                child != null;
+                child = child.getNextSibling())
+        {
+            short type = child.getNodeType();
+
+            if (type == Node.ELEMENT_NODE
+                || type == Node.TEXT_NODE
+                || type == Node.CDATA_SECTION_NODE)
+            {
+                children.add(child);
+            }
+        }
+        out.writeInt(children.size());
+        for (Node child : children)
+            writeNode(out, child);
+    }
+
+    /**
+     * Reads a node written by <tt>writeNode</tt>.
+     *
+     * @param in the stream to read from.
+     * @param doc the document to create the node with.
+     * @param limit the length of the journal, which no count or length
+     * read can exceed.
+     * @return the node.
+     * @throws IOException if reading fails.
+     */
+    private static Node readNode(DataInputStream in, Document doc, long limit)
+        throws IOException
+    {
+        byte type = in.readByte();
+
+        if (type == NODE_TEXT)
+            return doc.createTextNode(readString(in, limit));
+        if (type != NODE_ELEMENT)
+            throw new IOException("Unknown node type " + type);
+
+        Element element = doc.createElement(in.readUTF());
+
+        int attributeCount = readLength(in, limit);
+        for (int i = 0; i < attributeCount; i++)
+            element.setAttribute(in.readUTF(), readString(in, limit));
+
+        int childCount = readLength(in, limit);
+        for (int i = 0; i < childCount; i++)
+            element.appendChild(readNode(in, doc, limit));
+
+        return element;
+    }
+
+    /**
+     * Writes a string which may be longer than <tt>writeUTF</tt> allows.
+     *
+     * @param out the stream to write to.
+     * @param s the string.
+     * @throws IOException if writing fails.
+     */
+    private static void writeString(DataOutputStream out, String s)
+        throws IOException
+    {
+        byte[] bytes = s.getBytes("UTF-8");
+
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Reads a string written by <tt>writeString</tt>.
+     *
+     * @param in the stream to read from.
+     * @param limit the length of the journal.
+     * @return the string.
+     * @throws IOException if reading fails.
+     */
+    private static String readString(DataInputStream in, long limit)
+        throws IOException
+    {
+        byte[] bytes = new byte[readLength(in, limit)];
+
+        in.readFully(bytes);
+        return new String(bytes, "UTF-8");
+    }
+
+    /**
+     * Reads a count or a length, which a damaged journal may have replaced
+     * with any value.
+     *
+     * @param in the stream to read from.
+     * @param limit the length of the journal.
+     * @return the count or length.
+     * @throws IOException if reading fails or the value is negative or
+     * bigger than <tt>limit</tt>.
+     */
+    private static int readLength(DataInputStream in, long limit)
+        throws IOException
+    {
+        int length = in.readInt();
+
+        if (length < 0 || length > limit)
+            throw new IOException("Bad length " + length);
+        return length;
+    }
+
+    /**
+     * A change of the contact list document.
+     */
+    static class Entry
+    {
+        /**
+         * The kind of the change, one of the <tt>OP_</tt> constants.
+         */
+        final byte op;
+
+        /**
+         * The UID of the meta contact or meta contact group.
+         */
+        final String uid;
+
+        /**
+         * The UID of the parent meta contact group or an empty string if
+         * the group is the root one, <tt>null</tt> for removals.
+         */
+        final String parentUID;
+
+        /**
+         * The node of the meta contact or meta contact group,
+         * <tt>null</tt> for removals.
+         */
+        final Element element;
+
+        Entry(byte op, String uid, String parentUID, Element element)
+        {
+            this.op = op;
+            this.uid = uid;
+            this.parentUID = parentUID;
+            this.element = element;
+        }
+    }
+}
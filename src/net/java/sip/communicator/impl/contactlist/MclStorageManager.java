@@ -64,6 +64,51 @@ public class MclStorageManager
      */
     private boolean multiTenantMode = false;
 
+    /**
+     * The property to disable the journaled storage mode, in which changes
+     * are appended to a journal merged into the contact list file from time
+     * to time instead of rewriting the whole file after each change.
+     */
+    private static final String JOURNAL_ENABLED_PROP =
+        "net.java.sip.communicator.impl.contactlist.JOURNAL_ENABLED";
+
+    /**
+     * The minimum size of the journal in bytes before it gets merged into
+     * the contact list file. Larger contact lists wait until the journal is
+     * as large as their file.
+     */
+    private static final long MIN_JOURNAL_COMPACTION_SIZE = 256 * 1024;
+
+    /**
+     * Whether the journaled storage mode is enabled.
+     */
+    private boolean journalEnabled = true;
+
+    /**
+     * The journal of the changes done since the contact list file was last
+     * written.
+     */
+    private MclJournal journal = null;
+
+    /**
+     * The generation of the current journal, the contact list file records
+     * the generation of the last journal merged into it.
+     */
+    private long journalGeneration = 1;
+
+    /**
+     * The UIDs of the meta contacts and meta contact groups changed since
+     * the last time we stored this contact list.
+     */
+    private final Set<String> modifiedNodes = new LinkedHashSet<String>();
+
+    /**
+     * Indicates whether a change which cannot be journaled has been done
+     * since the last time we stored this contact list, so that the whole
+     * file has to be written.
+     */
+    private boolean isFullStoreNeeded = false;
+
     /**
      * Indicates whether the storage manager has been properly started or in
      * other words that it has successfully found and read the xml contact list
@@ -127,6 +172,13 @@ public class MclStorageManager
      */
     private static String DOCUMENT_ROOT_NAME = "sip-communicator";
 
+    /**
+     * The name of the XML attribute of the root node that contains the
+     * generation of the last journal merged into the contact list file.
+     */
+    private static final String JOURNAL_GENERATION_ATTR_NAME =
+        "journal-generation";
+
     /**
      * The name of the XML node corresponding to a meta contact group.
      */
@@ -327,6 +379,11 @@ public class MclStorageManager
         multiTenantMode = configurationService.getBoolean(
             MULTI_TENANT_MODE_PROP, multiTenantMode);
 
+        journalEnabled = configurationService.getBoolean(
+            JOURNAL_ENABLED_PROP, journalEnabled);
+        journal = new MclJournal(
+            new File(contactlistFile.getPath() + ".journal"));
+
         // create the failsafe transaction and restore the file if needed
         try
         {
@@ -356,6 +413,9 @@ public class MclStorageManager
 
                 // write the contact list so that it is there for the parser
                 storeContactList0();
+
+                // a journal cannot apply to a new contact list
+                journal.delete();
             }
             else
             {
@@ -376,8 +436,13 @@ public class MclStorageManager
 
                     // write the contact list so that it is there for the parser
                     storeContactList0();
+
+                    // the changes were done to the lost file
+                    journal.delete();
                 }
             }
+
+            replayJournal();
         }
         catch (ParserConfigurationException ex)
         {
@@ -392,6 +457,153 @@ public class MclStorageManager
         this.launchStorageThread();
     }
 
+    /**
+     * Applies the changes of a journal which was not merged into the
+     * contact list file yet and schedules the merge, or removes the journal
+     * if it was already merged. The journal is replayed even if the
+     * journaled storage mode was disabled since it was written.
+     */
+    private void replayJournal()
+    {
+        Element root = contactListDocument.getDocumentElement();
+        long fileGeneration = 0;
+
+        if (root != null
+            && root.hasAttribute(JOURNAL_GENERATION_ATTR_NAME))
+        {
+            try
+            {
+                fileGeneration = Long.parseLong(
+                    root.getAttribute(JOURNAL_GENERATION_ATTR_NAME));
+            }
+            catch (NumberFormatException ex)
+            {
+                logger.error("Invalid contact list journal generation", ex);
+            }
+        }
+        journalGeneration = fileGeneration + 1;
+
+        long generation = journal.getGeneration();
+
+        if (generation <= fileGeneration || root == null)
+        {
+            // merged before the last shut down or unreadable
+            journal.delete();
+            return;
+        }
+
+        try
+        {
+            List<MclJournal.Entry> entries
+                = journal.read(contactListDocument);
+
+            for (MclJournal.Entry entry : entries)
+                applyJournalEntry(entry);
+
+            if (logger.isInfoEnabled())
+                logger.info("Replayed " + entries.size()
+                    + " contact list journal entries");
+        }
+        catch (IOException ex)
+        {
+            logger.error("Failed to replay the contact list journal", ex);
+        }
+
+        // merge the journal into the file with the first storage
+        journalGeneration = generation;
+        isFullStoreNeeded = true;
+        isModified = true;
+    }
+
+    /**
+     * Applies a journal entry to the contact list document.
+     *
+     * @param entry the entry
+     */
+    private void applyJournalEntry(MclJournal.Entry entry)
+    {
+        if (entry.op == MclJournal.OP_REMOVE)
+        {
+            removeNodes(META_CONTACT_NODE_NAME, entry.uid);
+            removeNodes(GROUP_NODE_NAME, entry.uid);
+            return;
+        }
+
+        boolean isGroup = (entry.op == MclJournal.OP_PUT_GROUP);
+        Element container;
+
+        if (isGroup && entry.parentUID.length() == 0)
+        {
+            container = contactListDocument.getDocumentElement();
+        }
+        else
+        {
+            Element parentNode = findMetaContactGroupNode(entry.parentUID);
+
+            if (parentNode == null)
+            {
+                logger.warn("Ignoring journal entry for " + entry.uid
+                    + ", parent group not found: " + entry.parentUID);
+                return;
+            }
+            container = XMLUtils.findChild(
+                parentNode,
+                isGroup ? SUBGROUPS_NODE_NAME : CHILD_CONTACTS_NODE_NAME);
+        }
+
+        // keep the position of the node if it stays in the same parent
+        Node position = null;
+
+        for (Element oldNode : findNodes(
+                isGroup ? GROUP_NODE_NAME : META_CONTACT_NODE_NAME,
+                entry.uid))
+        {
+            if (position == null && oldNode.getParentNode() == container)
+                position = oldNode.getNextSibling();
+            oldNode.getParentNode().removeChild(oldNode);
+        }
+        if (position != null && position.getParentNode() != container)
+            position = null;
+
+        container.insertBefore(entry.element, position);
+    }
+
+    /**
+     * Removes the nodes with the given name and UID from the contact list
+     * document.
+     *
+     * @param nodeName the name of the nodes
+     * @param uid the UID of the nodes
+     */
+    private void removeNodes(String nodeName, String uid)
+    {
+        for (Element node : findNodes(nodeName, uid))
+            node.getParentNode().removeChild(node);
+    }
+
+    /**
+     * Returns the nodes with the given name and UID in the contact list
+     * document.
+     *
+     * @param nodeName the name of the nodes
+     * @param uid the UID of the nodes
+     * @return the nodes, outer nodes first
+     */
+    private List<Element> findNodes(String nodeName, String uid)
+    {
+        NodeList nodes = contactListDocument.getElementsByTagName(nodeName);
+        List<Element> result = new ArrayList<Element>();
+
+        for (int i = 0; i < nodes.getLength(); i++)
+        {
+            Element node = (Element) nodes.item(i);
+
+            if (uid.equals(node.getAttribute(UID_ATTR_NAME)))
+                result.add(node);
+        }
+        return result;
+    }
+
     /**
      * Stores the contact list in its current state.
      *
@@ -404,11 +616,190 @@ public class MclStorageManager
             if (!isStarted())
                 return;
 
+            this.isFullStoreNeeded = true;
+            this.isModified = true;
+            contactListRWLock.notifyAll();
+        }
+    }
+
+    /**
+     * Schedules the storage of the nodes of the given meta contacts and
+     * meta contact groups. In journaled storage mode only these nodes are
+     * written, otherwise the whole contact list is.
+     *
+     * @param metaUIDs the UIDs of the changed meta contacts and meta contact
+     * groups, whether their nodes were changed, added or removed.
+     * @throws IOException if writing fails.
+     */
+    private void scheduleNodeStorage(String... metaUIDs) throws IOException
+    {
+        synchronized (contactListRWLock)
+        {
+            if (!isStarted())
+                return;
+
+            if (journalEnabled)
+                modifiedNodes.addAll(Arrays.asList(metaUIDs));
+            else
+                isFullStoreNeeded = true;
             this.isModified = true;
             contactListRWLock.notifyAll();
         }
     }
 
+    /**
+     * Writes the changes done since the last storage, appending them to
+     * the journal if possible and merging the journal into the contact list
+     * file when it grows as large as the file.
+     *
+     * @throws IOException in case writing fails.
+     */
+    private void storeContactListChanges() throws IOException
+    {
+        if (isFullStoreNeeded
+            || contactListDocument.getDocumentElement() == null)
+        {
+            storeContactList0();
+            return;
+        }
+
+        try
+        {
+            List<MclJournal.Entry> entries = createJournalEntries();
+
+            if (!entries.isEmpty())
+                journal.append(journalGeneration, entries);
+            modifiedNodes.clear();
+        }
+        catch (IOException ex)
+        {
+            logger.error("Failed to write the contact list journal", ex);
+            storeContactList0();
+            return;
+        }
+
+        if (journal.length() > Math.max(
+                MIN_JOURNAL_COMPACTION_SIZE, contactlistFile.length()))
+        {
+            storeContactList0();
+        }
+    }
+
+    /**
+     * Creates the journal entries of the nodes changed since the last
+     * storage. Groups are written before contacts, so that the groups
+     * contacts were moved to exist when the contacts are replayed, and
+     * removals last.
+     *
+     * @return the journal entries.
+     */
+    private List<MclJournal.Entry> createJournalEntries()
+    {
+        Map<String, Element> contactNodes = new HashMap<String, Element>();
+        Map<String, Element> groupNodes = new HashMap<String, Element>();
+
+        collectNodes(META_CONTACT_NODE_NAME, contactNodes);
+        collectNodes(GROUP_NODE_NAME, groupNodes);
+
+        List<Element> groups = new ArrayList<Element>();
+        List<MclJournal.Entry> contacts = new ArrayList<MclJournal.Entry>();
+        List<MclJournal.Entry> removals = new ArrayList<MclJournal.Entry>();
+
+        for (String uid : modifiedNodes)
+        {
+            Element node = contactNodes.get(uid);
+
+            if (node != null)
+            {
+                contacts.add(new MclJournal.Entry(
+                    MclJournal.OP_PUT_CONTACT, uid,
+                    getParentGroupUID(node), node));
+            }
+            else if ((node = groupNodes.get(uid)) != null)
+            {
+                groups.add(node);
+            }
+            else
+            {
+                removals.add(new MclJournal.Entry(
+                    MclJournal.OP_REMOVE, uid, null, null));
+            }
+        }
+
+        // parent groups first
+        Collections.sort(groups, new Comparator<Element>()
+        {
+            public int compare(Element g1, Element g2)
+            {
+                return getDepth(g1) - getDepth(g2);
+            }
+        });
+
+        List<MclJournal.Entry> entries = new ArrayList<MclJournal.Entry>();
+
+        for (Element group : groups)
+        {
+            entries.add(new MclJournal.Entry(
+                MclJournal.OP_PUT_GROUP, group.getAttribute(UID_ATTR_NAME),
+                getParentGroupUID(group), group));
+        }
+        entries.addAll(contacts);
+        entries.addAll(removals);
+        return entries;
+    }
+
+    /**
+     * Collects the nodes with the given name of the contact list document
+     * by UID.
+     *
+     * @param nodeName the name of the nodes
+     * @param nodes the map to put the nodes in
+     */
+    private void collectNodes(String nodeName, Map<String, Element> nodes)
+    {
+        NodeList list = contactListDocument.getElementsByTagName(nodeName);
+
+        for (int i = 0; i < list.getLength(); i++)
+        {
+            Element node = (Element) list.item(i);
+
+            nodes.put(node.getAttribute(UID_ATTR_NAME), node);
+        }
+    }
+
+    /**
+     * Returns the UID of the meta contact group containing a meta contact
+     * or meta contact group node.
+     *
+     * @param node the node
+     * @return the UID of the parent group or an empty string for the root
+     * group
+     */
+    private String getParentGroupUID(Element node)
+    {
+        Node container = node.getParentNode();
+
+        if (container == contactListDocument.getDocumentElement())
+            return "";
+        return ((Element) container.getParentNode())
+            .getAttribute(UID_ATTR_NAME);
+    }
+
+    /**
+     * Returns the depth of a node in the contact list document.
+     *
+     * @param node the node
+     * @return the number of ancestors of the node
+     */
+    private static int getDepth(Node node)
+    {
+        int depth = 0;
+
+        while ((node = node.getParentNode()) != null)
+            depth++;
+        return depth;
+    }
+
     /**
      * Writes the contact list on the hard disk.
      *
@@ -434,6 +825,14 @@ public class MclStorageManager
                 logger.error("the contactlist file is missing", e);
             }
 
+            // the file will contain all the changes of the current journal
+            Element root = contactListDocument.getDocumentElement();
+            if (root != null)
+            {
+                root.setAttribute(JOURNAL_GENERATION_ATTR_NAME,
+                    String.valueOf(journalGeneration));
+            }
+
             // really write the modification
             OutputStream stream = new FileOutputStream(contactlistFile);
             XMLUtils.indentedWriteXML(contactListDocument, stream);
@@ -448,6 +847,13 @@ public class MclStorageManager
             {
                 logger.error("the contactlist file is missing", e);
             }
+
+            // the journal is merged, a journal left by a crash before
+            // removing it is older than the file and will be dropped
+            journal.delete();
+            journalGeneration++;
+            modifiedNodes.clear();
+            isFullStoreNeeded = false;
         }
     }
 
@@ -472,7 +878,7 @@ public class MclStorageManager
                             contactListRWLock.wait(5000);
                             if (isModified)
                             {
-                                storeContactList0();
+                                storeContactListChanges();
                                 isModified = false;
                             }
                         }
@@ -1299,7 +1705,7 @@ public class MclStorageManager
 
         try
         {
-            scheduleContactListStorage();
+            scheduleNodeStorage(evt.getSourceMetaContact().getMetaUID());
         }
         catch (IOException ex)
         {
@@ -1353,7 +1759,7 @@ public class MclStorageManager
 
         try
         {
-            scheduleContactListStorage();
+            scheduleNodeStorage(evt.getSourceMetaContactGroup().getMetaUID());
         }
         catch (IOException ex)
         {
@@ -1392,7 +1798,7 @@ public class MclStorageManager
 
         try
         {
-            scheduleContactListStorage();
+            scheduleNodeStorage(evt.getSourceMetaContactGroup().getMetaUID());
         }
         catch (IOException ex)
         {
@@ -1451,7 +1857,7 @@ public class MclStorageManager
 
         try
         {
-            scheduleContactListStorage();
+            scheduleNodeStorage(evt.getSourceMetaContact().getMetaUID());
         }
         catch (IOException ex)
         {
@@ -1537,7 +1943,7 @@ public class MclStorageManager
 
         try
         {
-            scheduleContactListStorage();
+            scheduleNodeStorage(evt.getSourceMetaContact().getMetaUID());
         }
         catch (IOException ex)
         {
@@ -1592,7 +1998,7 @@ public class MclStorageManager
 
         try
         {
-            scheduleContactListStorage();
+            scheduleNodeStorage(evt.getSourceMetaContact().getMetaUID());
         }
         catch (IOException ex)
         {
@@ -1632,7 +2038,7 @@ public class MclStorageManager
 
         try
         {
-            scheduleContactListStorage();
+            scheduleNodeStorage(evt.getParent().getMetaUID());
         }
         catch (IOException ex)
         {
@@ -1778,7 +2184,7 @@ public class MclStorageManager
 
         try
         {
-            scheduleContactListStorage();
+            scheduleNodeStorage(evt.getSourceMetaContact().getMetaUID());
         }
         catch (IOException ex)
         {
@@ -1820,7 +2226,7 @@ public class MclStorageManager
 
         try
         {
-            scheduleContactListStorage();
+            scheduleNodeStorage(evt.getOldParent().getMetaUID());
         }
         catch (IOException ex)
         {
@@ -1888,7 +2294,7 @@ public class MclStorageManager
 
             try
             {
-                scheduleContactListStorage();
+                scheduleNodeStorage(mcGroup.getMetaUID());
             }
             catch (IOException ex)
             {
@@ -1911,7 +2317,7 @@ public class MclStorageManager
 
         try
         {
-            scheduleContactListStorage();
+            scheduleNodeStorage(mcGroup.getMetaUID());
         }
         catch (IOException ex)
         {
@@ -1960,7 +2366,7 @@ public class MclStorageManager
 
         try
         {
-            scheduleContactListStorage();
+            scheduleNodeStorage(evt.getParent().getMetaUID());
         }
         catch (IOException ex)
         {
@@ -2018,7 +2424,8 @@ public class MclStorageManager
 
         try
         {
-            scheduleContactListStorage();
+            scheduleNodeStorage(evt.getOldParent().getMetaUID(),
+                evt.getNewParent().getMetaUID());
         }
         catch (IOException ex)
         {
@@ -2074,6 +2481,8 @@ public class MclStorageManager
     void removeContactListFile()
     {
         this.contactlistFile.delete();
+        if (this.journal != null)
+            this.journal.delete();
     }
 
     /**
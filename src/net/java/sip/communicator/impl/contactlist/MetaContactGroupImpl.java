@@ -429,15 +429,27 @@ public class MetaContactGroupImpl
             MetaContactGroupImpl mGroup
                 = (MetaContactGroupImpl) groupsIter.next();
 
-            if (metaUID.equals(mGroup.getMetaUID()))
-                return mGroup;
-            else
-                mGroup.findMetaContactByMetaUID(metaUID);
+            MetaContactGroup foundGroup
+                = mGroup.findMetaContactGroupByMetaUID(metaUID);
+
+            if (foundGroup != null)
+                return foundGroup;
         }
 
         return null;
     }
 
+    /**
+     * Determines whether this group encapsulates a protocol specific group.
+     *
+     * @param protoGroup the protocol specific group.
+     * @return <tt>true</tt> if <tt>protoGroup</tt> is merged in this group.
+     */
+    boolean containsProtoGroup(ContactGroup protoGroup)
+    {
+        return protoGroups.contains(protoGroup);
+    }
+
     /**
      * Returns an iterator over all the protocol specific groups that this
      * contact group represents.
@@ -699,6 +711,8 @@ public class MetaContactGroupImpl
         metaContact.setParentGroup(this);
 
         lightAddMetaContact(metaContact);
+
+        mclServiceImpl.getIndex().addMetaContact(metaContact);
     }
 
     /**
@@ -756,6 +770,10 @@ public class MetaContactGroupImpl
     {
         metaContact.unsetParentGroup(this);
         lightRemoveMetaContact(metaContact);
+
+        // the contact may have been moved to another group already
+        if (metaContact.getParentGroup() == null)
+            mclServiceImpl.getIndex().removeMetaContact(metaContact);
     }
 
     /**
@@ -938,6 +956,7 @@ public class MetaContactGroupImpl
     void addProtoGroup( ContactGroup protoGroup)
     {
         protoGroups.add(protoGroup);
+        mclServiceImpl.getIndex().addProtoGroup(protoGroup, this);
     }
 
     /**
@@ -948,7 +967,8 @@ public class MetaContactGroupImpl
      */
     void removeProtoGroup( ContactGroup protoGroup)
     {
-        protoGroups.remove(protoGroup);
+        if (protoGroups.remove(protoGroup))
+            mclServiceImpl.getIndex().removeProtoGroup(protoGroup, this);
     }
 
     /**
@@ -966,6 +986,8 @@ public class MetaContactGroupImpl
 
         this.subgroupsOrderedCopy =
             new LinkedList<MetaContactGroup>(subgroups);
+
+        mclServiceImpl.getIndex().addGroup((MetaContactGroupImpl)subgroup);
     }
 
     /**
@@ -983,6 +1005,9 @@ public class MetaContactGroupImpl
 
         subgroupsOrderedCopy = new LinkedList<MetaContactGroup>(subgroups);
 
+        if (subgroup.parentMetaContactGroup == null)
+            mclServiceImpl.getIndex().removeGroup(subgroup);
+
         return subgroup;
     }
 
@@ -672,6 +672,12 @@ public class MetaContactImpl
 
             this.protoContacts.add(contact);
 
+            if (parentGroup != null)
+            {
+                parentGroup.getMclServiceImpl().getIndex()
+                    .addContact(contact, this);
+            }
+
             // Re-init the default contact.
             defaultContact = null;
 
@@ -770,6 +776,12 @@ public class MetaContactImpl
             contactsOnline -= contact.getPresenceStatus().isOnline() ? 1 : 0;
             this.protoContacts.remove(contact);
 
+            if (parentGroup != null)
+            {
+                parentGroup.getMclServiceImpl().getIndex()
+                    .removeContact(contact, this);
+            }
+
             if (defaultContact == contact)
                 defaultContact = null;
 
@@ -821,6 +833,12 @@ public class MetaContactImpl
             {
                 contactsIter.remove();
                 modified = true;
+
+                if (parentGroup != null)
+                {
+                    parentGroup.getMclServiceImpl().getIndex()
+                        .removeContact(contact, this);
+                }
             }
         }
 
@@ -854,6 +872,12 @@ public class MetaContactImpl
             {
                 contactsIter.remove();
                 modified = true;
+
+                if (parentGroup != null)
+                {
+                    parentGroup.getMclServiceImpl().getIndex()
+                        .removeContact(contact, this);
+                }
             }
         }
 
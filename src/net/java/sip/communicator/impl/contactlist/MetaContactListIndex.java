@@ -0,0 +1,441 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package net.java.sip.communicator.impl.contactlist;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import net.java.sip.communicator.service.contactlist.*;
+import net.java.sip.communicator.service.protocol.*;
+
+/**
+ * Maps the keys the meta contact list is searched by to the meta contacts
+ * and meta contact groups holding them, so the lookups made for every
+ * presence and message event do not walk the whole list.
+ * <p>
+ * The index is updated by the <tt>MetaContactGroupImpl</tt> and
+ * <tt>MetaContactImpl</tt> methods changing the content of the list. It is
+ * not updated under the locks of the list, so a hit may be outdated by a
+ * concurrent change and <tt>MetaContactListServiceImpl</tt> checks every hit
+ * against the list before returning it.
+ */
+class MetaContactListIndex
+{
+    /**
+     * The meta contacts by meta UID.
+     */
+    private final ConcurrentMap<String, MetaContactImpl> metaContacts
+        = new ConcurrentHashMap<String, MetaContactImpl>();
+
+    /**
+     * The meta contact groups by meta UID.
+     */
+    private final ConcurrentMap<String, MetaContactGroupImpl> metaGroups
+        = new ConcurrentHashMap<String, MetaContactGroupImpl>();
+
+    /**
+     * The meta contacts by protocol provider and address of their protocol
+     * contacts.
+     */
+    private final ConcurrentMap<ContactKey, MetaContactImpl>
+        contactsByProvider
+        = new ConcurrentHashMap<ContactKey, MetaContactImpl>();
+
+    /**
+     * The meta contacts by account unique ID and address of their protocol
+     * contacts.
+     */
+    private final ConcurrentMap<ContactKey, MetaContactImpl>
+        contactsByAccount
+        = new ConcurrentHashMap<ContactKey, MetaContactImpl>();
+
+    /**
+     * The meta contacts by address and by display name of their protocol
+     * contacts. The display names of protocol contacts change without the
+     * list being modified, so outdated names are only removed with their
+     * meta contact or with one of its protocol contacts.
+     */
+    private final Map<String, Set<MetaContactImpl>> contactsByName
+        = new ConcurrentHashMap<String, Set<MetaContactImpl>>();
+
+    /**
+     * All the names each meta contact is indexed under in
+     * <tt>contactsByName</tt>, guarded by the lock of
+     * <tt>contactsByName</tt>.
+     */
+    private final Map<MetaContactImpl, Set<String>> namesByContact
+        = new HashMap<MetaContactImpl, Set<String>>();
+
+    /**
+     * The meta contact groups by the protocol groups they hold.
+     */
+    private final ConcurrentMap<ContactGroup, MetaContactGroupImpl>
+        groupsByProtoGroup
+        = new ConcurrentHashMap<ContactGroup, MetaContactGroupImpl>();
+
+    /**
+     * Indexes a meta contact and its protocol contacts.
+     *
+     * @param metaContact the meta contact added to a group.
+     */
+    void addMetaContact(MetaContactImpl metaContact)
+    {
+        metaContacts.put(metaContact.getMetaUID(), metaContact);
+
+        Iterator<Contact> contacts = metaContact.getContacts();
+        while (contacts.hasNext())
+            addContact(contacts.next(), metaContact);
+    }
+
+    /**
+     * Drops a meta contact and its protocol contacts from the index.
+     *
+     * @param metaContact the meta contact removed from its group.
+     */
+    void removeMetaContact(MetaContactImpl metaContact)
+    {
+        remove(metaContacts, metaContact.getMetaUID(), metaContact);
+
+        Iterator<Contact> contacts = metaContact.getContacts();
+        while (contacts.hasNext())
+            removeKeys(contacts.next(), metaContact);
+        removeNames(metaContact);
+    }
+
+    /**
+     * Indexes a protocol contact of a meta contact. Also used to index the
+     * new display name of a protocol contact.
+     *
+     * @param contact the protocol contact.
+     * @param metaContact the meta contact holding <tt>contact</tt>.
+     */
+    void addContact(Contact contact, MetaContactImpl metaContact)
+    {
+        ProtocolProviderService provider = contact.getProtocolProvider();
+        String address = contact.getAddress();
+
+        contactsByProvider.put(new ContactKey(provider, address), metaContact);
+        contactsByAccount.put(
+            new ContactKey(getAccountKey(provider), address),
+            metaContact);
+
+        addName(address, metaContact);
+        addName(contact.getDisplayName(), metaContact);
+    }
+
+    /**
+     * Drops a protocol contact of a meta contact from the index.
+     *
+     * @param contact the protocol contact.
+     * @param metaContact the meta contact which held <tt>contact</tt>.
+     */
+    void removeContact(Contact contact, MetaContactImpl metaContact)
+    {
+        removeKeys(contact, metaContact);
+        removeNames(metaContact);
+
+        // the other protocol contacts may share the keys of the removed one
+        // and are indexed again under their current names
+        Iterator<Contact> contacts = metaContact.getContacts();
+        while (contacts.hasNext())
+        {
+            Contact other = contacts.next();
+
+            if (other != contact)
+                addContact(other, metaContact);
+        }
+    }
+
+    /**
+     * Removes the provider and account keys of a protocol contact which map
+     * to its meta contact.
+     *
+     * @param contact the protocol contact.
+     * @param metaContact the meta contact which held <tt>contact</tt>.
+     */
+    private void removeKeys(Contact contact, MetaContactImpl metaContact)
+    {
+        ProtocolProviderService provider = contact.getProtocolProvider();
+        String address = contact.getAddress();
+
+        remove(
+            contactsByProvider,
+            new ContactKey(provider, address),
+            metaContact);
+        remove(
+            contactsByAccount,
+            new ContactKey(getAccountKey(provider), address),
+            metaContact);
+    }
+
+    /**
+     * Indexes a meta contact group and all its content.
+     *
+     * @param group the group added to the list.
+     */
+    void addGroup(MetaContactGroupImpl group)
+    {
+        metaGroups.put(group.getMetaUID(), group);
+
+        Iterator<ContactGroup> protoGroups = group.getContactGroups();
+        while (protoGroups.hasNext())
+            groupsByProtoGroup.put(protoGroups.next(), group);
+
+        Iterator<MetaContact> childContacts = group.getChildContacts();
+        while (childContacts.hasNext())
+            addMetaContact((MetaContactImpl) childContacts.next());
+
+        Iterator<MetaContactGroup> subgroups = group.getSubgroups();
+        while (subgroups.hasNext())
+            addGroup((MetaContactGroupImpl) subgroups.next());
+    }
+
+    /**
+     * Drops a meta contact group and all its content from the index.
+     *
+     * @param group the group removed from the list.
+     */
+    void removeGroup(MetaContactGroupImpl group)
+    {
+        remove(metaGroups, group.getMetaUID(), group);
+
+        Iterator<ContactGroup> protoGroups = group.getContactGroups();
+        while (protoGroups.hasNext())
+            remove(groupsByProtoGroup, protoGroups.next(), group);
+
+        Iterator<MetaContact> childContacts = group.getChildContacts();
+        while (childContacts.hasNext())
+            removeMetaContact((MetaContactImpl) childContacts.next());
+
+        Iterator<MetaContactGroup> subgroups = group.getSubgroups();
+        while (subgroups.hasNext())
+            removeGroup((MetaContactGroupImpl) subgroups.next());
+    }
+
+    /**
+     * Indexes a protocol group of a meta contact group.
+     *
+     * @param protoGroup the protocol group.
+     * @param group the meta contact group holding <tt>protoGroup</tt>.
+     */
+    void addProtoGroup(ContactGroup protoGroup, MetaContactGroupImpl group)
+    {
+        groupsByProtoGroup.put(protoGroup, group);
+    }
+
+    /**
+     * Drops a protocol group of a meta contact group from the index.
+     *
+     * @param protoGroup the protocol group.
+     * @param group the meta contact group which held <tt>protoGroup</tt>.
+     */
+    void removeProtoGroup(ContactGroup protoGroup, MetaContactGroupImpl group)
+    {
+        remove(groupsByProtoGroup, protoGroup, group);
+    }
+
+    /**
+     * Returns the meta contact with a meta UID.
+     *
+     * @param metaUID the meta UID.
+     * @return the meta contact or <tt>null</tt> if none is indexed.
+     */
+    MetaContactImpl getMetaContact(String metaUID)
+    {
+        return metaContacts.get(metaUID);
+    }
+
+    /**
+     * Returns the meta contact group with a meta UID.
+     *
+     * @param metaUID the meta UID.
+     * @return the meta contact group or <tt>null</tt> if none is indexed.
+     */
+    MetaContactGroupImpl getMetaContactGroup(String metaUID)
+    {
+        return metaGroups.get(metaUID);
+    }
+
+    /**
+     * Returns the meta contact holding the protocol contact with an address
+     * and a protocol provider.
+     *
+     * @param address the address of the protocol contact.
+     * @param provider the provider of the protocol contact.
+     * @return the meta contact or <tt>null</tt> if none is indexed.
+     */
+    MetaContactImpl getMetaContact(String address,
+                                   ProtocolProviderService provider)
+    {
+        return contactsByProvider.get(new ContactKey(provider, address));
+    }
+
+    /**
+     * Returns the meta contact holding the protocol contact with an address
+     * and an account.
+     *
+     * @param address the address of the protocol contact.
+     * @param accountID the unique ID of the account of the protocol contact.
+     * @return the meta contact or <tt>null</tt> if none is indexed.
+     */
+    MetaContactImpl getMetaContactForAccount(String address, String accountID)
+    {
+        return contactsByAccount.get(new ContactKey(accountID, address));
+    }
+
+    /**
+     * Returns the meta contacts holding a protocol contact with an address or
+     * a display name.
+     *
+     * @param name the address or the display name.
+     * @return the meta contacts, empty if none is indexed.
+     */
+    Collection<MetaContactImpl> getMetaContactsForName(String name)
+    {
+        Set<MetaContactImpl> set = (name == null) ? null
+            : contactsByName.get(name);
+
+        return (set == null)
+            ? Collections.<MetaContactImpl>emptyList()
+            : new ArrayList<MetaContactImpl>(set);
+    }
+
+    /**
+     * Returns the meta contact group holding a protocol group.
+     *
+     * @param protoGroup the protocol group.
+     * @return the meta contact group or <tt>null</tt> if none is indexed.
+     */
+    MetaContactGroupImpl getMetaContactGroup(ContactGroup protoGroup)
+    {
+        return groupsByProtoGroup.get(protoGroup);
+    }
+
+    /**
+     * Adds a meta contact to the set of an address or display name.
+     *
+     * @param name the address or display name.
+     * @param metaContact the meta contact.
+     */
+    private void addName(String name, MetaContactImpl metaContact)
+    {
+        if (name == null)
+            return;
+
+        synchronized (contactsByName)
+        {
+            Set<MetaContactImpl> set = contactsByName.get(name);
+
+            if (set == null)
+            {
+                set = Collections.newSetFromMap(
+                    new ConcurrentHashMap<MetaContactImpl, Boolean>());
+                contactsByName.put(name, set);
+            }
+            set.add(metaContact);
+
+            Set<String> names = namesByContact.get(metaContact);
+
+            if (names == null)
+            {
+                names = new HashSet<String>();
+                namesByContact.put(metaContact, names);
+            }
+            names.add(name);
+        }
+    }
+
+    /**
+     * Removes a meta contact from the sets of all the addresses and display
+     * names it was indexed under, including the former display names of its
+     * protocol contacts.
+     *
+     * @param metaContact the meta contact.
+     */
+    private void removeNames(MetaContactImpl metaContact)
+    {
+        synchronized (contactsByName)
+        {
+            Set<String> names = namesByContact.remove(metaContact);
+
+            if (names == null)
+                return;
+
+            for (String name : names)
+            {
+                Set<MetaContactImpl> set = contactsByName.get(name);
+
+                if (set != null && set.remove(metaContact) && set.isEmpty())
+                    contactsByName.remove(name);
+            }
+        }
+    }
+
+    /**
+     * Removes the mapping of a key if it still maps to <tt>value</tt>, as
+     * the key may have been mapped to another object since.
+     *
+     * @param map the map.
+     * @param key the key.
+     * @param value the object the key has to map to.
+     */
+    private static <K, V> void remove(ConcurrentMap<K, V> map,
+                                      K key,
+                                      V value)
+    {
+        if (key != null)
+            map.remove(key, value);
+    }
+
+    /**
+     * Returns the account key of a protocol provider.
+     *
+     * @param provider the protocol provider.
+     * @return the unique ID of the account of <tt>provider</tt>.
+     */
+    private static String getAccountKey(ProtocolProviderService provider)
+    {
+        return provider.getAccountID().getAccountUniqueID();
+    }
+
+    /**
+     * An address qualified by the provider or the account it belongs to.
+     */
+    private static class ContactKey
+    {
+        private final Object owner;
+
+        private final String address;
+
+        ContactKey(Object owner, String address)
+        {
+            this.owner = owner;
+            this.address = address;
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (!(obj instanceof ContactKey))
+                return false;
+
+            ContactKey other = (ContactKey) obj;
+
+            return owner.equals(other.owner)
+                && ((address == null)
+                    ? (other.address == null)
+                    : address.equals(other.address));
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return 31 * owner.hashCode()
+                + ((address == null) ? 0 : address.hashCode());
+        }
+    }
+}
@@ -50,6 +50,11 @@ public class MetaContactListServiceImpl
     private final Map<String, ProtocolProviderService> currentlyInstalledProviders
         = new Hashtable<String, ProtocolProviderService>();
 
+    /**
+     * The index of the meta contacts and groups of the list.
+     */
+    private final MetaContactListIndex index = new MetaContactListIndex();
+
     /**
      * The root of the meta contact list.
      */
@@ -123,6 +128,51 @@ public class MetaContactListServiceImpl
             = new MetaContactGroupImpl(
                     this, ContactlistActivator.getResources().getI18NString(
                         "service.gui.CONTACTS"), "RootMetaContactGroup");
+        index.addGroup(rootMetaGroup);
+    }
+
+    /**
+     * Returns the index of the meta contacts and groups of the list.
+     *
+     * @return the index of the meta contacts and groups of the list.
+     */
+    MetaContactListIndex getIndex()
+    {
+        return index;
+    }
+
+    /**
+     * Determines whether a meta contact group is part of the list.
+     *
+     * @param group the group.
+     * @return <tt>true</tt> if <tt>group</tt> is the root group or one of its
+     * descendants.
+     */
+    private boolean isInList(MetaContactGroupImpl group)
+    {
+        while (group != null)
+        {
+            if (group == rootMetaGroup)
+                return true;
+            group = (MetaContactGroupImpl) group.getParentMetaContactGroup();
+        }
+        return false;
+    }
+
+    /**
+     * Determines whether a meta contact is part of the list.
+     *
+     * @param metaContact the meta contact.
+     * @return <tt>true</tt> if <tt>metaContact</tt> is a child of the root
+     * group or of one of its descendants.
+     */
+    private boolean isInList(MetaContactImpl metaContact)
+    {
+        MetaContactGroupImpl group = metaContact.getParentGroup();
+
+        return group != null
+            && group.contains(metaContact)
+            && isInList(group);
     }
 
     /**
@@ -1615,6 +1665,16 @@ public class MetaContactListServiceImpl
     public MetaContactGroup findMetaContactGroupByContactGroup
         (ContactGroup contactGroup)
     {
+        MetaContactGroupImpl group = index.getMetaContactGroup(contactGroup);
+
+        if (group != null
+            && group.containsProtoGroup(contactGroup)
+            && isInList(group))
+        {
+            return group;
+        }
+
+        // a miss may be due to a change which is still being indexed
         return rootMetaGroup.findMetaContactGroupByContactGroup(contactGroup);
     }
 
@@ -1633,6 +1693,22 @@ public class MetaContactListServiceImpl
      */
     public MetaContact findMetaContactByContact(Contact contact)
     {
+        MetaContactImpl metaContact
+            = index.getMetaContact(
+                contact.getAddress(), contact.getProtocolProvider());
+
+        if (metaContact != null
+            && metaContact.getContact(
+                    contact.getAddress(), contact.getProtocolProvider())
+                != null
+            && isInList(metaContact))
+        {
+            return metaContact;
+        }
+
+        // a miss may be due to a change which is still being indexed or to
+        // an address which only equals the contact, and a hit may be
+        // outdated by a concurrent change of the list
         return rootMetaGroup.findMetaContactByContact(contact);
     }
 
@@ -1656,6 +1732,18 @@ public class MetaContactListServiceImpl
     public MetaContact findMetaContactByContact(String contactAddress,
                                                 String accountID)
     {
+        MetaContactImpl metaContact
+            = index.getMetaContactForAccount(contactAddress, accountID);
+
+        if (metaContact != null
+            && metaContact.getContact(contactAddress, accountID) != null
+            && isInList(metaContact))
+        {
+            return metaContact;
+        }
+
+        // a miss may be due to a change which is still being indexed, and a
+        // hit may be outdated by a concurrent change of the list
         return rootMetaGroup.findMetaContactByContact(contactAddress
                                                       , accountID);
     }
@@ -1670,7 +1758,13 @@ public class MetaContactListServiceImpl
      */
     public MetaContact findMetaContactByMetaUID(String metaContactID)
     {
+        MetaContactImpl metaContact = index.getMetaContact(metaContactID);
+
+        if (metaContact != null && isInList(metaContact))
+            return metaContact;
 
+        // a miss may be due to a change which is still being indexed, and a
+        // hit may be outdated by a concurrent change of the list
         return rootMetaGroup.findMetaContactByMetaUID(metaContactID);
     }
 
@@ -1685,6 +1779,14 @@ public class MetaContactListServiceImpl
      */
     public MetaContactGroup findMetaContactGroupByMetaUID(String metaGroupID)
     {
+        MetaContactGroupImpl group = index.getMetaContactGroup(metaGroupID);
+
+        if (group == null)
+            return null;
+        if (isInList(group))
+            return group;
+
+        // the hit is outdated by a concurrent change of the list
         return rootMetaGroup.findMetaContactGroupByMetaUID(metaGroupID);
     }
 
@@ -1747,31 +1849,11 @@ public class MetaContactListServiceImpl
     {
         List<MetaContact> resultList = new LinkedList<MetaContact>();
 
-        findAllMetaContactsForAddress(rootMetaGroup, contactAddress, resultList);
-
-        return resultList.iterator();
-    }
-
-    /**
-     * Returns a list of all <tt>MetaContact</tt>s containing a protocol contact
-     * corresponding to the given <tt>contactAddress</tt> string.
-     *
-     * @param contactAddress the contact address for which we're looking for
-     * a parent <tt>MetaContact</tt>.
-     * @param metaContactGroup the parent group.
-     * @param resultList the list containing the result of the search.
-     */
-    private void findAllMetaContactsForAddress(
-        MetaContactGroup metaContactGroup,
-        String contactAddress,
-        List<MetaContact> resultList)
-    {
-        Iterator<MetaContact> childContacts
-            = metaContactGroup.getChildContacts();
-
-        while (childContacts.hasNext())
+        for (MetaContactImpl metaContact
+                : index.getMetaContactsForName(contactAddress))
         {
-            MetaContact metaContact = childContacts.next();
+            if (!isSearchedForAddress(metaContact))
+                continue;
 
             Iterator<Contact> protocolContacts = metaContact.getContacts();
 
@@ -1785,23 +1867,33 @@ public class MetaContactListServiceImpl
             }
         }
 
-        Iterator<MetaContactGroup> subGroups
-            = metaContactGroup.getSubgroups();
+        return resultList.iterator();
+    }
 
-        while (subGroups.hasNext())
-        {
-            MetaContactGroup subGroup = subGroups.next();
+    /**
+     * Determines whether a meta contact is in a group searched by
+     * <tt>findAllMetaContactsForAddress</tt>, that is the root group or a
+     * group which, like all its ancestors but the root, holds protocol
+     * groups.
+     *
+     * @param metaContact the meta contact.
+     * @return <tt>true</tt> if the group of <tt>metaContact</tt> is searched
+     * for addresses.
+     */
+    private boolean isSearchedForAddress(MetaContactImpl metaContact)
+    {
+        MetaContactGroupImpl group = metaContact.getParentGroup();
 
-            Iterator<ContactGroup> protocolSubgroups
-                = subGroup.getContactGroups();
+        if (group == null || !group.contains(metaContact))
+            return false;
 
-            if (protocolSubgroups.hasNext())
-            {
-                this.findAllMetaContactsForAddress( subGroup,
-                                                    contactAddress,
-                                                    resultList);
-            }
+        while (group != rootMetaGroup)
+        {
+            if (group == null || group.countContactGroups() == 0)
+                return false;
+            group = (MetaContactGroupImpl) group.getParentMetaContactGroup();
         }
+        return true;
     }
 
     /**
@@ -2702,6 +2794,10 @@ public class MetaContactListServiceImpl
             if( ContactPropertyChangeEvent.PROPERTY_DISPLAY_NAME
                             .equals(evt.getPropertyName()))
             {
+                // keep the contact findable by its new display name
+                if (mc != null)
+                    index.addContact(evt.getSourceContact(), mc);
+
                 if( evt.getOldValue() != null
                     && evt.getOldValue().equals(mc.getDisplayName()))
                 {
@@ -308,6 +308,39 @@ public class FileHistoryServiceImpl
         return result;
     }
 
+    /**
+     * Counts the file transfers made between the given dates by calendar
+     * bucket. The counts are computed from the stored timestamps of the
+     * transfer records.
+     *
+     * @param contact MetaContact the receiver or sender of the file
+     * @param startDate Date the start date of the transfers or <tt>null</tt>
+     * @param endDate Date the end date of the transfers or <tt>null</tt>
+     * @param calendarField the <tt>Calendar</tt> field of the buckets
+     * @return the number of transfers by bucket start
+     */
+    public SortedMap<Date, Integer> countRecordsByPeriod(
+            MetaContact contact, Date startDate, Date endDate,
+            int calendarField)
+    {
+        SortedMap<Date, Integer> result = new TreeMap<Date, Integer>();
+
+        for (HistoryReader reader : getHistoryReaders(contact).values())
+        {
+            for (Map.Entry<Date, Integer> e
+                    : reader.countRecordsByPeriod(
+                            startDate, endDate, calendarField).entrySet())
+            {
+                Integer count = result.get(e.getKey());
+
+                result.put(
+                    e.getKey(),
+                    (count == null) ? e.getValue() : count + e.getValue());
+            }
+        }
+        return result;
+    }
+
     /**
      * Returns all the file transfers made between the given dates and
      * having the given keywords in the filename
@@ -13,7 +13,9 @@ import java.io.*;
 import java.net.*;
 import java.text.*;
 import java.util.*;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.*;
 import java.util.regex.*;
 
 import javax.swing.*;
@@ -140,6 +142,40 @@ public class ChatConversationPanel
         "([^<]*+)(?:<(?:[^>\"]*(?:\"[^\"]*+\"?)*)*+>?)?",
         Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
 
+    /**
+     * The maximum number of threads processing the replacements of the
+     * messages of all the conversation panels.
+     */
+    private static final int REPLACEMENT_THREADS = 4;
+
+    /**
+     * The executor processing the replacements of the messages of all the
+     * conversation panels, its threads stop when they are idle.
+     */
+    private static final ExecutorService replacementExecutor;
+
+    static
+    {
+        ThreadPoolExecutor executor
+            = new ThreadPoolExecutor(
+                    REPLACEMENT_THREADS, REPLACEMENT_THREADS,
+                    30, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(),
+                    new ThreadFactory()
+                    {
+                        public Thread newThread(Runnable r)
+                        {
+                            Thread t = new Thread(r, "ReplacementWorker");
+
+                            t.setDaemon(true);
+                            return t;
+                        }
+                    });
+
+        executor.allowCoreThreadTimeOut(true);
+        replacementExecutor = executor;
+    }
+
     /**
      * List for observing text messages.
      */
@@ -229,6 +265,25 @@ public class ChatConversationPanel
 
     private String lastMessageUID = null;
 
+    /**
+     * The updates of the document requested out of the event dispatch thread
+     * which have not been run yet, in the order they were requested. They are
+     * run by a single event and the messages appended one after the other
+     * are inserted in the document at once.
+     */
+    private final List<Runnable> pendingUpdates = new ArrayList<Runnable>();
+
+    /**
+     * Runs the {@link #pendingUpdates} on the event dispatch thread.
+     */
+    private final Runnable runPendingUpdates = new Runnable()
+    {
+        public void run()
+        {
+            runPendingUpdates();
+        }
+    };
+
     private boolean isSimpleTheme = true;
 
     private ShowPreviewDialog showPreview
@@ -702,21 +757,38 @@ public class ChatConversationPanel
     public void appendConsecutiveMessage(final ChatMessage chatMessage,
         final String keyword)
     {
-        String previousMessageUID = lastMessageUID;
+        final String previousMessageUID = lastMessageUID;
         lastMessageUID = chatMessage.getMessageUID();
 
         if (!SwingUtilities.isEventDispatchThread())
         {
-            SwingUtilities.invokeLater(new Runnable()
+            invokeUpdateLater(new Runnable()
             {
                 public void run()
                 {
-                    appendConsecutiveMessage(chatMessage, keyword);
+                    appendConsecutiveMessage(
+                        chatMessage, keyword, previousMessageUID);
                 }
             });
             return;
         }
 
+        runPendingUpdates();
+        appendConsecutiveMessage(chatMessage, keyword, previousMessageUID);
+    }
+
+    /**
+     * Appends a consecutive message to the document in the event dispatch
+     * thread.
+     *
+     * @param chatMessage the message to append
+     * @param keyword the keywords to highlight
+     * @param previousMessageUID the UID of the message to append to
+     */
+    private void appendConsecutiveMessage(ChatMessage chatMessage,
+                                          String keyword,
+                                          String previousMessageUID)
+    {
         Element lastMsgElement = document.getElement(
             ChatHtmlUtils.MESSAGE_TEXT_ID + previousMessageUID);
 
@@ -767,7 +839,7 @@ public class ChatConversationPanel
             }
         }
 
-        finishMessageAdd(newMessage);
+        finishMessageAdd(newMessage, chatMessage.getMessageUID());
     }
 
     /**
@@ -783,16 +855,28 @@ public class ChatConversationPanel
 
         if (!SwingUtilities.isEventDispatchThread())
         {
-            SwingUtilities.invokeLater(new Runnable()
+            invokeUpdateLater(new Runnable()
             {
                 public void run()
                 {
-                    correctMessage(chatMessage);
+                    replaceCorrectedMessage(chatMessage);
                 }
             });
             return;
         }
 
+        runPendingUpdates();
+        replaceCorrectedMessage(chatMessage);
+    }
+
+    /**
+     * Replaces the corrected message in the document in the event dispatch
+     * thread.
+     *
+     * @param chatMessage the message correcting an older one
+     */
+    private void replaceCorrectedMessage(ChatMessage chatMessage)
+    {
         String correctedUID = chatMessage.getCorrectedMessageUID();
         Element root = document.getDefaultRootElement();
         Element correctedMsgElement
@@ -850,7 +934,7 @@ public class ChatConversationPanel
             }
         }
 
-        finishMessageAdd(newMessage);
+        finishMessageAdd(newMessage, chatMessage.getMessageUID());
     }
 
     /**
@@ -867,18 +951,6 @@ public class ChatConversationPanel
     public void appendMessageToEnd(final String original,
                                    final String contentType)
     {
-        if (!SwingUtilities.isEventDispatchThread())
-        {
-            SwingUtilities.invokeLater(new Runnable()
-            {
-                public void run()
-                {
-                    appendMessageToEnd(original, contentType);
-                }
-            });
-            return;
-        }
-
         if (original == null)
         {
             return;
@@ -894,6 +966,32 @@ public class ChatConversationPanel
             message = StringEscapeUtils.escapeHtml4(original);
         }
 
+        AppendedMessage appendedMessage
+            = new AppendedMessage(message, lastMessageUID);
+
+        if (!SwingUtilities.isEventDispatchThread())
+        {
+            invokeUpdateLater(appendedMessage);
+            return;
+        }
+
+        runPendingUpdates();
+        appendMessagesToEnd(Collections.singletonList(appendedMessage));
+    }
+
+    /**
+     * Appends messages at the end of the document with a single insert in
+     * the event dispatch thread.
+     *
+     * @param messages the messages to append
+     */
+    private void appendMessagesToEnd(List<AppendedMessage> messages)
+    {
+        StringBuilder html = new StringBuilder();
+
+        for (AppendedMessage message : messages)
+            html.append(message.message);
+
         synchronized (scrollToBottomRunnable)
         {
             Element root = document.getDefaultRootElement();
@@ -903,8 +1001,8 @@ public class ChatConversationPanel
                 document.insertBeforeEnd(
                             // the body element
                             root.getElement(root.getElementCount() - 1),
-                            // the message to insert
-                            message);
+                            // the messages to insert
+                            html.toString());
 
                 // Need to call explicitly scrollToBottom, because for some
                 // reason the componentResized event isn't fired every time we
@@ -921,11 +1019,74 @@ public class ChatConversationPanel
             }
         }
 
-        String lastElemContent = getElementContent(lastMessageUID, message);
+        for (AppendedMessage message : messages)
+        {
+            String lastElemContent
+                = getElementContent(message.messageUID, message.message);
+
+            if (lastElemContent != null)
+            {
+                finishMessageAdd(lastElemContent, message.messageUID);
+            }
+        }
+    }
 
-        if (lastElemContent != null)
+    /**
+     * Queues an update of the document to be run in the event dispatch
+     * thread after the updates requested before it.
+     *
+     * @param update the update
+     */
+    private void invokeUpdateLater(Runnable update)
+    {
+        synchronized (pendingUpdates)
         {
-            finishMessageAdd(lastElemContent);
+            pendingUpdates.add(update);
+
+            // the event running the updates is already queued
+            if (pendingUpdates.size() > 1)
+                return;
+        }
+        SwingUtilities.invokeLater(runPendingUpdates);
+    }
+
+    /**
+     * Runs the queued updates of the document in the event dispatch thread,
+     * appending the consecutive appended messages at once.
+     */
+    private void runPendingUpdates()
+    {
+        List<Runnable> updates;
+
+        synchronized (pendingUpdates)
+        {
+            if (pendingUpdates.isEmpty())
+                return;
+
+            updates = new ArrayList<Runnable>(pendingUpdates);
+            pendingUpdates.clear();
+        }
+
+        int i = 0;
+
+        while (i < updates.size())
+        {
+            if (updates.get(i) instanceof AppendedMessage)
+            {
+                List<AppendedMessage> messages
+                    = new ArrayList<AppendedMessage>();
+
+                do
+                {
+                    messages.add((AppendedMessage) updates.get(i++));
+                }
+                while (i < updates.size()
+                        && updates.get(i) instanceof AppendedMessage);
+
+                appendMessagesToEnd(messages);
+            }
+            else
+                updates.get(i++).run();
         }
     }
 
@@ -934,9 +1095,9 @@ public class ChatConversationPanel
      * message to the document.
      *
      * @param message the message string
-     * @param contentType
+     * @param messageUID the UID of the message
      */
-    private void finishMessageAdd(final String message)
+    private void finishMessageAdd(final String message, String messageUID)
     {
         // If we're not in chat history case we need to be sure the document
         // has not exceeded the required size (number of messages).
@@ -955,22 +1116,24 @@ public class ChatConversationPanel
                         ReplacementProperty.getPropertyName("SMILEY"),
                         true))
         {
-            processReplacement(ChatHtmlUtils.MESSAGE_TEXT_ID + lastMessageUID,
+            processReplacement(ChatHtmlUtils.MESSAGE_TEXT_ID + messageUID,
                                 message);
         }
     }
 
     /**
     * Formats the given message. Processes the messages and replaces links to
-    * video/image sources with their previews or any other substitution. Spawns
-    * a separate thread for replacement.
+    * video/image sources with their previews or any other substitution. The
+    * replacement is processed by the threads shared by all the conversation
+    * panels.
     *
     * @param messageID the messageID element.
     * @param chatString the message.
     */
     void processReplacement(final String messageID, final String chatString)
     {
-        new ReplacementWorker(messageID, chatString).start();
+        new ReplacementWorker(messageID, chatString)
+            .start(replacementExecutor);
     }
 
     /**
@@ -979,7 +1142,10 @@ public class ChatConversationPanel
      */
     private void ensureDocumentSize()
     {
-        if (document.getLength() > Chat.CHAT_BUFFER_SIZE)
+        int length;
+
+        // messages appended at once may exceed the size by several messages
+        while ((length = document.getLength()) > Chat.CHAT_BUFFER_SIZE)
         {
             String[] ids = new String[]
                                       {ChatHtmlUtils.MESSAGE_TEXT_ID,
@@ -989,6 +1155,9 @@ public class ChatConversationPanel
 
             Element firstMsgElement = findElement(Attribute.ID, ids);
 
+            if (firstMsgElement == null)
+                return;
+
             int startIndex = firstMsgElement.getStartOffset();
             int endIndex = firstMsgElement.getEndOffset();
 
@@ -1000,6 +1169,7 @@ public class ChatConversationPanel
             catch (BadLocationException e)
             {
                 logger.error("Error removing messages from chat: ", e);
+                return;
             }
 
             if(firstMsgElement.getName().equals("table"))
@@ -1008,6 +1178,9 @@ public class ChatConversationPanel
                 // delete all messages without header
                 deleteAllMessagesWithoutHeader();
             }
+
+            if (document.getLength() >= length)
+                return;
         }
     }
 
@@ -1350,16 +1523,28 @@ public class ChatConversationPanel
     {
         if (!SwingUtilities.isEventDispatchThread())
         {
-            SwingUtilities.invokeLater(new Runnable()
+            invokeUpdateLater(new Runnable()
             {
                 public void run()
                 {
-                    setContent(document);
+                    showContent(document);
                 }
             });
             return;
         }
 
+        runPendingUpdates();
+        showContent(document);
+    }
+
+    /**
+     * Sets the given document to the editor pane in the event dispatch
+     * thread.
+     *
+     * @param document the document to set
+     */
+    private void showContent(HTMLDocument document)
+    {
         synchronized (scrollToBottomRunnable)
         {
             scrollToBottomIsPending = true;
@@ -2166,33 +2351,27 @@ public class ChatConversationPanel
                 closingTag = divMatcher.group(3);
             }
 
-            StringBuilder msgBuff;
-            for (Map.Entry<String, ReplacementService> entry : GuiActivator
-                .getReplacementSources().entrySet())
-            {
-                msgBuff = new StringBuilder();
-                processReplacementService(entry.getValue(), msgStore, msgBuff);
-                msgStore = msgBuff.toString();
-            }
+            ReplacementEngine engine
+                = ReplacementEngine.getInstance(
+                    GuiActivator.getReplacementSources().values());
+            StringBuilder msgBuff = new StringBuilder();
+
+            processReplacements(engine, msgStore, msgBuff);
+            msgStore = msgBuff.toString();
 
             return openingTag + msgStore + closingTag;
         }
 
         /**
-         * Process message for a ReplacementService.
+         * Processes the message for all the replacement sources at once.
          *
-         * @param service the service.
+         * @param engine the engine matching the replacement sources.
          * @param msg the message.
          * @param buff current accumulated buffer.
          */
-        private void processReplacementService(final ReplacementService service,
+        private void processReplacements(final ReplacementEngine engine,
             final String msg, final StringBuilder buff)
         {
-            String sourcePattern = service.getPattern();
-            Pattern pattern =
-                Pattern.compile(sourcePattern, Pattern.CASE_INSENSITIVE
-                    | Pattern.DOTALL);
-
             int startPos = 0;
 
             Matcher plainTextInHtmlMatcher =
@@ -2221,7 +2400,7 @@ public class ChatConversationPanel
                     final boolean isURL =
                         URL_PATTERN.matcher(plaintext).matches();
 
-                    processText(plaintext, buff, pattern, service, isURL);
+                    processText(plaintext, buff, engine, isURL);
 
                     startPos = endMatchPosition;
                 }
@@ -2236,15 +2415,12 @@ public class ChatConversationPanel
          *
          * @param plainText the nodes text.
          * @param msgBuff the currently accumulated buffer.
-         * @param pattern the pattern for current replacement service, created
-         *            earlier so we don't create it for every text we check.
-         * @param rService the replacement service.
+         * @param engine the engine matching the replacement sources.
          * @param isURL whether this content matches the URL pattern
          */
         private void processText(final String plainText,
                                  final StringBuilder msgBuff,
-                                 final Pattern pattern,
-                                 final ReplacementService rService,
+                                 final ReplacementEngine engine,
                                  final boolean isURL)
         {
             final ShowPreviewDialog previewDialog = showPreview;
@@ -2257,30 +2433,29 @@ public class ChatConversationPanel
                 return;
             }
 
-            Matcher m = pattern.matcher(plainText);
-
             ConfigurationService cfg = GuiActivator.getConfigurationService();
-            boolean isSmiley
-                = rService instanceof SmiliesReplacementService;
-            boolean isDirectImage
-                = rService instanceof DirectImageReplacementService;
-            boolean isEnabledForSource
-                = cfg.getBoolean(
-                ReplacementProperty.getPropertyName(
-                    rService.getSourceName()), true);
 
             int startPos = 0;
-            while (m.find())
+            for (ReplacementEngine.Match m : engine.match(plainText))
             {
                 msgBuff.append(StringEscapeUtils.escapeHtml4(plainText
-                    .substring(startPos, m.start())));
-                startPos = m.end();
-
-                String group = m.group();
-                String temp = rService.getReplacement(group);
-                String group0 = m.group(0);
-
-                if (!temp.equals(group0) || isDirectImage)
+                    .substring(startPos, m.start)));
+                startPos = m.end;
+
+                ReplacementService rService = m.source;
+                boolean isSmiley
+                    = rService instanceof SmiliesReplacementService;
+                boolean isDirectImage
+                    = rService instanceof DirectImageReplacementService;
+                boolean isEnabledForSource
+                    = cfg.getBoolean(
+                    ReplacementProperty.getPropertyName(
+                        rService.getSourceName()), true);
+
+                String group = plainText.substring(m.start, m.end);
+                String temp = engine.getReplacement(rService, group);
+
+                if (!temp.equals(group) || isDirectImage)
                 {
                     if (isSmiley)
                     {
@@ -2291,7 +2466,7 @@ public class ChatConversationPanel
                             msgBuff.append("<IMG SRC=\"");
                             msgBuff.append(temp);
                             msgBuff.append("\" BORDER=\"0\" ALT=\"");
-                            msgBuff.append(group0);
+                            msgBuff.append(group);
                             msgBuff.append("\"></IMG>");
                         }
                         else
@@ -2322,17 +2497,16 @@ public class ChatConversationPanel
                     {
                         if (isDirectImage)
                         {
-                            DirectImageReplacementService service
-                                = (DirectImageReplacementService) rService;
-                            if (service.isDirectImage(group)
-                                && service.getImageSize(group) != -1)
+                            if (engine.isDirectImage(
+                                    (DirectImageReplacementService) rService,
+                                    group))
                             {
                                 msgBuff.append(
                                     "<IMG HEIGHT=\"90\" "
                                         + "WIDTH=\"120\" SRC=\"");
                                 msgBuff.append(temp);
                                 msgBuff.append("\" BORDER=\"0\" ALT=\"");
-                                msgBuff.append(group0);
+                                msgBuff.append(group);
                                 msgBuff.append("\"></IMG>");
                             }
                             else
@@ -2348,7 +2522,7 @@ public class ChatConversationPanel
                                     + "WIDTH=\"120\" SRC=\"");
                             msgBuff.append(temp);
                             msgBuff.append("\" BORDER=\"0\" ALT=\"");
-                            msgBuff.append(group0);
+                            msgBuff.append(group);
                             msgBuff.append("\"></IMG>");
                         }
                     }
@@ -2367,4 +2541,42 @@ public class ChatConversationPanel
                 .substring(startPos)));
         }
     }
+
+    /**
+     * A message appended at the end of the document, queued until the event
+     * dispatch thread inserts it with the messages appended after it.
+     */
+    private class AppendedMessage
+        implements Runnable
+    {
+        /**
+         * The HTML of the message.
+         */
+        private final String message;
+
+        /**
+         * The UID of the last message when the message was appended.
+         */
+        private final String messageUID;
+
+        /**
+         * Creates a message appended at the end of the document.
+         *
+         * @param message the HTML of the message
+         * @param messageUID the UID of the last message
+         */
+        AppendedMessage(String message, String messageUID)
+        {
+            this.message = message;
+            this.messageUID = messageUID;
+        }
+
+        /**
+         * Appends the message alone.
+         */
+        public void run()
+        {
+            appendMessagesToEnd(Collections.singletonList(this));
+        }
+    }
 }
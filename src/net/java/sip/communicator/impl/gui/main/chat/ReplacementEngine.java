@@ -0,0 +1,367 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package net.java.sip.communicator.impl.gui.main.chat;
+
+import java.util.*;
+import java.util.regex.*;
+
+import net.java.sip.communicator.service.replacement.*;
+import net.java.sip.communicator.service.replacement.directimage.*;
+import net.java.sip.communicator.service.replacement.smilies.*;
+import net.java.sip.communicator.util.*;
+
+/**
+ * Finds the text matched by all the registered <tt>ReplacementService</tt>s
+ * in a single scan. The patterns of the sources are compiled once into one
+ * alternation, except the smileys which are matched by a
+ * <tt>SmileyTrie</tt>, and the engine is compiled again only when the
+ * sources or their patterns change.
+ * <p>
+ * The sources claim their matches first, the direct image source after the
+ * others since it matches any image link, and the smileys are searched in
+ * the text left between them. The replacements of the sources, which may
+ * need to fetch a preview over the network, are kept for the most recently
+ * matched links.
+ */
+class ReplacementEngine
+{
+    /**
+     * The <tt>Logger</tt> used by the <tt>ReplacementEngine</tt> class for
+     * logging output.
+     */
+    private static final Logger logger
+        = Logger.getLogger(ReplacementEngine.class);
+
+    /**
+     * The number of links which replacements are kept.
+     */
+    private static final int REPLACEMENT_CACHE_SIZE = 256;
+
+    /**
+     * The engine compiled from the current sources.
+     */
+    private static ReplacementEngine current;
+
+    /**
+     * The sources the engine was compiled from.
+     */
+    private final List<ReplacementService> sources;
+
+    /**
+     * The patterns of <tt>sources</tt> when the engine was compiled.
+     */
+    private final List<String> patterns;
+
+    /**
+     * The sources of the alternatives of <tt>pattern</tt>, in the order of
+     * the alternatives.
+     */
+    private final List<ReplacementService> patternSources
+        = new ArrayList<ReplacementService>();
+
+    /**
+     * The group of every alternative of <tt>pattern</tt>.
+     */
+    private final List<Integer> patternGroups = new ArrayList<Integer>();
+
+    /**
+     * The alternation of the patterns of the sources which are not smileys
+     * or <tt>null</tt> if there are no such sources.
+     */
+    private final Pattern pattern;
+
+    /**
+     * The smiley source or <tt>null</tt> if there is none.
+     */
+    private final SmiliesReplacementService smileySource;
+
+    /**
+     * The automaton of the smiley strings or <tt>null</tt> if there is no
+     * smiley source.
+     */
+    private final SmileyTrie smileyTrie;
+
+    /**
+     * The replacements of the last matched links by source and link.
+     */
+    private final Map<String, String> replacements
+        = new LinkedHashMap<String, String>(16, 0.75f, true)
+        {
+            private static final long serialVersionUID = 0L;
+
+            @Override
+            protected boolean removeEldestEntry(
+                    Map.Entry<String, String> eldest)
+            {
+                return size() > REPLACEMENT_CACHE_SIZE;
+            }
+        };
+
+    /**
+     * Returns the engine of a set of sources, compiling it if the sources or
+     * their patterns changed since the last engine was compiled.
+     *
+     * @param sources the replacement sources.
+     * @return the engine of <tt>sources</tt>.
+     */
+    static synchronized ReplacementEngine getInstance(
+            Collection<ReplacementService> sources)
+    {
+        List<ReplacementService> sourceList
+            = new ArrayList<ReplacementService>(sources);
+        List<String> patternList = new ArrayList<String>(sourceList.size());
+
+        for (ReplacementService source : sourceList)
+            patternList.add(source.getPattern());
+
+        if (current == null
+            || !current.sources.equals(sourceList)
+            || !current.patterns.equals(patternList))
+        {
+            current = new ReplacementEngine(sourceList, patternList);
+        }
+        return current;
+    }
+
+    /**
+     * Compiles the engine of a set of sources.
+     *
+     * @param sources the replacement sources.
+     * @param patterns the patterns of <tt>sources</tt>.
+     */
+    private ReplacementEngine(List<ReplacementService> sources,
+                              List<String> patterns)
+    {
+        this.sources = sources;
+        this.patterns = patterns;
+
+        // the direct image source matches the links of the other sources
+        List<Integer> order = new ArrayList<Integer>();
+        for (int i = 0; i < sources.size(); i++)
+        {
+            if (!(sources.get(i) instanceof DirectImageReplacementService))
+                order.add(i);
+        }
+        for (int i = 0; i < sources.size(); i++)
+        {
+            if (sources.get(i) instanceof DirectImageReplacementService)
+                order.add(i);
+        }
+
+        SmiliesReplacementService smileySource = null;
+        StringBuilder alternation = new StringBuilder();
+        int group = 1;
+
+        for (int i : order)
+        {
+            ReplacementService source = sources.get(i);
+            String sourcePattern = patterns.get(i);
+
+            if (source instanceof SmiliesReplacementService)
+            {
+                smileySource = (SmiliesReplacementService) source;
+                continue;
+            }
+
+            int groupCount;
+            try
+            {
+                groupCount = Pattern.compile(sourcePattern)
+                    .matcher("").groupCount();
+            }
+            catch (PatternSyntaxException e)
+            {
+                logger.error(
+                    "Invalid pattern of replacement source "
+                        + source.getSourceName(),
+                    e);
+                continue;
+            }
+
+            if (alternation.length() > 0)
+                alternation.append('|');
+            alternation.append('(').append(sourcePattern).append(')');
+            patternSources.add(source);
+            patternGroups.add(group);
+            group += groupCount + 1;
+        }
+
+        this.pattern = (alternation.length() == 0)
+            ? null
+            : Pattern.compile(
+                alternation.toString(),
+                Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+        this.smileySource = smileySource;
+
+        if (smileySource == null)
+            this.smileyTrie = null;
+        else
+        {
+            List<String> smileyStrings = new ArrayList<String>();
+
+            for (Smiley smiley : smileySource.getSmiliesPack())
+                smileyStrings.addAll(smiley.getSmileyStrings());
+            this.smileyTrie = new SmileyTrie(smileyStrings);
+        }
+    }
+
+    /**
+     * Finds the text to replace in a piece of plain text.
+     *
+     * @param text the plain text.
+     * @return the matches in the order of the text, they do not overlap.
+     */
+    List<Match> match(String text)
+    {
+        List<Match> matches = new ArrayList<Match>();
+        int start = 0;
+
+        if (pattern != null)
+        {
+            Matcher m = pattern.matcher(text);
+
+            while (m.find())
+            {
+                if (m.start() == m.end())
+                    continue;
+
+                addSmileys(text, start, m.start(), matches);
+                matches.add(
+                    new Match(m.start(), m.end(), getPatternSource(m)));
+                start = m.end();
+            }
+        }
+        addSmileys(text, start, text.length(), matches);
+        return matches;
+    }
+
+    /**
+     * Returns the replacement of a text matched for a source, kept for the
+     * sources which are not smileys.
+     *
+     * @param source the source.
+     * @param text the matched text.
+     * @return the replacement of <tt>text</tt>.
+     */
+    String getReplacement(ReplacementService source, String text)
+    {
+        if (source instanceof SmiliesReplacementService)
+            return source.getReplacement(text);
+
+        String key = source.getSourceName() + '\n' + text;
+        String replacement;
+
+        synchronized (replacements)
+        {
+            replacement = replacements.get(key);
+        }
+        if (replacement == null)
+        {
+            replacement = source.getReplacement(text);
+            synchronized (replacements)
+            {
+                replacements.put(key, replacement);
+            }
+        }
+        return replacement;
+    }
+
+    /**
+     * Returns whether a link matched by the direct image source is an image
+     * which size is known, the answer being kept like the replacements.
+     *
+     * @param source the direct image source.
+     * @param link the matched link.
+     * @return whether <tt>link</tt> is an image which size is known.
+     */
+    boolean isDirectImage(DirectImageReplacementService source, String link)
+    {
+        String key = source.getSourceName() + "\n?" + link;
+        String answer;
+
+        synchronized (replacements)
+        {
+            answer = replacements.get(key);
+        }
+        if (answer == null)
+        {
+            answer = String.valueOf(
+                source.isDirectImage(link)
+                    && source.getImageSize(link) != -1);
+            synchronized (replacements)
+            {
+                replacements.put(key, answer);
+            }
+        }
+        return Boolean.parseBoolean(answer);
+    }
+
+    /**
+     * Adds the smileys of a part of a text to the matches.
+     *
+     * @param text the text.
+     * @param from the start of the part.
+     * @param to the end (exclusive) of the part.
+     * @param matches the list to add the matches to.
+     */
+    private void addSmileys(String text, int from, int to, List<Match> matches)
+    {
+        if (smileyTrie == null)
+            return;
+
+        List<Integer> starts = new ArrayList<Integer>();
+        List<Integer> ends = new ArrayList<Integer>();
+
+        smileyTrie.find(text, from, to, starts, ends);
+        for (int i = 0; i < starts.size(); i++)
+            matches.add(new Match(starts.get(i), ends.get(i), smileySource));
+    }
+
+    /**
+     * Returns the source of the alternative which matched.
+     *
+     * @param m the matcher of <tt>pattern</tt> after a match.
+     * @return the source of the matched alternative.
+     */
+    private ReplacementService getPatternSource(Matcher m)
+    {
+        for (int i = patternGroups.size() - 1; i > 0; i--)
+        {
+            if (m.start(patternGroups.get(i)) != -1)
+                return patternSources.get(i);
+        }
+        return patternSources.get(0);
+    }
+
+    /**
+     * A piece of text to replace.
+     */
+    static class Match
+    {
+        /**
+         * The start of the matched text.
+         */
+        final int start;
+
+        /**
+         * The end (exclusive) of the matched text.
+         */
+        final int end;
+
+        /**
+         * The source which matched the text.
+         */
+        final ReplacementService source;
+
+        Match(int start, int end, ReplacementService source)
+        {
+            this.start = start;
+            this.end = end;
+            this.source = source;
+        }
+    }
+}
@@ -0,0 +1,223 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package net.java.sip.communicator.impl.gui.main.chat;
+
+import java.util.*;
+
+/**
+ * An Aho-Corasick automaton over the smiley strings, finding all the
+ * smileys of a text in a single scan whatever the number of smileys in the
+ * pack. Like the smiley regular expression it replaces, matching ignores
+ * the case of ASCII letters and a smiley preceded by <tt>alt='</tt> or
+ * <tt>alt="</tt> is not matched. When smileys overlap, the leftmost one is
+ * matched and the longest of the smileys starting there.
+ */
+class SmileyTrie
+{
+    /**
+     * The root of the trie.
+     */
+    private final Node root = new Node();
+
+    /**
+     * The length of the longest smiley string.
+     */
+    private int maxLength = 0;
+
+    /**
+     * Creates the automaton of a set of smiley strings.
+     *
+     * @param smileyStrings the smiley strings.
+     */
+    SmileyTrie(Collection<String> smileyStrings)
+    {
+        for (String smileyString : smileyStrings)
+            add(smileyString);
+        link();
+    }
+
+    /**
+     * Adds a smiley string to the trie.
+     *
+     * @param smileyString the smiley string.
+     */
+    private void add(String smileyString)
+    {
+        if (smileyString == null || smileyString.length() == 0)
+            return;
+
+        Node node = root;
+
+        for (int i = 0; i < smileyString.length(); i++)
+        {
+            Character c = toLowerCase(smileyString.charAt(i));
+            Node next = node.next.get(c);
+
+            if (next == null)
+            {
+                next = new Node();
+                node.next.put(c, next);
+            }
+            node = next;
+        }
+        node.length = smileyString.length();
+        maxLength = Math.max(maxLength, node.length);
+    }
+
+    /**
+     * Sets the failure and the output links of the nodes, breadth first so
+     * the links of the shorter prefixes are set first.
+     */
+    private void link()
+    {
+        LinkedList<Node> queue = new LinkedList<Node>();
+
+        for (Node child : root.next.values())
+        {
+            child.fail = root;
+            queue.add(child);
+        }
+        while (!queue.isEmpty())
+        {
+            Node node = queue.removeFirst();
+
+            for (Map.Entry<Character, Node> e : node.next.entrySet())
+            {
+                Node child = e.getValue();
+                Node fail = node.fail;
+
+                while (fail != null && !fail.next.containsKey(e.getKey()))
+                    fail = fail.fail;
+                child.fail = (fail == null) ? root : fail.next.get(e.getKey());
+                child.output
+                    = (child.fail.length > 0) ? child.fail : child.fail.output;
+                queue.add(child);
+            }
+        }
+    }
+
+    /**
+     * Finds the smileys in a part of a text.
+     *
+     * @param text the text.
+     * @param from the start of the part to search.
+     * @param to the end (exclusive) of the part to search.
+     * @param starts the list to add the start of every match to.
+     * @param ends the list to add the end (exclusive) of every match to.
+     */
+    void find(String text, int from, int to,
+              List<Integer> starts, List<Integer> ends)
+    {
+        if (maxLength == 0 || from >= to)
+            return;
+
+        // the length of the longest smiley starting at every position
+        int[] longest = new int[to - from];
+        boolean found = false;
+        Node node = root;
+
+        for (int i = from; i < to; i++)
+        {
+            Character c = toLowerCase(text.charAt(i));
+
+            while (node != root && !node.next.containsKey(c))
+                node = node.fail;
+            node = node.next.containsKey(c) ? node.next.get(c) : root;
+
+            for (Node match = (node.length > 0) ? node : node.output;
+                    match != null;
+                    match = match.output)
+            {
+                int start = i + 1 - match.length;
+
+                if (match.length > longest[start - from])
+                {
+                    longest[start - from] = match.length;
+                    found = true;
+                }
+            }
+        }
+        if (!found)
+            return;
+
+        for (int i = from; i < to;)
+        {
+            int length = longest[i - from];
+
+            if (length > 0 && !isAltValue(text, i))
+            {
+                starts.add(i);
+                ends.add(i + length);
+                i += length;
+            }
+            else
+                i++;
+        }
+    }
+
+    /**
+     * Checks whether a position of a text follows the start of an
+     * <tt>alt</tt> attribute value.
+     *
+     * @param text the text.
+     * @param index the position.
+     * @return whether <tt>index</tt> follows <tt>alt='</tt> or
+     * <tt>alt="</tt>.
+     */
+    private static boolean isAltValue(String text, int index)
+    {
+        if (index < 5 || !text.regionMatches(true, index - 5, "alt=", 0, 4))
+            return false;
+
+        char quote = text.charAt(index - 1);
+
+        return quote == '\'' || quote == '"';
+    }
+
+    /**
+     * Lower cases an ASCII letter, as the smiley regular expression was
+     * matched case insensitively for ASCII letters only.
+     *
+     * @param c the character.
+     * @return the lower case letter if <tt>c</tt> is an upper case ASCII
+     * letter, otherwise <tt>c</tt>.
+     */
+    private static Character toLowerCase(char c)
+    {
+        return (c >= 'A' && c <= 'Z') ? (char) (c + ('a' - 'A')) : c;
+    }
+
+    /**
+     * A node of the trie, the state reached after reading a prefix of some
+     * smiley strings.
+     */
+    private static class Node
+    {
+        /**
+         * The children by character.
+         */
+        final Map<Character, Node> next = new HashMap<Character, Node>();
+
+        /**
+         * The node of the longest proper suffix of the prefix which is a
+         * prefix in the trie.
+         */
+        Node fail;
+
+        /**
+         * The node of the longest proper suffix of the prefix which is a
+         * smiley string.
+         */
+        Node output;
+
+        /**
+         * The length of the smiley string ending at this node or 0 if the
+         * prefix is not a smiley string.
+         */
+        int length = 0;
+    }
+}
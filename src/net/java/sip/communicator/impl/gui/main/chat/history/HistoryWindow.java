@@ -451,14 +451,18 @@ public class HistoryWindow
         @Override
         public void run()
         {
-            Collection<Object> msgList = null;
+            // only the days are needed here, the messages are loaded when
+            // their day is selected
+            SortedMap<Date, Integer> msgCounts = null;
 
             if (historyContact instanceof MetaContact)
             {
-                msgList = history.findByEndDate(
+                msgCounts = history.countRecordsByPeriod(
                     HISTORY_FILTER,
                     historyContact,
-                    new Date(System.currentTimeMillis()));
+                    null,
+                    new Date(System.currentTimeMillis()),
+                    Calendar.DAY_OF_MONTH);
             }
             else if(historyContact instanceof ChatRoomWrapper)
             {
@@ -468,64 +472,18 @@ public class HistoryWindow
                 if(chatRoomWrapper.getChatRoom() == null)
                     return;
 
-                msgList = history.findByEndDate(
+                msgCounts = history.countRecordsByPeriod(
                     HISTORY_FILTER,
                     chatRoomWrapper.getChatRoom(),
-                    new Date(System.currentTimeMillis()));
+                    null,
+                    new Date(System.currentTimeMillis()),
+                    Calendar.DAY_OF_MONTH);
             }
 
-            if (msgList != null)
-            for (Object o : msgList)
-            {
-                Date date = new Date(0);
+            if (msgCounts != null)
+                datesDisplayed.addAll(msgCounts.keySet());
 
-                if (o instanceof MessageDeliveredEvent)
-                {
-                    MessageDeliveredEvent evt = (MessageDeliveredEvent)o;
-                    date = evt.getTimestamp();
-                }
-                else if (o instanceof MessageReceivedEvent)
-                {
-                    MessageReceivedEvent evt = (MessageReceivedEvent)o;
-                    date = evt.getTimestamp();
-                }
-                else if (o instanceof ChatRoomMessageReceivedEvent)
-                {
-                    ChatRoomMessageReceivedEvent
-                        evt = (ChatRoomMessageReceivedEvent) o;
-                    date = evt.getTimestamp();
-                }
-                else if (o instanceof ChatRoomMessageDeliveredEvent)
-                {
-                    ChatRoomMessageDeliveredEvent
-                        evt = (ChatRoomMessageDeliveredEvent) o;
-                    date = evt.getTimestamp();
-                }
-                else if (o instanceof FileRecord)
-                {
-                    FileRecord fileRecord = (FileRecord) o;
-                    date = fileRecord.getDate();
-                }
-
-                boolean containsDate = false;
-                Iterator<Date> iterator = datesDisplayed.iterator();
-                while(iterator.hasNext())
-                {
-                    Date currDate = iterator.next();
-                    containsDate
-                        = (GuiUtils.compareDatesOnly(date, currDate) == 0);
-
-                    if(containsDate)
-                        break;
-                }
-
-                if(!containsDate)
-                {
-                    datesDisplayed.add(date);
-                }
-            }
-
-            if((msgList != null) && (msgList.size() > 0))
+            if((msgCounts != null) && (msgCounts.size() > 0))
             {
                 Runnable updateDatesPanel = new Runnable() {
                     public void run() {
@@ -674,11 +632,9 @@ public class HistoryWindow
                     date = evt.getTimestamp();
                 }
 
-                long milisecondsPerDay = 24*60*60*1000;
                 for(Date date1 : datesDisplayed)
                 {
-                    if(Math.floor(date1.getTime()/milisecondsPerDay)
-                        == Math.floor(date.getTime()/milisecondsPerDay)
+                    if(GuiUtils.compareDatesOnly(date1, date) == 0
                         && !keywordDatesVector.contains(date1))
                     {
                         keywordDatesVector.add(date1);
@@ -85,6 +85,12 @@ public class MetaContactListSource
     private static final Logger logger
         = Logger.getLogger(MetaContactListSource.class);
 
+    /**
+     * The index finding the meta contacts matching a filter.
+     */
+    private final MetaContactSearchIndex searchIndex
+        = new MetaContactSearchIndex();
+
     /**
      * Returns the <tt>UIContact</tt> corresponding to the given
      * <tt>MetaContact</tt>.
@@ -186,10 +192,12 @@ public class MetaContactListSource
     /**
      * Starts the query.
      * 
-     * @param filterPattern the pattern to filter through
      * @param query the query to be started
+     * @param filterString the string to filter through
+     * @param filterPattern the pattern matching <tt>filterString</tt>
      */
     public void startQuery(final MetaContactQuery query,
+        final String filterString,
         final Pattern filterPattern)
     {
         new Thread()
@@ -197,11 +205,7 @@ public class MetaContactListSource
             @Override
             public void run()
             {
-                int resultCount = 0;
-                queryMetaContactSource( filterPattern,
-                        GuiActivator.getContactListService().getRoot(),
-                        query,
-                        resultCount);
+                queryMetaContactIndex(filterString, filterPattern, query);
 
                 if (!query.isCanceled())
                     query.fireQueryEvent(
@@ -213,6 +217,42 @@ public class MetaContactListSource
         }.start();
     }
 
+    /**
+     * Finds the <tt>MetaContact</tt>s matching the given
+     * <tt>filterPattern</tt> in the search index and stores the result in
+     * the contact list.
+     * @param filterString the string to filter through
+     * @param filterPattern the pattern matching <tt>filterString</tt>
+     * @param query the object that tracks the query
+     */
+    private void queryMetaContactIndex(String filterString,
+                                       Pattern filterPattern,
+                                       MetaContactQuery query)
+    {
+        List<MetaContact> metaContacts
+            = searchIndex.find(
+                    filterString,
+                    filterPattern,
+                    GuiActivator.getContactListService().getRoot());
+        int resultCount = 0;
+
+        for (MetaContact metaContact : metaContacts)
+        {
+            if (query.isCanceled())
+                return;
+
+            MetaContactGroup parentGroup
+                = metaContact.getParentMetaContactGroup();
+
+            // removed from the list since it was found
+            if (parentGroup == null)
+                continue;
+
+            resultCount++;
+            addMatchingContact(metaContact, parentGroup, query, resultCount);
+        }
+    }
+
     /**
      * Filters the children in the given <tt>MetaContactGroup</tt> to match the
      * given <tt>filterPattern</tt> and stores the result in the given
@@ -237,48 +277,8 @@ public class MetaContactListSource
             if (isMatching(filterPattern, metaContact))
             {
                 resultCount++;
-
-                if (resultCount <= INITIAL_CONTACT_COUNT)
-                {
-                    UIGroup uiGroup = null;
-                    if (!MetaContactListSource.isRootGroup(parentGroup))
-                    {
-                        synchronized (parentGroup)
-                        {
-                            uiGroup = MetaContactListSource
-                                .getUIGroup(parentGroup);
-                            if (uiGroup == null)
-                                uiGroup = MetaContactListSource
-                                    .createUIGroup(parentGroup);
-                        }
-                    }
-
-                    UIContact newUIContact;
-                    synchronized (metaContact)
-                    {
-                        newUIContact 
-                            = MetaContactListSource.getUIContact(metaContact);
-    
-                        if (newUIContact == null)
-                        {
-                            newUIContact
-                                = MetaContactListSource
-                                    .createUIContact(metaContact);
-                        }
-                        
-                        GuiActivator.getContactList().addContact(
-                            newUIContact,
-                            uiGroup,
-                            true,
-                            true);
-                    }
-                    
-                    query.setInitialResultCount(resultCount);
-                }
-                else
-                {
-                    query.fireQueryEvent(metaContact);
-                }
+                addMatchingContact(
+                    metaContact, parentGroup, query, resultCount);
             }
         }
 
@@ -295,6 +295,62 @@ public class MetaContactListSource
         }
     }
 
+    /**
+     * Adds a <tt>MetaContact</tt> matching a query to the contact list if it
+     * is one of the initial results, otherwise notifies the query.
+     * @param metaContact the matching <tt>MetaContact</tt>
+     * @param parentGroup the parent group of <tt>metaContact</tt>
+     * @param query the object that tracks the query
+     * @param resultCount the number of matching contacts so far
+     */
+    private void addMatchingContact(MetaContact metaContact,
+                                    MetaContactGroup parentGroup,
+                                    MetaContactQuery query,
+                                    int resultCount)
+    {
+        if (resultCount <= INITIAL_CONTACT_COUNT)
+        {
+            UIGroup uiGroup = null;
+            if (!MetaContactListSource.isRootGroup(parentGroup))
+            {
+                synchronized (parentGroup)
+                {
+                    uiGroup = MetaContactListSource
+                        .getUIGroup(parentGroup);
+                    if (uiGroup == null)
+                        uiGroup = MetaContactListSource
+                            .createUIGroup(parentGroup);
+                }
+            }
+
+            UIContact newUIContact;
+            synchronized (metaContact)
+            {
+                newUIContact 
+                    = MetaContactListSource.getUIContact(metaContact);
+
+                if (newUIContact == null)
+                {
+                    newUIContact
+                        = MetaContactListSource
+                            .createUIContact(metaContact);
+                }
+                
+                GuiActivator.getContactList().addContact(
+                    newUIContact,
+                    uiGroup,
+                    true,
+                    true);
+            }
+            
+            query.setInitialResultCount(resultCount);
+        }
+        else
+        {
+            query.fireQueryEvent(metaContact);
+        }
+    }
+
     /**
      * Checks if the given <tt>metaContact</tt> is matching the given
      * <tt>filterPattern</tt>.
@@ -308,7 +364,7 @@ public class MetaContactListSource
      * @return <tt>true</tt> to indicate that the given <tt>metaContact</tt> is
      * matching the current filter, otherwise returns <tt>false</tt>
      */
-    private boolean isMatching(Pattern filterPattern, MetaContact metaContact)
+    static boolean isMatching(Pattern filterPattern, MetaContact metaContact)
     {
         Matcher matcher = filterPattern.matcher(metaContact.getDisplayName());
 
@@ -498,6 +554,8 @@ public class MetaContactListSource
     private void metaContactAdded(final MetaContact metaContact,
                                  final MetaContactGroup parentGroup)
     {
+        searchIndex.update(metaContact);
+
         UIContactImpl uiContact;
 
         synchronized (metaContact)
@@ -546,6 +604,9 @@ public class MetaContactListSource
     {
         final MetaContactGroup metaGroup = evt.getSourceMetaContactGroup();
 
+        // the meta contacts of the group are added without events
+        searchIndex.updateGroup(metaGroup);
+
         UIGroup uiGroup;
 
         synchronized (metaGroup)
@@ -593,6 +654,10 @@ public class MetaContactListSource
     {
         final MetaContactGroup metaGroup = evt.getSourceMetaContactGroup();
 
+        // the meta contacts of a protocol group added to the group are
+        // added without events
+        searchIndex.updateGroup(metaGroup);
+
         UIGroupImpl uiGroup;
         synchronized (metaGroup)
         {
@@ -623,6 +688,9 @@ public class MetaContactListSource
     {
         MetaContactGroup metaGroup = evt.getSourceMetaContactGroup();
 
+        // the meta contacts of the group are removed without events
+        searchIndex.invalidate();
+
         UIGroup uiGroup;
         synchronized (metaGroup)
         {
@@ -752,6 +820,8 @@ public class MetaContactListSource
     {
         MetaContact metaContact = evt.getSourceMetaContact();
 
+        searchIndex.remove(metaContact);
+
         UIContact uiContact;
         synchronized (metaContact)
         {
@@ -772,6 +842,8 @@ public class MetaContactListSource
     {
         MetaContact metaContact = evt.getSourceMetaContact();
 
+        searchIndex.update(metaContact);
+
         UIContactImpl uiContact;
         synchronized (metaContact)
         {
@@ -827,6 +899,8 @@ public class MetaContactListSource
     {
         final MetaContact metaContact = evt.getNewParent();
 
+        searchIndex.update(metaContact);
+
         UIContact parentUIContact;
         boolean parentUIContactCreated = false;
         synchronized (metaContact)
@@ -884,6 +958,8 @@ public class MetaContactListSource
     {
         MetaContact metaContact = evt.getNewParent();
 
+        searchIndex.update(metaContact);
+
         UIContactImpl uiContact;
         synchronized (metaContact)
         {
@@ -912,6 +988,9 @@ public class MetaContactListSource
         final MetaContact oldParent = evt.getOldParent();
         final MetaContact newParent = evt.getNewParent();
 
+        searchIndex.update(oldParent);
+        searchIndex.update(newParent);
+
         UIContact oldUIContact;
         synchronized (oldParent)
         {
@@ -984,6 +1063,8 @@ public class MetaContactListSource
     {
         final MetaContact oldParent = evt.getOldParent();
 
+        searchIndex.update(oldParent);
+
         UIContactImpl oldUIContact;
         synchronized (oldParent)
         {
@@ -0,0 +1,402 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package net.java.sip.communicator.impl.gui.main.contactlist.contactsource;
+
+import java.util.*;
+import java.util.regex.*;
+
+import net.java.sip.communicator.service.contactlist.*;
+import net.java.sip.communicator.service.protocol.*;
+
+/**
+ * An index of the trigrams of the display names and addresses of the
+ * <tt>MetaContact</tt>s and of their protocol contacts, which finds the meta
+ * contacts matching a filter string without checking all of them.
+ * <p>
+ * A meta contact which contains the filter string contains all of its
+ * trigrams, so the meta contacts having all of them are the only candidates
+ * and are then checked against the filter pattern. When the filter string
+ * extends the previous one, as it does while it is typed, the candidates are
+ * the previous results. Filter strings shorter than a trigram, which are
+ * only typed first, check all the meta contacts.
+ * <p>
+ * The index is built the first time it is searched and then updated by the
+ * <tt>MetaContactListSource</tt> as the meta contact list changes.
+ */
+class MetaContactSearchIndex
+{
+    /**
+     * The length of the indexed substrings.
+     */
+    private static final int GRAM_LENGTH = 3;
+
+    /**
+     * The meta contacts by id, <tt>null</tt> for a removed meta contact or
+     * an old version of an updated one.
+     */
+    private final List<MetaContact> contacts = new ArrayList<MetaContact>();
+
+    /**
+     * The current id of every indexed meta contact.
+     */
+    private final Map<MetaContact, Integer> ids
+        = new HashMap<MetaContact, Integer>();
+
+    /**
+     * The ids of the meta contacts containing each trigram, in increasing
+     * order.
+     */
+    private final Map<String, Postings> postings
+        = new HashMap<String, Postings>();
+
+    /**
+     * Whether the meta contact list has been indexed.
+     */
+    private boolean built = false;
+
+    /**
+     * The folded previous filter string or <tt>null</tt> if the meta contact
+     * list has changed since.
+     */
+    private String lastQuery;
+
+    /**
+     * The meta contacts which matched the previous filter string.
+     */
+    private List<MetaContact> lastResults;
+
+    /**
+     * Finds the meta contacts matching a filter.
+     *
+     * @param filterString the filter string
+     * @param filterPattern the pattern matching the filter string
+     * @param root the root group of the meta contact list, indexed the first
+     * time
+     * @return the meta contacts matching <tt>filterPattern</tt>
+     */
+    synchronized List<MetaContact> find(String filterString,
+                                        Pattern filterPattern,
+                                        MetaContactGroup root)
+    {
+        if (!built)
+        {
+            add(root);
+            built = true;
+        }
+
+        String query = fold(filterString);
+        Collection<MetaContact> candidates;
+
+        if (lastQuery != null && query.contains(lastQuery))
+            candidates = lastResults;
+        else if (query.length() < GRAM_LENGTH)
+            candidates = ids.keySet();
+        else
+            candidates = getCandidates(query);
+
+        List<MetaContact> results = new ArrayList<MetaContact>();
+
+        for (MetaContact metaContact : candidates)
+        {
+            if (MetaContactListSource.isMatching(filterPattern, metaContact))
+                results.add(metaContact);
+        }
+
+        lastQuery = query;
+        lastResults = results;
+        return new ArrayList<MetaContact>(results);
+    }
+
+    /**
+     * Indexes again a meta contact which has been added or which has changed,
+     * if the meta contact list has been indexed.
+     *
+     * @param metaContact the meta contact
+     */
+    synchronized void update(MetaContact metaContact)
+    {
+        if (!built)
+            return;
+
+        removeId(metaContact);
+        // the events of a meta contact may follow its removal
+        if (metaContact.getParentMetaContactGroup() != null)
+            addId(metaContact);
+        lastQuery = null;
+    }
+
+    /**
+     * Indexes again all the meta contacts of a group and of its subgroups,
+     * which may have been added to the group without meta contact events.
+     *
+     * @param group the group
+     */
+    synchronized void updateGroup(MetaContactGroup group)
+    {
+        if (!built)
+            return;
+
+        Iterator<MetaContact> childContacts = group.getChildContacts();
+
+        while (childContacts.hasNext())
+        {
+            MetaContact metaContact = childContacts.next();
+
+            removeId(metaContact);
+            addId(metaContact);
+        }
+
+        Iterator<MetaContactGroup> subgroups = group.getSubgroups();
+
+        while (subgroups.hasNext())
+            updateGroup(subgroups.next());
+        lastQuery = null;
+    }
+
+    /**
+     * Removes a meta contact from the index.
+     *
+     * @param metaContact the meta contact
+     */
+    synchronized void remove(MetaContact metaContact)
+    {
+        if (!built)
+            return;
+
+        removeId(metaContact);
+        lastQuery = null;
+    }
+
+    /**
+     * Drops the index, which is built again the next time it is searched.
+     */
+    synchronized void invalidate()
+    {
+        contacts.clear();
+        ids.clear();
+        postings.clear();
+        built = false;
+        lastQuery = null;
+        lastResults = null;
+    }
+
+    /**
+     * Indexes all the meta contacts of a group and of its subgroups.
+     *
+     * @param group the group
+     */
+    private void add(MetaContactGroup group)
+    {
+        Iterator<MetaContact> childContacts = group.getChildContacts();
+
+        while (childContacts.hasNext())
+            addId(childContacts.next());
+
+        Iterator<MetaContactGroup> subgroups = group.getSubgroups();
+
+        while (subgroups.hasNext())
+            add(subgroups.next());
+    }
+
+    /**
+     * Indexes a meta contact under a new id.
+     *
+     * @param metaContact the meta contact
+     */
+    private void addId(MetaContact metaContact)
+    {
+        int id = contacts.size();
+        Set<String> grams = new HashSet<String>();
+
+        addGrams(metaContact.getDisplayName(), grams);
+
+        Iterator<Contact> protoContacts = metaContact.getContacts();
+
+        while (protoContacts.hasNext())
+        {
+            Contact contact = protoContacts.next();
+
+            addGrams(contact.getDisplayName(), grams);
+            addGrams(contact.getAddress(), grams);
+        }
+
+        contacts.add(metaContact);
+        ids.put(metaContact, id);
+        for (String gram : grams)
+        {
+            Postings gramPostings = postings.get(gram);
+
+            if (gramPostings == null)
+            {
+                gramPostings = new Postings();
+                postings.put(gram, gramPostings);
+            }
+            gramPostings.add(id);
+        }
+    }
+
+    /**
+     * Removes the id of a meta contact. The id stays in the postings until
+     * the index is compacted, when there are more removed ids than meta
+     * contacts.
+     *
+     * @param metaContact the meta contact
+     */
+    private void removeId(MetaContact metaContact)
+    {
+        Integer id = ids.remove(metaContact);
+
+        if (id == null)
+            return;
+
+        contacts.set(id, null);
+
+        if (contacts.size() > 2 * ids.size() + 64)
+        {
+            List<MetaContact> live = new ArrayList<MetaContact>(ids.keySet());
+
+            contacts.clear();
+            ids.clear();
+            postings.clear();
+            for (MetaContact liveContact : live)
+                addId(liveContact);
+        }
+    }
+
+    /**
+     * Returns the meta contacts containing all the trigrams of a query.
+     *
+     * @param query the folded query
+     * @return the meta contacts containing all the trigrams of
+     * <tt>query</tt>
+     */
+    private List<MetaContact> getCandidates(String query)
+    {
+        Set<String> grams = new HashSet<String>();
+
+        addGrams(query, grams);
+
+        Postings shortest = null;
+        List<Postings> others = new ArrayList<Postings>(grams.size());
+
+        for (String gram : grams)
+        {
+            Postings gramPostings = postings.get(gram);
+
+            if (gramPostings == null)
+                return Collections.emptyList();
+            if (shortest == null || gramPostings.size < shortest.size)
+            {
+                if (shortest != null)
+                    others.add(shortest);
+                shortest = gramPostings;
+            }
+            else
+                others.add(gramPostings);
+        }
+
+        List<MetaContact> candidates = new ArrayList<MetaContact>();
+
+        for (int i = 0; i < shortest.size; i++)
+        {
+            int id = shortest.ids[i];
+            MetaContact metaContact = contacts.get(id);
+
+            if (metaContact == null)
+                continue;
+
+            boolean inAll = true;
+
+            for (Postings other : others)
+            {
+                if (!other.contains(id))
+                {
+                    inAll = false;
+                    break;
+                }
+            }
+            if (inAll)
+                candidates.add(metaContact);
+        }
+        return candidates;
+    }
+
+    /**
+     * Adds the trigrams of a string.
+     *
+     * @param s the string
+     * @param grams the set to add the trigrams to
+     */
+    private static void addGrams(String s, Set<String> grams)
+    {
+        if (s == null)
+            return;
+
+        String folded = fold(s);
+
+        for (int i = 0; i + GRAM_LENGTH <= folded.length(); i++)
+            grams.add(folded.substring(i, i + GRAM_LENGTH));
+    }
+
+    /**
+     * Folds the case of a string the way a case insensitive pattern compares
+     * the characters.
+     *
+     * @param s the string
+     * @return the folded string, of the same length as <tt>s</tt>
+     */
+    private static String fold(String s)
+    {
+        char[] chars = s.toCharArray();
+
+        for (int i = 0; i < chars.length; i++)
+        {
+            chars[i]
+                = Character.toLowerCase(Character.toUpperCase(chars[i]));
+        }
+        return new String(chars);
+    }
+
+    /**
+     * The increasing ids of the meta contacts containing a trigram.
+     */
+    private static class Postings
+    {
+        /**
+         * The ids, only the first <tt>size</tt> of them are used.
+         */
+        int[] ids = new int[2];
+
+        /**
+         * The number of ids.
+         */
+        int size = 0;
+
+        /**
+         * Adds an id greater than all the others.
+         *
+         * @param id the id
+         */
+        void add(int id)
+        {
+            if (size == ids.length)
+                ids = Arrays.copyOf(ids, 2 * size);
+            ids[size++] = id;
+        }
+
+        /**
+         * Checks whether an id is in the postings.
+         *
+         * @param id the id
+         * @return whether <tt>id</tt> is in the postings
+         */
+        boolean contains(int id)
+        {
+            return Arrays.binarySearch(ids, 0, size, id) >= 0;
+        }
+    }
+}
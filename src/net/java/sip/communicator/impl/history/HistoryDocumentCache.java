@@ -0,0 +1,238 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package net.java.sip.communicator.impl.history;
+
+import java.io.*;
+import java.util.*;
+
+import net.java.sip.communicator.service.history.*;
+
+import org.w3c.dom.*;
+
+/**
+ * A least recently used cache of parsed history documents shared by all
+ * histories. The cache is bounded both by a number of documents and by the
+ * estimated memory used by them. Evicted documents are parsed again from
+ * their file when needed. The documents writers append to are pinned and
+ * never evicted, as a copy parsed again would miss their changes.
+ */
+public class HistoryDocumentCache
+{
+    /**
+     * The estimated ratio between the memory used by a parsed document and
+     * the size of its file.
+     */
+    static final int DOM_SIZE_FACTOR = 8;
+
+    /**
+     * The cached documents and their estimated sizes in access order.
+     */
+    private final LinkedHashMap<File, CachedDocument> documents
+        = new LinkedHashMap<File, CachedDocument>(16, 0.75f, true);
+
+    /**
+     * The files of the documents which are not evicted.
+     */
+    private final Set<File> pinned = new HashSet<File>();
+
+    /**
+     * The maximum number of cached documents.
+     */
+    private int maxDocuments;
+
+    /**
+     * The maximum estimated memory used by the cached documents in bytes.
+     */
+    private long maxSize;
+
+    /**
+     * The estimated memory used by the cached documents in bytes.
+     */
+    private long size = 0;
+
+    private long hits = 0;
+
+    private long misses = 0;
+
+    private long evictions = 0;
+
+    /**
+     * Creates a cache with the given limits.
+     *
+     * @param maxDocuments the maximum number of cached documents
+     * @param maxSize the maximum estimated memory used by the cached
+     * documents in bytes
+     */
+    public HistoryDocumentCache(int maxDocuments, long maxSize)
+    {
+        this.maxDocuments = maxDocuments;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Returns the cached document of a file.
+     *
+     * @param file the file of the document
+     * @return the document or <tt>null</tt> if it is not cached and has to
+     * be parsed
+     */
+    public synchronized Document get(File file)
+    {
+        CachedDocument cached = documents.get(file);
+
+        if (cached == null)
+        {
+            misses++;
+            return null;
+        }
+
+        hits++;
+        return cached.document;
+    }
+
+    /**
+     * Caches the document of a file, replacing the one cached before.
+     * The size of the document is estimated from the size of the file so
+     * the file should be up to date with the document.
+     *
+     * @param file the file of the document
+     * @param document the parsed document
+     */
+    public synchronized void put(File file, Document document)
+    {
+        long documentSize = file.length() * DOM_SIZE_FACTOR;
+        CachedDocument old
+            = documents.put(file, new CachedDocument(document, documentSize));
+
+        if (old != null)
+            size -= old.size;
+        size += documentSize;
+
+        evict();
+    }
+
+    /**
+     * Prevents the document of a file from being evicted, while a writer
+     * appends to it.
+     *
+     * @param file the file of the document
+     */
+    public synchronized void pin(File file)
+    {
+        pinned.add(file);
+    }
+
+    /**
+     * Lets the document of a file be evicted again.
+     *
+     * @param file the file of the document
+     */
+    public synchronized void unpin(File file)
+    {
+        if (pinned.remove(file))
+            evict();
+    }
+
+    /**
+     * Removes the documents of all files in a directory and its
+     * sub-directories.
+     *
+     * @param directory the directory
+     */
+    public synchronized void removeAll(File directory)
+    {
+        String path = directory.getAbsolutePath() + File.separator;
+        Iterator<Map.Entry<File, CachedDocument>> iter
+            = documents.entrySet().iterator();
+
+        while (iter.hasNext())
+        {
+            Map.Entry<File, CachedDocument> entry = iter.next();
+
+            if (entry.getKey().getAbsolutePath().startsWith(path))
+            {
+                size -= entry.getValue().size;
+                iter.remove();
+            }
+        }
+    }
+
+    /**
+     * Removes all documents.
+     */
+    public synchronized void clear()
+    {
+        documents.clear();
+        size = 0;
+    }
+
+    /**
+     * Changes the limits of the cache, evicting documents if needed.
+     *
+     * @param maxDocuments the maximum number of cached documents
+     * @param maxSize the maximum estimated memory used by the cached
+     * documents in bytes
+     */
+    public synchronized void setLimits(int maxDocuments, long maxSize)
+    {
+        this.maxDocuments = maxDocuments;
+        this.maxSize = maxSize;
+
+        evict();
+    }
+
+    /**
+     * Returns a snapshot of the state of the cache.
+     *
+     * @return a snapshot of the state of the cache
+     */
+    public synchronized HistoryCacheStatistics getStatistics()
+    {
+        return new HistoryCacheStatistics(
+            documents.size(), size, maxDocuments, maxSize,
+            hits, misses, evictions);
+    }
+
+    /**
+     * Removes the least recently used documents which are not pinned until
+     * the cache is within its limits.
+     */
+    private void evict()
+    {
+        Iterator<Map.Entry<File, CachedDocument>> iter
+            = documents.entrySet().iterator();
+
+        while (iter.hasNext()
+                && (documents.size() > maxDocuments || size > maxSize))
+        {
+            Map.Entry<File, CachedDocument> entry = iter.next();
+
+            if (pinned.contains(entry.getKey()))
+                continue;
+
+            size -= entry.getValue().size;
+            iter.remove();
+            evictions++;
+        }
+    }
+
+    /**
+     * A cached document and its estimated size.
+     */
+    private static class CachedDocument
+    {
+        private final Document document;
+
+        private final long size;
+
+        CachedDocument(Document document, long size)
+        {
+            this.document = document;
+            this.size = size;
+        }
+    }
+}
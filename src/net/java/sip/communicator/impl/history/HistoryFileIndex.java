@@ -0,0 +1,402 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package net.java.sip.communicator.impl.history;
+
+import java.io.*;
+import java.util.*;
+
+import net.java.sip.communicator.util.*;
+
+import org.w3c.dom.*;
+
+/**
+ * Keeps for every XML document of a history the oldest and the newest
+ * timestamp of its records and their number, so period queries only open
+ * the files which may hold records of the period and counting the records,
+ * in total or by day when all the records of a file are of the same day,
+ * does not parse any file.
+ * <p>
+ * The index is persisted in the directory of the history
+ * (<tt>files.idx</tt>). Each entry remembers the length and the
+ * modification time of the file it describes, a file which changed without
+ * the index being updated is streamed again when it is next needed.
+ */
+public class HistoryFileIndex
+{
+    /**
+     * The logger for this class.
+     */
+    private static final Logger logger
+        = Logger.getLogger(HistoryFileIndex.class);
+
+    /**
+     * The name of the index file.
+     */
+    public static final String INDEX_FILE = "files.idx";
+
+    /**
+     * The version of the index format.
+     */
+    private static final int VERSION = 2;
+
+    /**
+     * The directory of the history.
+     */
+    private final File directory;
+
+    /**
+     * The entries by file name.
+     */
+    private final Map<String, Entry> entries = new HashMap<String, Entry>();
+
+    /**
+     * Whether the persisted index was already loaded.
+     */
+    private boolean loaded = false;
+
+    /**
+     * Whether the entries changed since the index was last written.
+     */
+    private boolean changed = false;
+
+    /**
+     * Creates the index of the history stored in <tt>directory</tt>. The
+     * persisted index is loaded on first use.
+     *
+     * @param directory the directory of the history.
+     */
+    public HistoryFileIndex(File directory)
+    {
+        this.directory = directory;
+    }
+
+    /**
+     * Returns the entry of a file, streaming the file if it has no entry
+     * or if it changed since its entry was made.
+     *
+     * @param filename the name of the file.
+     * @return the entry of the file.
+     */
+    public synchronized Entry get(String filename)
+    {
+        load();
+
+        File file = new File(directory, filename);
+        Entry entry = entries.get(filename);
+
+        if (entry != null
+            && entry.length == file.length()
+            && entry.lastModified == file.lastModified())
+        {
+            return entry;
+        }
+
+        entry = scan(file);
+        entries.put(filename, entry);
+        changed = true;
+        return entry;
+    }
+
+    /**
+     * Sets the entry of a file which was just written.
+     *
+     * @param filename the name of the file.
+     * @param entry the entry of the document written to the file, as made
+     * by <tt>summarize</tt>.
+     */
+    synchronized void update(String filename, Entry entry)
+    {
+        load();
+
+        File file = new File(directory, filename);
+
+        entry.length = file.length();
+        entry.lastModified = file.lastModified();
+        entries.put(filename, entry);
+        changed = true;
+    }
+
+    /**
+     * Drops the entries of the files which are no longer in the history.
+     *
+     * @param filenames the names of the files in the history.
+     */
+    public synchronized void retain(Collection<String> filenames)
+    {
+        load();
+
+        if (entries.keySet().retainAll(filenames))
+            changed = true;
+    }
+
+    /**
+     * Writes the index if its entries changed since it was last written.
+     */
+    public synchronized void save()
+    {
+        if (!changed)
+            return;
+        changed = false;
+
+        File index = new File(directory, INDEX_FILE);
+        File tmp = new File(directory, INDEX_FILE + ".tmp");
+
+        try
+        {
+            DataOutputStream out
+                = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(tmp)));
+            try
+            {
+                out.writeInt(VERSION);
+                out.writeInt(entries.size());
+                for (Map.Entry<String, Entry> e : entries.entrySet())
+                {
+                    Entry entry = e.getValue();
+
+                    out.writeUTF(e.getKey());
+                    out.writeLong(entry.length);
+                    out.writeLong(entry.lastModified);
+                    out.writeLong(entry.minTimestamp);
+                    out.writeLong(entry.maxTimestamp);
+                    out.writeInt(entry.recordCount);
+                    out.writeInt(entry.undatedCount);
+                }
+            }
+            finally
+            {
+                out.close();
+            }
+
+            if (!tmp.renameTo(index))
+            {
+                index.delete();
+                if (!tmp.renameTo(index))
+                    throw new IOException("Cannot replace " + index);
+            }
+        }
+        catch (IOException e)
+        {
+            // the files will be streamed again to rebuild the entries
+            logger.error("Cannot write history file index " + index, e);
+            index.delete();
+        }
+    }
+
+    /**
+     * Loads the persisted index if not already loaded.
+     */
+    private void load()
+    {
+        if (loaded)
+            return;
+        loaded = true;
+
+        File index = new File(directory, INDEX_FILE);
+
+        if (!index.exists())
+            return;
+
+        try
+        {
+            DataInputStream in
+                = new DataInputStream(
+                    new BufferedInputStream(new FileInputStream(index)));
+            try
+            {
+                // the entries of an older index are made again as their
+                // files are needed
+                if (in.readInt() != VERSION)
+                    return;
+
+                int count = in.readInt();
+                for (int i = 0; i < count; i++)
+                {
+                    String filename = in.readUTF();
+                    Entry entry = new Entry();
+
+                    entry.length = in.readLong();
+                    entry.lastModified = in.readLong();
+                    entry.minTimestamp = in.readLong();
+                    entry.maxTimestamp = in.readLong();
+                    entry.recordCount = in.readInt();
+                    entry.undatedCount = in.readInt();
+                    entries.put(filename, entry);
+                }
+            }
+            finally
+            {
+                in.close();
+            }
+        }
+        catch (IOException e)
+        {
+            logger.error("Dropping damaged history file index " + index, e);
+            entries.clear();
+            index.delete();
+        }
+    }
+
+    /**
+     * Makes the entry of a file by streaming its records.
+     *
+     * @param file the file.
+     * @return the entry of the file.
+     */
+    private static Entry scan(File file)
+    {
+        Entry entry = new Entry();
+
+        entry.length = file.length();
+        entry.lastModified = file.lastModified();
+
+        try
+        {
+            InputStream in
+                = new BufferedInputStream(new FileInputStream(file));
+            try
+            {
+                HistoryRecordStreamReader reader
+                    = new HistoryRecordStreamReader(in);
+                try
+                {
+                    while (reader.nextRecord())
+                        entry.add(reader.getTimestamp());
+                }
+                finally
+                {
+                    reader.close();
+                }
+            }
+            finally
+            {
+                in.close();
+            }
+        }
+        catch (Exception e)
+        {
+            // a broken file may be fixed when parsed, so it must be read
+            logger.error("Cannot index history file " + file, e);
+            entry.minTimestamp = Long.MIN_VALUE;
+            entry.maxTimestamp = Long.MAX_VALUE;
+            entry.lastModified = -1;
+        }
+        return entry;
+    }
+
+    /**
+     * Makes the entry of a document in memory. The length and the
+     * modification time of its file are not set.
+     *
+     * @param doc the document.
+     * @return the entry of the document.
+     */
+    static Entry summarize(Document doc)
+    {
+        Entry entry = new Entry();
+
+        synchronized (doc)
+        {
+            NodeList nodes = doc.getElementsByTagName("record");
+
+            for (int i = 0; i < nodes.getLength(); i++)
+            {
+                Node tsNode = nodes.item(i).getAttributes()
+                    .getNamedItem("timestamp");
+
+                entry.add((tsNode == null)
+                    ? null
+                    : HistoryRecordStreamReader.parseTimestamp(
+                        tsNode.getNodeValue()));
+            }
+        }
+        return entry;
+    }
+
+    /**
+     * The timestamps range and the number of records of a file.
+     */
+    static class Entry
+    {
+        private long length;
+
+        private long lastModified;
+
+        private long minTimestamp = Long.MAX_VALUE;
+
+        private long maxTimestamp = Long.MIN_VALUE;
+
+        private int recordCount = 0;
+
+        private int undatedCount = 0;
+
+        /**
+         * Counts a record.
+         *
+         * @param timestamp the timestamp of the record or <tt>null</tt> if
+         * it has none.
+         */
+        private void add(Date timestamp)
+        {
+            recordCount++;
+            if (timestamp != null)
+            {
+                minTimestamp = Math.min(minTimestamp, timestamp.getTime());
+                maxTimestamp = Math.max(maxTimestamp, timestamp.getTime());
+            }
+            else
+                undatedCount++;
+        }
+
+        /**
+         * Returns the number of records of the file.
+         *
+         * @return the number of records of the file.
+         */
+        int getRecordCount()
+        {
+            return recordCount;
+        }
+
+        /**
+         * Counts the records of the file in a histogram without reading
+         * the file, which is only possible when they all fall in the same
+         * bucket of the period of the histogram.
+         *
+         * @param histogram the histogram.
+         * @return <tt>true</tt> if the records were counted, <tt>false</tt>
+         * if the file has to be read to count them.
+         */
+        boolean addTo(HistoryRecordHistogram histogram)
+        {
+            // the range of a file which could not be indexed is unknown
+            if (lastModified == -1)
+                return false;
+            return histogram.addAll(
+                minTimestamp, maxTimestamp, recordCount - undatedCount);
+        }
+
+        /**
+         * Returns whether the file may hold records in a period, using the
+         * period semantics of <tt>HistoryReaderImpl.isInPeriod</tt>.
+         *
+         * @param startDate the start of the period or <tt>null</tt>.
+         * @param endDate the end of the period or <tt>null</tt>.
+         * @return whether the file may hold records in the period.
+         */
+        boolean overlaps(Date startDate, Date endDate)
+        {
+            if (minTimestamp > maxTimestamp)
+                return false;
+            if (startDate != null && maxTimestamp < startDate.getTime())
+                return false;
+            if (endDate != null && minTimestamp >= endDate.getTime())
+                return false;
+            return true;
+        }
+    }
+}
@@ -48,9 +48,55 @@ public class HistoryImpl
 
     private HistoryWriter writer;
 
+    /**
+     * The log storing the records of this history or <tt>null</tt> if this
+     * history is stored as XML documents.
+     */
+    private final HistoryLog historyLog;
+
+    /**
+     * Whether the XML documents are being imported into the log, guarded by
+     * <tt>migrationLock</tt>.
+     */
+    private boolean migrating = false;
+
+    /**
+     * The lock waited on until the XML documents are imported into the log.
+     */
+    private final Object migrationLock = new Object();
+
+    /**
+     * The keyword index of this history, created on first use.
+     */
+    private HistoryKeywordIndex keywordIndex;
+
+    /**
+     * Whether the keyword index has been checked against the files of this
+     * history, guarded by the lock of the keyword index.
+     */
+    private boolean keywordIndexChecked = false;
+
+    /**
+     * The names of the XML documents repaired since the last keyword search.
+     */
+    private final Set<String> repairedFiles
+        = Collections.synchronizedSet(new HashSet<String>());
+
+    /**
+     * The timestamps range and record count of each XML document.
+     */
+    private HistoryFileIndex fileIndex;
+
     private SortedMap<String, Object> historyDocuments
         = new TreeMap<String, Object>();
 
+    /**
+     * The name of the XML document the writer appends to, which is kept in
+     * memory so that every change of the file is made to the instance the
+     * writer holds, guarded by <tt>historyDocuments</tt>.
+     */
+    private String openFile = null;
+
     /**
      * Creates an instance of <tt>HistoryImpl</tt> by specifying the history
      * identifier, the directory, the <tt>HistoryRecordStructure</tt> to use
@@ -82,6 +128,18 @@ public class HistoryImpl
             this.writer = null;
 
             this.reloadDocumentList();
+
+            if (HistoryService.STORAGE_FORMAT_LOG.equals(
+                    historyServiceImpl.getStorageFormat(id)))
+            {
+                this.historyLog = new HistoryLog(directory);
+
+                // one-time import of the records stored in the XML format
+                if (!this.historyDocuments.isEmpty())
+                    startMigration();
+            }
+            else
+                this.historyLog = null;
         } finally {
             log.logExit();
         }
@@ -125,11 +183,52 @@ public class HistoryImpl
             log.debug("Could not create new history structure");
         }
     }
+    /**
+     * Imports the XML documents of this history into its log on a background
+     * thread, so that loading the history does not wait for it. The log is
+     * only used once the import is finished.
+     */
+    private void startMigration()
+    {
+        final HistoryLogMigrator migrator
+            = new HistoryLogMigrator(this, directory, historyLog);
+
+        synchronized (migrationLock)
+        {
+            migrating = true;
+        }
+
+        Thread thread = new Thread("HistoryLogMigrator")
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    migrator.migrate();
+                }
+                finally
+                {
+                    synchronized (migrationLock)
+                    {
+                        migrating = false;
+                        migrationLock.notifyAll();
+                    }
+                }
+            }
+        };
+        thread.setDaemon(true);
+        thread.start();
+    }
+
     public HistoryReader getReader()
     {
         if (this.reader == null)
         {
-            this.reader = new HistoryReaderImpl(this);
+            if (historyLog != null)
+                this.reader = new LogHistoryReaderImpl(this);
+            else
+                this.reader = new HistoryReaderImpl(this);
         }
 
         return this.reader;
@@ -153,10 +252,535 @@ public class HistoryImpl
     public HistoryWriter getWriter()
     {
         if (writer == null)
-            writer = new HistoryWriterImpl(this);
+        {
+            if (historyLog != null)
+                writer = new LogHistoryWriterImpl(this);
+            else
+                writer = new HistoryWriterImpl(this);
+        }
         return writer;
     }
 
+    /**
+     * Returns the log storing the records of this history, waiting for the
+     * XML documents to be imported into it.
+     *
+     * @return the log storing the records of this history or <tt>null</tt>
+     * if this history is stored as XML documents.
+     */
+    HistoryLog getLog()
+    {
+        boolean interrupted = false;
+
+        synchronized (migrationLock)
+        {
+            while (migrating)
+            {
+                try
+                {
+                    migrationLock.wait();
+                }
+                catch (InterruptedException e)
+                {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+
+        return historyLog;
+    }
+
+    /**
+     * Returns the keyword index of this history.
+     *
+     * @return the keyword index of this history.
+     */
+    synchronized HistoryKeywordIndex getKeywordIndex()
+    {
+        if (keywordIndex == null)
+            keywordIndex = new HistoryKeywordIndex(directory);
+        return keywordIndex;
+    }
+
+    /**
+     * Returns the index of the timestamps range and record count of the XML
+     * documents of this history.
+     *
+     * @return the file index of this history.
+     */
+    synchronized HistoryFileIndex getFileIndex()
+    {
+        if (fileIndex == null)
+            fileIndex = new HistoryFileIndex(directory);
+        return fileIndex;
+    }
+
+    /**
+     * Returns the XML documents which may hold records in the given period,
+     * ordered by name. The documents which are in memory are checked
+     * directly, the others by their entry in the file index.
+     *
+     * @param startDate the start of the period or <tt>null</tt>
+     * @param endDate the end of the period or <tt>null</tt>
+     * @param reverseOrder whether to return the newest documents first
+     * @return the names of the documents
+     */
+    Vector<String> getFilesInPeriod(Date startDate,
+                                    Date endDate,
+                                    boolean reverseOrder)
+    {
+        Vector<String> result = new Vector<String>();
+        HistoryFileIndex index = getFileIndex();
+
+        synchronized (this.historyDocuments)
+        {
+            for (Map.Entry<String, Object> e
+                    : this.historyDocuments.entrySet())
+            {
+                if (getFileEntry(index, e.getKey(), e.getValue())
+                        .overlaps(startDate, endDate))
+                {
+                    result.add(e.getKey());
+                }
+            }
+        }
+        index.save();
+
+        if (reverseOrder)
+            Collections.reverse(result);
+        return result;
+    }
+
+    /**
+     * Returns the number of records in the XML documents of this history,
+     * read from the file index.
+     *
+     * @return the number of records
+     */
+    int countRecords()
+    {
+        int result = 0;
+        HistoryFileIndex index = getFileIndex();
+
+        synchronized (this.historyDocuments)
+        {
+            for (Map.Entry<String, Object> e
+                    : this.historyDocuments.entrySet())
+            {
+                result += getFileEntry(index, e.getKey(), e.getValue())
+                    .getRecordCount();
+            }
+        }
+        index.save();
+
+        return result;
+    }
+
+    /**
+     * Counts the records of the XML documents of this history which are in
+     * a period. The records of a document which all fall in the same bucket
+     * are counted from its file index entry, the others are counted from
+     * their timestamps only, streamed from the file if the document is not
+     * in memory.
+     *
+     * @param startDate the start of the period or <tt>null</tt>
+     * @param endDate the end of the period or <tt>null</tt>
+     * @param histogram the histogram to count the records in
+     */
+    void countRecords(Date startDate,
+                      Date endDate,
+                      HistoryRecordHistogram histogram)
+    {
+        List<String> filenames = new ArrayList<String>();
+        HistoryFileIndex index = getFileIndex();
+
+        synchronized (this.historyDocuments)
+        {
+            for (Map.Entry<String, Object> e
+                    : this.historyDocuments.entrySet())
+            {
+                HistoryFileIndex.Entry entry
+                    = getFileEntry(index, e.getKey(), e.getValue());
+
+                if (entry.overlaps(startDate, endDate)
+                    && !entry.addTo(histogram))
+                {
+                    filenames.add(e.getKey());
+                }
+            }
+        }
+        index.save();
+
+        for (String filename : filenames)
+            countRecords(filename, histogram);
+    }
+
+    /**
+     * Counts the records of a document from their timestamps.
+     *
+     * @param filename the name of the document
+     * @param histogram the histogram to count the records in
+     */
+    private void countRecords(String filename,
+                              HistoryRecordHistogram histogram)
+    {
+        synchronized (this.historyDocuments)
+        {
+            Object obj = this.historyDocuments.get(filename);
+            Document doc = null;
+
+            // the document may have been removed since it was listed
+            if (obj == null)
+                return;
+
+            if (obj instanceof Document)
+                doc = (Document) obj;
+            else if (historyServiceImpl.isCacheEnabled())
+                doc = historyServiceImpl.getDocumentCache().get((File) obj);
+
+            if (doc == null && obj instanceof File)
+            {
+                long[] timestamps = new long[64];
+                int count = 0;
+
+                try
+                {
+                    InputStream in = new BufferedInputStream(
+                        new FileInputStream((File) obj));
+                    try
+                    {
+                        HistoryRecordStreamReader reader
+                            = new HistoryRecordStreamReader(in);
+                        try
+                        {
+                            while (reader.nextRecord())
+                            {
+                                Date timestamp = reader.getTimestamp();
+
+                                if (timestamp == null)
+                                    continue;
+                                if (count == timestamps.length)
+                                {
+                                    timestamps = Arrays.copyOf(
+                                        timestamps, 2 * count);
+                                }
+                                timestamps[count++] = timestamp.getTime();
+                            }
+                        }
+                        finally
+                        {
+                            reader.close();
+                        }
+                    }
+                    finally
+                    {
+                        in.close();
+                    }
+
+                    // nothing is counted before the whole file was read
+                    for (int i = 0; i < count; i++)
+                        histogram.add(timestamps[i]);
+                    return;
+                }
+                catch (Exception e)
+                {
+                    log.error("Error streaming history file " + obj
+                        + ", will parse it", e);
+                }
+
+                // parsing will also try to fix the file
+                doc = getDocumentForFile(filename);
+            }
+
+            if (doc == null)
+                return;
+
+            synchronized (doc)
+            {
+                NodeList nodes = doc.getElementsByTagName("record");
+
+                for (int i = 0; i < nodes.getLength(); i++)
+                {
+                    Node tsNode = nodes.item(i).getAttributes()
+                        .getNamedItem("timestamp");
+                    Date timestamp = (tsNode == null)
+                        ? null
+                        : HistoryRecordStreamReader.parseTimestamp(
+                            tsNode.getNodeValue());
+
+                    if (timestamp != null)
+                        histogram.add(timestamp.getTime());
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the file index entry of a document, made from the document
+     * itself if it is in memory since its file may not hold all its records
+     * yet.
+     *
+     * @param index the file index
+     * @param filename the name of the document
+     * @param obj the document or its file
+     * @return the entry of the document
+     */
+    private static HistoryFileIndex.Entry getFileEntry(HistoryFileIndex index,
+                                                       String filename,
+                                                       Object obj)
+    {
+        return (obj instanceof Document)
+            ? HistoryFileIndex.summarize((Document) obj)
+            : index.get(filename);
+    }
+
+    /**
+     * Returns the positions of the records which may contain all
+     * <tt>keywords</tt> in <tt>field</tt>, indexing the field first if this
+     * is the first keyword search on it.
+     *
+     * @param field the field to search in
+     * @param keywords the keywords to search for
+     * @return the candidate record ordinals per file or <tt>null</tt> if the
+     * index cannot be used for this query and all records must be checked
+     */
+    Map<String, BitSet> findKeywordCandidates(String field, String[] keywords)
+    {
+        if (field == null || keywords == null || keywords.length == 0)
+            return null;
+
+        HistoryKeywordIndex index = getKeywordIndex();
+
+        // writers add to the index while holding its lock, so no record
+        // can be missed while the field is being indexed
+        synchronized (index)
+        {
+            reindexChangedFiles(index);
+
+            if (!index.isIndexed(field))
+            {
+                index.setStamps(getIndexedFiles());
+                index.addField(field, readAllRecords());
+            }
+
+            return index.findCandidates(field, keywords);
+        }
+    }
+
+    /**
+     * Indexes again the XML documents which have been repaired and, the
+     * first time, the files which changed since the keyword index was saved.
+     *
+     * @param index the keyword index, locked by the caller
+     */
+    private void reindexChangedFiles(HistoryKeywordIndex index)
+    {
+        Set<String> changed = new LinkedHashSet<String>();
+
+        synchronized (repairedFiles)
+        {
+            changed.addAll(repairedFiles);
+            repairedFiles.clear();
+        }
+
+        Map<String, File> files = null;
+
+        if (!keywordIndexChecked)
+        {
+            files = getIndexedFiles();
+            changed.addAll(index.getChangedFiles(files));
+            keywordIndexChecked = true;
+        }
+
+        if (changed.isEmpty())
+            return;
+
+        for (String file : changed)
+            index.reindexFile(file, readFileRecords(file));
+
+        if (files != null)
+        {
+            index.setStamps(files);
+            index.save();
+        }
+    }
+
+    /**
+     * Drops the keyword index of this history and indexes again the fields
+     * which were indexed together with <tt>field</tt>.
+     *
+     * @param field a field to index even if it was not indexed before or
+     * <tt>null</tt>
+     */
+    void rebuildKeywordIndex(String field)
+    {
+        HistoryKeywordIndex index = getKeywordIndex();
+
+        synchronized (index)
+        {
+            Set<String> fields = index.getIndexedFields();
+
+            if (field != null)
+                fields.add(field);
+
+            index.clear();
+
+            if (fields.isEmpty())
+                return;
+
+            index.setStamps(getIndexedFiles());
+
+            Map<String, List<HistoryRecord>> records = readAllRecords();
+            for (String f : fields)
+                index.addField(f, records);
+        }
+    }
+
+    /**
+     * Adds a record which is about to be written to <tt>file</tt> to the
+     * keyword index.
+     *
+     * @param file the file (XML document or log segment name)
+     * @param ordinal the position of the record in the file
+     * @param propertyNames the names of the properties of the record
+     * @param propertyValues the values of the properties of the record
+     */
+    void indexRecord(String file,
+                     int ordinal,
+                     String[] propertyNames,
+                     String[] propertyValues)
+    {
+        getKeywordIndex().addRecord(
+            file, ordinal, propertyNames, propertyValues);
+    }
+
+    /**
+     * Updates the keyword index after the records in an XML document were
+     * inserted, changed or removed.
+     *
+     * @param filename the name of the document
+     * @param doc the document
+     */
+    void reindexFile(String filename, Document doc)
+    {
+        getKeywordIndex().reindexFile(filename, readRecords(doc));
+    }
+
+    /**
+     * Reads all the records of this history per file (XML document or log
+     * segment), keeping their position in the file.
+     *
+     * @return the records of this history per file
+     */
+    private Map<String, List<HistoryRecord>> readAllRecords()
+    {
+        Map<String, List<HistoryRecord>> result
+            = new LinkedHashMap<String, List<HistoryRecord>>();
+
+        if (historyLog != null)
+        {
+            for (HistoryLog.Segment segment : getLog().getSegments())
+            {
+                result.put(
+                    String.valueOf(segment.getName()),
+                    LogHistoryReaderImpl.read(segment, 0, segment.size()));
+            }
+            return result;
+        }
+
+        for (String filename
+                : HistoryReaderImpl.filterFilesByDate(
+                    getFileList(), null, null))
+        {
+            Document doc = getDocumentForFile(filename);
+
+            if (doc != null)
+                result.put(filename, readRecords(doc));
+        }
+        return result;
+    }
+
+    /**
+     * Reads the records of a file of this history, keeping their position in
+     * the file.
+     *
+     * @param file the name of the file (XML document or log segment)
+     * @return the records of the file
+     */
+    private List<HistoryRecord> readFileRecords(String file)
+    {
+        if (historyLog != null)
+        {
+            for (HistoryLog.Segment segment : getLog().getSegments())
+            {
+                if (file.equals(String.valueOf(segment.getName())))
+                {
+                    return LogHistoryReaderImpl.read(
+                        segment, 0, segment.size());
+                }
+            }
+            return Collections.emptyList();
+        }
+
+        Document doc = getDocumentForFile(file);
+
+        return (doc == null)
+            ? Collections.<HistoryRecord>emptyList()
+            : readRecords(doc);
+    }
+
+    /**
+     * Returns the files of this history (XML documents or log segments) by
+     * the name they are indexed under.
+     *
+     * @return the files of this history by name
+     */
+    private Map<String, File> getIndexedFiles()
+    {
+        Map<String, File> files = new HashMap<String, File>();
+
+        if (historyLog != null)
+        {
+            for (HistoryLog.Segment segment : getLog().getSegments())
+                files.put(String.valueOf(segment.getName()), segment.getFile());
+            return files;
+        }
+
+        synchronized (this.historyDocuments)
+        {
+            for (String filename : this.historyDocuments.keySet())
+                files.put(filename, new File(this.directory, filename));
+        }
+        return files;
+    }
+
+    /**
+     * Reads the records of an XML document. The position of a record in the
+     * returned list is its position in the document, the timestamps are not
+     * read.
+     *
+     * @param doc the document
+     * @return the records of the document
+     */
+    private static List<HistoryRecord> readRecords(Document doc)
+    {
+        NodeList nodes = doc.getElementsByTagName("record");
+        List<HistoryRecord> records
+            = new ArrayList<HistoryRecord>(nodes.getLength());
+        Date noTimestamp = new Date(0);
+
+        for (int i = 0; i < nodes.getLength(); i++)
+        {
+            records.add(
+                HistoryReaderImpl.filterByKeyword(
+                    nodes.item(i).getChildNodes(), noTimestamp,
+                    null, null, false));
+        }
+        return records;
+    }
+
     protected HistoryServiceImpl getHistoryServiceImpl()
     {
         return this.historyServiceImpl;
@@ -166,8 +790,15 @@ public class HistoryImpl
     {
         synchronized (this.historyDocuments)
         {
+            Object open = (this.openFile == null)
+                ? null : this.historyDocuments.get(this.openFile);
+
             this.historyDocuments.clear();
 
+            // the files may have changed, parse them again when needed
+            this.historyServiceImpl.getDocumentCache().removeAll(
+                this.directory);
+
             File[] files = this.directory.listFiles();
             // TODO: Assert: Assert.assertNonNull(files, "The list of files
             // should be non-null.");
@@ -184,6 +815,14 @@ public class HistoryImpl
                     }
                 }
             }
+
+            // the writer keeps appending to its document
+            if (open instanceof Document
+                    && this.historyDocuments.containsKey(this.openFile))
+                this.historyDocuments.put(this.openFile, open);
+
+            if (this.fileIndex != null)
+                this.fileIndex.retain(this.historyDocuments.keySet());
         }
     }
 
@@ -208,6 +847,60 @@ public class HistoryImpl
         return retVal;
     }
 
+    /**
+     * Returns the document the writer of this history appends to, creating
+     * it if the file does not exist. The document stays in memory in place
+     * of its file until another one is opened, so updates of its records
+     * change the instance the writer holds instead of a copy parsed from
+     * disk which the writer would overwrite.
+     *
+     * @param filename the name of the document
+     * @return the document or <tt>null</tt> if it cannot be parsed
+     */
+    Document openDocument(String filename)
+    {
+        synchronized (this.historyDocuments)
+        {
+            Document doc = createDocument(filename);
+
+            if (doc == null)
+                return null;
+
+            if (this.openFile != null && !this.openFile.equals(filename))
+                closeDocument(this.openFile);
+
+            this.openFile = filename;
+            historyServiceImpl.getDocumentCache().pin(
+                new File(this.directory, filename));
+            this.historyDocuments.put(filename, doc);
+            return doc;
+        }
+    }
+
+    /**
+     * Drops the document the writer stopped appending to from memory if it
+     * is on disk and is not waiting to be written, otherwise its next write
+     * drops it.
+     *
+     * @param filename the name of the document
+     */
+    private void closeDocument(String filename)
+    {
+        File file = new File(this.directory, filename);
+        Object obj = this.historyDocuments.get(filename);
+
+        historyServiceImpl.getDocumentCache().unpin(file);
+
+        if (!(obj instanceof Document)
+                || !file.exists()
+                || historyServiceImpl.getWriteQueue().isPending(file))
+            return;
+
+        this.historyDocuments.put(filename, file);
+        if (historyServiceImpl.isCacheEnabled())
+            historyServiceImpl.getDocumentCache().put(file, (Document) obj);
+    }
+
     protected void writeFile(String filename) throws InvalidParameterException,
             IOException {
         File file = new File(this.directory, filename);
@@ -221,19 +914,29 @@ public class HistoryImpl
             }
 
             Object obj = this.historyDocuments.get(filename);
+            Document doc = null;
 
             if (obj instanceof Document)
-            {
-                Document doc = (Document) obj;
+                doc = (Document) obj;
+            else if (historyServiceImpl.isCacheEnabled())
+                doc = historyServiceImpl.getDocumentCache().get(file);
 
-                synchronized (doc)
-                {
-                    XMLUtils.writeXML(doc, file);
-                }
-            }
+            if (doc != null)
+                writeFile(filename, doc);
         }
     }
 
+    /**
+     * Writes a changed document. Unless writes are configured to be
+     * synchronous the document is only queued to be written by the
+     * <tt>HistoryWriteQueue</tt> and is kept in memory until then.
+     *
+     * @param filename the name of the document
+     * @param doc the document
+     * @throws InvalidParameterException if the file is not in the document
+     * list
+     * @throws IOException if writing the document fails
+     */
     protected void writeFile(String filename, Document doc)
         throws InvalidParameterException, IOException
     {
@@ -247,9 +950,140 @@ public class HistoryImpl
                         + "filename does not exist in the document list.");
             }
 
+            if (historyServiceImpl.getWriteQueue().schedule(
+                    this, filename, file, doc))
+            {
+                // readers must see the pending records
+                this.historyDocuments.put(filename, doc);
+                return;
+            }
+
+            flushFile(filename, doc);
+        }
+    }
+
+    /**
+     * Writes a document to its file.
+     *
+     * @param filename the name of the document
+     * @param doc the document
+     * @throws IOException if writing the document fails
+     */
+    void flushFile(String filename, Document doc)
+        throws IOException
+    {
+        File file = new File(this.directory, filename);
+        HistoryFileIndex index = getFileIndex();
+
+        synchronized (this.historyDocuments)
+        {
+            HistoryFileIndex.Entry entry;
+
             synchronized (doc)
             {
                 XMLUtils.writeXML(doc, file);
+                entry = HistoryFileIndex.summarize(doc);
+            }
+
+            index.update(filename, entry);
+            index.save();
+
+            // the document is on disk now, so it can be dropped from memory
+            // and parsed again if the cache is full, unless the writer still
+            // appends to it
+            this.historyDocuments.put(
+                filename, filename.equals(this.openFile) ? doc : file);
+            if (historyServiceImpl.isCacheEnabled())
+                historyServiceImpl.getDocumentCache().put(file, doc);
+        }
+    }
+
+    /**
+     * Reads the first or the last records of a file which timestamps are in
+     * the given period. Documents which are in memory are read directly,
+     * the others are streamed from their file without building their DOM
+     * tree and without caching them.
+     *
+     * @param filename the name of the file
+     * @param startDate the start of the period or <tt>null</tt>
+     * @param endDate the end of the period or <tt>null</tt>
+     * @param count the maximum number of records to read
+     * @param fromEnd whether to read the last records instead of the first
+     * ones
+     * @param skipBroken if <tt>true</tt> records with a property without
+     * text are skipped and the values are returned as stored, otherwise
+     * such properties are dropped and the values are unescaped
+     * @return the records in file order
+     * @throws InvalidParameterException if the file is not in the document
+     * list
+     */
+    List<HistoryRecord> readRecords(String filename,
+                                    Date startDate,
+                                    Date endDate,
+                                    int count,
+                                    boolean fromEnd,
+                                    boolean skipBroken)
+        throws InvalidParameterException
+    {
+        synchronized (this.historyDocuments)
+        {
+            if (!this.historyDocuments.containsKey(filename))
+            {
+                throw new InvalidParameterException("The requested "
+                        + "filename does not exist in the document list.");
+            }
+
+            Object obj = this.historyDocuments.get(filename);
+            Document doc = null;
+
+            if (obj instanceof Document)
+                doc = (Document) obj;
+            else if (historyServiceImpl.isCacheEnabled())
+                doc = historyServiceImpl.getDocumentCache().get((File) obj);
+
+            if (doc == null && obj instanceof File)
+            {
+                try
+                {
+                    InputStream in = new BufferedInputStream(
+                        new FileInputStream((File) obj));
+                    try
+                    {
+                        HistoryRecordStreamReader reader
+                            = new HistoryRecordStreamReader(in);
+                        try
+                        {
+                            return HistoryRecordStreamReader.read(
+                                reader, startDate, endDate,
+                                count, fromEnd, skipBroken);
+                        }
+                        finally
+                        {
+                            reader.close();
+                        }
+                    }
+                    finally
+                    {
+                        in.close();
+                    }
+                }
+                catch (Exception e)
+                {
+                    log.error("Error streaming history file " + obj
+                        + ", will parse it", e);
+                }
+
+                // parsing will also try to fix the file
+                doc = getDocumentForFile(filename);
+            }
+
+            if (doc == null)
+                return new ArrayList<HistoryRecord>(0);
+
+            synchronized (doc)
+            {
+                return HistoryRecordStreamReader.read(
+                    doc, startDate, endDate, count, fromEnd, skipBroken);
             }
         }
     }
@@ -279,6 +1113,15 @@ public class HistoryImpl
             } else if (obj instanceof File)
             {
                 File file = (File) obj;
+                HistoryDocumentCache cache
+                    = historyServiceImpl.getDocumentCache();
+
+                if(historyServiceImpl.isCacheEnabled())
+                {
+                    retVal = cache.get(file);
+                    if(retVal != null)
+                        return retVal;
+                }
 
                 try {
                     retVal = this.historyServiceImpl.parse(file);
@@ -295,11 +1138,15 @@ public class HistoryImpl
                     // if is not fixed return
                     if(retVal == null)
                         return null;
+
+                    // the keyword index is locked before the documents, so
+                    // the next keyword search indexes the repaired document
+                    repairedFiles.add(filename);
                 }
 
                 // Cache the loaded document for reuse if configured
                 if(historyServiceImpl.isCacheEnabled())
-                    this.historyDocuments.put(filename, retVal);
+                    cache.put(file, retVal);
             } else {
                 // TODO: Assert: Assert.fail("Internal error - the data type " +
                 // "should be either Document or File.");
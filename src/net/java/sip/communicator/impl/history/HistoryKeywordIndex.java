@@ -0,0 +1,940 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package net.java.sip.communicator.impl.history;
+
+import java.io.*;
+import java.util.*;
+
+import net.java.sip.communicator.service.history.records.*;
+import net.java.sip.communicator.util.*;
+
+/**
+ * An inverted index of the terms found in some fields of the records of a
+ * history. For every indexed field it maps each lower-cased term to the
+ * positions of the records containing it, a position being the name of the
+ * file (XML document or log segment) and the ordinal of the record in it.
+ * <p>
+ * The index only narrows the set of records a keyword query has to look at:
+ * a record matches a keyword only if each term of the keyword is part of a
+ * term of the record, so the candidates are a superset of the matches and
+ * the readers still check every candidate as they did before.
+ * <p>
+ * The index is persisted in the directory of the history as a snapshot
+ * (<tt>keywords.idx</tt>) and a journal of the changes done after it
+ * (<tt>keywords.jnl</tt>). Journal entries are written before the records
+ * they describe, so a crash may only leave candidates which do not match.
+ * <p>
+ * The snapshot also holds the length and the modification time of the
+ * indexed files. A file which differs from them has been changed without
+ * the index being saved, e.g. before a crash or by a repair, and is indexed
+ * again.
+ */
+public class HistoryKeywordIndex
+{
+    /**
+     * The logger for this class.
+     */
+    private static final Logger logger
+        = Logger.getLogger(HistoryKeywordIndex.class);
+
+    /**
+     * The name of the snapshot file.
+     */
+    public static final String SNAPSHOT_FILE = "keywords.idx";
+
+    /**
+     * The name of the journal file.
+     */
+    public static final String JOURNAL_FILE = "keywords.jnl";
+
+    /**
+     * The version of the snapshot format and of the folding of its terms.
+     */
+    private static final int VERSION = 3;
+
+    /**
+     * Journal entry adding the terms of a record.
+     */
+    private static final byte OP_ADD = 1;
+
+    /**
+     * Journal entry removing all the positions in a file.
+     */
+    private static final byte OP_REMOVE_FILE = 2;
+
+    /**
+     * The directory of the history.
+     */
+    private final File directory;
+
+    /**
+     * The indexed fields and for each of them the positions of every term.
+     */
+    private final Map<String, Map<String, Map<String, BitSet>>> fields
+        = new HashMap<String, Map<String, Map<String, BitSet>>>();
+
+    /**
+     * The length and the modification time of the indexed files by name.
+     */
+    private final Map<String, long[]> stamps = new HashMap<String, long[]>();
+
+    /**
+     * Whether the persisted index was already loaded.
+     */
+    private boolean loaded = false;
+
+    /**
+     * Creates the index of the history stored in <tt>directory</tt>. The
+     * persisted index is loaded on first use.
+     *
+     * @param directory the directory of the history.
+     */
+    public HistoryKeywordIndex(File directory)
+    {
+        this.directory = directory;
+    }
+
+    /**
+     * Splits a text into case-folded terms. A term is a sequence of
+     * Unicode letters and digits. Each character is folded on its own so a
+     * term folds the same whether it is a whole word or the start of one,
+     * unlike <tt>String.toLowerCase</tt> which lowers a final sigma
+     * differently.
+     *
+     * @param text the text to split.
+     * @return the terms in the text, in order of appearance.
+     */
+    public static List<String> tokenize(String text)
+    {
+        List<String> terms = new ArrayList<String>();
+
+        if (text == null)
+            return terms;
+
+        StringBuilder term = new StringBuilder();
+        int i = 0;
+        while (i < text.length())
+        {
+            int c = text.codePointAt(i);
+
+            if (Character.isLetterOrDigit(c))
+            {
+                term.appendCodePoint(foldCase(c));
+            }
+            else if (term.length() > 0)
+            {
+                terms.add(term.toString());
+                term.setLength(0);
+            }
+            i += Character.charCount(c);
+        }
+        if (term.length() > 0)
+            terms.add(term.toString());
+
+        return terms;
+    }
+
+    /**
+     * Folds the case of a character, mapping the variants of a letter such
+     * as the final and the medial sigma to the same character.
+     *
+     * @param c the code point of the character.
+     * @return the folded code point.
+     */
+    private static int foldCase(int c)
+    {
+        return Character.toLowerCase(Character.toUpperCase(c));
+    }
+
+    /**
+     * Returns whether the given field is indexed.
+     *
+     * @param field the name of the field.
+     * @return whether the given field is indexed.
+     */
+    public synchronized boolean isIndexed(String field)
+    {
+        load();
+        return fields.containsKey(field);
+    }
+
+    /**
+     * Returns the indexed fields.
+     *
+     * @return the indexed fields.
+     */
+    public synchronized Set<String> getIndexedFields()
+    {
+        load();
+        return new HashSet<String>(fields.keySet());
+    }
+
+    /**
+     * Starts indexing a field, indexing the current content of the history.
+     *
+     * @param field the field to index.
+     * @param content the records of the history per file, in file order.
+     */
+    public synchronized void addField(
+            String field,
+            Map<String, List<HistoryRecord>> content)
+    {
+        load();
+
+        Map<String, Map<String, BitSet>> terms
+            = new HashMap<String, Map<String, BitSet>>();
+        fields.put(field, terms);
+
+        for (Map.Entry<String, List<HistoryRecord>> e : content.entrySet())
+        {
+            List<HistoryRecord> records = e.getValue();
+
+            for (int i = 0; i < records.size(); i++)
+            {
+                addValue(
+                    terms, e.getKey(), i, getValue(records.get(i), field));
+            }
+        }
+
+        writeSnapshot();
+    }
+
+    /**
+     * Adds a record to the index.
+     *
+     * @param file the file the record is stored in.
+     * @param ordinal the position of the record in the file.
+     * @param propertyNames the names of the properties of the record.
+     * @param propertyValues the values of the properties of the record.
+     */
+    public synchronized void addRecord(
+            String file,
+            int ordinal,
+            String[] propertyNames,
+            String[] propertyValues)
+    {
+        load();
+
+        if (fields.isEmpty())
+            return;
+
+        DataOutputStream out = openJournal();
+        try
+        {
+            addRecord(out, file, ordinal, propertyNames, propertyValues);
+        }
+        finally
+        {
+            closeJournal(out);
+        }
+    }
+
+    /**
+     * Replaces the positions of all records of a file, used when records
+     * are inserted, updated or removed from it.
+     *
+     * @param file the file.
+     * @param records the records now stored in the file, in file order.
+     */
+    public synchronized void reindexFile(
+            String file,
+            List<HistoryRecord> records)
+    {
+        removeFile(file);
+
+        if (fields.isEmpty())
+            return;
+
+        DataOutputStream out = openJournal();
+        try
+        {
+            for (int i = 0; i < records.size(); i++)
+            {
+                HistoryRecord record = records.get(i);
+
+                addRecord(
+                    out, file, i, record.getPropertyNames(),
+                    record.getPropertyValues());
+            }
+        }
+        finally
+        {
+            closeJournal(out);
+        }
+    }
+
+    /**
+     * Adds a record to the index and to the journal.
+     *
+     * @param out the journal stream or <tt>null</tt>.
+     * @param file the file the record is stored in.
+     * @param ordinal the position of the record in the file.
+     * @param propertyNames the names of the properties of the record.
+     * @param propertyValues the values of the properties of the record.
+     */
+    private void addRecord(
+            DataOutputStream out,
+            String file,
+            int ordinal,
+            String[] propertyNames,
+            String[] propertyValues)
+    {
+        for (int i = 0; i < propertyNames.length; i++)
+        {
+            String field = stripCDataSuffix(propertyNames[i]);
+            Map<String, Map<String, BitSet>> terms = fields.get(field);
+
+            if (terms == null || propertyValues[i] == null)
+                continue;
+
+            Set<String> recordTerms
+                = new HashSet<String>(tokenize(propertyValues[i]));
+
+            for (String term : recordTerms)
+                addTerm(terms, file, ordinal, term);
+
+            if (out == null)
+                continue;
+
+            try
+            {
+                writeAdd(out, field, file, ordinal, recordTerms);
+            }
+            catch (IOException e)
+            {
+                logger.error("Cannot write keyword index journal", e);
+            }
+        }
+    }
+
+    /**
+     * Removes all positions of a file from the index.
+     *
+     * @param file the file.
+     */
+    public synchronized void removeFile(String file)
+    {
+        load();
+
+        if (fields.isEmpty())
+            return;
+
+        for (Map<String, Map<String, BitSet>> terms : fields.values())
+            removeFile(terms, file);
+
+        DataOutputStream out = openJournal();
+        if (out == null)
+            return;
+        try
+        {
+            out.writeByte(OP_REMOVE_FILE);
+            out.writeUTF(file);
+        }
+        catch (IOException e)
+        {
+            logger.error("Cannot write keyword index journal", e);
+        }
+        finally
+        {
+            closeJournal(out);
+        }
+    }
+
+    /**
+     * Returns the positions of the records which may contain all
+     * <tt>keywords</tt> in <tt>field</tt>.
+     *
+     * @param field the field to search in, must be indexed.
+     * @param keywords the keywords.
+     * @return the candidate record ordinals per file or <tt>null</tt> if the
+     * index cannot narrow the search, e.g. a keyword has no terms at all.
+     */
+    public synchronized Map<String, BitSet> findCandidates(
+            String field,
+            String[] keywords)
+    {
+        load();
+
+        Map<String, Map<String, BitSet>> terms = fields.get(field);
+
+        if (terms == null || keywords == null || keywords.length == 0)
+            return null;
+
+        Map<String, BitSet> result = null;
+        for (String keyword : keywords)
+        {
+            List<String> keywordTerms = tokenize(keyword);
+
+            if (keywordTerms.isEmpty())
+                return null;
+
+            for (String keywordTerm : keywordTerms)
+            {
+                Map<String, BitSet> positions
+                    = new HashMap<String, BitSet>();
+
+                // a keyword term may be any part of a term of the record
+                for (Map.Entry<String, Map<String, BitSet>> e
+                        : terms.entrySet())
+                {
+                    if (e.getKey().contains(keywordTerm))
+                        union(positions, e.getValue());
+                }
+
+                result = (result == null)
+                    ? positions
+                    : intersect(result, positions);
+
+                if (result.isEmpty())
+                    return result;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the files which changed since their length and modification
+     * time were recorded, or which were never recorded, and which have to
+     * be indexed again.
+     *
+     * @param files the files of the history by name.
+     * @return the names of the changed files.
+     */
+    public synchronized List<String> getChangedFiles(Map<String, File> files)
+    {
+        load();
+
+        List<String> changed = new ArrayList<String>();
+
+        if (fields.isEmpty())
+            return changed;
+
+        for (Map.Entry<String, File> e : files.entrySet())
+        {
+            long[] stamp = stamps.get(e.getKey());
+            File file = e.getValue();
+
+            if (stamp == null
+                || stamp[0] != file.length()
+                || stamp[1] != file.lastModified())
+            {
+                changed.add(e.getKey());
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Records the length and the modification time of the indexed files,
+     * which are saved with the next snapshot.
+     *
+     * @param files the files of the history by name.
+     */
+    public synchronized void setStamps(Map<String, File> files)
+    {
+        load();
+
+        stamps.clear();
+        for (Map.Entry<String, File> e : files.entrySet())
+        {
+            File file = e.getValue();
+
+            stamps.put(
+                e.getKey(),
+                new long[] { file.length(), file.lastModified() });
+        }
+    }
+
+    /**
+     * Writes the whole index to a new snapshot.
+     */
+    public synchronized void save()
+    {
+        load();
+        writeSnapshot();
+    }
+
+    /**
+     * Drops the whole index, including its persisted copy.
+     */
+    public synchronized void clear()
+    {
+        fields.clear();
+        stamps.clear();
+        loaded = true;
+
+        new File(directory, SNAPSHOT_FILE).delete();
+        new File(directory, JOURNAL_FILE).delete();
+    }
+
+    /**
+     * Loads the persisted index if not already loaded. The journal is
+     * merged into a new snapshot.
+     */
+    private void load()
+    {
+        if (loaded)
+            return;
+        loaded = true;
+
+        File snapshot = new File(directory, SNAPSHOT_FILE);
+        File journal = new File(directory, JOURNAL_FILE);
+
+        if (!snapshot.exists())
+        {
+            // without a snapshot the journal has nothing to apply to
+            journal.delete();
+            return;
+        }
+
+        try
+        {
+            readSnapshot(snapshot);
+        }
+        catch (IOException e)
+        {
+            logger.error("Dropping damaged keyword index " + snapshot, e);
+            fields.clear();
+            stamps.clear();
+            snapshot.delete();
+            journal.delete();
+            return;
+        }
+
+        if (journal.exists())
+        {
+            replayJournal(journal);
+            writeSnapshot();
+        }
+    }
+
+    /**
+     * Reads a snapshot.
+     *
+     * @param snapshot the snapshot file.
+     * @throws IOException if the snapshot cannot be read.
+     */
+    private void readSnapshot(File snapshot)
+        throws IOException
+    {
+        DataInputStream in
+            = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(snapshot)));
+        try
+        {
+            if (in.readInt() != VERSION)
+                throw new IOException("Unsupported version");
+
+            int fieldCount = in.readInt();
+            for (int f = 0; f < fieldCount; f++)
+            {
+                Map<String, Map<String, BitSet>> terms
+                    = new HashMap<String, Map<String, BitSet>>();
+                fields.put(in.readUTF(), terms);
+
+                int termCount = in.readInt();
+                for (int t = 0; t < termCount; t++)
+                {
+                    Map<String, BitSet> positions
+                        = new HashMap<String, BitSet>();
+                    terms.put(in.readUTF(), positions);
+
+                    int fileCount = in.readInt();
+                    for (int i = 0; i < fileCount; i++)
+                    {
+                        String file = in.readUTF();
+                        BitSet ordinals = new BitSet();
+                        int ordinalCount = in.readInt();
+
+                        for (int o = 0; o < ordinalCount; o++)
+                            ordinals.set(in.readInt());
+                        positions.put(file, ordinals);
+                    }
+                }
+            }
+
+            int stampCount = in.readInt();
+            for (int i = 0; i < stampCount; i++)
+            {
+                stamps.put(
+                    in.readUTF(),
+                    new long[] { in.readLong(), in.readLong() });
+            }
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    /**
+     * Applies the entries of the journal, stopping at the first incomplete
+     * one.
+     *
+     * @param journal the journal file.
+     */
+    private void replayJournal(File journal)
+    {
+        DataInputStream in = null;
+        try
+        {
+            in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(journal)));
+
+            while (true)
+            {
+                int op = in.read();
+
+                if (op == -1)
+                    break;
+                else if (op == OP_ADD)
+                {
+                    String field = in.readUTF();
+                    String file = in.readUTF();
+                    int ordinal = in.readInt();
+                    int termCount = in.readInt();
+                    Map<String, Map<String, BitSet>> terms = fields.get(field);
+
+                    for (int i = 0; i < termCount; i++)
+                    {
+                        String term = in.readUTF();
+
+                        if (terms != null)
+                            addTerm(terms, file, ordinal, term);
+                    }
+                }
+                else if (op == OP_REMOVE_FILE)
+                {
+                    String file = in.readUTF();
+
+                    for (Map<String, Map<String, BitSet>> terms
+                            : fields.values())
+                        removeFile(terms, file);
+                }
+                else
+                    throw new IOException("Unknown journal entry " + op);
+            }
+        }
+        catch (IOException e)
+        {
+            logger.warn("Ignoring incomplete keyword index journal entry in "
+                + journal, e);
+        }
+        finally
+        {
+            if (in != null)
+            {
+                try
+                {
+                    in.close();
+                }
+                catch (IOException e)
+                {}
+            }
+        }
+    }
+
+    /**
+     * Writes the whole index to a new snapshot and removes the journal.
+     */
+    private void writeSnapshot()
+    {
+        File snapshot = new File(directory, SNAPSHOT_FILE);
+        File tmp = new File(directory, SNAPSHOT_FILE + ".tmp");
+
+        try
+        {
+            DataOutputStream out
+                = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(tmp)));
+            try
+            {
+                out.writeInt(VERSION);
+                out.writeInt(fields.size());
+                for (Map.Entry<String, Map<String, Map<String, BitSet>>> f
+                        : fields.entrySet())
+                {
+                    out.writeUTF(f.getKey());
+                    out.writeInt(f.getValue().size());
+                    for (Map.Entry<String, Map<String, BitSet>> t
+                            : f.getValue().entrySet())
+                    {
+                        out.writeUTF(t.getKey());
+                        out.writeInt(t.getValue().size());
+                        for (Map.Entry<String, BitSet> p
+                                : t.getValue().entrySet())
+                        {
+                            BitSet ordinals = p.getValue();
+
+                            out.writeUTF(p.getKey());
+                            out.writeInt(ordinals.cardinality());
+                            for (int o = ordinals.nextSetBit(0);
+                                    o >= 0;
+                                    o = ordinals.nextSetBit(o + 1))
+                                out.writeInt(o);
+                        }
+                    }
+                }
+
+                out.writeInt(stamps.size());
+                for (Map.Entry<String, long[]> e : stamps.entrySet())
+                {
+                    out.writeUTF(e.getKey());
+                    out.writeLong(e.getValue()[0]);
+                    out.writeLong(e.getValue()[1]);
+                }
+            }
+            finally
+            {
+                out.close();
+            }
+
+            if (!tmp.renameTo(snapshot))
+            {
+                snapshot.delete();
+                if (!tmp.renameTo(snapshot))
+                    throw new IOException("Cannot replace " + snapshot);
+            }
+            new File(directory, JOURNAL_FILE).delete();
+        }
+        catch (IOException e)
+        {
+            // without a consistent snapshot the index will be rebuilt
+            logger.error("Cannot write keyword index " + snapshot, e);
+            snapshot.delete();
+            new File(directory, JOURNAL_FILE).delete();
+        }
+    }
+
+    /**
+     * Opens the journal for appending.
+     *
+     * @return the journal stream or <tt>null</tt> if it cannot be opened.
+     */
+    private DataOutputStream openJournal()
+    {
+        try
+        {
+            return new DataOutputStream(
+                new BufferedOutputStream(
+                    new FileOutputStream(
+                        new File(directory, JOURNAL_FILE), true)));
+        }
+        catch (IOException e)
+        {
+            logger.error("Cannot open keyword index journal", e);
+            return null;
+        }
+    }
+
+    /**
+     * Closes the journal stream.
+     *
+     * @param out the stream or <tt>null</tt>.
+     */
+    private static void closeJournal(DataOutputStream out)
+    {
+        if (out == null)
+            return;
+        try
+        {
+            out.close();
+        }
+        catch (IOException e)
+        {
+            logger.error("Cannot write keyword index journal", e);
+        }
+    }
+
+    /**
+     * Writes a journal entry adding the terms of a record.
+     *
+     * @param out the journal stream.
+     * @param field the field.
+     * @param file the file of the record.
+     * @param ordinal the position of the record in the file.
+     * @param terms the terms of the record.
+     * @throws IOException if writing fails.
+     */
+    private static void writeAdd(
+            DataOutputStream out,
+            String field,
+            String file,
+            int ordinal,
+            Set<String> terms)
+        throws IOException
+    {
+        out.writeByte(OP_ADD);
+        out.writeUTF(field);
+        out.writeUTF(file);
+        out.writeInt(ordinal);
+        out.writeInt(terms.size());
+        for (String term : terms)
+            out.writeUTF(term);
+    }
+
+    /**
+     * Adds the terms of a value to the index of a field.
+     *
+     * @param terms the index of the field.
+     * @param file the file of the record.
+     * @param ordinal the position of the record in the file.
+     * @param value the value or <tt>null</tt>.
+     */
+    private static void addValue(
+            Map<String, Map<String, BitSet>> terms,
+            String file,
+            int ordinal,
+            String value)
+    {
+        if (value == null)
+            return;
+
+        for (String term : tokenize(value))
+            addTerm(terms, file, ordinal, term);
+    }
+
+    /**
+     * Adds a position of a term to the index of a field.
+     *
+     * @param terms the index of the field.
+     * @param file the file of the record.
+     * @param ordinal the position of the record in the file.
+     * @param term the term.
+     */
+    private static void addTerm(
+            Map<String, Map<String, BitSet>> terms,
+            String file,
+            int ordinal,
+            String term)
+    {
+        Map<String, BitSet> positions = terms.get(term);
+
+        if (positions == null)
+        {
+            positions = new HashMap<String, BitSet>();
+            terms.put(term, positions);
+        }
+
+        BitSet ordinals = positions.get(file);
+        if (ordinals == null)
+        {
+            ordinals = new BitSet();
+            positions.put(file, ordinals);
+        }
+        ordinals.set(ordinal);
+    }
+
+    /**
+     * Removes all positions in a file from the index of a field.
+     *
+     * @param terms the index of the field.
+     * @param file the file.
+     */
+    private static void removeFile(
+            Map<String, Map<String, BitSet>> terms,
+            String file)
+    {
+        Iterator<Map<String, BitSet>> iter = terms.values().iterator();
+
+        while (iter.hasNext())
+        {
+            Map<String, BitSet> positions = iter.next();
+
+            positions.remove(file);
+            if (positions.isEmpty())
+                iter.remove();
+        }
+    }
+
+    /**
+     * Adds all positions of <tt>source</tt> to <tt>target</tt>.
+     *
+     * @param target the positions to add to.
+     * @param source the positions to add.
+     */
+    private static void union(
+            Map<String, BitSet> target,
+            Map<String, BitSet> source)
+    {
+        for (Map.Entry<String, BitSet> e : source.entrySet())
+        {
+            BitSet ordinals = target.get(e.getKey());
+
+            if (ordinals == null)
+            {
+                ordinals = new BitSet();
+                target.put(e.getKey(), ordinals);
+            }
+            ordinals.or(e.getValue());
+        }
+    }
+
+    /**
+     * Returns the positions present in both <tt>a</tt> and <tt>b</tt>.
+     *
+     * @param a the first positions, may be modified.
+     * @param b the second positions.
+     * @return the common positions.
+     */
+    private static Map<String, BitSet> intersect(
+            Map<String, BitSet> a,
+            Map<String, BitSet> b)
+    {
+        Iterator<Map.Entry<String, BitSet>> iter = a.entrySet().iterator();
+
+        while (iter.hasNext())
+        {
+            Map.Entry<String, BitSet> e = iter.next();
+            BitSet other = b.get(e.getKey());
+
+            if (other == null)
+            {
+                iter.remove();
+                continue;
+            }
+
+            e.getValue().and(other);
+            if (e.getValue().isEmpty())
+                iter.remove();
+        }
+        return a;
+    }
+
+    /**
+     * Returns the value of a field of a record.
+     *
+     * @param record the record.
+     * @param field the name of the field.
+     * @return the value or <tt>null</tt>.
+     */
+    private static String getValue(HistoryRecord record, String field)
+    {
+        String[] names = record.getPropertyNames();
+
+        for (int i = 0; i < names.length; i++)
+        {
+            if (field.equals(stripCDataSuffix(names[i])))
+                return record.getPropertyValues()[i];
+        }
+        return null;
+    }
+
+    /**
+     * Removes the <tt>_CDATA</tt> suffix used by the XML format from a
+     * property name.
+     *
+     * @param name the property name.
+     * @return the name without the suffix.
+     */
+    private static String stripCDataSuffix(String name)
+    {
+        return name.endsWith("_CDATA")
+            ? name.substring(0, name.length() - "_CDATA".length())
+            : name;
+    }
+}
@@ -0,0 +1,1092 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package net.java.sip.communicator.impl.history;
+
+import java.io.*;
+import java.util.*;
+
+import net.java.sip.communicator.service.history.records.*;
+import net.java.sip.communicator.util.*;
+
+/**
+ * An append-only, segmented binary store for the records of a single history.
+ * Records are appended to the last segment file (<tt>&lt;ts&gt;.hlog</tt>)
+ * and each segment has a sidecar timestamp index (<tt>&lt;ts&gt;.hidx</tt>)
+ * holding the timestamp and the file offset of every record in it, so
+ * queries can skip whole segments and seek directly to records.
+ * <p>
+ * A record in a segment file is stored as an <tt>int</tt> payload length
+ * followed by the payload: the <tt>long</tt> timestamp, the number of
+ * properties and for each of them the name (modified UTF-8) and the value
+ * (length prefixed UTF-8 bytes). An index entry is the <tt>long</tt>
+ * timestamp followed by the <tt>long</tt> offset of the record.
+ * <p>
+ * Existing records are never modified in place; updates rewrite the whole
+ * segment to a temporary file which then replaces the original one. Where
+ * a rename cannot replace a file, the original is first renamed to a backup
+ * which is restored when the log is loaded if the crash left no segment.
+ */
+public class HistoryLog
+{
+    /**
+     * The logger for this class.
+     */
+    private static final Logger logger = Logger.getLogger(HistoryLog.class);
+
+    /**
+     * The extension of the segment files.
+     */
+    public static final String SEGMENT_EXTENSION = ".hlog";
+
+    /**
+     * The extension of the segment index files.
+     */
+    public static final String INDEX_EXTENSION = ".hidx";
+
+    /**
+     * The extension used for temporary files while rewriting a segment.
+     */
+    private static final String TMP_EXTENSION = ".tmp";
+
+    /**
+     * The extension of the original files while they are replaced.
+     */
+    private static final String BACKUP_EXTENSION = ".bak";
+
+    /**
+     * Maximum records per segment, after that a new segment is started.
+     */
+    public static final int MAX_RECORDS_PER_SEGMENT = 5000;
+
+    /**
+     * The size in bytes of an index entry.
+     */
+    private static final int INDEX_ENTRY_SIZE = 16;
+
+    /**
+     * The directory holding the segments.
+     */
+    private final File directory;
+
+    /**
+     * The segments of this log ordered from the oldest to the newest.
+     */
+    private final List<Segment> segments = new ArrayList<Segment>();
+
+    /**
+     * Creates the log stored in <tt>directory</tt> and loads the indexes of
+     * its existing segments.
+     *
+     * @param directory the directory of the history.
+     */
+    public HistoryLog(File directory)
+    {
+        this.directory = directory;
+
+        reload();
+    }
+
+    /**
+     * Returns whether the given directory contains any log segments.
+     *
+     * @param directory the directory to check.
+     * @return whether the given directory contains any log segments.
+     */
+    public static boolean containsSegments(File directory)
+    {
+        File[] files = directory.listFiles();
+
+        if (files == null)
+            return false;
+
+        for (File f : files)
+        {
+            if (f.getName().endsWith(SEGMENT_EXTENSION))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Reloads the list of segments from disk.
+     */
+    synchronized void reload()
+    {
+        segments.clear();
+
+        File[] files = directory.listFiles();
+        if (files == null)
+            return;
+
+        if (restoreBackups(files))
+            files = directory.listFiles();
+
+        TreeMap<Long, File> sorted = new TreeMap<Long, File>();
+        for (File f : files)
+        {
+            String name = f.getName();
+
+            if (f.isDirectory() || !name.endsWith(SEGMENT_EXTENSION))
+                continue;
+
+            try
+            {
+                sorted.put(
+                    Long.parseLong(
+                        name.substring(
+                            0, name.length() - SEGMENT_EXTENSION.length())),
+                    f);
+            }
+            catch (NumberFormatException e)
+            {
+                logger.warn("Ignoring unknown history segment " + f);
+            }
+        }
+
+        for (Map.Entry<Long, File> e : sorted.entrySet())
+        {
+            Segment segment = new Segment(e.getKey());
+            try
+            {
+                segment.load();
+                segments.add(segment);
+            }
+            catch (IOException ex)
+            {
+                logger.error("Cannot load history segment " + e.getValue(), ex);
+            }
+        }
+    }
+
+    /**
+     * Restores the segments whose replacement was interrupted between the
+     * renames and deletes the backups which are no longer needed. An index
+     * is rebuilt when it is missing, so its backup is never restored.
+     *
+     * @param files the files of the log directory.
+     * @return whether a segment was restored.
+     */
+    private static boolean restoreBackups(File[] files)
+    {
+        boolean restored = false;
+
+        for (File backup : files)
+        {
+            String name = backup.getName();
+
+            if (!name.endsWith(BACKUP_EXTENSION))
+                continue;
+
+            File original
+                = new File(
+                    backup.getParentFile(),
+                    name.substring(
+                        0, name.length() - BACKUP_EXTENSION.length()));
+
+            if (original.getName().endsWith(SEGMENT_EXTENSION)
+                    && !original.exists())
+            {
+                logger.warn("Restoring history segment " + original);
+                if (backup.renameTo(original))
+                    restored = true;
+                else
+                    logger.error("Cannot restore " + original);
+            }
+            else
+                backup.delete();
+        }
+        return restored;
+    }
+
+    /**
+     * Returns a snapshot of the segments ordered from the oldest to the
+     * newest.
+     *
+     * @return a snapshot of the segments.
+     */
+    public synchronized List<Segment> getSegments()
+    {
+        return new ArrayList<Segment>(segments);
+    }
+
+    /**
+     * Returns the total number of records stored in this log.
+     *
+     * @return the total number of records stored in this log.
+     */
+    public synchronized int getRecordCount()
+    {
+        int count = 0;
+
+        for (Segment s : segments)
+            count += s.size();
+        return count;
+    }
+
+    /**
+     * Appends a record to the last segment, starting a new one if needed.
+     *
+     * @param timestamp the timestamp of the record.
+     * @param propertyNames the names of the properties.
+     * @param propertyValues the values of the properties, <tt>null</tt>
+     * values are skipped.
+     * @throws IOException if writing fails.
+     */
+    public synchronized void append(
+            long timestamp,
+            String[] propertyNames,
+            String[] propertyValues)
+        throws IOException
+    {
+        Segment segment = getWritableSegment(timestamp);
+        byte[] record = encode(timestamp, propertyNames, propertyValues);
+
+        segment.append(timestamp, record);
+    }
+
+    /**
+     * Appends many records at once, used when importing existing histories.
+     *
+     * @param records the records to append.
+     * @throws IOException if writing fails.
+     */
+    public synchronized void appendAll(List<HistoryRecord> records)
+        throws IOException
+    {
+        int i = 0;
+        while (i < records.size())
+        {
+            Segment segment
+                = getWritableSegment(records.get(i).getTimestamp().getTime());
+            int free = MAX_RECORDS_PER_SEGMENT - segment.size();
+            int end = Math.min(records.size(), i + free);
+
+            segment.appendAll(records.subList(i, end));
+            i = end;
+        }
+    }
+
+    /**
+     * Replaces the content of a segment with the given records.
+     *
+     * @param segment the segment to rewrite.
+     * @param records the new content of the segment.
+     * @throws IOException if writing fails.
+     */
+    public synchronized void rewrite(
+            Segment segment,
+            List<HistoryRecord> records)
+        throws IOException
+    {
+        if (!segments.contains(segment))
+            throw new IllegalArgumentException("Unknown segment " + segment);
+
+        if (records.isEmpty())
+        {
+            segment.getFile().delete();
+            segment.getIndexFile().delete();
+            segments.remove(segment);
+            return;
+        }
+
+        File tmpSegment
+            = new File(directory, segment.getFile().getName() + TMP_EXTENSION);
+        File tmpIndex
+            = new File(
+                directory, segment.getIndexFile().getName() + TMP_EXTENSION);
+
+        writeSegment(tmpSegment, tmpIndex, records);
+
+        replace(tmpSegment, segment.getFile());
+        replace(tmpIndex, segment.getIndexFile());
+
+        segment.load();
+    }
+
+    /**
+     * Returns the segment to which a record with the given timestamp will be
+     * appended, creating a new one if there is none or the last one is full.
+     * The record will get the position <tt>size()</tt> in that segment if it
+     * is appended while still holding the lock of this log.
+     *
+     * @param timestamp the timestamp of the record to append.
+     * @return the segment to append to.
+     */
+    synchronized Segment getWritableSegment(long timestamp)
+    {
+        Segment last
+            = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+
+        if (last == null || last.size() >= MAX_RECORDS_PER_SEGMENT)
+        {
+            // segments are named after their creation time and must stay
+            // ordered even if records arrive with older timestamps
+            long name = Math.max(timestamp, System.currentTimeMillis());
+
+            if (last != null && name <= last.getName())
+                name = last.getName() + 1;
+
+            last = new Segment(name);
+            segments.add(last);
+        }
+        return last;
+    }
+
+    /**
+     * Writes a complete segment and its index.
+     *
+     * @param segmentFile the segment file to write.
+     * @param indexFile the index file to write.
+     * @param records the records to write.
+     * @throws IOException if writing fails.
+     */
+    private static void writeSegment(
+            File segmentFile,
+            File indexFile,
+            List<HistoryRecord> records)
+        throws IOException
+    {
+        DataOutputStream segmentOut
+            = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(segmentFile)));
+        DataOutputStream indexOut
+            = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(indexFile)));
+
+        try
+        {
+            long offset = 0;
+            for (HistoryRecord r : records)
+            {
+                long timestamp = r.getTimestamp().getTime();
+                byte[] data
+                    = encode(
+                        timestamp, r.getPropertyNames(), r.getPropertyValues());
+
+                segmentOut.write(data);
+                indexOut.writeLong(timestamp);
+                indexOut.writeLong(offset);
+                offset += data.length;
+            }
+        }
+        finally
+        {
+            segmentOut.close();
+            indexOut.close();
+        }
+    }
+
+    /**
+     * Replaces <tt>target</tt> with <tt>source</tt>. The target is kept as a
+     * backup until the source has its name, so that there is always a
+     * complete file to load.
+     *
+     * @param source the new file.
+     * @param target the file to replace.
+     * @throws IOException if the file cannot be replaced.
+     */
+    private static void replace(File source, File target)
+        throws IOException
+    {
+        // an atomic replacement where the platform allows it
+        if (source.renameTo(target))
+            return;
+
+        // renameTo does not replace existing files on some platforms
+        File backup
+            = new File(
+                target.getParentFile(), target.getName() + BACKUP_EXTENSION);
+
+        backup.delete();
+        if (target.exists() && !target.renameTo(backup))
+            throw new IOException("Cannot replace " + target);
+
+        if (!source.renameTo(target))
+        {
+            if (!backup.renameTo(target))
+                logger.error("Cannot restore " + target + " from " + backup);
+            throw new IOException("Cannot replace " + target);
+        }
+        backup.delete();
+    }
+
+    /**
+     * Truncates a file if it is longer than <tt>length</tt>.
+     *
+     * @param file the file.
+     * @param length the length to truncate the file to.
+     * @throws IOException if the file cannot be truncated.
+     */
+    private static void setLength(File file, long length)
+        throws IOException
+    {
+        if (!file.exists() || file.length() <= length)
+            return;
+
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try
+        {
+            raf.setLength(length);
+        }
+        finally
+        {
+            raf.close();
+        }
+    }
+
+    /**
+     * Serializes a record including its length prefix.
+     *
+     * @param timestamp the timestamp of the record.
+     * @param propertyNames the names of the properties.
+     * @param propertyValues the values of the properties, <tt>null</tt>
+     * values are skipped.
+     * @return the serialized record.
+     * @throws IOException if serializing fails.
+     */
+    static byte[] encode(
+            long timestamp,
+            String[] propertyNames,
+            String[] propertyValues)
+        throws IOException
+    {
+        int count = 0;
+        for (String v : propertyValues)
+        {
+            if (v != null)
+                count++;
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        DataOutputStream out = new DataOutputStream(bytes);
+
+        // reserve space for the length
+        out.writeInt(0);
+        out.writeLong(timestamp);
+        out.writeShort(count);
+        for (int i = 0; i < propertyNames.length; i++)
+        {
+            if (propertyValues[i] == null)
+                continue;
+
+            byte[] value = propertyValues[i].getBytes("UTF-8");
+
+            out.writeUTF(propertyNames[i]);
+            out.writeInt(value.length);
+            out.write(value);
+        }
+        out.close();
+
+        byte[] data = bytes.toByteArray();
+        int length = data.length - 4;
+
+        data[0] = (byte) (length >>> 24);
+        data[1] = (byte) (length >>> 16);
+        data[2] = (byte) (length >>> 8);
+        data[3] = (byte) length;
+
+        return data;
+    }
+
+    /**
+     * Reads a record from the given stream.
+     *
+     * @param in the stream positioned at the start of a record.
+     * @return the record.
+     * @throws IOException if reading fails.
+     */
+    static HistoryRecord decode(DataInputStream in)
+        throws IOException
+    {
+        // the length is only needed when validating the segment
+        in.readInt();
+
+        long timestamp = in.readLong();
+        int count = in.readUnsignedShort();
+        String[] names = new String[count];
+        String[] values = new String[count];
+
+        for (int i = 0; i < count; i++)
+        {
+            names[i] = in.readUTF();
+
+            byte[] value = new byte[in.readInt()];
+            in.readFully(value);
+            values[i] = new String(value, "UTF-8");
+        }
+
+        return new HistoryRecord(names, values, new Date(timestamp));
+    }
+
+    /**
+     * A single segment of the log together with its in-memory copy of the
+     * timestamp index.
+     */
+    public class Segment
+    {
+        /**
+         * The name of the segment, the time it was created.
+         */
+        private final long name;
+
+        /**
+         * The timestamps of the records in this segment in file order.
+         */
+        private long[] timestamps = new long[16];
+
+        /**
+         * The offsets of the records in this segment in file order.
+         */
+        private long[] offsets = new long[16];
+
+        /**
+         * The number of records in this segment.
+         */
+        private int size = 0;
+
+        /**
+         * The length of the segment file.
+         */
+        private long length = 0;
+
+        /**
+         * The smallest timestamp in this segment.
+         */
+        private long minTimestamp = Long.MAX_VALUE;
+
+        /**
+         * The biggest timestamp in this segment.
+         */
+        private long maxTimestamp = Long.MIN_VALUE;
+
+        /**
+         * Creates a segment.
+         *
+         * @param name the name of the segment.
+         */
+        private Segment(long name)
+        {
+            this.name = name;
+        }
+
+        /**
+         * Returns the name of this segment.
+         *
+         * @return the name of this segment.
+         */
+        public long getName()
+        {
+            return name;
+        }
+
+        /**
+         * Returns the segment file.
+         *
+         * @return the segment file.
+         */
+        public File getFile()
+        {
+            return new File(directory, name + SEGMENT_EXTENSION);
+        }
+
+        /**
+         * Returns the index file.
+         *
+         * @return the index file.
+         */
+        public File getIndexFile()
+        {
+            return new File(directory, name + INDEX_EXTENSION);
+        }
+
+        /**
+         * Returns the number of records in this segment.
+         *
+         * @return the number of records in this segment.
+         */
+        public int size()
+        {
+            synchronized (HistoryLog.this)
+            {
+                return size;
+            }
+        }
+
+        /**
+         * Returns the smallest timestamp of a record in this segment.
+         *
+         * @return the smallest timestamp of a record in this segment.
+         */
+        public long getMinTimestamp()
+        {
+            synchronized (HistoryLog.this)
+            {
+                return minTimestamp;
+            }
+        }
+
+        /**
+         * Returns the biggest timestamp of a record in this segment.
+         *
+         * @return the biggest timestamp of a record in this segment.
+         */
+        public long getMaxTimestamp()
+        {
+            synchronized (HistoryLog.this)
+            {
+                return maxTimestamp;
+            }
+        }
+
+        /**
+         * Returns the timestamp of the record at <tt>ordinal</tt>.
+         *
+         * @param ordinal the position of the record in the segment.
+         * @return the timestamp of the record at <tt>ordinal</tt>.
+         */
+        public long getTimestamp(int ordinal)
+        {
+            synchronized (HistoryLog.this)
+            {
+                if (ordinal < 0 || ordinal >= size)
+                    throw new IndexOutOfBoundsException(
+                        String.valueOf(ordinal));
+                return timestamps[ordinal];
+            }
+        }
+
+        /**
+         * Counts the records of this segment in a histogram.
+         *
+         * @param histogram the histogram.
+         */
+        void addTo(HistoryRecordHistogram histogram)
+        {
+            synchronized (HistoryLog.this)
+            {
+                if (size == 0
+                    || histogram.addAll(minTimestamp, maxTimestamp, size))
+                {
+                    return;
+                }
+                for (int i = 0; i < size; i++)
+                    histogram.add(timestamps[i]);
+            }
+        }
+
+        /**
+         * Checks whether this segment may contain records in the given
+         * period.
+         *
+         * @param start the start of the period or <tt>null</tt>.
+         * @param end the end of the period (exclusive) or <tt>null</tt>.
+         * @return whether this segment overlaps the period.
+         */
+        public boolean overlaps(Date start, Date end)
+        {
+            synchronized (HistoryLog.this)
+            {
+                if (size == 0)
+                    return false;
+                if (start != null && maxTimestamp < start.getTime())
+                    return false;
+                if (end != null && minTimestamp >= end.getTime())
+                    return false;
+                return true;
+            }
+        }
+
+        /**
+         * Reads the records with ordinals in <tt>[from, to)</tt>.
+         *
+         * @param from the first ordinal to read.
+         * @param to the ordinal after the last one to read.
+         * @return the records in file order.
+         * @throws IOException if reading fails.
+         */
+        public List<HistoryRecord> read(int from, int to)
+            throws IOException
+        {
+            synchronized (HistoryLog.this)
+            {
+                if (from < 0 || to > size || from > to)
+                    throw new IndexOutOfBoundsException(from + "-" + to);
+
+                List<HistoryRecord> result
+                    = new ArrayList<HistoryRecord>(to - from);
+
+                if (from == to)
+                    return result;
+
+                FileInputStream fis = new FileInputStream(getFile());
+                try
+                {
+                    fis.getChannel().position(offsets[from]);
+
+                    DataInputStream in
+                        = new DataInputStream(new BufferedInputStream(fis));
+
+                    for (int i = from; i < to; i++)
+                        result.add(decode(in));
+                }
+                finally
+                {
+                    fis.close();
+                }
+                return result;
+            }
+        }
+
+        /**
+         * Reads all records of this segment.
+         *
+         * @return all the records of this segment in file order.
+         * @throws IOException if reading fails.
+         */
+        public List<HistoryRecord> readAll()
+            throws IOException
+        {
+            return read(0, size());
+        }
+
+        /**
+         * Loads the index of this segment, rebuilding it from the segment
+         * file if it is missing or does not match the segment (e.g. after a
+         * crash in the middle of an append).
+         *
+         * @throws IOException if the segment cannot be read.
+         */
+        private void load()
+            throws IOException
+        {
+            size = 0;
+            length = 0;
+            minTimestamp = Long.MAX_VALUE;
+            maxTimestamp = Long.MIN_VALUE;
+
+            File segmentFile = getFile();
+            File indexFile = getIndexFile();
+            long segmentLength = segmentFile.length();
+
+            if (indexFile.exists()
+                && indexFile.length() % INDEX_ENTRY_SIZE == 0)
+            {
+                DataInputStream in
+                    = new DataInputStream(
+                        new BufferedInputStream(
+                            new FileInputStream(indexFile)));
+                try
+                {
+                    int count = (int) (indexFile.length() / INDEX_ENTRY_SIZE);
+                    for (int i = 0; i < count; i++)
+                        add(in.readLong(), in.readLong());
+                }
+                finally
+                {
+                    in.close();
+                }
+
+                // the index is valid if the record after its last entry ends
+                // exactly at the end of the segment
+                if (size == 0
+                    ? segmentLength == 0
+                    : recordEnd(size - 1) == segmentLength)
+                {
+                    length = segmentLength;
+                    return;
+                }
+
+                logger.warn("Rebuilding history index " + indexFile);
+                size = 0;
+                minTimestamp = Long.MAX_VALUE;
+                maxTimestamp = Long.MIN_VALUE;
+            }
+
+            rebuildIndex(segmentFile, indexFile, segmentLength);
+        }
+
+        /**
+         * Returns the offset right after the record at <tt>ordinal</tt>.
+         *
+         * @param ordinal the record position.
+         * @return the offset right after the record.
+         * @throws IOException if the segment cannot be read.
+         */
+        private long recordEnd(int ordinal)
+            throws IOException
+        {
+            RandomAccessFile raf = new RandomAccessFile(getFile(), "r");
+            try
+            {
+                long offset = offsets[ordinal];
+
+                if (offset + 4 > raf.length())
+                    return -1;
+                raf.seek(offset);
+                return offset + 4 + raf.readInt();
+            }
+            finally
+            {
+                raf.close();
+            }
+        }
+
+        /**
+         * Scans the segment file and writes a new index for it, truncating a
+         * partially written record at its end.
+         *
+         * @param segmentFile the segment file.
+         * @param indexFile the index file.
+         * @param segmentLength the length of the segment file.
+         * @throws IOException if the segment cannot be read.
+         */
+        private void rebuildIndex(
+                File segmentFile,
+                File indexFile,
+                long segmentLength)
+            throws IOException
+        {
+            long offset = 0;
+
+            if (segmentLength > 0)
+            {
+                DataInputStream in
+                    = new DataInputStream(
+                        new BufferedInputStream(
+                            new FileInputStream(segmentFile)));
+                try
+                {
+                    while (offset + 12 <= segmentLength)
+                    {
+                        int recordLength = in.readInt();
+
+                        if (recordLength < 8
+                            || offset + 4 + recordLength > segmentLength)
+                            break;
+
+                        long timestamp = in.readLong();
+
+                        in.skipBytes(recordLength - 8);
+                        add(timestamp, offset);
+                        offset += 4 + recordLength;
+                    }
+                }
+                finally
+                {
+                    in.close();
+                }
+
+                if (offset < segmentLength)
+                {
+                    logger.warn("Truncating damaged history segment "
+                        + segmentFile + " at " + offset);
+
+                    RandomAccessFile raf
+                        = new RandomAccessFile(segmentFile, "rw");
+                    try
+                    {
+                        raf.setLength(offset);
+                    }
+                    finally
+                    {
+                        raf.close();
+                    }
+                }
+            }
+
+            length = offset;
+
+            DataOutputStream out
+                = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(indexFile)));
+            try
+            {
+                for (int i = 0; i < size; i++)
+                {
+                    out.writeLong(timestamps[i]);
+                    out.writeLong(offsets[i]);
+                }
+            }
+            finally
+            {
+                out.close();
+            }
+        }
+
+        /**
+         * Appends an already serialized record to the segment and its index.
+         *
+         * @param timestamp the timestamp of the record.
+         * @param record the serialized record.
+         * @throws IOException if writing fails.
+         */
+        private void append(long timestamp, byte[] record)
+            throws IOException
+        {
+            try
+            {
+                FileOutputStream out = new FileOutputStream(getFile(), true);
+                try
+                {
+                    out.write(record);
+                }
+                finally
+                {
+                    out.close();
+                }
+
+                appendIndex(new long[] { timestamp }, new long[] { length });
+            }
+            catch (IOException e)
+            {
+                truncate();
+                throw e;
+            }
+            add(timestamp, length);
+            length += record.length;
+        }
+
+        /**
+         * Appends records to the segment and its index with a single write
+         * to each file.
+         *
+         * @param records the records to append.
+         * @throws IOException if writing fails.
+         */
+        private void appendAll(List<HistoryRecord> records)
+            throws IOException
+        {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            long[] newTimestamps = new long[records.size()];
+            long[] newOffsets = new long[records.size()];
+            long offset = length;
+
+            for (int i = 0; i < records.size(); i++)
+            {
+                HistoryRecord r = records.get(i);
+                byte[] data
+                    = encode(
+                        r.getTimestamp().getTime(),
+                        r.getPropertyNames(),
+                        r.getPropertyValues());
+
+                newTimestamps[i] = r.getTimestamp().getTime();
+                newOffsets[i] = offset;
+                bytes.write(data);
+                offset += data.length;
+            }
+
+            try
+            {
+                FileOutputStream out = new FileOutputStream(getFile(), true);
+                try
+                {
+                    bytes.writeTo(out);
+                }
+                finally
+                {
+                    out.close();
+                }
+
+                appendIndex(newTimestamps, newOffsets);
+            }
+            catch (IOException e)
+            {
+                truncate();
+                throw e;
+            }
+            for (int i = 0; i < newTimestamps.length; i++)
+                add(newTimestamps[i], newOffsets[i]);
+            length = offset;
+        }
+
+        /**
+         * Cuts the segment and its index back to the records of the
+         * in-memory index after a failed append, so the offsets of the
+         * records appended next are right.
+         */
+        private void truncate()
+        {
+            try
+            {
+                setLength(getFile(), length);
+                setLength(getIndexFile(), (long) size * INDEX_ENTRY_SIZE);
+            }
+            catch (IOException e)
+            {
+                logger.error("Cannot truncate history segment " + this, e);
+            }
+        }
+
+        /**
+         * Appends entries to the index file.
+         *
+         * @param newTimestamps the timestamps to append.
+         * @param newOffsets the offsets to append.
+         * @throws IOException if writing fails.
+         */
+        private void appendIndex(long[] newTimestamps, long[] newOffsets)
+            throws IOException
+        {
+            ByteArrayOutputStream bytes
+                = new ByteArrayOutputStream(
+                    newTimestamps.length * INDEX_ENTRY_SIZE);
+            DataOutputStream data = new DataOutputStream(bytes);
+
+            for (int i = 0; i < newTimestamps.length; i++)
+            {
+                data.writeLong(newTimestamps[i]);
+                data.writeLong(newOffsets[i]);
+            }
+            data.close();
+
+            FileOutputStream out = new FileOutputStream(getIndexFile(), true);
+            try
+            {
+                bytes.writeTo(out);
+            }
+            finally
+            {
+                out.close();
+            }
+        }
+
+        /**
+         * Adds an entry to the in-memory index.
+         *
+         * @param timestamp the timestamp of the record.
+         * @param offset the offset of the record.
+         */
+        private void add(long timestamp, long offset)
+        {
+            if (size == timestamps.length)
+            {
+                timestamps = Arrays.copyOf(timestamps, size * 2);
+                offsets = Arrays.copyOf(offsets, size * 2);
+            }
+            timestamps[size] = timestamp;
+            offsets[size] = offset;
+            size++;
+
+            if (timestamp < minTimestamp)
+                minTimestamp = timestamp;
+            if (timestamp > maxTimestamp)
+                maxTimestamp = timestamp;
+        }
+
+        /**
+         * Returns a string representation of this segment.
+         *
+         * @return a string representation of this segment.
+         */
+        @Override
+        public String toString()
+        {
+            return getFile().toString();
+        }
+    }
+}
@@ -0,0 +1,265 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package net.java.sip.communicator.impl.history;
+
+import static
+    net.java.sip.communicator.service.history.HistoryService.DATE_FORMAT;
+
+import java.io.*;
+import java.text.*;
+import java.util.*;
+
+import net.java.sip.communicator.service.history.records.*;
+import net.java.sip.communicator.util.*;
+
+import org.w3c.dom.*;
+
+/**
+ * Imports the XML documents of a history into its <tt>HistoryLog</tt>. Every
+ * document is appended to the log in file order and is then renamed with
+ * the {@link #MIGRATED_SUFFIX} so it is not imported again, but is still
+ * available if the user needs to go back to the XML format.
+ * <p>
+ * A document which has not been renamed, after a crash, a failed rename or
+ * a failed append, is imported again at the next start. The records it has
+ * in common with the log are then skipped so they are not duplicated.
+ */
+public class HistoryLogMigrator
+{
+    /**
+     * The logger for this class.
+     */
+    private static final Logger logger
+        = Logger.getLogger(HistoryLogMigrator.class);
+
+    /**
+     * The suffix appended to the name of already imported XML documents.
+     */
+    public static final String MIGRATED_SUFFIX = ".migrated";
+
+    /**
+     * The history which documents are migrated.
+     */
+    private final HistoryImpl history;
+
+    /**
+     * The directory of the history.
+     */
+    private final File directory;
+
+    /**
+     * The log to import the records into.
+     */
+    private final HistoryLog log;
+
+    /**
+     * Creates a migrator for the given history.
+     *
+     * @param history the history which XML documents will be imported.
+     * @param directory the directory of the history.
+     * @param log the log to import the records into.
+     */
+    HistoryLogMigrator(HistoryImpl history, File directory, HistoryLog log)
+    {
+        this.history = history;
+        this.directory = directory;
+        this.log = log;
+    }
+
+    /**
+     * Imports all the XML documents of the history into the log.
+     *
+     * @return the number of imported records.
+     */
+    int migrate()
+    {
+        int count = 0;
+        Vector<String> files
+            = HistoryReaderImpl.filterFilesByDate(
+                history.getFileList(), null, null);
+
+        for (String filename : files)
+        {
+            Document doc = history.getDocumentForFile(filename);
+
+            if (doc == null)
+                continue;
+
+            List<HistoryRecord> records;
+
+            try
+            {
+                records = removeImported(readRecords(doc));
+                log.appendAll(records);
+            }
+            catch (IOException e)
+            {
+                // the file keeps its name and is imported again next time
+                logger.error("Cannot import history file " + filename
+                    + " from " + directory, e);
+                continue;
+            }
+            count += records.size();
+
+            File file = new File(directory, filename);
+            if (!file.renameTo(new File(directory, filename + MIGRATED_SUFFIX)))
+                logger.warn("Cannot rename imported history file " + file);
+        }
+
+        if (logger.isInfoEnabled())
+            logger.info("Imported " + count + " records into " + directory);
+
+        history.reloadDocumentList();
+
+        return count;
+    }
+
+    /**
+     * Removes the records which are already in the log, the document having
+     * been partially or fully imported before.
+     *
+     * @param records the records of a document.
+     * @return the records of the document which are not in the log.
+     * @throws IOException if the log cannot be read.
+     */
+    private List<HistoryRecord> removeImported(List<HistoryRecord> records)
+        throws IOException
+    {
+        if (records.isEmpty())
+            return records;
+
+        long min = Long.MAX_VALUE;
+        long max = Long.MIN_VALUE;
+
+        for (HistoryRecord r : records)
+        {
+            long timestamp = r.getTimestamp().getTime();
+
+            min = Math.min(min, timestamp);
+            max = Math.max(max, timestamp);
+        }
+
+        Date start = new Date(min);
+        Date end = new Date(max + 1);
+        Map<List<Object>, Integer> imported
+            = new HashMap<List<Object>, Integer>();
+
+        for (HistoryLog.Segment segment : log.getSegments())
+        {
+            if (!segment.overlaps(start, end))
+                continue;
+
+            for (HistoryRecord r : segment.readAll())
+            {
+                long timestamp = r.getTimestamp().getTime();
+
+                if (timestamp < min || timestamp > max)
+                    continue;
+
+                List<Object> key = getKey(r);
+                Integer n = imported.get(key);
+
+                imported.put(key, (n == null) ? 1 : n + 1);
+            }
+        }
+
+        if (imported.isEmpty())
+            return records;
+
+        List<HistoryRecord> result
+            = new ArrayList<HistoryRecord>(records.size());
+
+        for (HistoryRecord r : records)
+        {
+            List<Object> key = getKey(r);
+            Integer n = imported.get(key);
+
+            if (n == null)
+                result.add(r);
+            else if (n == 1)
+                imported.remove(key);
+            else
+                imported.put(key, n - 1);
+        }
+        return result;
+    }
+
+    /**
+     * Returns a key equal for the records with the same timestamp and
+     * properties, as read from a document or from the log which does not
+     * store <tt>null</tt> values.
+     *
+     * @param record the record.
+     * @return the key of the record.
+     */
+    private static List<Object> getKey(HistoryRecord record)
+    {
+        String[] names = record.getPropertyNames();
+        String[] values = record.getPropertyValues();
+        List<Object> key = new ArrayList<Object>(1 + 2 * names.length);
+
+        key.add(record.getTimestamp().getTime());
+        for (int i = 0; i < names.length; i++)
+        {
+            if (values[i] == null)
+                continue;
+            key.add(names[i]);
+            key.add(values[i]);
+        }
+        return key;
+    }
+
+    /**
+     * Reads the records of an XML history document in document order.
+     *
+     * @param doc the document.
+     * @return the records of the document.
+     */
+    private static List<HistoryRecord> readRecords(Document doc)
+    {
+        SimpleDateFormat sdf = new SimpleDateFormat(DATE_FORMAT);
+        NodeList nodes = doc.getElementsByTagName("record");
+        List<HistoryRecord> records
+            = new ArrayList<HistoryRecord>(nodes.getLength());
+
+        for (int i = 0; i < nodes.getLength(); i++)
+        {
+            Node node = nodes.item(i);
+            Node tsNode = node.getAttributes().getNamedItem("timestamp");
+
+            if (tsNode == null)
+                continue;
+
+            Date timestamp;
+            String ts = tsNode.getNodeValue();
+            try
+            {
+                timestamp = sdf.parse(ts);
+            }
+            catch (ParseException e)
+            {
+                try
+                {
+                    timestamp = new Date(Long.parseLong(ts));
+                }
+                catch (NumberFormatException nfe)
+                {
+                    logger.warn("Skipping record with bad timestamp " + ts);
+                    continue;
+                }
+            }
+
+            HistoryRecord record
+                = HistoryReaderImpl.filterByKeyword(
+                    node.getChildNodes(), timestamp, null, null, false);
+
+            if (record != null)
+                records.add(record);
+        }
+        return records;
+    }
+}
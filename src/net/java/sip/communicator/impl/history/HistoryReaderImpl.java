@@ -196,62 +196,19 @@ public class HistoryReaderImpl
         int leftCount = count;
         int currentFile = filelist.size() - 1;
 
-        SimpleDateFormat sdf = new SimpleDateFormat(DATE_FORMAT);
         while(leftCount > 0 && currentFile >= 0)
         {
-            Document doc = this.historyImpl.
-                getDocumentForFile(filelist.get(currentFile));
+            // the last records are taken and only then filtered, so the
+            // keywords may leave less than count records
+            List<HistoryRecord> records = this.historyImpl.readRecords(
+                filelist.get(currentFile), null, null, leftCount, true, false);
 
-            if(doc == null)
-            {
-                currentFile--;
-                continue;
-            }
+            leftCount -= records.size();
 
-            // will get nodes and construct a List of nodes
-            // so we can easily get sublist of it
-            List<Node> nodes = new ArrayList<Node>();
-            NodeList nodesList = doc.getElementsByTagName("record");
-            for (int i = 0; i < nodesList.getLength(); i++)
+            for (HistoryRecord record : records)
             {
-                nodes.add(nodesList.item(i));
-            }
-
-            List<Node> lNodes = null;
-
-            if (nodes.size() > leftCount)
-            {
-                lNodes = nodes.subList(nodes.size() - leftCount , nodes.size());
-                leftCount = 0;
-            }
-            else
-            {
-                lNodes = nodes;
-                leftCount -= nodes.size();
-            }
-
-            Iterator<Node> i = lNodes.iterator();
-            while (i.hasNext())
-            {
-                Node node = i.next();
-
-                NodeList propertyNodes = node.getChildNodes();
-
-                Date timestamp;
-                String ts = node.getAttributes().getNamedItem("timestamp")
-                    .getNodeValue();
-                try
-                {
-                    timestamp = sdf.parse(ts);
-                }
-                catch (ParseException e)
-                {
-                    timestamp = new Date(Long.parseLong(ts));
-                }
-
-                HistoryRecord record =
-                    filterByKeyword(propertyNodes, timestamp,
-                        keywords, field, caseSensitive);
+                record = LogHistoryReaderImpl.filterByKeyword(
+                    record, keywords, field, caseSensitive);
 
                 if(record != null)
                 {
@@ -341,88 +298,19 @@ public class HistoryReaderImpl
         TreeSet<HistoryRecord> result
             = new TreeSet<HistoryRecord>(new HistoryRecordComparator());
 
-        Vector<String> filelist =
-            filterFilesByDate(this.historyImpl.getFileList(), date, null);
+        Vector<String> filelist
+            = this.historyImpl.getFilesInPeriod(date, null, false);
 
         int leftCount = count;
         int currentFile = 0;
 
-        SimpleDateFormat sdf = new SimpleDateFormat(DATE_FORMAT);
         while(leftCount > 0 && currentFile < filelist.size())
         {
-            Document doc = this.historyImpl.
-                getDocumentForFile(filelist.get(currentFile));
-
-            if(doc == null)
-            {
-                currentFile++;
-                continue;
-            }
-
-            NodeList nodes = doc.getElementsByTagName("record");
-
-            Node node;
-            for (int i = 0; i < nodes.getLength() && leftCount > 0; i++)
-            {
-                node = nodes.item(i);
+            List<HistoryRecord> records = this.historyImpl.readRecords(
+                filelist.get(currentFile), date, null, leftCount, false, true);
 
-                NodeList propertyNodes = node.getChildNodes();
-
-                Date timestamp;
-                String ts = node.getAttributes().getNamedItem("timestamp")
-                    .getNodeValue();
-                try
-                {
-                    timestamp = sdf.parse(ts);
-                }
-                catch (ParseException e)
-                {
-                    timestamp = new Date(Long.parseLong(ts));
-                }
-
-                if(!isInPeriod(timestamp, date, null))
-                    continue;
-
-                ArrayList<String> nameVals = new ArrayList<String>();
-
-                boolean isRecordOK = true;
-                int len = propertyNodes.getLength();
-                for (int j = 0; j < len; j++)
-                {
-                    Node propertyNode = propertyNodes.item(j);
-                    if (propertyNode.getNodeType() == Node.ELEMENT_NODE)
-                    {
-                        // Get nested TEXT node's value
-                        Node nodeValue = propertyNode.getFirstChild();
-
-                        if(nodeValue != null)
-                        {
-                            nameVals.add(propertyNode.getNodeName());
-                            nameVals.add(nodeValue.getNodeValue());
-                        }
-                        else
-                            isRecordOK = false;
-                    }
-                }
-
-                // if we found a broken record - just skip it
-                if(!isRecordOK)
-                    continue;
-
-                String[] propertyNames = new String[nameVals.size() / 2];
-                String[] propertyValues = new String[propertyNames.length];
-                for (int j = 0; j < propertyNames.length; j++)
-                {
-                    propertyNames[j] = nameVals.get(j * 2);
-                    propertyValues[j] = nameVals.get(j * 2 + 1);
-                }
-
-                HistoryRecord record = new HistoryRecord(propertyNames,
-                    propertyValues, timestamp);
-
-                result.add(record);
-                leftCount--;
-            }
+            result.addAll(records);
+            leftCount -= records.size();
 
             currentFile++;
         }
@@ -443,8 +331,8 @@ public class HistoryReaderImpl
             throws RuntimeException
     {
         // the files are supposed to be ordered from oldest to newest
-        Vector<String> filelist =
-            filterFilesByDate(this.historyImpl.getFileList(), null, date);
+        Vector<String> filelist
+            = this.historyImpl.getFilesInPeriod(null, date, false);
 
         TreeSet<HistoryRecord> result
             = new TreeSet<HistoryRecord>(new HistoryRecordComparator());
@@ -452,81 +340,13 @@ public class HistoryReaderImpl
 
         int currentFile = filelist.size() - 1;
 
-        SimpleDateFormat sdf = new SimpleDateFormat(DATE_FORMAT);
         while(leftCount > 0 && currentFile >= 0)
         {
-            Document doc = this.historyImpl.
-                getDocumentForFile(filelist.get(currentFile));
+            List<HistoryRecord> records = this.historyImpl.readRecords(
+                filelist.get(currentFile), null, date, leftCount, true, true);
 
-            if(doc == null)
-            {
-                currentFile--;
-                continue;
-            }
-
-            NodeList nodes = doc.getElementsByTagName("record");
-
-            Node node;
-            for (int i = nodes.getLength() - 1; i >= 0 && leftCount > 0; i--)
-            {
-                node = nodes.item(i);
-                NodeList propertyNodes = node.getChildNodes();
-
-                Date timestamp;
-                String ts = node.getAttributes().getNamedItem("timestamp")
-                    .getNodeValue();
-                try
-                {
-                    timestamp = sdf.parse(ts);
-                }
-                catch (ParseException e)
-                {
-                    timestamp = new Date(Long.parseLong(ts));
-                }
-
-                if(!isInPeriod(timestamp, null, date))
-                    continue;
-
-                ArrayList<String> nameVals = new ArrayList<String>();
-
-                boolean isRecordOK = true;
-                int len = propertyNodes.getLength();
-                for (int j = 0; j < len; j++)
-                {
-                    Node propertyNode = propertyNodes.item(j);
-                    if (propertyNode.getNodeType() == Node.ELEMENT_NODE)
-                    {
-                        // Get nested TEXT node's value
-                        Node nodeValue = propertyNode.getFirstChild();
-
-                        if(nodeValue != null)
-                        {
-                            nameVals.add(propertyNode.getNodeName());
-                            nameVals.add(nodeValue.getNodeValue());
-                        }
-                        else
-                            isRecordOK = false;
-                    }
-                }
-
-                // if we found a broken record - just skip it
-                if(!isRecordOK)
-                    continue;
-
-                String[] propertyNames = new String[nameVals.size() / 2];
-                String[] propertyValues = new String[propertyNames.length];
-                for (int j = 0; j < propertyNames.length; j++)
-                {
-                    propertyNames[j] = nameVals.get(j * 2);
-                    propertyValues[j] = nameVals.get(j * 2 + 1);
-                }
-
-                HistoryRecord record = new HistoryRecord(propertyNames,
-                    propertyValues, timestamp);
-
-                result.add(record);
-                leftCount--;
-            }
+            result.addAll(records);
+            leftCount -= records.size();
 
             currentFile--;
         }
@@ -541,9 +361,9 @@ public class HistoryReaderImpl
         TreeSet<HistoryRecord> result
             = new TreeSet<HistoryRecord>(new HistoryRecordComparator());
 
+        // only the files which records overlap the period
         Vector<String> filelist
-            = filterFilesByDate(this.historyImpl.getFileList(),
-                                startDate, endDate);
+            = this.historyImpl.getFilesInPeriod(startDate, endDate, false);
 
         double currentProgress
             = HistorySearchProgressListener.PROGRESS_MINIMUM_VALUE;
@@ -559,12 +379,31 @@ public class HistoryReaderImpl
         fireProgressStateChanged(startDate, endDate,
             keywords, HistorySearchProgressListener.PROGRESS_MINIMUM_VALUE);
 
+        // the records which may match the keywords, all records are
+        // checked if the keyword index cannot narrow the search
+        Map<String, BitSet> candidates
+            = this.historyImpl.findKeywordCandidates(field, keywords);
+
         SimpleDateFormat sdf = new SimpleDateFormat(DATE_FORMAT);
         Iterator<String> fileIterator = filelist.iterator();
         while (fileIterator.hasNext())
         {
             String filename = fileIterator.next();
 
+            BitSet fileCandidates = null;
+            if(candidates != null)
+            {
+                fileCandidates = candidates.get(filename);
+
+                if(fileCandidates == null)
+                {
+                    currentProgress += fileProgressStep;
+                    fireProgressStateChanged(
+                        startDate, endDate, keywords, (int)currentProgress);
+                    continue;
+                }
+            }
+
             Document doc = this.historyImpl.getDocumentForFile(filename);
 
             if(doc == null)
@@ -572,13 +411,22 @@ public class HistoryReaderImpl
 
             NodeList nodes = doc.getElementsByTagName("record");
 
+            int nodesCount = (fileCandidates == null)
+                ? nodes.getLength()
+                : fileCandidates.cardinality();
             double nodesProgressStep = fileProgressStep;
 
-            if(nodes.getLength() != 0)
-                nodesProgressStep = fileProgressStep / nodes.getLength();
+            if(nodesCount != 0)
+                nodesProgressStep = fileProgressStep / nodesCount;
 
             Node node;
-            for (int i = 0; i < nodes.getLength(); i++)
+            for (int i = (fileCandidates == null)
+                        ? 0
+                        : fileCandidates.nextSetBit(0);
+                 i >= 0 && i < nodes.getLength();
+                 i = (fileCandidates == null)
+                        ? i + 1
+                        : fileCandidates.nextSetBit(i + 1))
             {
                 node = nodes.item(i);
 
@@ -932,11 +780,9 @@ public class HistoryReaderImpl
     }
 
     /**
-     * Count the number of messages that a search will return
-     * Actually only the last file is parsed and its nodes are counted.
-     * We accept that the other files are full with max records,
-     * this way we escape parsing all files which will significantly
-     * slow the process and for one search will parse the files twice.
+     * Count the number of messages that a search will return.
+     * The counts are read from the file index of the history, so no
+     * file is parsed unless it changed since it was indexed.
      *
      * @return the number of searched messages
      * @throws UnsupportedOperationException
@@ -946,35 +792,36 @@ public class HistoryReaderImpl
     public int countRecords()
         throws UnsupportedOperationException
     {
-        int result = 0;
-        String lastFile = null;
-        Iterator<String> filelistIter = this.historyImpl.getFileList();
-        while (filelistIter.hasNext())
-        {
-            lastFile = filelistIter.next();
-            result += HistoryWriterImpl.MAX_RECORDS_PER_FILE;
-        }
-
-        if(lastFile == null)
-            return result;
-
-        Document doc = this.historyImpl.getDocumentForFile(lastFile);
-
-        if(doc == null)
-            return result;
-
-        NodeList nodes = doc.getElementsByTagName("record");
+        return this.historyImpl.countRecords();
+    }
 
-        result += nodes.getLength();
+    /**
+     * Counts the records in a period by the calendar bucket of their
+     * timestamp. The records of a file which all fall in the same bucket
+     * are counted from the file index, the timestamps of the others are
+     * streamed.
+     *
+     * @param startDate start of the interval or <tt>null</tt>
+     * @param endDate end of the interval (exclusive) or <tt>null</tt>
+     * @param calendarField the <tt>Calendar</tt> field of the buckets
+     * @return the number of records by bucket start
+     */
+    public SortedMap<Date, Integer> countRecordsByPeriod(Date startDate,
+                                                         Date endDate,
+                                                         int calendarField)
+    {
+        HistoryRecordHistogram histogram
+            = new HistoryRecordHistogram(startDate, endDate, calendarField);
 
-        return result;
+        this.historyImpl.countRecords(startDate, endDate, histogram);
+        return histogram.getCounts();
     }
 
     /**
      * Used to compare HistoryRecords
      * ant to be ordered in TreeSet
      */
-    private static class HistoryRecordComparator
+    static class HistoryRecordComparator
         implements Comparator<HistoryRecord>
     {
         public int compare(HistoryRecord h1, HistoryRecord h2)
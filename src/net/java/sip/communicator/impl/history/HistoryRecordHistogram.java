@@ -0,0 +1,235 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package net.java.sip.communicator.impl.history;
+
+import java.util.*;
+
+/**
+ * Counts the records of a period by the calendar bucket (day, month...) of
+ * their timestamp in the default time zone. Consecutive records usually
+ * fall in the same bucket, so the range of the last bucket is kept and the
+ * calendar is only used when a record falls out of it.
+ */
+class HistoryRecordHistogram
+{
+    /**
+     * The calendar fields of a bucket start, from the largest.
+     */
+    private static final int[] BUCKET_FIELDS = {
+        Calendar.YEAR, Calendar.MONTH, Calendar.DAY_OF_MONTH,
+        Calendar.HOUR_OF_DAY, Calendar.MINUTE, Calendar.SECOND,
+        Calendar.MILLISECOND };
+
+    /**
+     * The start of the period or <tt>null</tt>.
+     */
+    private final Date startDate;
+
+    /**
+     * The end of the period (exclusive) or <tt>null</tt>.
+     */
+    private final Date endDate;
+
+    /**
+     * The calendar field of the buckets, normalized to the field it is
+     * incremented by.
+     */
+    private final int calendarField;
+
+    /**
+     * The calendar computing the buckets.
+     */
+    private final Calendar calendar = Calendar.getInstance();
+
+    /**
+     * The counts by bucket start.
+     */
+    private final SortedMap<Date, Integer> counts
+        = new TreeMap<Date, Integer>();
+
+    /**
+     * The start of the last bucket.
+     */
+    private long bucketStart = Long.MAX_VALUE;
+
+    /**
+     * The end (exclusive) of the last bucket.
+     */
+    private long bucketEnd = Long.MIN_VALUE;
+
+    /**
+     * The records counted in the last bucket and not yet in
+     * <tt>counts</tt>.
+     */
+    private int bucketCount = 0;
+
+    /**
+     * Creates a histogram.
+     *
+     * @param startDate the start of the period or <tt>null</tt>
+     * @param endDate the end of the period (exclusive) or <tt>null</tt>
+     * @param calendarField the <tt>Calendar</tt> field of the buckets, one
+     * of <tt>YEAR</tt>, <tt>MONTH</tt>, <tt>WEEK_OF_YEAR</tt>,
+     * <tt>WEEK_OF_MONTH</tt>, <tt>DAY_OF_MONTH</tt>, <tt>DAY_OF_YEAR</tt>,
+     * <tt>DAY_OF_WEEK</tt>, <tt>HOUR</tt>, <tt>HOUR_OF_DAY</tt> or
+     * <tt>MINUTE</tt>
+     * @throws IllegalArgumentException if <tt>calendarField</tt> is not
+     * supported
+     */
+    HistoryRecordHistogram(Date startDate, Date endDate, int calendarField)
+    {
+        this.startDate = startDate;
+        this.endDate = endDate;
+
+        switch (calendarField)
+        {
+        case Calendar.YEAR:
+        case Calendar.MONTH:
+        case Calendar.WEEK_OF_YEAR:
+        case Calendar.DAY_OF_MONTH:
+        case Calendar.HOUR_OF_DAY:
+        case Calendar.MINUTE:
+            this.calendarField = calendarField;
+            break;
+        case Calendar.WEEK_OF_MONTH:
+            this.calendarField = Calendar.WEEK_OF_YEAR;
+            break;
+        case Calendar.DAY_OF_YEAR:
+        case Calendar.DAY_OF_WEEK:
+            this.calendarField = Calendar.DAY_OF_MONTH;
+            break;
+        case Calendar.HOUR:
+            this.calendarField = Calendar.HOUR_OF_DAY;
+            break;
+        default:
+            throw new IllegalArgumentException(
+                "Unsupported calendar field " + calendarField);
+        }
+    }
+
+    /**
+     * Counts a record if its timestamp is in the period.
+     *
+     * @param timestamp the timestamp of the record
+     */
+    void add(long timestamp)
+    {
+        if (!isInPeriod(timestamp))
+            return;
+
+        if (timestamp < bucketStart || timestamp >= bucketEnd)
+            setBucket(timestamp);
+        bucketCount++;
+    }
+
+    /**
+     * Counts at once the records of a file when they all fall in the same
+     * bucket of the period.
+     *
+     * @param minTimestamp the smallest timestamp of the records
+     * @param maxTimestamp the biggest timestamp of the records
+     * @param count the number of records
+     * @return <tt>true</tt> if the records were counted, <tt>false</tt> if
+     * they have to be counted one by one
+     */
+    boolean addAll(long minTimestamp, long maxTimestamp, int count)
+    {
+        if (minTimestamp > maxTimestamp
+            || !isInPeriod(minTimestamp)
+            || !isInPeriod(maxTimestamp))
+        {
+            return false;
+        }
+
+        if (minTimestamp < bucketStart || minTimestamp >= bucketEnd)
+            setBucket(minTimestamp);
+        if (maxTimestamp >= bucketEnd)
+            return false;
+
+        bucketCount += count;
+        return true;
+    }
+
+    /**
+     * Returns the counts of the buckets holding records.
+     *
+     * @return the number of records by bucket start, in ascending order
+     */
+    SortedMap<Date, Integer> getCounts()
+    {
+        flush();
+        return counts;
+    }
+
+    /**
+     * Checks whether a timestamp is in the period, using the period
+     * semantics of <tt>HistoryReaderImpl.isInPeriod</tt>.
+     *
+     * @param timestamp the timestamp
+     * @return whether <tt>timestamp</tt> is in the period
+     */
+    private boolean isInPeriod(long timestamp)
+    {
+        return (startDate == null || startDate.getTime() <= timestamp)
+            && (endDate == null || timestamp < endDate.getTime());
+    }
+
+    /**
+     * Makes the bucket holding a timestamp the current one.
+     *
+     * @param timestamp the timestamp
+     */
+    private void setBucket(long timestamp)
+    {
+        flush();
+
+        calendar.setTimeInMillis(timestamp);
+
+        int unit = calendarField;
+
+        if (unit == Calendar.WEEK_OF_YEAR)
+        {
+            // go back to the first day of the week
+            int days = calendar.get(Calendar.DAY_OF_WEEK)
+                - calendar.getFirstDayOfWeek();
+
+            if (days < 0)
+                days += 7;
+            calendar.add(Calendar.DAY_OF_MONTH, -days);
+            unit = Calendar.DAY_OF_MONTH;
+        }
+
+        // reset the fields smaller than the unit of the buckets
+        boolean smaller = false;
+        for (int field : BUCKET_FIELDS)
+        {
+            if (smaller)
+                calendar.set(field, calendar.getActualMinimum(field));
+            else if (field == unit)
+                smaller = true;
+        }
+        bucketStart = calendar.getTimeInMillis();
+        calendar.add(calendarField, 1);
+        bucketEnd = calendar.getTimeInMillis();
+    }
+
+    /**
+     * Adds the count of the current bucket to <tt>counts</tt>.
+     */
+    private void flush()
+    {
+        if (bucketCount == 0)
+            return;
+
+        Date bucket = new Date(bucketStart);
+        Integer count = counts.get(bucket);
+
+        counts.put(
+            bucket, (count == null) ? bucketCount : count + bucketCount);
+        bucketCount = 0;
+    }
+}
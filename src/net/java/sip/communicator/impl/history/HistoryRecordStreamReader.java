@@ -0,0 +1,502 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package net.java.sip.communicator.impl.history;
+
+import static
+    net.java.sip.communicator.service.history.HistoryService.DATE_FORMAT;
+
+import java.io.*;
+import java.text.*;
+import java.util.*;
+
+import javax.xml.stream.*;
+
+import net.java.sip.communicator.service.history.records.*;
+
+import org.apache.commons.lang3.*;
+import org.w3c.dom.*;
+
+/**
+ * Reads the records of a history XML file with a streaming parser, without
+ * building its DOM tree. The reader moves from record to record and decodes
+ * the properties of a record only when they are asked for, so records which
+ * are skipped cost only the parsing of their timestamp.
+ * <p>
+ * The static <tt>read</tt> methods select the first or the last records of
+ * a file in a period, from a stream or from an already parsed document.
+ */
+public class HistoryRecordStreamReader
+{
+    /**
+     * The factory of the streaming parsers. Creating parsers from a
+     * configured factory is thread safe.
+     */
+    private static final XMLInputFactory factory;
+
+    static
+    {
+        factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+    }
+
+    /**
+     * The underlying streaming parser.
+     */
+    private final XMLStreamReader reader;
+
+    /**
+     * The value of the timestamp attribute of the current record.
+     */
+    private String timestampValue = null;
+
+    /**
+     * Whether the properties of the current record still have to be read.
+     */
+    private boolean inRecord = false;
+
+    /**
+     * Creates a reader of the records in a stream.
+     *
+     * @param in the stream of a history XML file
+     * @throws XMLStreamException if the stream cannot be parsed
+     */
+    public HistoryRecordStreamReader(InputStream in)
+        throws XMLStreamException
+    {
+        reader = factory.createXMLStreamReader(in);
+    }
+
+    /**
+     * Moves to the next record, skipping the properties of the current one
+     * if they were not read.
+     *
+     * @return <tt>false</tt> if there are no more records
+     * @throws XMLStreamException if the stream cannot be parsed
+     */
+    public boolean nextRecord()
+        throws XMLStreamException
+    {
+        if (inRecord)
+            skipElement();
+
+        while (reader.hasNext())
+        {
+            if (reader.next() == XMLStreamConstants.START_ELEMENT
+                && "record".equals(reader.getLocalName()))
+            {
+                timestampValue = reader.getAttributeValue(null, "timestamp");
+                inRecord = true;
+                return true;
+            }
+        }
+        timestampValue = null;
+        return false;
+    }
+
+    /**
+     * Returns the timestamp of the current record.
+     *
+     * @return the timestamp of the current record or <tt>null</tt> if it
+     * has none or it cannot be parsed
+     */
+    public Date getTimestamp()
+    {
+        return parseTimestamp(timestampValue);
+    }
+
+    /**
+     * Reads the properties of the current record in document order. The
+     * value of a property without text is added as <tt>null</tt>.
+     *
+     * @param names the list to add the names of the properties to
+     * @param values the list to add the values of the properties to
+     * @throws XMLStreamException if the stream cannot be parsed
+     */
+    public void readProperties(List<String> names, List<String> values)
+        throws XMLStreamException
+    {
+        if (!inRecord)
+            return;
+
+        while (reader.hasNext())
+        {
+            int event = reader.next();
+
+            if (event == XMLStreamConstants.START_ELEMENT)
+            {
+                names.add(reader.getLocalName());
+                values.add(readText());
+            }
+            else if (event == XMLStreamConstants.END_ELEMENT)
+            {
+                break;
+            }
+        }
+        inRecord = false;
+    }
+
+    /**
+     * Releases the parser. The underlying stream is not closed.
+     */
+    public void close()
+    {
+        try
+        {
+            reader.close();
+        }
+        catch (XMLStreamException e)
+        {
+        }
+    }
+
+    /**
+     * Reads the text of the current element up to its end.
+     *
+     * @return the text or <tt>null</tt> if the element has no text
+     * @throws XMLStreamException if the stream cannot be parsed
+     */
+    private String readText()
+        throws XMLStreamException
+    {
+        String text = null;
+        int depth = 1;
+
+        while (depth > 0 && reader.hasNext())
+        {
+            switch (reader.next())
+            {
+            case XMLStreamConstants.START_ELEMENT:
+                depth++;
+                break;
+            case XMLStreamConstants.END_ELEMENT:
+                depth--;
+                break;
+            case XMLStreamConstants.CHARACTERS:
+            case XMLStreamConstants.CDATA:
+            case XMLStreamConstants.SPACE:
+                // only the direct text, like the first child in the DOM
+                if (depth == 1 && text == null)
+                    text = reader.getText();
+                break;
+            }
+        }
+        return text;
+    }
+
+    /**
+     * Skips to the end of the current record.
+     *
+     * @throws XMLStreamException if the stream cannot be parsed
+     */
+    private void skipElement()
+        throws XMLStreamException
+    {
+        int depth = 1;
+
+        while (depth > 0 && reader.hasNext())
+        {
+            int event = reader.next();
+
+            if (event == XMLStreamConstants.START_ELEMENT)
+                depth++;
+            else if (event == XMLStreamConstants.END_ELEMENT)
+                depth--;
+        }
+        inRecord = false;
+    }
+
+    /**
+     * Reads the first or the last records of a file which timestamps are in
+     * the given period.
+     *
+     * @param in the reader of the file
+     * @param startDate the start of the period or <tt>null</tt>
+     * @param endDate the end of the period or <tt>null</tt>
+     * @param count the maximum number of records to read
+     * @param fromEnd whether to read the last records instead of the first
+     * ones
+     * @param skipBroken if <tt>true</tt> records with a property without
+     * text are skipped and the values are returned as stored, otherwise
+     * such properties are dropped and the values are unescaped
+     * @return the records in file order
+     * @throws XMLStreamException if the stream cannot be parsed
+     */
+    static List<HistoryRecord> read(HistoryRecordStreamReader in,
+                                    Date startDate,
+                                    Date endDate,
+                                    int count,
+                                    boolean fromEnd,
+                                    boolean skipBroken)
+        throws XMLStreamException
+    {
+        LinkedList<HistoryRecord> result = new LinkedList<HistoryRecord>();
+        List<String> names = new ArrayList<String>();
+        List<String> values = new ArrayList<String>();
+
+        while ((fromEnd || result.size() < count) && in.nextRecord())
+        {
+            Date timestamp = in.getTimestamp();
+
+            if (timestamp == null
+                || !HistoryReaderImpl.isInPeriod(timestamp, startDate, endDate))
+            {
+                continue;
+            }
+
+            names.clear();
+            values.clear();
+            in.readProperties(names, values);
+
+            HistoryRecord record
+                = createRecord(names, values, timestamp, skipBroken);
+
+            if (record == null)
+                continue;
+
+            result.add(record);
+            if (result.size() > count)
+                result.removeFirst();
+        }
+        return result;
+    }
+
+    /**
+     * Reads the first or the last records of an already parsed document
+     * which timestamps are in the given period.
+     *
+     * @param doc the document
+     * @param startDate the start of the period or <tt>null</tt>
+     * @param endDate the end of the period or <tt>null</tt>
+     * @param count the maximum number of records to read
+     * @param fromEnd whether to read the last records instead of the first
+     * ones
+     * @param skipBroken if <tt>true</tt> records with a property without
+     * text are skipped and the values are returned as stored, otherwise
+     * such properties are dropped and the values are unescaped
+     * @return the records in document order
+     */
+    static List<HistoryRecord> read(Document doc,
+                                    Date startDate,
+                                    Date endDate,
+                                    int count,
+                                    boolean fromEnd,
+                                    boolean skipBroken)
+    {
+        LinkedList<HistoryRecord> result = new LinkedList<HistoryRecord>();
+        List<String> names = new ArrayList<String>();
+        List<String> values = new ArrayList<String>();
+        NodeList nodes = doc.getElementsByTagName("record");
+        int length = nodes.getLength();
+
+        for (int n = 0; n < length && result.size() < count; n++)
+        {
+            Node node = nodes.item(fromEnd ? length - 1 - n : n);
+            Node tsNode = node.getAttributes().getNamedItem("timestamp");
+            Date timestamp = (tsNode == null)
+                ? null
+                : parseTimestamp(tsNode.getNodeValue());
+
+            if (timestamp == null
+                || !HistoryReaderImpl.isInPeriod(timestamp, startDate, endDate))
+            {
+                continue;
+            }
+
+            names.clear();
+            values.clear();
+
+            NodeList propertyNodes = node.getChildNodes();
+            for (int i = 0; i < propertyNodes.getLength(); i++)
+            {
+                Node propertyNode = propertyNodes.item(i);
+
+                if (propertyNode.getNodeType() != Node.ELEMENT_NODE)
+                    continue;
+
+                Node nodeValue = propertyNode.getFirstChild();
+
+                names.add(propertyNode.getNodeName());
+                values.add(
+                    (nodeValue == null) ? null : nodeValue.getNodeValue());
+            }
+
+            HistoryRecord record
+                = createRecord(names, values, timestamp, skipBroken);
+
+            if (record == null)
+                continue;
+
+            if (fromEnd)
+                result.addFirst(record);
+            else
+                result.add(record);
+        }
+        return result;
+    }
+
+    /**
+     * Creates a record from the properties read from a file.
+     *
+     * @param names the names of the properties
+     * @param values the values of the properties, <tt>null</tt> for the
+     * properties without text
+     * @param timestamp the timestamp of the record
+     * @param skipBroken if <tt>true</tt> no record is created when a
+     * property has no text and the values are kept as stored, otherwise
+     * such properties are dropped and the values are unescaped
+     * @return the record or <tt>null</tt> if it is broken
+     */
+    private static HistoryRecord createRecord(List<String> names,
+                                              List<String> values,
+                                              Date timestamp,
+                                              boolean skipBroken)
+    {
+        List<String> propertyNames = new ArrayList<String>(names.size());
+        List<String> propertyValues = new ArrayList<String>(values.size());
+
+        for (int i = 0; i < names.size(); i++)
+        {
+            String value = values.get(i);
+
+            if (value == null)
+            {
+                if (skipBroken)
+                    return null;
+                continue;
+            }
+
+            propertyNames.add(names.get(i));
+            // unescape xml chars, we have escaped when writing values
+            propertyValues.add(
+                skipBroken ? value : StringEscapeUtils.unescapeXml(value));
+        }
+
+        return new HistoryRecord(
+            propertyNames.toArray(new String[propertyNames.size()]),
+            propertyValues.toArray(new String[propertyValues.size()]),
+            timestamp);
+    }
+
+    /**
+     * Parses the timestamp of a record. Timestamps in the history date format
+     * are parsed without creating a <tt>SimpleDateFormat</tt>, as a fallback
+     * timestamps are parsed with the date format or as a number of
+     * milliseconds.
+     *
+     * @param value the value of the timestamp attribute
+     * @return the timestamp or <tt>null</tt> if <tt>value</tt> is
+     * <tt>null</tt> or cannot be parsed
+     */
+    static Date parseTimestamp(String value)
+    {
+        if (value == null)
+            return null;
+
+        long millis = parseDateFormat(value);
+
+        if (millis != Long.MIN_VALUE)
+            return new Date(millis);
+
+        try
+        {
+            return new SimpleDateFormat(DATE_FORMAT).parse(value);
+        }
+        catch (ParseException e)
+        {
+            try
+            {
+                return new Date(Long.parseLong(value));
+            }
+            catch (NumberFormatException nfe)
+            {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Parses a timestamp in the <tt>yyyy-MM-dd'T'HH:mm:ss.SSSZ</tt> format.
+     *
+     * @param value the timestamp
+     * @return the milliseconds since the epoch or <tt>Long.MIN_VALUE</tt> if
+     * <tt>value</tt> is not in the expected format
+     */
+    private static long parseDateFormat(String value)
+    {
+        if (value.length() != 28
+            || value.charAt(4) != '-'
+            || value.charAt(7) != '-'
+            || value.charAt(10) != 'T'
+            || value.charAt(13) != ':'
+            || value.charAt(16) != ':'
+            || value.charAt(19) != '.')
+        {
+            return Long.MIN_VALUE;
+        }
+
+        int year = parseDigits(value, 0, 4);
+        int month = parseDigits(value, 5, 7);
+        int day = parseDigits(value, 8, 10);
+        int hour = parseDigits(value, 11, 13);
+        int minute = parseDigits(value, 14, 16);
+        int second = parseDigits(value, 17, 19);
+        int millis = parseDigits(value, 20, 23);
+        int zoneHours = parseDigits(value, 24, 26);
+        int zoneMinutes = parseDigits(value, 26, 28);
+        char zoneSign = value.charAt(23);
+
+        if (year < 0 || month < 1 || month > 12 || day < 1 || day > 31
+            || hour < 0 || hour > 23 || minute < 0 || minute > 59
+            || second < 0 || second > 59 || millis < 0
+            || zoneHours < 0 || zoneMinutes < 0
+            || (zoneSign != '+' && zoneSign != '-'))
+        {
+            return Long.MIN_VALUE;
+        }
+
+        // days since the epoch in the proleptic gregorian calendar
+        int y = (month <= 2) ? year - 1 : year;
+        long era = y / 400;
+        long yearOfEra = y - era * 400;
+        long dayOfYear
+            = (153 * (month + ((month > 2) ? -3 : 9)) + 2) / 5 + day - 1;
+        long dayOfEra
+            = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        long days = era * 146097 + dayOfEra - 719468;
+
+        long zoneOffset = (zoneHours * 60L + zoneMinutes) * 60000L;
+        if (zoneSign == '-')
+            zoneOffset = -zoneOffset;
+
+        return ((days * 24 + hour) * 60 + minute) * 60000L
+            + second * 1000L + millis - zoneOffset;
+    }
+
+    /**
+     * Parses the decimal digits of a part of a string.
+     *
+     * @param s the string
+     * @param from the index of the first digit
+     * @param to the index after the last digit
+     * @return the parsed number or <tt>-1</tt> if a character is not a digit
+     */
+    private static int parseDigits(String s, int from, int to)
+    {
+        int result = 0;
+
+        for (int i = from; i < to; i++)
+        {
+            char c = s.charAt(i);
+
+            if (c < '0' || c > '9')
+                return -1;
+            result = result * 10 + (c - '0');
+        }
+        return result;
+    }
+}
@@ -6,6 +6,7 @@
  */
 package net.java.sip.communicator.impl.history;
 
+import java.beans.*;
 import java.io.*;
 import java.util.*;
 
@@ -51,10 +52,37 @@ public class HistoryServiceImpl
 
     private final FileAccessService fileAccessService;
 
-    private final DocumentBuilder builder;
+    /**
+     * The factory of the <tt>DocumentBuilder</tt>s of the threads reading
+     * and writing histories.
+     */
+    private final DocumentBuilderFactory builderFactory;
+
+    /**
+     * The <tt>DocumentBuilder</tt> of every thread reading or writing
+     * histories, so that the histories are parsed concurrently.
+     */
+    private final ThreadLocal<DocumentBuilder> builders
+        = new ThreadLocal<DocumentBuilder>();
 
     private final boolean cacheEnabled;
 
+    /**
+     * The cache of parsed documents shared by all histories.
+     */
+    private final HistoryDocumentCache documentCache;
+
+    /**
+     * The queue of changed documents waiting to be written.
+     */
+    private final HistoryWriteQueue writeQueue;
+
+    /**
+     * The configuration service used to select the storage format of the
+     * histories.
+     */
+    private final ConfigurationService configurationService;
+
     /**
      *  Characters and their replacement in created folder names
      */
@@ -81,11 +109,45 @@ public class HistoryServiceImpl
     public HistoryServiceImpl(BundleContext bundleContext)
         throws Exception
     {
-        this.builder =
-            DocumentBuilderFactory.newInstance().newDocumentBuilder();
+        this.builderFactory = DocumentBuilderFactory.newInstance();
+        // fail early if the factory cannot create builders
+        this.builders.set(builderFactory.newDocumentBuilder());
+        this.configurationService = getConfigurationService(bundleContext);
         this.cacheEnabled =
-            getConfigurationService(bundleContext).getBoolean(
-                CACHE_ENABLED_PROPERTY, false);
+            configurationService.getBoolean(CACHE_ENABLED_PROPERTY, false);
+        this.documentCache = new HistoryDocumentCache(
+            getCacheMaxDocuments(), getCacheMaxSize());
+
+        PropertyChangeListener cacheLimitsListener
+            = new PropertyChangeListener()
+            {
+                public void propertyChange(PropertyChangeEvent evt)
+                {
+                    documentCache.setLimits(
+                        getCacheMaxDocuments(), getCacheMaxSize());
+                }
+            };
+        configurationService.addPropertyChangeListener(
+            CACHE_MAX_DOCUMENTS_PROPERTY, cacheLimitsListener);
+        configurationService.addPropertyChangeListener(
+            CACHE_MAX_SIZE_PROPERTY, cacheLimitsListener);
+
+        this.writeQueue = new HistoryWriteQueue(
+            getFlushRecords(), getFlushInterval());
+
+        PropertyChangeListener flushPolicyListener
+            = new PropertyChangeListener()
+            {
+                public void propertyChange(PropertyChangeEvent evt)
+                {
+                    writeQueue.setFlushPolicy(
+                        getFlushRecords(), getFlushInterval());
+                }
+            };
+        configurationService.addPropertyChangeListener(
+            FLUSH_INTERVAL_PROPERTY, flushPolicyListener);
+        configurationService.addPropertyChangeListener(
+            FLUSH_RECORDS_PROPERTY, flushPolicyListener);
         this.fileAccessService = getFileAccessService(bundleContext);
     }
 
@@ -198,40 +260,75 @@ public class HistoryServiceImpl
         return this.fileAccessService;
     }
 
+    /**
+     * Returns the <tt>DocumentBuilder</tt> of the current thread. A
+     * <tt>DocumentBuilder</tt> may not be used by several threads at once so
+     * every thread has its own.
+     *
+     * @return the <tt>DocumentBuilder</tt> of the current thread
+     */
     protected DocumentBuilder getDocumentBuilder()
     {
+        DocumentBuilder builder = builders.get();
+
+        if (builder == null)
+        {
+            try
+            {
+                // DocumentBuilderFactory is not thread safe
+                synchronized (builderFactory)
+                {
+                    builder = builderFactory.newDocumentBuilder();
+                }
+            }
+            catch (ParserConfigurationException e)
+            {
+                // the factory created a builder in the constructor
+                throw new IllegalStateException(e);
+            }
+            builders.set(builder);
+        }
+        else
+            builder.reset();
         return builder;
     }
 
     /**
-     * Parse documents. Synchronized to avoid exception
-     * when concurrently parsing with same DocumentBuilder
+     * Parse documents with the <tt>DocumentBuilder</tt> of the current
+     * thread, so that different histories are parsed concurrently. The
+     * histories lock their own documents.
      * @param file File the file to parse
      * @return Document the result document
      * @throws SAXException exception
      * @throws IOException exception
      */
-    protected synchronized Document parse(File file)
+    protected Document parse(File file)
         throws SAXException, IOException
     {
         FileInputStream fis = new FileInputStream(file);
-        Document doc = builder.parse(fis);
-        fis.close();
-        return doc;
+
+        try
+        {
+            return getDocumentBuilder().parse(fis);
+        }
+        finally
+        {
+            fis.close();
+        }
     }
 
     /**
-     * Parse documents. Synchronized to avoid exception
-     * when concurrently parsing with same DocumentBuilder
+     * Parse documents with the <tt>DocumentBuilder</tt> of the current
+     * thread.
      * @param in ByteArrayInputStream the stream to parse
      * @return Document the result document
      * @throws SAXException exception
      * @throws IOException exception
      */
-    protected synchronized Document parse(ByteArrayInputStream in)
+    protected Document parse(ByteArrayInputStream in)
         throws SAXException, IOException
     {
-        return builder.parse(in);
+        return getDocumentBuilder().parse(in);
     }
 
     private void findDatFiles(List<File> vect, File directory)
@@ -307,6 +404,126 @@ public class HistoryServiceImpl
         return cacheEnabled;
     }
 
+    /**
+     * Returns the cache of parsed documents shared by all histories.
+     *
+     * @return the cache of parsed documents
+     */
+    HistoryDocumentCache getDocumentCache()
+    {
+        return documentCache;
+    }
+
+    /**
+     * Returns the state of the cache of parsed history documents.
+     *
+     * @return the state of the cache of parsed history documents
+     */
+    public HistoryCacheStatistics getCacheStatistics()
+    {
+        return documentCache.getStatistics();
+    }
+
+    /**
+     * Returns the queue of changed documents waiting to be written.
+     *
+     * @return the queue of changed documents
+     */
+    HistoryWriteQueue getWriteQueue()
+    {
+        return writeQueue;
+    }
+
+    /**
+     * Returns the state of the queue of history files waiting to be written.
+     *
+     * @return the state of the queue of history files waiting to be written
+     */
+    public HistoryWriteStatistics getWriteStatistics()
+    {
+        return writeQueue.getStatistics();
+    }
+
+    /**
+     * Writes the pending changes and stops queuing the next ones, called
+     * when the history bundle stops.
+     */
+    void stop()
+    {
+        writeQueue.stop();
+    }
+
+    /**
+     * Returns the configured number of pending changes triggering a write.
+     *
+     * @return the number of pending changes triggering a write
+     */
+    private int getFlushRecords()
+    {
+        return configurationService.getInt(
+            FLUSH_RECORDS_PROPERTY, DEFAULT_FLUSH_RECORDS);
+    }
+
+    /**
+     * Returns the configured maximum time a change waits to be written.
+     *
+     * @return the maximum time a change waits to be written in milliseconds
+     */
+    private long getFlushInterval()
+    {
+        return configurationService.getInt(
+            FLUSH_INTERVAL_PROPERTY, DEFAULT_FLUSH_INTERVAL);
+    }
+
+    /**
+     * Returns the configured maximum number of cached documents.
+     *
+     * @return the maximum number of cached documents
+     */
+    private int getCacheMaxDocuments()
+    {
+        return configurationService.getInt(
+            CACHE_MAX_DOCUMENTS_PROPERTY, DEFAULT_CACHE_MAX_DOCUMENTS);
+    }
+
+    /**
+     * Returns the configured maximum memory used by the cached documents.
+     *
+     * @return the maximum memory used by the cached documents in bytes
+     */
+    private long getCacheMaxSize()
+    {
+        return configurationService.getInt(
+                CACHE_MAX_SIZE_PROPERTY, DEFAULT_CACHE_MAX_SIZE)
+            * 1024L * 1024L;
+    }
+
+    /**
+     * Returns the storage format configured for the history with the given
+     * id. A format set for the kind of the history (the first component of
+     * its id) takes precedence over the global one.
+     *
+     * @param id the id of the history
+     * @return {@link #STORAGE_FORMAT_LOG} or {@link #STORAGE_FORMAT_XML}
+     */
+    protected String getStorageFormat(HistoryID id)
+    {
+        String format = null;
+        String[] components = id.getID();
+
+        if (components.length > 0)
+            format = configurationService.getString(
+                STORAGE_FORMAT_PROPERTY + "." + components[0]);
+
+        if (format == null)
+            format = configurationService.getString(
+                STORAGE_FORMAT_PROPERTY, STORAGE_FORMAT_XML);
+
+        return STORAGE_FORMAT_LOG.equalsIgnoreCase(format.trim())
+            ? STORAGE_FORMAT_LOG
+            : STORAGE_FORMAT_XML;
+    }
+
     /**
      * Permamently removes local stored History
      *
@@ -320,7 +537,9 @@ public class HistoryServiceImpl
         File dir = this.createHistoryDirectories(id);
         if (logger.isTraceEnabled())
             logger.trace("Removing history directory " + dir);
+        writeQueue.discard(dir);
         deleteDirAndContent(dir);
+        documentCache.removeAll(dir);
 
         History history = histories.remove(id);
         if(history == null)
@@ -348,6 +567,37 @@ public class HistoryServiceImpl
     public void purgeLocallyCachedHistories()
     {
         histories.clear();
+        documentCache.clear();
+    }
+
+    /**
+     * Drops and builds again the keyword search indexes of the history with
+     * the given id and of all its sub-histories.
+     *
+     * @param id the id of the history or of a parent history
+     * @param field a field to index even if no keyword search was done on it
+     * yet or <tt>null</tt> to only rebuild the already indexed fields
+     */
+    public void rebuildKeywordIndexes(HistoryID id, String field)
+    {
+        // loads all existing histories
+        getExistingIDs();
+
+        List<HistoryImpl> toRebuild = new ArrayList<HistoryImpl>();
+        synchronized (this.histories)
+        {
+            for (Map.Entry<HistoryID, History> entry : histories.entrySet())
+            {
+                if (isSubHistory(id.getID(), entry.getKey())
+                    && entry.getValue() instanceof HistoryImpl)
+                {
+                    toRebuild.add((HistoryImpl) entry.getValue());
+                }
+            }
+        }
+
+        for (HistoryImpl history : toRebuild)
+            history.rebuildKeywordIndex(field);
     }
 
     /**
@@ -455,6 +705,9 @@ public class HistoryServiceImpl
         File oldDir = this.createHistoryDirectories(oldId);
         File newDir = getDirForHistory(newId);
 
+        // the pending records must be moved too
+        writeQueue.flush();
+
         // make sure parent path is existing
         newDir.getParentFile().mkdirs();
 
@@ -465,6 +718,7 @@ public class HistoryServiceImpl
             throw new IOException("Cannot move history!");
         }
 
+        documentCache.removeAll(oldDir);
         histories.remove(oldId);
     }
 
@@ -0,0 +1,372 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package net.java.sip.communicator.impl.history;
+
+import java.io.*;
+import java.util.*;
+
+import net.java.sip.communicator.service.history.*;
+import net.java.sip.communicator.util.*;
+
+import org.w3c.dom.*;
+
+/**
+ * Writes changed history documents to disk on a background thread. Changes
+ * to the same file are grouped, so a burst of records costs one write of
+ * each changed file. The queue is written when it holds a number of record
+ * changes or when its oldest change waited for the flush interval. Until a
+ * document is written its <tt>HistoryImpl</tt> keeps it in memory, so
+ * readers see the pending records.
+ * <p>
+ * A flush interval of zero disables the queue and every change is written
+ * on the thread making it.
+ */
+public class HistoryWriteQueue
+    implements Runnable
+{
+    /**
+     * The logger for this class.
+     */
+    private static final Logger logger
+        = Logger.getLogger(HistoryWriteQueue.class);
+
+    /**
+     * The documents waiting to be written by file.
+     */
+    private final Map<File, PendingWrite> pending
+        = new LinkedHashMap<File, PendingWrite>();
+
+    /**
+     * The files of the documents taken from the queue and not written yet.
+     */
+    private final Set<File> writing = new HashSet<File>();
+
+    /**
+     * The lock held while pending documents are taken from the queue and
+     * written, so that <tt>flush</tt> and <tt>discard</tt> wait for the
+     * documents being written by another thread.
+     */
+    private final Object flushLock = new Object();
+
+    /**
+     * The number of record changes waiting to be written.
+     */
+    private int pendingRecords = 0;
+
+    /**
+     * The time the oldest pending change was queued.
+     */
+    private long firstPendingTime = 0;
+
+    /**
+     * The number of record changes which triggers a flush.
+     */
+    private int flushRecords;
+
+    /**
+     * The maximum time in milliseconds a change waits before being written,
+     * zero to write changes immediately.
+     */
+    private long flushInterval;
+
+    /**
+     * The thread writing the queue, started with the first queued change.
+     */
+    private Thread thread = null;
+
+    /**
+     * Whether the queue was stopped and changes are written immediately.
+     */
+    private boolean stopped = false;
+
+    private long flushes = 0;
+
+    private long writtenFiles = 0;
+
+    private long totalFlushTime = 0;
+
+    private long maxFlushTime = 0;
+
+    /**
+     * Creates a write queue.
+     *
+     * @param flushRecords the number of record changes which triggers a
+     * flush
+     * @param flushInterval the maximum time in milliseconds a change waits
+     * before being written, zero to write changes immediately
+     */
+    public HistoryWriteQueue(int flushRecords, long flushInterval)
+    {
+        this.flushRecords = flushRecords;
+        this.flushInterval = flushInterval;
+    }
+
+    /**
+     * Changes the flush triggers of the queue.
+     *
+     * @param flushRecords the number of record changes which triggers a
+     * flush
+     * @param flushInterval the maximum time in milliseconds a change waits
+     * before being written, zero to write changes immediately
+     */
+    public synchronized void setFlushPolicy(int flushRecords,
+                                            long flushInterval)
+    {
+        this.flushRecords = flushRecords;
+        this.flushInterval = flushInterval;
+
+        notifyAll();
+    }
+
+    /**
+     * Checks whether a document is waiting to be written or being written.
+     *
+     * @param file the file of the document
+     * @return <tt>true</tt> if the document is not written yet
+     */
+    public synchronized boolean isPending(File file)
+    {
+        return pending.containsKey(file) || writing.contains(file);
+    }
+
+    /**
+     * Queues a changed document to be written.
+     *
+     * @param history the history of the document
+     * @param filename the name of the document in the history
+     * @param file the file of the document
+     * @param doc the document
+     * @return <tt>false</tt> if the queue is disabled or stopped and the
+     * document has to be written by the caller
+     */
+    public synchronized boolean schedule(HistoryImpl history,
+                                         String filename,
+                                         File file,
+                                         Document doc)
+    {
+        if (stopped || flushInterval <= 0)
+            return false;
+
+        if (pending.isEmpty())
+            firstPendingTime = System.currentTimeMillis();
+
+        pending.put(file, new PendingWrite(history, filename, file, doc));
+        pendingRecords++;
+
+        if (thread == null)
+        {
+            thread = new Thread(this, "HistoryWriteQueue");
+            thread.setDaemon(true);
+            thread.start();
+        }
+        notifyAll();
+        return true;
+    }
+
+    /**
+     * Drops the pending writes of the files in a directory which is about to
+     * be removed, waiting for the documents being written.
+     *
+     * @param directory the directory
+     */
+    public void discard(File directory)
+    {
+        String path = directory.getAbsolutePath() + File.separator;
+
+        synchronized (flushLock)
+        {
+            synchronized (this)
+            {
+                Iterator<File> iter = pending.keySet().iterator();
+
+                while (iter.hasNext())
+                {
+                    if (iter.next().getAbsolutePath().startsWith(path))
+                        iter.remove();
+                }
+                if (pending.isEmpty())
+                    pendingRecords = 0;
+            }
+        }
+    }
+
+    /**
+     * Writes all pending documents on the calling thread. When it returns
+     * the documents queued before it was called are written, including the
+     * ones another thread was writing.
+     */
+    public void flush()
+    {
+        synchronized (flushLock)
+        {
+            flushPending();
+        }
+    }
+
+    /**
+     * Writes all pending documents while holding the flush lock.
+     */
+    private void flushPending()
+    {
+        Collection<PendingWrite> writes;
+
+        synchronized (this)
+        {
+            if (pending.isEmpty())
+                return;
+
+            writes = new ArrayList<PendingWrite>(pending.values());
+            writing.addAll(pending.keySet());
+            pending.clear();
+            pendingRecords = 0;
+        }
+
+        long start = System.currentTimeMillis();
+
+        for (PendingWrite write : writes)
+        {
+            try
+            {
+                write.history.flushFile(write.filename, write.doc);
+            }
+            catch (Exception e)
+            {
+                logger.error("Cannot write history file " + write.filename, e);
+            }
+
+            synchronized (this)
+            {
+                writing.remove(write.file);
+            }
+        }
+
+        long time = System.currentTimeMillis() - start;
+
+        synchronized (this)
+        {
+            flushes++;
+            writtenFiles += writes.size();
+            totalFlushTime += time;
+            maxFlushTime = Math.max(maxFlushTime, time);
+        }
+
+        if (logger.isTraceEnabled())
+        {
+            logger.trace("Wrote " + writes.size() + " history files in "
+                + time + " ms");
+        }
+    }
+
+    /**
+     * Writes all pending documents and makes the queue write the next
+     * changes immediately, used when the history service stops.
+     */
+    public void stop()
+    {
+        Thread t;
+
+        synchronized (this)
+        {
+            stopped = true;
+            t = thread;
+            notifyAll();
+        }
+
+        if (t != null)
+        {
+            try
+            {
+                t.join();
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+        flush();
+    }
+
+    /**
+     * Returns a snapshot of the state of the queue.
+     *
+     * @return a snapshot of the state of the queue
+     */
+    public synchronized HistoryWriteStatistics getStatistics()
+    {
+        return new HistoryWriteStatistics(
+            pending.size(), pendingRecords,
+            flushes, writtenFiles, totalFlushTime, maxFlushTime);
+    }
+
+    /**
+     * Waits for the flush triggers and writes the queue.
+     */
+    public void run()
+    {
+        while (true)
+        {
+            synchronized (this)
+            {
+                while (!stopped)
+                {
+                    long wait = pending.isEmpty()
+                        ? 0
+                        : firstPendingTime + flushInterval
+                            - System.currentTimeMillis();
+
+                    if (!pending.isEmpty()
+                        && (pendingRecords >= flushRecords || wait <= 0))
+                    {
+                        break;
+                    }
+
+                    try
+                    {
+                        wait(wait);
+                    }
+                    catch (InterruptedException e)
+                    {
+                        stopped = true;
+                    }
+                }
+
+                if (stopped)
+                {
+                    thread = null;
+                    return;
+                }
+            }
+
+            flush();
+        }
+    }
+
+    /**
+     * A document waiting to be written.
+     */
+    private static class PendingWrite
+    {
+        private final HistoryImpl history;
+
+        private final String filename;
+
+        private final File file;
+
+        private final Document doc;
+
+        PendingWrite(HistoryImpl history,
+                     String filename,
+                     File file,
+                     Document doc)
+        {
+            this.history = history;
+            this.filename = filename;
+            this.file = file;
+            this.doc = doc;
+        }
+    }
+}
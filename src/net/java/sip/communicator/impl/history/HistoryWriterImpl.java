@@ -131,6 +131,9 @@ public class HistoryWriterImpl
             }
         }
 
+        boolean removedRecord = false;
+        int ordinal;
+
         synchronized (this.currentDoc)
         {
             Node root = this.currentDoc.getFirstChild();
@@ -143,22 +146,31 @@ public class HistoryWriterImpl
                 {
                     // lets remove the first one
                     removeFirstRecord(root);
+                    removedRecord = true;
                 }
 
                 Element elem = createRecord(
                     this.currentDoc, propertyNames, propertyValues, date);
                 root.appendChild(elem);
                 this.currentDocElements++;
+
+                ordinal = ((Element) root).getElementsByTagName("record")
+                    .getLength() - 1;
             }
         }
 
+        // update the keyword index before writing, so if we crash it may
+        // only point to a record which is not there
+        if (removedRecord)
+            this.historyImpl.reindexFile(this.currentFile, this.currentDoc);
+        else
+            this.historyImpl.indexRecord(
+                this.currentFile, ordinal, propertyNames, propertyValues);
+
         // write changes
         synchronized (this.docWriteLock)
         {
-            if(historyImpl.getHistoryServiceImpl().isCacheEnabled())
-                this.historyImpl.writeFile(this.currentFile);
-            else
-                this.historyImpl.writeFile(this.currentFile, this.currentDoc);
+            this.historyImpl.writeFile(this.currentFile, this.currentDoc);
         }
     }
 
@@ -303,65 +315,63 @@ public class HistoryWriterImpl
             if(doc == null)
                 continue;
 
-            NodeList nodes = doc.getElementsByTagName("record");
-
             boolean changed = false;
 
-            Node node;
-            for (int i = 0; i < nodes.getLength(); i++)
+            // the write queue serializes the document under its lock
+            synchronized (doc)
             {
-                node = nodes.item(i);
+                NodeList nodes = doc.getElementsByTagName("record");
 
-                Element idNode = XMLUtils.findChild(
-                    (Element)node, timestampProperty);
-                if(idNode == null)
-                    continue;
+                Node node;
+                for (int i = 0; i < nodes.getLength(); i++)
+                {
+                    node = nodes.item(i);
 
-                Node nestedNode = idNode.getFirstChild();
-                if(nestedNode == null)
-                    continue;
+                    Element idNode = XMLUtils.findChild(
+                        (Element)node, timestampProperty);
+                    if(idNode == null)
+                        continue;
 
-                // Get nested TEXT node's value
-                String nodeValue = nestedNode.getNodeValue();
+                    Node nestedNode = idNode.getFirstChild();
+                    if(nestedNode == null)
+                        continue;
 
-                Date nodeTimeStamp;
-                try
-                {
-                    nodeTimeStamp = sdf.parse(nodeValue);
-                }
-                catch (ParseException e)
-                {
-                    nodeTimeStamp = new Date(Long.parseLong(nodeValue));
-                }
+                    // Get nested TEXT node's value
+                    String nodeValue = nestedNode.getNodeValue();
 
-                if(nodeTimeStamp.before(timestamp))
-                    continue;
+                    Date nodeTimeStamp;
+                    try
+                    {
+                        nodeTimeStamp = sdf.parse(nodeValue);
+                    }
+                    catch (ParseException e)
+                    {
+                        nodeTimeStamp = new Date(Long.parseLong(nodeValue));
+                    }
 
-                Element newElem = createRecord(
-                    doc, structPropertyNames, propertyValues, timestamp);
+                    if(nodeTimeStamp.before(timestamp))
+                        continue;
 
-                doc.getFirstChild().insertBefore(newElem, node);
+                    Element newElem = createRecord(
+                        doc, structPropertyNames, propertyValues, timestamp);
 
-                changed = true;
-                break;
+                    doc.getFirstChild().insertBefore(newElem, node);
+
+                    changed = true;
+                    break;
+                }
             }
 
             if(changed)
             {
+                this.historyImpl.reindexFile(filename, doc);
+
                 // write changes
                 synchronized (this.docWriteLock)
                 {
                     this.historyImpl.writeFile(filename, doc);
                 }
 
-                // this prevents that the current writer, which holds
-                // instance for the last document he is editing will not
-                // override our last changes to the document
-                if(filename.equals(this.currentFile))
-                {
-                    this.currentDoc = doc;
-                }
-
                 break;
             }
         }
@@ -390,7 +400,9 @@ public class HistoryWriterImpl
 
             if (file != null)
             {
-                this.currentDoc = this.historyImpl.getDocumentForFile(file);
+                // the history keeps the document in memory, so updates of
+                // its records change this instance
+                this.currentDoc = this.historyImpl.openDocument(file);
                 this.currentFile = file;
                 loaded = true;
             }
@@ -408,7 +420,7 @@ public class HistoryWriterImpl
             this.currentFile = Long.toString(date.getTime());
             this.currentFile += ".xml";
 
-            this.currentDoc = this.historyImpl.createDocument(this.currentFile);
+            this.currentDoc = this.historyImpl.openDocument(this.currentFile);
         }
 
         // TODO: Assert: Assert.assertNonNull(this.currentDoc,
@@ -442,76 +454,75 @@ public class HistoryWriterImpl
             if(doc == null)
                 continue;
 
-            NodeList nodes = doc.getElementsByTagName("record");
-
             boolean changed = false;
 
-            Node node;
-            for (int i = 0; i < nodes.getLength(); i++)
+            // the write queue serializes the document under its lock
+            synchronized (doc)
             {
-                node = nodes.item(i);
+                NodeList nodes = doc.getElementsByTagName("record");
 
-                Element idNode = XMLUtils.findChild((Element)node, idProperty);
-                if(idNode == null)
-                    continue;
+                Node node;
+                for (int i = 0; i < nodes.getLength(); i++)
+                {
+                    node = nodes.item(i);
 
-                Node nestedNode = idNode.getFirstChild();
-                if(nestedNode == null)
-                    continue;
+                    Element idNode
+                        = XMLUtils.findChild((Element)node, idProperty);
+                    if(idNode == null)
+                        continue;
 
-                // Get nested TEXT node's value
-                String nodeValue = nestedNode.getNodeValue();
+                    Node nestedNode = idNode.getFirstChild();
+                    if(nestedNode == null)
+                        continue;
 
-                if(!nodeValue.equals(idValue))
-                    continue;
+                    // Get nested TEXT node's value
+                    String nodeValue = nestedNode.getNodeValue();
 
-                Element changedNode =
-                    XMLUtils.findChild((Element)node, property);
+                    if(!nodeValue.equals(idValue))
+                        continue;
 
-                if(changedNode != null)
-                {
-                    Node changedNestedNode = changedNode.getFirstChild();
+                    Element changedNode =
+                        XMLUtils.findChild((Element)node, property);
 
-                    changedNestedNode.setNodeValue(newValue);
-                }
-                else
-                {
-                    Element propertyElement = this.currentDoc
-                        .createElement(property);
+                    if(changedNode != null)
+                    {
+                        Node changedNestedNode = changedNode.getFirstChild();
 
-                    Text value = this.currentDoc
-                        .createTextNode(newValue.replaceAll("\0", " "));
-                    propertyElement.appendChild(value);
+                        changedNestedNode.setNodeValue(newValue);
+                    }
+                    else
+                    {
+                        Element propertyElement
+                            = doc.createElement(property);
 
-                    node.appendChild(propertyElement);
-                }
+                        Text value = doc
+                            .createTextNode(newValue.replaceAll("\0", " "));
+                        propertyElement.appendChild(value);
 
-                // change the timestamp, to reflect there was a change
-                SimpleDateFormat sdf
-                    = new SimpleDateFormat(DATE_FORMAT);
-                ((Element)node).setAttribute("timestamp",
-                    sdf.format(new Date()));
+                        node.appendChild(propertyElement);
+                    }
 
-                changed = true;
-                break;
+                    // change the timestamp, to reflect there was a change
+                    SimpleDateFormat sdf
+                        = new SimpleDateFormat(DATE_FORMAT);
+                    ((Element)node).setAttribute("timestamp",
+                        sdf.format(new Date()));
+
+                    changed = true;
+                    break;
+                }
             }
 
             if(changed)
             {
+                this.historyImpl.reindexFile(filename, doc);
+
                 // write changes
                 synchronized (this.docWriteLock)
                 {
                     this.historyImpl.writeFile(filename, doc);
                 }
 
-                // this prevents that the current writer, which holds
-                // instance for the last document he is editing will not
-                // override our last changes to the document
-                if(filename.equals(this.currentFile))
-                {
-                    this.currentDoc = doc;
-                }
-
                 break;
             }
         }
@@ -536,56 +547,56 @@ public class HistoryWriterImpl
             if(doc == null)
                 continue;
 
-            NodeList nodes = doc.getElementsByTagName("record");
-
             boolean changed = false;
 
-            Node node;
-            for (int i = 0; i < nodes.getLength(); i++)
+            // the write queue serializes the document under its lock
+            synchronized (doc)
             {
-                node = nodes.item(i);
-                updater.setHistoryRecord(createHistoryRecordFromNode(node));
-                if(!updater.isMatching())
-                    continue;
-
-                // change the timestamp, to reflect there was a change
-                SimpleDateFormat sdf
-                    = new SimpleDateFormat(DATE_FORMAT);
-                ((Element)node).setAttribute("timestamp",
-                    sdf.format(new Date()));
-
-                Map<String, String> updates = updater.getUpdateChanges();
-                for(String nodeName : updates.keySet())
-                {
-                    Element changedNode =
-                        XMLUtils.findChild((Element)node, nodeName);
+                NodeList nodes = doc.getElementsByTagName("record");
 
-                    if(changedNode != null)
+                Node node;
+                for (int i = 0; i < nodes.getLength(); i++)
+                {
+                    node = nodes.item(i);
+                    updater.setHistoryRecord(createHistoryRecordFromNode(node));
+                    if(!updater.isMatching())
+                        continue;
+
+                    // change the timestamp, to reflect there was a change
+                    SimpleDateFormat sdf
+                        = new SimpleDateFormat(DATE_FORMAT);
+                    ((Element)node).setAttribute("timestamp",
+                        sdf.format(new Date()));
+
+                    Map<String, String> updates = updater.getUpdateChanges();
+                    for(String nodeName : updates.keySet())
                     {
-                        Node changedNestedNode = changedNode.getFirstChild();
-
-                        changedNestedNode.setNodeValue(updates.get(nodeName));
-                        changed = true;
+                        Element changedNode =
+                            XMLUtils.findChild((Element)node, nodeName);
+
+                        if(changedNode != null)
+                        {
+                            Node changedNestedNode
+                                = changedNode.getFirstChild();
+
+                            changedNestedNode.setNodeValue(
+                                updates.get(nodeName));
+                            changed = true;
+                        }
                     }
                 }
             }
 
             if(changed)
             {
+                this.historyImpl.reindexFile(filename, doc);
+
                 // write changes
                 synchronized (this.docWriteLock)
                 {
                     this.historyImpl.writeFile(filename, doc);
                 }
 
-                // this prevents that the current writer, which holds
-                // instance for the last document he is editing will not
-                // override our last changes to the document
-                if(filename.equals(this.currentFile))
-                {
-                    this.currentDoc = doc;
-                }
-
                 break;
             }
         }
@@ -139,15 +139,37 @@ public class InteractiveHistoryReaderImpl
                         int resultCount,
                         HistoryQueryImpl query)
     {
+        HistoryLog log = history.getLog();
+
+        // the records which may match the keywords, all records are
+        // checked if the keyword index cannot narrow the search
+        Map<String, BitSet> candidates
+            = history.findKeywordCandidates(field, keywords);
+
+        if (log != null)
+        {
+            findInLog(log, candidates, startDate, endDate, keywords, field,
+                caseSensitive, resultCount, query);
+            return;
+        }
+
         Vector<String> filelist
-            = HistoryReaderImpl.filterFilesByDate(  history.getFileList(),
-                                                    startDate, endDate, true);
+            = history.getFilesInPeriod(startDate, endDate, true);
         Iterator<String> fileIterator = filelist.iterator();
 
         SimpleDateFormat sdf = new SimpleDateFormat(DATE_FORMAT);
         while (fileIterator.hasNext() && resultCount > 0 && !query.isCanceled())
         {
             String filename = fileIterator.next();
+            BitSet fileCandidates = null;
+
+            if(candidates != null)
+            {
+                fileCandidates = candidates.get(filename);
+                if(fileCandidates == null)
+                    continue;
+            }
+
             Document doc = history.getDocumentForFile(filename);
 
             if(doc == null)
@@ -159,6 +181,9 @@ public class InteractiveHistoryReaderImpl
                   i >= 0 && !query.isCanceled();
                   i--)
             {
+                if(fileCandidates != null && !fileCandidates.get(i))
+                    continue;
+
                 Node node = nodes.item(i);
                 Date timestamp;
                 String ts = node.getAttributes().getNamedItem("timestamp")
@@ -195,4 +220,73 @@ public class InteractiveHistoryReaderImpl
         else
             query.setStatus(HistoryQueryStatusEvent.QUERY_COMPLETED);
     }
+
+    /**
+     * Finds the history results corresponding to the given criteria in a
+     * history stored in a <tt>HistoryLog</tt>, newest segments first.
+     * @param log the log to search
+     * @param candidates the records which may match the keywords per segment
+     * or <tt>null</tt> to check all records
+     * @param startDate the start date
+     * @param endDate the end date
+     * @param keywords an array of keywords to search for
+     * @param field the field, where to search the keywords
+     * @param caseSensitive indicates if the search should be case sensitive
+     * @param resultCount the desired number of results
+     * @param query the query tracking the results
+     */
+    private void findInLog(HistoryLog log,
+                           Map<String, BitSet> candidates,
+                           Date startDate,
+                           Date endDate,
+                           String[] keywords,
+                           String field,
+                           boolean caseSensitive,
+                           int resultCount,
+                           HistoryQueryImpl query)
+    {
+        List<HistoryLog.Segment> segments = log.getSegments();
+
+        for (int s = segments.size() - 1;
+                s >= 0 && resultCount > 0 && !query.isCanceled();
+                s--)
+        {
+            HistoryLog.Segment segment = segments.get(s);
+
+            if (!segment.overlaps(startDate, endDate))
+                continue;
+
+            List<HistoryRecord> records
+                = (candidates == null)
+                    ? LogHistoryReaderImpl.read(segment, 0, segment.size())
+                    : LogHistoryReaderImpl.read(
+                        segment,
+                        candidates.get(String.valueOf(segment.getName())));
+
+            for ( int i = records.size() - 1;
+                  i >= 0 && !query.isCanceled();
+                  i--)
+            {
+                HistoryRecord record = records.get(i);
+
+                if(!HistoryReaderImpl.isInPeriod(
+                        record.getTimestamp(), startDate, endDate))
+                    continue;
+
+                record = LogHistoryReaderImpl.filterByKeyword(
+                    record, keywords, field, caseSensitive);
+
+                if(record != null)
+                {
+                    query.addHistoryRecord(record);
+                    resultCount--;
+                }
+            }
+        }
+
+        if (query.isCanceled())
+            query.setStatus(HistoryQueryStatusEvent.QUERY_CANCELED);
+        else
+            query.setStatus(HistoryQueryStatusEvent.QUERY_COMPLETED);
+    }
 }
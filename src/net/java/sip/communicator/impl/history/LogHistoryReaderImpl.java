@@ -0,0 +1,622 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package net.java.sip.communicator.impl.history;
+
+import java.io.*;
+import java.util.*;
+
+import net.java.sip.communicator.service.history.*;
+import net.java.sip.communicator.service.history.event.*;
+import net.java.sip.communicator.service.history.records.*;
+import net.java.sip.communicator.util.*;
+
+/**
+ * The <tt>HistoryReader</tt> of histories stored in a <tt>HistoryLog</tt>.
+ * Segments which timestamp range does not overlap the requested period are
+ * skipped using their index and the "last records" queries only read the
+ * tail of the newest segments.
+ */
+public class LogHistoryReaderImpl
+    implements HistoryReader
+{
+    /**
+     * The logger for this class.
+     */
+    private static final Logger logger
+        = Logger.getLogger(LogHistoryReaderImpl.class);
+
+    /**
+     * The history to read from.
+     */
+    private final HistoryImpl historyImpl;
+
+    /**
+     * The registered progress listeners.
+     */
+    private final Vector<HistorySearchProgressListener> progressListeners
+        = new Vector<HistorySearchProgressListener>();
+
+    /**
+     * Creates an instance of <tt>LogHistoryReaderImpl</tt>.
+     *
+     * @param historyImpl the history to read from
+     */
+    protected LogHistoryReaderImpl(HistoryImpl historyImpl)
+    {
+        this.historyImpl = historyImpl;
+    }
+
+    /**
+     * Searches the history for all records with timestamp after
+     * <tt>startDate</tt>.
+     *
+     * @param startDate the date after all records will be returned
+     * @return the found records
+     * @throws RuntimeException
+     *             Thrown if an exception occurs during the execution of the
+     *             query, such as internal IO error.
+     */
+    public synchronized QueryResultSet<HistoryRecord> findByStartDate(
+                                                                Date startDate)
+            throws RuntimeException
+    {
+        return find(startDate, null, null, null, false);
+    }
+
+    /**
+     * Searches the history for all records with timestamp before
+     * <tt>endDate</tt>.
+     *
+     * @param endDate the date before which all records will be returned
+     * @return the found records
+     * @throws RuntimeException
+     *             Thrown if an exception occurs during the execution of the
+     *             query, such as internal IO error.
+     */
+    public synchronized QueryResultSet<HistoryRecord> findByEndDate(Date endDate)
+        throws RuntimeException
+    {
+        return find(null, endDate, null, null, false);
+    }
+
+    /**
+     * Searches the history for all records with timestamp between
+     * <tt>startDate</tt> and <tt>endDate</tt>.
+     *
+     * @param startDate start of the interval in which we search
+     * @param endDate end of the interval in which we search
+     * @return the found records
+     * @throws RuntimeException
+     *             Thrown if an exception occurs during the execution of the
+     *             query, such as internal IO error.
+     */
+    public synchronized QueryResultSet<HistoryRecord>
+        findByPeriod(Date startDate, Date endDate)
+            throws RuntimeException
+    {
+        return find(startDate, endDate, null, null, false);
+    }
+
+    /**
+     * Searches the history for all records containing the <tt>keyword</tt>.
+     *
+     * @param keyword the keyword to search for
+     * @param field the field where to look for the keyword
+     * @return the found records
+     * @throws RuntimeException
+     *             Thrown if an exception occurs during the execution of the
+     *             query, such as internal IO error.
+     */
+    public synchronized QueryResultSet<HistoryRecord>
+        findByKeyword(String keyword, String field)
+            throws RuntimeException
+    {
+        return findByKeywords(new String[] { keyword }, field);
+    }
+
+    /**
+     * Searches the history for all records containing the <tt>keyword</tt>.
+     *
+     * @param keyword the keyword to search for
+     * @param field the field where to look for the keyword
+     * @param caseSensitive is keywords search case sensitive
+     * @return the found records
+     * @throws RuntimeException
+     *             Thrown if an exception occurs during the execution of the
+     *             query, such as internal IO error.
+     */
+    public synchronized QueryResultSet<HistoryRecord>
+        findByKeyword(String keyword, String field, boolean caseSensitive)
+            throws RuntimeException
+    {
+        return findByKeywords(new String[] { keyword }, field, caseSensitive);
+    }
+
+    /**
+     * Searches the history for all records containing all <tt>keywords</tt>.
+     *
+     * @param keywords array of keywords we search for
+     * @param field the field where to look for the keyword
+     * @return the found records
+     * @throws RuntimeException
+     *             Thrown if an exception occurs during the execution of the
+     *             query, such as internal IO error.
+     */
+    public synchronized QueryResultSet<HistoryRecord>
+        findByKeywords(String[] keywords, String field)
+            throws RuntimeException
+    {
+        return find(null, null, keywords, field, false);
+    }
+
+    /**
+     * Searches the history for all records containing all <tt>keywords</tt>.
+     *
+     * @param keywords array of keywords we search for
+     * @param field the field where to look for the keyword
+     * @param caseSensitive is keywords search case sensitive
+     * @return the found records
+     * @throws RuntimeException
+     *             Thrown if an exception occurs during the execution of the
+     *             query, such as internal IO error.
+     */
+    public synchronized QueryResultSet<HistoryRecord>
+        findByKeywords(String[] keywords, String field, boolean caseSensitive)
+            throws RuntimeException
+    {
+        return find(null, null, keywords, field, caseSensitive);
+    }
+
+    /**
+     * Searches for all history records containing all <tt>keywords</tt>,
+     * with timestamp between <tt>startDate</tt> and <tt>endDate</tt>.
+     *
+     * @param startDate start of the interval in which we search
+     * @param endDate end of the interval in which we search
+     * @param keywords array of keywords we search for
+     * @param field the field where to look for the keyword
+     * @return the found records
+     * @throws UnsupportedOperationException
+     *             Thrown if an exception occurs during the execution of the
+     *             query, such as internal IO error.
+     */
+    public synchronized QueryResultSet<HistoryRecord>
+        findByPeriod(Date startDate,
+                     Date endDate,
+                     String[] keywords,
+                     String field)
+            throws UnsupportedOperationException
+    {
+        return find(startDate, endDate, keywords, field, false);
+    }
+
+    /**
+     * Searches for all history records containing all <tt>keywords</tt>,
+     * with timestamp between <tt>startDate</tt> and <tt>endDate</tt>.
+     *
+     * @param startDate start of the interval in which we search
+     * @param endDate end of the interval in which we search
+     * @param keywords array of keywords we search for
+     * @param field the field where to look for the keyword
+     * @param caseSensitive is keywords search case sensitive
+     * @return the found records
+     * @throws UnsupportedOperationException
+     *             Thrown if an exception occurs during the execution of the
+     *             query, such as internal IO error.
+     */
+    public synchronized QueryResultSet<HistoryRecord>
+        findByPeriod(Date startDate,
+                     Date endDate,
+                     String[] keywords,
+                     String field,
+                     boolean caseSensitive)
+            throws UnsupportedOperationException
+    {
+        return find(startDate, endDate, keywords, field, caseSensitive);
+    }
+
+    /**
+     * Returns the last <tt>count</tt> messages.
+     *
+     * @param count int
+     * @return QueryResultSet
+     * @throws RuntimeException
+     */
+    public synchronized QueryResultSet<HistoryRecord> findLast(int count)
+        throws RuntimeException
+    {
+        return findLast(count, null, null, false);
+    }
+
+    /**
+     * Returns the supplied number of recent messages
+     * containing all <tt>keywords</tt>. Like the XML reader, the last
+     * <tt>count</tt> records are taken and then filtered by the keywords.
+     *
+     * @param count messages count
+     * @param keywords array of keywords we search for
+     * @param field the field where to look for the keyword
+     * @param caseSensitive is keywords search case sensitive
+     * @return the found records
+     * @throws RuntimeException
+     */
+    public synchronized QueryResultSet<HistoryRecord> findLast(
+        int count,
+        String[] keywords,
+        String field,
+        boolean caseSensitive)
+        throws RuntimeException
+    {
+        TreeSet<HistoryRecord> result
+            = new TreeSet<HistoryRecord>(
+                new HistoryReaderImpl.HistoryRecordComparator());
+        List<HistoryLog.Segment> segments = getLog().getSegments();
+        int leftCount = count;
+
+        for (int s = segments.size() - 1; s >= 0 && leftCount > 0; s--)
+        {
+            HistoryLog.Segment segment = segments.get(s);
+            int size = segment.size();
+            int from = Math.max(0, size - leftCount);
+
+            leftCount -= size - from;
+
+            for (HistoryRecord record : read(segment, from, size))
+            {
+                record = filterByKeyword(
+                    record, keywords, field, caseSensitive);
+                if (record != null)
+                    result.add(record);
+            }
+        }
+
+        return new OrderedQueryResultSet<HistoryRecord>(result);
+    }
+
+    /**
+     * Returns the supplied number of recent messages after the given date
+     *
+     * @param date messages after date
+     * @param count messages count
+     * @return QueryResultSet the found records
+     * @throws RuntimeException
+     */
+    public QueryResultSet<HistoryRecord>
+        findFirstRecordsAfter(Date date, int count)
+            throws RuntimeException
+    {
+        TreeSet<HistoryRecord> result
+            = new TreeSet<HistoryRecord>(
+                new HistoryReaderImpl.HistoryRecordComparator());
+        int leftCount = count;
+
+        for (HistoryLog.Segment segment : getLog().getSegments())
+        {
+            if (leftCount <= 0)
+                break;
+            if (!segment.overlaps(date, null))
+                continue;
+
+            for (HistoryRecord record : read(segment, 0, segment.size()))
+            {
+                if (leftCount <= 0)
+                    break;
+                if (!HistoryReaderImpl.isInPeriod(
+                        record.getTimestamp(), date, null))
+                    continue;
+
+                result.add(record);
+                leftCount--;
+            }
+        }
+
+        return new OrderedQueryResultSet<HistoryRecord>(result);
+    }
+
+    /**
+     * Returns the supplied number of recent messages before the given date
+     *
+     * @param date messages before date
+     * @param count messages count
+     * @return QueryResultSet the found records
+     * @throws RuntimeException
+     */
+    public QueryResultSet<HistoryRecord>
+        findLastRecordsBefore(Date date, int count)
+            throws RuntimeException
+    {
+        TreeSet<HistoryRecord> result
+            = new TreeSet<HistoryRecord>(
+                new HistoryReaderImpl.HistoryRecordComparator());
+        List<HistoryLog.Segment> segments = getLog().getSegments();
+        int leftCount = count;
+
+        for (int s = segments.size() - 1; s >= 0 && leftCount > 0; s--)
+        {
+            HistoryLog.Segment segment = segments.get(s);
+
+            if (!segment.overlaps(null, date))
+                continue;
+
+            List<HistoryRecord> records = read(segment, 0, segment.size());
+            for (int i = records.size() - 1; i >= 0 && leftCount > 0; i--)
+            {
+                HistoryRecord record = records.get(i);
+
+                if (!HistoryReaderImpl.isInPeriod(
+                        record.getTimestamp(), null, date))
+                    continue;
+
+                result.add(record);
+                leftCount--;
+            }
+        }
+
+        return new OrderedQueryResultSet<HistoryRecord>(result);
+    }
+
+    /**
+     * Finds the records matching the given criteria.
+     *
+     * @param startDate the start of the period or <tt>null</tt>
+     * @param endDate the end of the period or <tt>null</tt>
+     * @param keywords the keywords to search for or <tt>null</tt>
+     * @param field the field where to look for the keywords
+     * @param caseSensitive is keywords search case sensitive
+     * @return the found records
+     */
+    private QueryResultSet<HistoryRecord> find(
+        Date startDate, Date endDate,
+        String[] keywords, String field, boolean caseSensitive)
+    {
+        TreeSet<HistoryRecord> result
+            = new TreeSet<HistoryRecord>(
+                new HistoryReaderImpl.HistoryRecordComparator());
+
+        List<HistoryLog.Segment> segments
+            = new ArrayList<HistoryLog.Segment>();
+        for (HistoryLog.Segment segment : getLog().getSegments())
+        {
+            if (segment.overlaps(startDate, endDate))
+                segments.add(segment);
+        }
+
+        double currentProgress
+            = HistorySearchProgressListener.PROGRESS_MINIMUM_VALUE;
+        double segmentProgressStep
+            = HistorySearchProgressListener.PROGRESS_MAXIMUM_VALUE;
+
+        if(segments.size() != 0)
+            segmentProgressStep
+                = HistorySearchProgressListener.PROGRESS_MAXIMUM_VALUE
+                    / segments.size();
+
+        // start progress - minimum value
+        fireProgressStateChanged(startDate, endDate,
+            keywords, HistorySearchProgressListener.PROGRESS_MINIMUM_VALUE);
+
+        // the records which may match the keywords, all records are
+        // checked if the keyword index cannot narrow the search
+        Map<String, BitSet> candidates
+            = historyImpl.findKeywordCandidates(field, keywords);
+
+        for (HistoryLog.Segment segment : segments)
+        {
+            List<HistoryRecord> records
+                = (candidates == null)
+                    ? read(segment, 0, segment.size())
+                    : read(segment,
+                           candidates.get(String.valueOf(segment.getName())));
+
+            for (HistoryRecord record : records)
+            {
+                if (!HistoryReaderImpl.isInPeriod(
+                        record.getTimestamp(), startDate, endDate))
+                    continue;
+
+                record = filterByKeyword(
+                    record, keywords, field, caseSensitive);
+                if (record != null)
+                    result.add(record);
+            }
+
+            currentProgress += segmentProgressStep;
+            fireProgressStateChanged(
+                startDate, endDate, keywords, (int)currentProgress);
+        }
+
+        // if maximum value is not reached fire an event
+        if((int)currentProgress
+                < HistorySearchProgressListener.PROGRESS_MAXIMUM_VALUE)
+        {
+            fireProgressStateChanged(startDate, endDate, keywords,
+                                     HistorySearchProgressListener.
+                                     PROGRESS_MAXIMUM_VALUE);
+        }
+
+        return new OrderedQueryResultSet<HistoryRecord>(result);
+    }
+
+    /**
+     * Reads records from a segment, logging and skipping it if it cannot be
+     * read.
+     *
+     * @param segment the segment to read
+     * @param from the first ordinal to read
+     * @param to the ordinal after the last one to read
+     * @return the records read
+     */
+    static List<HistoryRecord> read(
+            HistoryLog.Segment segment, int from, int to)
+    {
+        try
+        {
+            return segment.read(from, to);
+        }
+        catch (IOException e)
+        {
+            logger.error("Error reading history segment " + segment, e);
+            return new ArrayList<HistoryRecord>(0);
+        }
+    }
+
+    /**
+     * Reads the records at the given ordinals from a segment. Consecutive
+     * ordinals are read at once.
+     *
+     * @param segment the segment to read
+     * @param ordinals the ordinals of the records to read or <tt>null</tt>
+     * to read none
+     * @return the records read
+     */
+    static List<HistoryRecord> read(HistoryLog.Segment segment,
+                                    BitSet ordinals)
+    {
+        List<HistoryRecord> result = new ArrayList<HistoryRecord>();
+
+        if (ordinals == null)
+            return result;
+
+        int size = segment.size();
+        int from = ordinals.nextSetBit(0);
+        while (from >= 0 && from < size)
+        {
+            int to = Math.min(ordinals.nextClearBit(from), size);
+
+            result.addAll(read(segment, from, to));
+            from = ordinals.nextSetBit(to);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the given record if it matches the keywords restriction or
+     * <tt>null</tt> if it doesn't.
+     *
+     * @param record the record to check
+     * @param keywords the keywords or <tt>null</tt>
+     * @param field the field where to look for the keywords
+     * @param caseSensitive is keywords search case sensitive
+     * @return the record or <tt>null</tt>
+     */
+    static HistoryRecord filterByKeyword(HistoryRecord record,
+                                         String[] keywords,
+                                         String field,
+                                         boolean caseSensitive)
+    {
+        if(keywords == null || keywords.length == 0)
+            return record;
+
+        String[] names = record.getPropertyNames();
+        for (int i = 0; i < names.length; i++)
+        {
+            if (names[i].equals(field))
+            {
+                return HistoryReaderImpl.matchKeyword(
+                        record.getPropertyValues()[i], keywords, caseSensitive)
+                    ? record
+                    : null;
+            }
+        }
+
+        // if we need to find a particular record but the target field is not
+        // present skip this record
+        return null;
+    }
+
+    private void fireProgressStateChanged(Date startDate, Date endDate,
+                         String[] keywords, int progress)
+    {
+        ProgressEvent event =
+            new ProgressEvent(this, startDate, endDate, keywords, progress);
+
+        synchronized(progressListeners)
+        {
+            Iterator<HistorySearchProgressListener> iter
+                = progressListeners.iterator();
+            while (iter.hasNext())
+            {
+                HistorySearchProgressListener item = iter.next();
+                item.progressChanged(event);
+            }
+        }
+    }
+
+    /**
+     * Adding progress listener for monitoring progress of search process
+     *
+     * @param listener HistorySearchProgressListener
+     */
+    public void addSearchProgressListener(HistorySearchProgressListener
+                                          listener)
+    {
+        synchronized(progressListeners){
+            progressListeners.add(listener);
+        }
+    }
+
+    /**
+     * Removing progress listener
+     *
+     * @param listener HistorySearchProgressListener
+     */
+    public void removeSearchProgressListener(HistorySearchProgressListener
+                                             listener)
+    {
+        synchronized(progressListeners){
+            progressListeners.remove(listener);
+        }
+    }
+
+    /**
+     * Returns the exact number of records in the history, read from the
+     * segment indexes.
+     *
+     * @return the number of records
+     * @throws UnsupportedOperationException never
+     */
+    public int countRecords()
+        throws UnsupportedOperationException
+    {
+        return getLog().getRecordCount();
+    }
+
+    /**
+     * Counts the records in a period by the calendar bucket of their
+     * timestamp, from the timestamps in the segment indexes.
+     *
+     * @param startDate start of the interval or <tt>null</tt>
+     * @param endDate end of the interval (exclusive) or <tt>null</tt>
+     * @param calendarField the <tt>Calendar</tt> field of the buckets
+     * @return the number of records by bucket start
+     */
+    public SortedMap<Date, Integer> countRecordsByPeriod(Date startDate,
+                                                         Date endDate,
+                                                         int calendarField)
+    {
+        HistoryRecordHistogram histogram
+            = new HistoryRecordHistogram(startDate, endDate, calendarField);
+
+        for (HistoryLog.Segment segment : getLog().getSegments())
+        {
+            if (segment.overlaps(startDate, endDate))
+                segment.addTo(histogram);
+        }
+        return histogram.getCounts();
+    }
+
+    /**
+     * Returns the log of the history once the XML documents of the history
+     * are imported into it.
+     *
+     * @return the log to read from
+     */
+    private HistoryLog getLog()
+    {
+        return historyImpl.getLog();
+    }
+}
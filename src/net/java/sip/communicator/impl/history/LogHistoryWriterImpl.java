@@ -0,0 +1,425 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package net.java.sip.communicator.impl.history;
+
+import java.io.*;
+import java.util.*;
+
+import net.java.sip.communicator.service.history.*;
+import net.java.sip.communicator.service.history.records.*;
+
+/**
+ * The <tt>HistoryWriter</tt> of histories stored in a <tt>HistoryLog</tt>.
+ * New records are appended to the log without touching the existing ones,
+ * updates rewrite only the segment holding the updated record.
+ */
+public class LogHistoryWriterImpl
+    implements HistoryWriter
+{
+    /**
+     * The suffix of the property names stored as CDATA in the XML format.
+     */
+    private static final String CDATA_SUFFIX = "_CDATA";
+
+    /**
+     * The history to write to.
+     */
+    private final HistoryImpl historyImpl;
+
+    /**
+     * The property names of the records with the <tt>_CDATA</tt> suffix
+     * removed, as the readers return them.
+     */
+    private final String[] structPropertyNames;
+
+    /**
+     * Creates an instance of <tt>LogHistoryWriterImpl</tt>.
+     *
+     * @param historyImpl the history to write to
+     */
+    protected LogHistoryWriterImpl(HistoryImpl historyImpl)
+    {
+        this.historyImpl = historyImpl;
+        this.structPropertyNames
+            = stripCDataSuffix(
+                historyImpl.getHistoryRecordsStructure().getPropertyNames());
+    }
+
+    public void addRecord(HistoryRecord record)
+        throws IOException
+    {
+        addRecord(
+            stripCDataSuffix(record.getPropertyNames()),
+            record.getPropertyValues(),
+            record.getTimestamp(),
+            -1);
+    }
+
+    public void addRecord(String[] propertyValues)
+        throws IOException
+    {
+        addRecord(structPropertyNames, propertyValues, new Date(), -1);
+    }
+
+    public void addRecord(String[] propertyValues, Date timestamp)
+        throws IOException
+    {
+        addRecord(structPropertyNames, propertyValues, timestamp, -1);
+    }
+
+    /**
+     * Stores the passed propertyValues complying with the
+     * historyRecordStructure.
+     *
+     * @param propertyValues
+     *            The values of the record.
+     * @param maxNumberOfRecords the maximum number of records to keep or
+     * value of -1 to ignore this param.
+     *
+     * @throws IOException
+     */
+    public void addRecord(String[] propertyValues, int maxNumberOfRecords)
+        throws IOException
+    {
+        addRecord(
+            structPropertyNames,
+            propertyValues,
+            new Date(),
+            maxNumberOfRecords);
+    }
+
+    /**
+     * Appends a record to the log, dropping the oldest record first if the
+     * history already holds <tt>maxNumberOfRecords</tt>.
+     *
+     * @param propertyNames the names of the properties
+     * @param propertyValues the values of the properties
+     * @param date the timestamp of the record
+     * @param maxNumberOfRecords the maximum number of records to keep or
+     * value of -1 to ignore this param.
+     * @throws IOException if writing fails
+     */
+    private void addRecord(String[] propertyNames,
+                           String[] propertyValues,
+                           Date date,
+                           int maxNumberOfRecords)
+        throws IOException
+    {
+        String[] values = sanitize(propertyValues);
+        HistoryLog log = getLog();
+
+        // the keyword index is always locked before the log
+        synchronized (historyImpl.getKeywordIndex())
+        {
+            synchronized (log)
+            {
+                if (maxNumberOfRecords > -1
+                    && log.getRecordCount() >= maxNumberOfRecords)
+                {
+                    removeFirstRecord();
+                }
+
+                long timestamp = date.getTime();
+                HistoryLog.Segment segment
+                    = log.getWritableSegment(timestamp);
+
+                // index before writing, so if we crash the index may only
+                // point to a record which is not there
+                historyImpl.indexRecord(
+                    String.valueOf(segment.getName()),
+                    segment.size(),
+                    propertyNames,
+                    values);
+
+                log.append(timestamp, propertyNames, values);
+            }
+        }
+    }
+
+    /**
+     * Inserts a record. As readers order the records by their timestamps,
+     * there is no need to look for the position of the record and it is just
+     * appended to the log.
+     *
+     * @param propertyValues The values of the record.
+     * @param timestamp The timestamp of the record.
+     * @param timestampProperty the property name for the timestamp of the
+     * record
+     *
+     * @throws IOException
+     */
+    public void insertRecord(
+            String[] propertyValues, Date timestamp, String timestampProperty)
+        throws IOException
+    {
+        addRecord(structPropertyNames, propertyValues, timestamp, -1);
+    }
+
+    /**
+     * Updates a record by searching for record with idProperty which have
+     * idValue and updating/creating the property with newValue.
+     *
+     * @param idProperty name of the id property
+     * @param idValue value of the id property
+     * @param property the property to change
+     * @param newValue the value of the changed property.
+     */
+    public void updateRecord(String idProperty, String idValue,
+            String property, String newValue)
+        throws IOException
+    {
+        HistoryLog log = getLog();
+
+        synchronized (historyImpl.getKeywordIndex())
+        {
+            synchronized (log)
+            {
+                for (HistoryLog.Segment segment : log.getSegments())
+                {
+                    List<HistoryRecord> records = segment.readAll();
+
+                    for (int i = 0; i < records.size(); i++)
+                    {
+                        HistoryRecord record = records.get(i);
+
+                        if (!idValue.equals(getValue(record, idProperty)))
+                            continue;
+
+                        Map<String, String> changes
+                            = new LinkedHashMap<String, String>();
+                        changes.put(property, newValue.replaceAll("\0", " "));
+
+                        records.set(i, applyChanges(record, changes, true));
+                        rewrite(segment, records);
+                        return;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Updates history record using given <tt>HistoryRecordUpdater</tt> instance
+     * to find which is the record to be updated and to get the new values for
+     * the fields. As the XML writer does, all matching records in the first
+     * segment containing matches are updated.
+     *
+     * @param updater the <tt>HistoryRecordUpdater</tt> instance.
+     */
+    public void updateRecord(HistoryRecordUpdater updater)
+        throws IOException
+    {
+        HistoryLog log = getLog();
+
+        synchronized (historyImpl.getKeywordIndex())
+        {
+            synchronized (log)
+            {
+                for (HistoryLog.Segment segment : log.getSegments())
+                {
+                    List<HistoryRecord> records = segment.readAll();
+                    boolean changed = false;
+
+                    for (int i = 0; i < records.size(); i++)
+                    {
+                        HistoryRecord record = records.get(i);
+
+                        updater.setHistoryRecord(record);
+                        if (!updater.isMatching())
+                            continue;
+
+                        records.set(
+                            i,
+                            applyChanges(
+                                record, updater.getUpdateChanges(), false));
+                        changed = true;
+                    }
+
+                    if (changed)
+                    {
+                        rewrite(segment, records);
+                        return;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes the record with the oldest timestamp.
+     *
+     * @throws IOException if writing fails
+     */
+    private void removeFirstRecord()
+        throws IOException
+    {
+        HistoryLog.Segment oldestSegment = null;
+
+        for (HistoryLog.Segment segment : getLog().getSegments())
+        {
+            if (oldestSegment == null
+                || segment.getMinTimestamp() < oldestSegment.getMinTimestamp())
+            {
+                oldestSegment = segment;
+            }
+        }
+
+        if (oldestSegment == null)
+            return;
+
+        List<HistoryRecord> records = oldestSegment.readAll();
+        int oldest = -1;
+        for (int i = 0; i < records.size(); i++)
+        {
+            if (oldest == -1
+                || records.get(i).getTimestamp().before(
+                        records.get(oldest).getTimestamp()))
+            {
+                oldest = i;
+            }
+        }
+
+        if (oldest != -1)
+        {
+            records.remove(oldest);
+            rewrite(oldestSegment, records);
+        }
+    }
+
+    /**
+     * Replaces the content of a segment and updates the keyword index.
+     *
+     * @param segment the segment to rewrite
+     * @param records the new content of the segment
+     * @throws IOException if writing fails
+     */
+    private void rewrite(HistoryLog.Segment segment,
+                         List<HistoryRecord> records)
+        throws IOException
+    {
+        String file = String.valueOf(segment.getName());
+
+        if (records.isEmpty())
+            historyImpl.getKeywordIndex().removeFile(file);
+        else
+            historyImpl.getKeywordIndex().reindexFile(file, records);
+
+        getLog().rewrite(segment, records);
+    }
+
+    /**
+     * Returns a copy of <tt>record</tt> with the given changes applied and
+     * its timestamp set to the current time to reflect there was a change.
+     *
+     * @param record the record to change
+     * @param changes the new values of the properties
+     * @param addMissing whether properties which are not in the record are
+     * added or ignored
+     * @return the changed record
+     */
+    private static HistoryRecord applyChanges(HistoryRecord record,
+                                              Map<String, String> changes,
+                                              boolean addMissing)
+    {
+        List<String> names
+            = new ArrayList<String>(Arrays.asList(record.getPropertyNames()));
+        List<String> values
+            = new ArrayList<String>(Arrays.asList(record.getPropertyValues()));
+
+        for (Map.Entry<String, String> change : changes.entrySet())
+        {
+            int index = names.indexOf(change.getKey());
+
+            if (index != -1)
+            {
+                values.set(index, change.getValue());
+            }
+            else if (addMissing)
+            {
+                names.add(change.getKey());
+                values.add(change.getValue());
+            }
+        }
+
+        return new HistoryRecord(
+            names.toArray(new String[names.size()]),
+            values.toArray(new String[values.size()]),
+            new Date());
+    }
+
+    /**
+     * Returns the value of a property of a record.
+     *
+     * @param record the record
+     * @param property the name of the property
+     * @return the value or <tt>null</tt> if the record has no such property
+     */
+    private static String getValue(HistoryRecord record, String property)
+    {
+        String[] names = record.getPropertyNames();
+
+        for (int i = 0; i < names.length; i++)
+        {
+            if (names[i].equals(property))
+                return record.getPropertyValues()[i];
+        }
+        return null;
+    }
+
+    /**
+     * Replaces the null characters in the values the same way the XML writer
+     * does.
+     *
+     * @param values the values to sanitize
+     * @return the sanitized values
+     */
+    private static String[] sanitize(String[] values)
+    {
+        String[] result = new String[values.length];
+
+        for (int i = 0; i < values.length; i++)
+        {
+            result[i] = (values[i] == null)
+                ? null
+                : values[i].replaceAll("\0", " ");
+        }
+        return result;
+    }
+
+    /**
+     * Removes the <tt>_CDATA</tt> suffix used by the XML format from the
+     * given property names.
+     *
+     * @param propertyNames the property names
+     * @return the property names without the suffix
+     */
+    private static String[] stripCDataSuffix(String[] propertyNames)
+    {
+        String[] result = new String[propertyNames.length];
+
+        for (int i = 0; i < propertyNames.length; i++)
+        {
+            String name = propertyNames[i];
+
+            result[i] = name.endsWith(CDATA_SUFFIX)
+                ? name.substring(0, name.length() - CDATA_SUFFIX.length())
+                : name;
+        }
+        return result;
+    }
+
+    /**
+     * Returns the log to write to, waiting for the records stored in the XML
+     * format to be imported into it.
+     *
+     * @return the log of the history
+     */
+    private HistoryLog getLog()
+    {
+        return historyImpl.getLog();
+    }
+}
@@ -7,10 +7,12 @@
 package net.java.sip.communicator.impl.ldap;
 
 import java.util.*;
+import java.util.concurrent.*;
 import java.util.regex.*;
 
 import javax.naming.*;
 import javax.naming.directory.*;
+import javax.naming.ldap.*;
 
 import net.java.sip.communicator.service.ldap.*;
 import net.java.sip.communicator.service.ldap.event.*;
@@ -39,6 +41,74 @@ public class LdapDirectoryImpl
         logger.setLevelTrace();
     }
 
+    /**
+     * The maximum number of searches run at the same time in all the
+     * directories.
+     */
+    private static final int SEARCH_THREADS = 4;
+
+    /**
+     * The number of entries requested at once from directories supporting
+     * paged results (RFC 2696).
+     */
+    private static final int PAGE_SIZE = 200;
+
+    /**
+     * The executor running the searches of all the directories, its threads
+     * stop when they are idle.
+     */
+    private static final ExecutorService searchExecutor;
+
+    static
+    {
+        ThreadPoolExecutor executor
+            = new ThreadPoolExecutor(
+                    SEARCH_THREADS, SEARCH_THREADS,
+                    30, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(),
+                    new ThreadFactory()
+                    {
+                        public Thread newThread(Runnable r)
+                        {
+                            Thread t = new Thread(r, "LdapSearch");
+
+                            // setting the classloader is necessary so that
+                            // the BundleContext can be accessed from classes
+                            // instantiated from JNDI (specifically from our
+                            // custom SocketFactory)
+                            t.setContextClassLoader(
+                                LdapDirectoryImpl.class.getClassLoader());
+                            t.setDaemon(true);
+                            return t;
+                        }
+                    });
+
+        executor.allowCoreThreadTimeOut(true);
+        searchExecutor = executor;
+    }
+
+    /**
+     * The executor starting the delayed searches once their delay has
+     * elapsed, so the search threads do not wait for it.
+     */
+    private static final ScheduledExecutorService delayExecutor
+        = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactory()
+                {
+                    public Thread newThread(Runnable r)
+                    {
+                        Thread t = new Thread(r, "LdapSearchDelay");
+
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+
+    /**
+     * The results of the last searches.
+     */
+    private final LdapSearchCache searchCache = new LdapSearchCache();
+
     /**
      * The settings for this directory
      */
@@ -291,13 +361,13 @@ public class LdapDirectoryImpl
     /**
      * Connects to the remote directory
      */
-    private InitialDirContext connect()
+    private InitialLdapContext connect()
         throws NamingException
     {
         logger.trace("connecting to directory \"" + this + "\"");
         long time0 = System.currentTimeMillis();
-        InitialDirContext dirContext =
-            new InitialDirContext(this.env);
+        InitialLdapContext dirContext =
+            new InitialLdapContext(this.env, null);
         long time1 = System.currentTimeMillis();
         logger.trace("connection to directory \"" + this + "\" took " +
                 (time1-time0)  + " ms");
@@ -371,21 +441,27 @@ public class LdapDirectoryImpl
         this.pendingSearches.put(query, new LdapPendingSearch(serversList,
                 caller));
 
+        Pattern searchPattern = Pattern.compile(query.toString(),
+            Pattern.CASE_INSENSITIVE | Pattern.LITERAL);
+
         // really performs the search
         for(String queryString : intermediateQueryStrings)
-            this.performSearch(query, queryString, searchSettings, this);
+        {
+            this.performSearch(
+                query, queryString, searchPattern, searchSettings, this);
+        }
     }
 
     private void performSearch(final LdapQuery query,
             final String realQueryString,
+            final Pattern searchPattern,
             final LdapSearchSettings searchSettings,
             final LdapListener caller)
     {
-        Thread searchThread = new Thread()
+        Runnable search = new Runnable()
         {
             int cancelState = 0;
 
-            @Override
             public void run()
             {
                 String filter = buildSearchFilter(realQueryString);
@@ -393,60 +469,54 @@ public class LdapDirectoryImpl
                         " (initial query: \"" + query.toString() +
                         "\") on directory \"" + LdapDirectoryImpl.this + "\"");
 
-                Pattern searchPattern = Pattern.compile(query.toString(),
-                    Pattern.CASE_INSENSITIVE | Pattern.LITERAL);
-
                 SearchControls searchControls =
                     buildSearchControls(searchSettings);
 
                 LdapEvent endEvent = null;
-                InitialDirContext dirContext = null;
+                InitialLdapContext dirContext = null;
 
                 try
                 {
-                    if(searchSettings.isDelaySet())
-                        Thread.sleep(searchSettings.getDelay());
-
-                    checkCancel();
-                    dirContext = connect();
                     checkCancel();
 
                     long time0 = System.currentTimeMillis();
+                    String searchKey = searchControls.getSearchScope()
+                        + " " + searchControls.getCountLimit();
+                    String cacheKey = searchKey + " " + filter;
+                    String wordQuery = getWordQuery(realQueryString);
+                    List<LdapSearchCache.Result> results
+                        = searchCache.get(cacheKey, time0);
+
+                    // the entries containing "john" are among the ones
+                    // containing "jo"
+                    if(results == null && wordQuery != null)
+                    {
+                        results
+                            = searchCache.getBroader(
+                                    wordQuery, searchKey, time0);
+                    }
 
-                    NamingEnumeration<?> results = dirContext.search(
-                            LdapDirectoryImpl.this.settings.getBaseDN(),
-                            filter,
-                            searchControls
-                            );
-
-                    checkCancel();
-
-                    while (results.hasMore())
+                    if(results != null)
                     {
+                        for(LdapSearchCache.Result result : results)
+                        {
+                            checkCancel();
+                            fireResult(result);
+                        }
+                    }
+                    else
+                    {
+                        dirContext = connect();
                         checkCancel();
 
-                        SearchResult searchResult =
-                            (SearchResult) results.next();
-                        Map<String, Set<Object>> retrievedAttributes =
-                            retrieveAttributes(searchResult);
-
-                        if(!checkRetrievedAttributes(
-                                query.toString(),
-                                searchPattern,
-                                retrievedAttributes))
-                            continue;
-
-                        LdapPersonFound person =
-                            buildPerson(
-                                query,
-                                searchResult.getName(),
-                                retrievedAttributes
-                                );
-                        LdapEvent resultEvent =
-                            new LdapEvent(LdapDirectoryImpl.this,
-                                    LdapEvent.LdapEventCause.NEW_SEARCH_RESULT,
-                                    person);
-                        fireLdapEvent(resultEvent, caller);
+                        results = new ArrayList<LdapSearchCache.Result>();
+
+                        boolean complete = search(
+                            dirContext, filter, searchControls, results);
+
+                        searchCache.put(
+                            cacheKey, wordQuery, searchKey, results, complete,
+                            time0);
                     }
 
                     long time1 = System.currentTimeMillis();
@@ -513,11 +583,6 @@ public class LdapDirectoryImpl
                             );
 
                 }
-                catch(InterruptedException e)
-                {
-                    // whether sleep was interrupted
-                    // is not that important
-                }
                 catch (Exception e)
                 {
                     logger.error("search for real query \"" + filter +
@@ -539,6 +604,104 @@ public class LdapDirectoryImpl
                 }
             }
 
+            /**
+             * Searches the directory page by page, firing the found entries
+             * matching the query as they arrive.
+             *
+             * @param dirContext the connection to the directory.
+             * @param filter the search filter.
+             * @param searchControls the search controls.
+             * @param results the list to add the found entries to.
+             * @return whether all the entries matching the filter were
+             * found, the count limit was not reached.
+             */
+            private boolean search(InitialLdapContext dirContext,
+                                   String filter,
+                                   SearchControls searchControls,
+                                   List<LdapSearchCache.Result> results)
+                throws Exception
+            {
+                long countLimit = searchControls.getCountLimit();
+                byte[] cookie = null;
+
+                // directories not supporting paged results ignore the
+                // non critical control and return all the entries at once
+                dirContext.setRequestControls(new Control[]
+                    {
+                        new PagedResultsControl(PAGE_SIZE, Control.NONCRITICAL)
+                    });
+
+                do
+                {
+                    NamingEnumeration<SearchResult> page = dirContext.search(
+                            LdapDirectoryImpl.this.settings.getBaseDN(),
+                            filter,
+                            searchControls
+                            );
+
+                    checkCancel();
+
+                    while (page.hasMore())
+                    {
+                        checkCancel();
+
+                        SearchResult searchResult = page.next();
+                        LdapSearchCache.Result result
+                            = new LdapSearchCache.Result(
+                                    searchResult.getName(),
+                                    retrieveAttributes(searchResult));
+
+                        results.add(result);
+                        fireResult(result);
+
+                        if(countLimit > 0 && results.size() >= countLimit)
+                        {
+                            page.close();
+                            return false;
+                        }
+                    }
+
+                    cookie = getPagedResultsCookie(dirContext);
+                    if(cookie != null)
+                    {
+                        dirContext.setRequestControls(new Control[]
+                            {
+                                new PagedResultsControl(
+                                        PAGE_SIZE, cookie, Control.CRITICAL)
+                            });
+                    }
+                }
+                while(cookie != null);
+
+                return true;
+            }
+
+            /**
+             * Fires a found entry to the caller if it matches the query.
+             *
+             * @param result the found entry.
+             */
+            private void fireResult(LdapSearchCache.Result result)
+            {
+                if(!checkRetrievedAttributes(
+                        query.toString(),
+                        searchPattern,
+                        result.attributes))
+                    return;
+
+                LdapPersonFound person =
+                    buildPerson(
+                        query,
+                        result.name,
+                        result.attributes
+                        );
+                LdapEvent resultEvent =
+                    new LdapEvent(LdapDirectoryImpl.this,
+                            LdapEvent.LdapEventCause.NEW_SEARCH_RESULT,
+                            person);
+                fireLdapEvent(resultEvent, caller);
+            }
+
             /**
              * Checks if the query that triggered this search has
              * been marked as cancelled. If that's the case, the
@@ -558,12 +721,80 @@ public class LdapDirectoryImpl
             }
         };
 
-        // setting the classloader is necessary so that the BundleContext can be
-        // accessed from classes instantiated from JNDI (specifically from our
-        // custom SocketFactory)
-        searchThread.setContextClassLoader(getClass().getClassLoader());
-        searchThread.setDaemon(true);
-        searchThread.start();
+        if(searchSettings.isDelaySet())
+        {
+            // a search cancelled during its delay stops as soon as it runs
+            final Runnable delayedSearch = search;
+
+            delayExecutor.schedule(
+                new Runnable()
+                {
+                    public void run()
+                    {
+                        searchExecutor.execute(delayedSearch);
+                    }
+                },
+                searchSettings.getDelay(),
+                TimeUnit.MILLISECONDS);
+        }
+        else
+            searchExecutor.execute(search);
+    }
+
+    /**
+     * Returns the cookie of the next page of the last search.
+     *
+     * @param dirContext the connection to the directory.
+     * @return the cookie of the next page or <tt>null</tt> if it was the last
+     * page or the directory does not support paged results.
+     * @throws NamingException if the response controls cannot be read.
+     */
+    private static byte[] getPagedResultsCookie(InitialLdapContext dirContext)
+        throws NamingException
+    {
+        Control[] controls = dirContext.getResponseControls();
+
+        if(controls != null)
+        {
+            for(Control control : controls)
+            {
+                if(control instanceof PagedResultsResponseControl)
+                {
+                    byte[] cookie
+                        = ((PagedResultsResponseControl) control).getCookie();
+
+                    return (cookie == null || cookie.length == 0)
+                        ? null
+                        : cookie;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the word searched by an intermediate query string if the
+     * entries it finds are the entries having an attribute containing the
+     * word, so that they may be found among the results of a search for a
+     * part of the word.
+     *
+     * @param realQueryString the intermediate query string.
+     * @return the searched word or <tt>null</tt>.
+     */
+    private String getWordQuery(String realQueryString)
+    {
+        if("custom".equals(settings.getQueryMode())
+                || realQueryString.length() < 3
+                || !realQueryString.startsWith("*")
+                || !realQueryString.endsWith("*"))
+            return null;
+
+        String word
+            = realQueryString.substring(1, realQueryString.length() - 1);
+
+        return (word.indexOf('*') == -1 && word.indexOf(' ') == -1)
+            ? word
+            : null;
     }
 
     /**
@@ -1280,6 +1511,8 @@ public class LdapDirectoryImpl
     public void overrideAttributesSearch(String attribute, List<String> names)
     {
         attributesMap.put(attribute, names);
+        // the kept results lack the attributes
+        searchCache.clear();
     }
 
     /**
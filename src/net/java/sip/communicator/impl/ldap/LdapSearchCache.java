@@ -0,0 +1,201 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package net.java.sip.communicator.impl.ldap;
+
+import java.util.*;
+
+/**
+ * Keeps the results of the last searches of a directory for a short time, so
+ * that typing, erasing and typing again a name does not query the directory
+ * again, and so that the results of a search for a part of a name can be
+ * filtered for the longer name typed after it.
+ */
+class LdapSearchCache
+{
+    /**
+     * The maximum number of searches which results are kept.
+     */
+    static final int MAX_SEARCHES = 32;
+
+    /**
+     * The time in milliseconds the results of a search are kept.
+     */
+    static final long TIME_TO_LIVE = 60000;
+
+    /**
+     * The kept searches by filter, from the least recently used.
+     */
+    private final Map<String, Search> searches
+        = new LinkedHashMap<String, Search>(16, 0.75f, true)
+        {
+            private static final long serialVersionUID = 0L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Search> e)
+            {
+                return size() > MAX_SEARCHES;
+            }
+        };
+
+    /**
+     * Returns the results of a search for a specific filter.
+     *
+     * @param filter the filter of the search, including the settings of the
+     * search.
+     * @param now the current time.
+     * @return the results or <tt>null</tt> if they are not kept.
+     */
+    synchronized List<Result> get(String filter, long now)
+    {
+        Search search = searches.get(filter);
+
+        if (search == null)
+            return null;
+        if (now - search.time > TIME_TO_LIVE)
+        {
+            searches.remove(filter);
+            return null;
+        }
+        return search.results;
+    }
+
+    /**
+     * Returns the results of a search for a substring of the query of a
+     * search, which contain all the results of the latter when they are
+     * complete.
+     *
+     * @param query the query of the search, without wildcards.
+     * @param settings the settings of the search.
+     * @param now the current time.
+     * @return the complete results of the search for the longest substring of
+     * <tt>query</tt> or <tt>null</tt> if none are kept.
+     */
+    synchronized List<Result> getBroader(String query,
+                                         String settings,
+                                         long now)
+    {
+        String lowerCaseQuery = query.toLowerCase();
+        Search broader = null;
+
+        for (Iterator<Search> i = searches.values().iterator(); i.hasNext();)
+        {
+            Search search = i.next();
+
+            if (now - search.time > TIME_TO_LIVE)
+            {
+                i.remove();
+                continue;
+            }
+            if (search.complete
+                    && search.settings.equals(settings)
+                    && lowerCaseQuery.contains(search.query)
+                    && (broader == null
+                        || search.query.length() > broader.query.length()))
+            {
+                broader = search;
+            }
+        }
+        return (broader == null) ? null : broader.results;
+    }
+
+    /**
+     * Keeps the results of a search.
+     *
+     * @param filter the filter of the search, including the settings of the
+     * search.
+     * @param query the query of the search without wildcards or
+     * <tt>null</tt> if the results may not be filtered for longer queries.
+     * @param settings the settings of the search.
+     * @param results the results.
+     * @param complete whether <tt>results</tt> are all the entries matching
+     * the filter.
+     * @param now the current time.
+     */
+    synchronized void put(String filter,
+                          String query,
+                          String settings,
+                          List<Result> results,
+                          boolean complete,
+                          long now)
+    {
+        Search search = new Search();
+
+        search.query = (query == null) ? null : query.toLowerCase();
+        search.settings = settings;
+        search.results = Collections.unmodifiableList(results);
+        search.complete = complete && (query != null);
+        search.time = now;
+        searches.put(filter, search);
+    }
+
+    /**
+     * Forgets all the kept results.
+     */
+    synchronized void clear()
+    {
+        searches.clear();
+    }
+
+    /**
+     * An entry found by a search.
+     */
+    static class Result
+    {
+        /**
+         * The name of the entry relative to the base DN.
+         */
+        final String name;
+
+        /**
+         * The retrieved attributes of the entry.
+         */
+        final Map<String, Set<Object>> attributes;
+
+        /**
+         * Creates an entry found by a search.
+         *
+         * @param name the name of the entry relative to the base DN.
+         * @param attributes the retrieved attributes of the entry.
+         */
+        Result(String name, Map<String, Set<Object>> attributes)
+        {
+            this.name = name;
+            this.attributes = attributes;
+        }
+    }
+
+    /**
+     * The results of a search.
+     */
+    private static class Search
+    {
+        /**
+         * The lower case query of the search or <tt>null</tt>.
+         */
+        String query;
+
+        /**
+         * The settings of the search.
+         */
+        String settings;
+
+        /**
+         * The entries found.
+         */
+        List<Result> results;
+
+        /**
+         * Whether the results are all the entries matching the query.
+         */
+        boolean complete;
+
+        /**
+         * The time of the search.
+         */
+        long time;
+    }
+}
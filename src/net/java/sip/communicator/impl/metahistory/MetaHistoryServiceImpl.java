@@ -248,6 +248,70 @@ public class MetaHistoryServiceImpl
         return result;
     }
 
+    /**
+     * Counts the records between the given dates by calendar bucket, adding
+     * the counts of the message and the file history services.
+     *
+     * @param services the services classnames we will query
+     * @param descriptor MetaContact or ChatRoom.
+     * @param startDate Date the date of the first record to count or
+     * <tt>null</tt>
+     * @param endDate Date the date after the last record to count or
+     * <tt>null</tt>
+     * @param calendarField the <tt>Calendar</tt> field of the buckets
+     * @return the number of records by bucket start
+     */
+    public SortedMap<Date, Integer> countRecordsByPeriod(String[] services,
+            Object descriptor, Date startDate, Date endDate,
+            int calendarField)
+    {
+        SortedMap<Date, Integer> result = new TreeMap<Date, Integer>();
+
+        for (String name : services)
+        {
+            Object serv = getService(name);
+            SortedMap<Date, Integer> counts = null;
+
+            if(serv instanceof MessageHistoryService)
+            {
+                MessageHistoryService mhs = (MessageHistoryService)serv;
+
+                if(descriptor instanceof MetaContact)
+                {
+                    counts = mhs.countRecordsByPeriod(
+                        (MetaContact)descriptor,
+                        startDate, endDate, calendarField);
+                }
+                else if(descriptor instanceof ChatRoom)
+                {
+                    counts = mhs.countRecordsByPeriod(
+                        (ChatRoom)descriptor,
+                        startDate, endDate, calendarField);
+                }
+            }
+            else if(serv instanceof FileHistoryService
+                    && descriptor instanceof MetaContact)
+            {
+                counts = ((FileHistoryService)serv).countRecordsByPeriod(
+                    (MetaContact)descriptor,
+                    startDate, endDate, calendarField);
+            }
+
+            if(counts == null)
+                continue;
+
+            for (Map.Entry<Date, Integer> e : counts.entrySet())
+            {
+                Integer count = result.get(e.getKey());
+
+                result.put(
+                    e.getKey(),
+                    (count == null) ? e.getValue() : count + e.getValue());
+            }
+        }
+        return result;
+    }
+
     /**
      * Returns all the records between the given dates and having the given
      * keywords
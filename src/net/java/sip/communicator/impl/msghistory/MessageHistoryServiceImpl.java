@@ -28,6 +28,7 @@ import net.java.sip.communicator.util.*;
 import net.java.sip.communicator.util.account.*;
 
 import org.jitsi.service.configuration.*;
+import org.jitsi.service.fileaccess.*;
 import org.osgi.framework.*;
 
 /**
@@ -74,6 +75,12 @@ public class MessageHistoryServiceImpl
      */
     static final String MSG_SUBTYPE_SMS = "sms";
 
+    /**
+     * The name of the file of the index of the recent messages.
+     */
+    private static final String RECENT_MESSAGES_INDEX_FILE
+        = "msghistory_recent.idx";
+
     /**
      * The BundleContext that we got from the OSGI bus.
      */
@@ -107,6 +114,12 @@ public class MessageHistoryServiceImpl
      */
     private ServiceRegistration messageSourceServiceReg = null;
 
+    /**
+     * The index of the last messages of the histories, <tt>null</tt> until
+     * it is first used.
+     */
+    private RecentMessagesIndex recentMessagesIndex = null;
+
     /**
      * Returns the history service.
      * @return the history service
@@ -250,6 +263,40 @@ public class MessageHistoryServiceImpl
         return result;
     }
 
+    /**
+     * Counts the messages exchanged by all the contacts in the supplied
+     * metacontact between the given dates by calendar bucket. The counts
+     * are computed from the stored timestamps of the messages.
+     *
+     * @param contact MetaContact
+     * @param startDate Date the start date of the conversations or
+     * <tt>null</tt>
+     * @param endDate Date the end date of the conversations or <tt>null</tt>
+     * @param calendarField the <tt>Calendar</tt> field of the buckets
+     * @return the number of messages by bucket start
+     */
+    public SortedMap<Date, Integer> countRecordsByPeriod(
+            MetaContact contact, Date startDate, Date endDate,
+            int calendarField)
+    {
+        SortedMap<Date, Integer> result = new TreeMap<Date, Integer>();
+
+        for (HistoryReader reader : getHistoryReaders(contact).values())
+        {
+            for (Map.Entry<Date, Integer> e
+                    : reader.countRecordsByPeriod(
+                            startDate, endDate, calendarField).entrySet())
+            {
+                Integer count = result.get(e.getKey());
+
+                result.put(
+                    e.getKey(),
+                    (count == null) ? e.getValue() : count + e.getValue());
+            }
+        }
+        return result;
+    }
+
     /**
      * Returns all the messages exchanged by all the contacts
      * in the supplied metacontact between the given dates and having the given
@@ -391,9 +438,7 @@ public class MessageHistoryServiceImpl
     {
         HashSet<EventObject> result = new HashSet<EventObject>();
 
-        List<HistoryID> historyIDs=
-            this.historyService.getExistingHistories(
-                new String[]{"messages", "default"});
+        List<HistoryID> historyIDs = getRecentHistoryIDs(isSMSEnabled);
 
         // make the filter provider string to reflect those that were
         // used when creating folders
@@ -485,6 +530,138 @@ public class MessageHistoryServiceImpl
         return result;
     }
 
+    /**
+     * Returns the IDs of the contact and chat room histories from the one
+     * with the most recent message, using the index of the recent messages
+     * which is built the first time from the histories.
+     *
+     * @param isSMSEnabled whether to return only the histories having sms.
+     * @return the IDs of the histories.
+     */
+    private List<HistoryID> getRecentHistoryIDs(boolean isSMSEnabled)
+    {
+        RecentMessagesIndex index = getRecentMessagesIndex();
+
+        if (index == null)
+        {
+            return this.historyService.getExistingHistories(
+                new String[]{"messages", "default"});
+        }
+
+        if (!index.load())
+            buildRecentMessagesIndex(index);
+        return index.getRecent(isSMSEnabled);
+    }
+
+    /**
+     * Returns the index of the recent messages.
+     *
+     * @return the index or <tt>null</tt> if its file is not available.
+     */
+    private synchronized RecentMessagesIndex getRecentMessagesIndex()
+    {
+        if (recentMessagesIndex == null && bundleContext != null)
+        {
+            FileAccessService fileAccessService
+                = ServiceUtils.getService(
+                        bundleContext, FileAccessService.class);
+
+            if (fileAccessService != null)
+            {
+                try
+                {
+                    recentMessagesIndex
+                        = new RecentMessagesIndex(
+                                fileAccessService.getPrivatePersistentFile(
+                                        RECENT_MESSAGES_INDEX_FILE,
+                                        FileCategory.CACHE));
+                }
+                catch (Exception e)
+                {
+                    logger.error("Cannot open the recent messages index", e);
+                }
+            }
+        }
+        return recentMessagesIndex;
+    }
+
+    /**
+     * Builds the index of the recent messages by reading the last message
+     * and the last sms of every contact and chat room history.
+     *
+     * @param index the index to build.
+     */
+    private void buildRecentMessagesIndex(RecentMessagesIndex index)
+    {
+        Map<HistoryID, long[]> built = new HashMap<HistoryID, long[]>();
+
+        for(HistoryID id : this.historyService.getExistingHistories(
+                new String[]{"messages", "default"}))
+        {
+            if(!RecentMessagesIndex.isIndexed(id))
+                continue;
+
+            try
+            {
+                HistoryReader reader
+                    = this.historyService.createHistory(id, recordStructure)
+                        .getReader();
+                Iterator<HistoryRecord> recs = reader.findLast(1);
+
+                if(!recs.hasNext())
+                    continue;
+
+                long[] times = new long[2];
+
+                times[0] = recs.next().getTimestamp().getTime();
+                recs = reader.findLast(
+                    1,
+                    new String[]{MessageHistoryServiceImpl.MSG_SUBTYPE_SMS},
+                    MessageHistoryServiceImpl.STRUCTURE_NAMES[7],
+                    true);
+                if(recs.hasNext())
+                    times[1] = recs.next().getTimestamp().getTime();
+                built.put(id, times);
+            }
+            catch(IOException ex)
+            {
+                logger.error("Could not read history", ex);
+            }
+        }
+        index.build(built);
+    }
+
+    /**
+     * Records in the index of the recent messages a message written to a
+     * history.
+     *
+     * @param history the history.
+     * @param timestamp the time of the message record.
+     * @param isSms whether the message is an sms.
+     */
+    private void updateRecentMessagesIndex(History history,
+                                           Date timestamp,
+                                           boolean isSms)
+    {
+        RecentMessagesIndex index = getRecentMessagesIndex();
+
+        if (index != null)
+            index.update(history.getID(), timestamp.getTime(), isSms);
+    }
+
+    /**
+     * Removes an erased history from the index of the recent messages.
+     *
+     * @param history the erased history.
+     */
+    private void removeFromRecentMessagesIndex(History history)
+    {
+        RecentMessagesIndex index = getRecentMessagesIndex();
+
+        if (index != null)
+            index.remove(history.getID());
+    }
+
     /**
      * Founds the contact or chat room corresponding this HistoryID. Checks the
      * account and then searches for the contact or chat room.
@@ -1359,12 +1536,16 @@ public class MessageHistoryServiceImpl
             HistoryWriter historyWriter = history.getWriter();
             SimpleDateFormat sdf
                 = new SimpleDateFormat(HistoryService.DATE_FORMAT);
+            // this date is when the history record is written
+            Date recordTimestamp = new Date();
+
             historyWriter.addRecord(new String[] { direction,
                     message.getContent(), message.getContentType(),
                     message.getEncoding(), message.getMessageUID(),
                     message.getSubject(), sdf.format(messageTimestamp),
                     isSmsSubtype ? MSG_SUBTYPE_SMS : null},
-                    new Date()); // this date is when the history record is written
+                    recordTimestamp);
+            updateRecentMessagesIndex(history, recordTimestamp, isSmsSubtype);
         } catch (IOException e)
         {
             logger.error("Could not add message to history", e);
@@ -1393,13 +1574,17 @@ public class MessageHistoryServiceImpl
             HistoryWriter historyWriter = history.getWriter();
             SimpleDateFormat sdf
                 = new SimpleDateFormat(HistoryService.DATE_FORMAT);
+            // this date is when the history record is written
+            Date recordTimestamp = new Date();
+
             historyWriter.addRecord(new String[] { direction,
                     message.getContent(), message.getContentType(),
                     message.getEncoding(), message.getMessageUID(),
                     from.getContactAddress(),
                     sdf.format(messageTimestamp),
                     null},
-                    new Date()); // this date is when the history record is written
+                    recordTimestamp);
+            updateRecentMessagesIndex(history, recordTimestamp, false);
         } catch (IOException e)
         {
             logger.error("Could not add message to history", e);
@@ -1424,13 +1609,17 @@ public class MessageHistoryServiceImpl
             HistoryWriter historyWriter = history.getWriter();
             SimpleDateFormat sdf
                 = new SimpleDateFormat(HistoryService.DATE_FORMAT);
+            // this date is when the history record is written
+            Date recordTimestamp = new Date();
+
             historyWriter.addRecord(new String[] { direction,
                     message.getContent(), message.getContentType(),
                     message.getEncoding(), message.getMessageUID(),
                     from.getAddress(),
                     sdf.format(messageTimestamp),
                     null},
-                    new Date()); // this date is when the history record is written
+                    recordTimestamp);
+            updateRecentMessagesIndex(history, recordTimestamp, false);
         } catch (IOException e)
         {
             logger.error("Could not add message to history", e);
@@ -1482,6 +1671,7 @@ public class MessageHistoryServiceImpl
                 STRUCTURE_NAMES[6]);
                 // this date is when the history record to be written
                 // as we are inserting
+            updateRecentMessagesIndex(history, messageTimestamp, isSmsSubtype);
 
         } catch (IOException e)
         {
@@ -2121,6 +2311,33 @@ public class MessageHistoryServiceImpl
         return result;
     }
 
+    /**
+     * Counts the messages exchanged in the supplied chat room between the
+     * given dates by calendar bucket. The counts are computed from the
+     * stored timestamps of the messages.
+     *
+     * @param room The chat room
+     * @param startDate Date the start date of the conversations or
+     * <tt>null</tt>
+     * @param endDate Date the end date of the conversations or <tt>null</tt>
+     * @param calendarField the <tt>Calendar</tt> field of the buckets
+     * @return the number of messages by bucket start
+     */
+    public SortedMap<Date, Integer> countRecordsByPeriod(
+            ChatRoom room, Date startDate, Date endDate, int calendarField)
+    {
+        try
+        {
+            return getHistoryForMultiChat(room).getReader()
+                .countRecordsByPeriod(startDate, endDate, calendarField);
+        }
+        catch (IOException e)
+        {
+            logger.error("Could not read history", e);
+            return new TreeMap<Date, Integer>();
+        }
+    }
+
     /**
      * Returns all the messages exchanged
      * in the supplied chat room between the given dates and having the given
@@ -2967,6 +3184,10 @@ public class MessageHistoryServiceImpl
                     new String[] {  "messages" });
         historyService.purgeLocallyStoredHistory(historyId);
 
+        RecentMessagesIndex index = getRecentMessagesIndex();
+        if(index != null)
+            index.clear();
+
         if(this.messageSourceService != null)
             this.messageSourceService.eraseLocallyStoredHistory();
     }
@@ -2987,6 +3208,7 @@ public class MessageHistoryServiceImpl
 
             History history = this.getHistory(null, item);
             historyService.purgeLocallyStoredHistory(history.getID());
+            removeFromRecentMessagesIndex(history);
         }
 
         if(this.messageSourceService != null)
@@ -3004,11 +3226,23 @@ public class MessageHistoryServiceImpl
     {
         History history = this.getHistoryForMultiChat(room);
         historyService.purgeLocallyStoredHistory(history.getID());
+        removeFromRecentMessagesIndex(history);
 
         if(this.messageSourceService != null)
             this.messageSourceService.eraseLocallyStoredHistory(room);
     }
     
+    /**
+     * Drops and builds again the indexes used by the keyword searches in the
+     * message history.
+     */
+    public void rebuildKeywordIndex()
+    {
+        historyService.rebuildKeywordIndexes(
+            HistoryID.createFromRawID(new String[] { "messages" }),
+            SEARCH_FIELD);
+    }
+
     /**
      * Returns <code>true</code> if the "IS_MESSAGE_HISTORY_ENABLED"
      * property is true, otherwise - returns <code>false</code>.
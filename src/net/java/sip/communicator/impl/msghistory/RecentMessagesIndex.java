@@ -0,0 +1,363 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package net.java.sip.communicator.impl.msghistory;
+
+import java.io.*;
+import java.util.*;
+
+import net.java.sip.communicator.service.history.*;
+import net.java.sip.communicator.util.*;
+
+/**
+ * Keeps the time of the last message and of the last sms of every contact
+ * and chat room message history, so that the recent conversations are found
+ * without listing and reading all the histories.
+ * <p>
+ * The index is saved in a file with one line per history, the time of its
+ * last message, the time of its last sms, or 0 if it has none, and its ID.
+ * Every update is appended to the file as a new line for its history, the
+ * file being written again without the replaced lines when it is loaded. An
+ * index which has never been saved is built by the message history service
+ * from the histories.
+ */
+class RecentMessagesIndex
+{
+    /**
+     * The <tt>Logger</tt> used by the <tt>RecentMessagesIndex</tt> class for
+     * logging output.
+     */
+    private static final Logger logger
+        = Logger.getLogger(RecentMessagesIndex.class);
+
+    /**
+     * The file of the index.
+     */
+    private final File file;
+
+    /**
+     * The time of the last message and of the last sms by history.
+     */
+    private final Map<HistoryID, long[]> entries
+        = new HashMap<HistoryID, long[]>();
+
+    /**
+     * Whether the index has been loaded from its file or built, otherwise it
+     * only has the histories written since the start.
+     */
+    private boolean complete = false;
+
+    /**
+     * Whether the file of the index has been read.
+     */
+    private boolean loaded = false;
+
+    /**
+     * Creates an index saved in a specific file.
+     *
+     * @param file the file of the index.
+     */
+    RecentMessagesIndex(File file)
+    {
+        this.file = file;
+    }
+
+    /**
+     * Checks whether a history is a contact or chat room message history
+     * listed by the index.
+     *
+     * @param historyID the ID of the history.
+     * @return whether the index lists <tt>historyID</tt>.
+     */
+    static boolean isIndexed(HistoryID historyID)
+    {
+        String[] id = historyID.getID();
+
+        // "messages", localId, account, remoteId
+        return id.length == 4
+            && "messages".equals(id[0])
+            && "default".equals(id[1]);
+    }
+
+    /**
+     * Loads the index from its file the first time.
+     *
+     * @return whether the index is complete, otherwise it has to be built.
+     */
+    synchronized boolean load()
+    {
+        if (loaded)
+            return complete;
+        loaded = true;
+
+        if (!file.isFile())
+            return false;
+
+        int lines = 0;
+
+        try
+        {
+            BufferedReader reader
+                = new BufferedReader(
+                        new InputStreamReader(
+                                new FileInputStream(file), "UTF-8"));
+
+            try
+            {
+                String line;
+
+                while ((line = reader.readLine()) != null)
+                {
+                    String[] fields = line.split(" ");
+
+                    lines++;
+                    if (fields.length < 3)
+                        continue;
+
+                    String[] id = new String[fields.length - 2];
+
+                    System.arraycopy(fields, 2, id, 0, id.length);
+                    put(HistoryID.createFromRawStrings(id),
+                        Long.parseLong(fields[0]),
+                        Long.parseLong(fields[1]));
+                }
+            }
+            finally
+            {
+                reader.close();
+            }
+        }
+        catch (Exception e)
+        {
+            logger.error("Failed to load recent messages index " + file, e);
+            entries.clear();
+            return false;
+        }
+
+        complete = true;
+        if (lines > entries.size())
+            save();
+        return true;
+    }
+
+    /**
+     * Adds the histories read by the message history service to the index
+     * and saves it.
+     *
+     * @param built the time of the last message and of the last sms by
+     * history.
+     */
+    synchronized void build(Map<HistoryID, long[]> built)
+    {
+        for (Map.Entry<HistoryID, long[]> e : built.entrySet())
+            put(e.getKey(), e.getValue()[0], e.getValue()[1]);
+        complete = true;
+        save();
+    }
+
+    /**
+     * Records a message written to a history.
+     *
+     * @param historyID the ID of the history.
+     * @param timestamp the time of the message record.
+     * @param isSms whether the message is an sms.
+     */
+    synchronized void update(HistoryID historyID,
+                             long timestamp,
+                             boolean isSms)
+    {
+        if (!isIndexed(historyID))
+            return;
+
+        long[] entry = put(historyID, timestamp, isSms ? timestamp : 0);
+
+        // an index which is not complete is saved when it is built
+        if (complete && (entry != null))
+            append(historyID, entry);
+    }
+
+    /**
+     * Removes a history which has been erased.
+     *
+     * @param historyID the ID of the history.
+     */
+    synchronized void remove(HistoryID historyID)
+    {
+        if ((entries.remove(historyID) != null) && complete)
+            append(historyID, new long[] { 0, 0 });
+    }
+
+    /**
+     * Removes all the histories which have been erased.
+     */
+    synchronized void clear()
+    {
+        entries.clear();
+        if (complete)
+            save();
+    }
+
+    /**
+     * Returns the histories from the one with the most recent message.
+     *
+     * @param isSms whether to return only the histories having sms, from the
+     * one with the most recent sms.
+     * @return the IDs of the histories.
+     */
+    synchronized List<HistoryID> getRecent(boolean isSms)
+    {
+        final int field = isSms ? 1 : 0;
+        List<Map.Entry<HistoryID, long[]>> recent
+            = new ArrayList<Map.Entry<HistoryID, long[]>>(entries.size());
+
+        for (Map.Entry<HistoryID, long[]> e : entries.entrySet())
+        {
+            if (e.getValue()[field] > 0)
+                recent.add(e);
+        }
+        Collections.sort(
+            recent,
+            new Comparator<Map.Entry<HistoryID, long[]>>()
+            {
+                public int compare(Map.Entry<HistoryID, long[]> e1,
+                                   Map.Entry<HistoryID, long[]> e2)
+                {
+                    long t1 = e1.getValue()[field];
+                    long t2 = e2.getValue()[field];
+
+                    return (t1 < t2) ? 1 : ((t1 == t2) ? 0 : -1);
+                }
+            });
+
+        List<HistoryID> historyIDs = new ArrayList<HistoryID>(recent.size());
+
+        for (Map.Entry<HistoryID, long[]> e : recent)
+            historyIDs.add(e.getKey());
+        return historyIDs;
+    }
+
+    /**
+     * Updates the times of a history with more recent ones, a time of 0
+     * removing it.
+     *
+     * @param historyID the ID of the history.
+     * @param timestamp the time of the last message.
+     * @param smsTimestamp the time of the last sms.
+     * @return the times of the history.
+     */
+    private long[] put(HistoryID historyID, long timestamp, long smsTimestamp)
+    {
+        if (timestamp <= 0)
+        {
+            entries.remove(historyID);
+            return null;
+        }
+
+        long[] entry = entries.get(historyID);
+
+        if (entry == null)
+        {
+            entry = new long[] { timestamp, smsTimestamp };
+            entries.put(historyID, entry);
+        }
+        else
+        {
+            entry[0] = Math.max(entry[0], timestamp);
+            entry[1] = Math.max(entry[1], smsTimestamp);
+        }
+        return entry;
+    }
+
+    /**
+     * Appends the times of a history to the file.
+     *
+     * @param historyID the ID of the history.
+     * @param entry the times of the history.
+     */
+    private void append(HistoryID historyID, long[] entry)
+    {
+        try
+        {
+            Writer writer = openWriter(true);
+
+            try
+            {
+                writeEntry(writer, historyID, entry);
+            }
+            finally
+            {
+                writer.close();
+            }
+        }
+        catch (IOException e)
+        {
+            logger.error("Failed to update recent messages index " + file, e);
+        }
+    }
+
+    /**
+     * Writes the whole index to the file.
+     */
+    private void save()
+    {
+        try
+        {
+            Writer writer = openWriter(false);
+
+            try
+            {
+                for (Map.Entry<HistoryID, long[]> e : entries.entrySet())
+                    writeEntry(writer, e.getKey(), e.getValue());
+            }
+            finally
+            {
+                writer.close();
+            }
+        }
+        catch (IOException e)
+        {
+            logger.error("Failed to save recent messages index " + file, e);
+        }
+    }
+
+    /**
+     * Opens the file for writing.
+     *
+     * @param append whether to append to the file.
+     * @return the writer of the file.
+     * @throws IOException if the file cannot be opened.
+     */
+    private Writer openWriter(boolean append)
+        throws IOException
+    {
+        File dir = file.getParentFile();
+
+        if ((dir != null) && !dir.isDirectory() && !dir.mkdirs())
+            throw new IOException("Failed to create directory: " + dir);
+
+        return
+            new BufferedWriter(
+                    new OutputStreamWriter(
+                            new FileOutputStream(file, append), "UTF-8"));
+    }
+
+    /**
+     * Writes the line of a history.
+     *
+     * @param writer the writer of the file.
+     * @param historyID the ID of the history.
+     * @param entry the times of the history.
+     * @throws IOException if writing fails.
+     */
+    private static void writeEntry(Writer writer,
+                                   HistoryID historyID,
+                                   long[] entry)
+        throws IOException
+    {
+        // the IDs of the histories have no spaces
+        writer.write(entry[0] + " " + entry[1] + " " + historyID + "\n");
+    }
+}
@@ -18,6 +18,43 @@ import org.jitsi.service.packetlogging.*;
 public class PacketLoggingConfigurationImpl
     extends PacketLoggingConfiguration
 {
+    /**
+     * The property holding the number of packets which may wait to be
+     * written before packets are dropped.
+     */
+    public static final String PACKET_LOGGING_QUEUE_CAPACITY_PROPERTY_NAME
+        = "net.java.sip.communicator.packetlogging."
+            + "PACKET_LOGGING_QUEUE_CAPACITY";
+
+    /**
+     * The property holding which packet is dropped when the queue is full,
+     * <tt>newest</tt> for the packet being logged or <tt>oldest</tt> for the
+     * oldest packet of the queue.
+     */
+    public static final String PACKET_LOGGING_DROP_POLICY_PROPERTY_NAME
+        = "net.java.sip.communicator.packetlogging."
+            + "PACKET_LOGGING_DROP_POLICY";
+
+    /**
+     * The drop policy dropping the oldest packet of a full queue.
+     */
+    public static final String DROP_OLDEST = "oldest";
+
+    /**
+     * The default number of packets which may wait to be written.
+     */
+    public static final int DEFAULT_QUEUE_CAPACITY = 2048;
+
+    /**
+     * The number of packets which may wait to be written.
+     */
+    private final int queueCapacity;
+
+    /**
+     * Whether the oldest packet is dropped when the queue is full.
+     */
+    private final boolean dropOldest;
+
     /**
      * Creates new PacketLoggingConfiguration and load values from
      * configuration service and if missing uses already defined
@@ -57,6 +94,36 @@ public class PacketLoggingConfigurationImpl
             configService.getInt(
                 PACKET_LOGGING_FILE_COUNT_PROPERTY_NAME,
                 getLogfileCount()));
+
+        queueCapacity = Math.max(1,
+            configService.getInt(
+                PACKET_LOGGING_QUEUE_CAPACITY_PROPERTY_NAME,
+                DEFAULT_QUEUE_CAPACITY));
+        dropOldest = DROP_OLDEST.equalsIgnoreCase(
+            configService.getString(
+                PACKET_LOGGING_DROP_POLICY_PROPERTY_NAME));
+    }
+
+    /**
+     * Returns the number of packets which may wait to be written before
+     * packets are dropped.
+     *
+     * @return the capacity of the queue of packets.
+     */
+    public int getQueueCapacity()
+    {
+        return queueCapacity;
+    }
+
+    /**
+     * Returns whether the oldest queued packet is dropped rather than the
+     * one being logged when the queue is full.
+     *
+     * @return <tt>true</tt> if the oldest packet is dropped.
+     */
+    public boolean isDropOldest()
+    {
+        return dropOldest;
     }
 
     /**
@@ -7,7 +7,10 @@
 package net.java.sip.communicator.impl.packetlogging;
 
 import java.io.*;
-import java.util.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.*;
 
 import net.java.sip.communicator.util.*;
 
@@ -30,19 +33,42 @@ public class PacketLoggingServiceImpl
             = Logger.getLogger(PacketLoggingServiceImpl.class);
 
     /**
-     * The OutputStream we are currently writing to.
+     * The size of the buffer packets are gathered in before being written.
      */
-    private FileOutputStream outputStream = null;
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
 
     /**
-     * The thread that queues packets and saves them to file.
+     * The channel we are currently writing to.
+     */
+    private FileChannel channel = null;
+
+    /**
+     * The buffer packets are gathered in before being written to
+     * <tt>channel</tt>. The pcap format is little endian.
+     */
+    private final ByteBuffer writeBuffer
+        = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE)
+            .order(ByteOrder.LITTLE_ENDIAN);
+
+    /**
+     * The packets waiting to be saved, created when the service starts.
+     */
+    private volatile PacketQueue queue = null;
+
+    /**
+     * The number of packets which were written.
+     */
+    private final AtomicLong writtenPackets = new AtomicLong();
+
+    /**
+     * The thread that saves queued packets to file.
      */
     private SaverThread saverThread = new SaverThread();
 
     /**
      * The current configuration.
      */
-    private PacketLoggingConfiguration packetLoggingConfiguration = null;
+    private PacketLoggingConfigurationImpl packetLoggingConfiguration = null;
 
     /**
      * The fake ethernet header we use as template.
@@ -139,6 +165,26 @@ public class PacketLoggingServiceImpl
      */
     private long written = 0;
 
+    /**
+     * The ipv4 header of the packet being saved.
+     */
+    private final byte[] ipHeader = new byte[ipHeaderTemplate.length];
+
+    /**
+     * The ipv6 header of the packet being saved.
+     */
+    private final byte[] ip6Header = new byte[ip6HeaderTemplate.length];
+
+    /**
+     * The udp header of the packet being saved.
+     */
+    private final byte[] udpHeader = new byte[udpHeaderTemplate.length];
+
+    /**
+     * The tcp header of the packet being saved.
+     */
+    private final byte[] tcpHeader = new byte[tcpHeaderTemplate.length];
+
     /**
      * All the files we can use for writing.
      */
@@ -150,6 +196,9 @@ public class PacketLoggingServiceImpl
      */
     public void start()
     {
+        PacketLoggingConfigurationImpl cfg = getConfiguration();
+
+        queue = new PacketQueue(cfg.getQueueCapacity(), cfg.isDropOldest());
         saverThread.start();
     }
 
@@ -182,11 +231,7 @@ public class PacketLoggingServiceImpl
     private void rotateFiles()
         throws IOException
     {
-        if(outputStream != null)
-        {
-            outputStream.flush();
-            outputStream.close();
-        }
+        closeFile();
 
         for (int i = getConfiguration().getLogfileCount() - 2; i >= 0; i--)
         {
@@ -201,36 +246,97 @@ public class PacketLoggingServiceImpl
             }
         }
 
-        outputStream = new FileOutputStream(files[0]);
+        channel = new FileOutputStream(files[0]).getChannel();
         written = 0;
         createGlobalHeader();
     }
 
     /**
-     * Stops the packet logging.
+     * Writes the gathered packets and closes the current file.
+     * @throws IOException
      */
-    public void stop()
+    private void closeFile()
+        throws IOException
     {
-        saverThread.stopRunning();
-
-        if(outputStream != null)
+        if(channel != null)
         {
             try
             {
-                outputStream.flush();
-                outputStream.close();
-            }
-            catch(IOException e)
-            {
-                e.printStackTrace();
+                flushBuffer();
             }
             finally
             {
-                outputStream = null;
+                channel.close();
+                channel = null;
             }
         }
     }
 
+    /**
+     * Stops the packet logging. The packets already queued are written
+     * before the file is closed.
+     */
+    public void stop()
+    {
+        saverThread.stopRunning();
+
+        try
+        {
+            saverThread.join();
+        }
+        catch(InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Returns the number of packets which were queued to be written.
+     *
+     * @return the number of packets which were queued.
+     */
+    public long getQueuedPacketCount()
+    {
+        PacketQueue q = queue;
+
+        return (q == null) ? 0 : q.getQueuedCount();
+    }
+
+    /**
+     * Returns the number of packets which are waiting to be written.
+     *
+     * @return the number of packets waiting to be written.
+     */
+    public int getPendingPacketCount()
+    {
+        PacketQueue q = queue;
+
+        return (q == null) ? 0 : q.size();
+    }
+
+    /**
+     * Returns the number of packets which were written.
+     *
+     * @return the number of packets which were written.
+     */
+    public long getWrittenPacketCount()
+    {
+        return writtenPackets.get();
+    }
+
+    /**
+     * Returns the number of packets which were dropped because too many
+     * packets were waiting to be written.
+     *
+     * @return the number of packets which were dropped.
+     */
+    public long getDroppedPacketCount()
+    {
+        PacketQueue q = queue;
+
+        return (q == null) ? 0 : q.getDroppedCount();
+    }
+
     /**
      * Creates pcap file global header.
      * @throws IOException
@@ -238,43 +344,24 @@ public class PacketLoggingServiceImpl
     private void createGlobalHeader()
             throws IOException
     {
-        /* magic number(swapped) */
-        outputStream.write(0xd4);
-        outputStream.write(0xc3);
-        outputStream.write(0xb2);
-        outputStream.write(0xa1);
-
-        /* major version number */
-        outputStream.write(0x02);
-        outputStream.write(0x00);
+        /* magic number */
+        writeBuffer.putInt(0xa1b2c3d4);
 
-        /* minor version number */
-        outputStream.write(0x04);
-        outputStream.write(0x00);
+        /* major and minor version number */
+        writeBuffer.putShort((short) 2);
+        writeBuffer.putShort((short) 4);
 
         /* GMT to local correction */
-        outputStream.write(0x00);
-        outputStream.write(0x00);
-        outputStream.write(0x00);
-        outputStream.write(0x00);
+        writeBuffer.putInt(0);
 
         /* accuracy of timestamps */
-        outputStream.write(0x00);
-        outputStream.write(0x00);
-        outputStream.write(0x00);
-        outputStream.write(0x00);
+        writeBuffer.putInt(0);
 
         /* max length of captured packets, in octets */
-        outputStream.write(0xff);
-        outputStream.write(0xff);
-        outputStream.write(0x00);
-        outputStream.write(0x00);
+        writeBuffer.putInt(0xffff);
 
         /* data link type(ethernet) */
-        outputStream.write(0x01);
-        outputStream.write(0x00);
-        outputStream.write(0x00);
-        outputStream.write(0x00);
+        writeBuffer.putInt(1);
     }
 
     /**
@@ -376,17 +463,24 @@ public class PacketLoggingServiceImpl
             int packetOffset,
             int packetLength)
     {
-        saverThread.queuePacket(
-            new Packet(protocol,
-                       sourceAddress,
-                       sourcePort,
-                       destinationAddress,
-                       destinationPort,
-                       transport,
-                       sender,
-                       packetContent,
-                       packetOffset,
-                       packetLength));
+        PacketQueue q = queue;
+
+        if (q == null)
+            return;
+
+        if (q.offer(protocol,
+                    sourceAddress,
+                    sourcePort,
+                    destinationAddress,
+                    destinationPort,
+                    transport,
+                    sender,
+                    packetContent,
+                    packetOffset,
+                    packetLength))
+        {
+            saverThread.packetQueued();
+        }
     }
 
     /**
@@ -394,7 +488,7 @@ public class PacketLoggingServiceImpl
      *
      * @return the Packet Logging Configuration.
      */
-    public PacketLoggingConfiguration getConfiguration()
+    public PacketLoggingConfigurationImpl getConfiguration()
     {
         if(packetLoggingConfiguration == null)
             packetLoggingConfiguration = new PacketLoggingConfigurationImpl();
@@ -403,13 +497,14 @@ public class PacketLoggingServiceImpl
     }
 
     /**
-     * Dump the packet to the output file stream.
+     * Adds the packet to the packets gathered for the output file. Only
+     * called by the saver thread, which owns the reusable headers.
      *
      * @param packet the packet ot save.
      * @throws Exception when error occurs saving to file stream or when
      *  rotating files.
      */
-    private void savePacket(Packet packet)
+    private void savePacket(PacketQueue.Packet packet)
         throws Exception
     {
         // if one of the addresses is ipv4 we are using ipv4,
@@ -422,7 +517,7 @@ public class PacketLoggingServiceImpl
 
         if(isIPv4)
         {
-            ipHeader = new byte[ipHeaderTemplate.length];
+            ipHeader = this.ipHeader;
             System.arraycopy(
                     ipHeaderTemplate, 0, ipHeader, 0, ipHeader.length);
             System.arraycopy(packet.sourceAddress,
@@ -438,7 +533,7 @@ public class PacketLoggingServiceImpl
         }
         else
         {
-            ipHeader = new byte[ip6HeaderTemplate.length];
+            ipHeader = this.ip6Header;
             System.arraycopy(
                     ip6HeaderTemplate, 0, ipHeader, 0, ipHeader.length);
             System.arraycopy(packet.sourceAddress,
@@ -458,7 +553,6 @@ public class PacketLoggingServiceImpl
         short len;
         if(packet.transport == TransportName.UDP)
         {
-            byte[] udpHeader = new byte[udpHeaderTemplate.length];
             transportHeader = udpHeader;
             System.arraycopy(udpHeaderTemplate, 0,
                     udpHeader, 0, udpHeader.length);
@@ -470,7 +564,7 @@ public class PacketLoggingServiceImpl
         }
         else
         {
-            transportHeader = new byte[tcpHeaderTemplate.length];
+            transportHeader = tcpHeader;
             System.arraycopy(tcpHeaderTemplate, 0, transportHeader,
                    0, transportHeader.length);
 
@@ -538,7 +632,7 @@ public class PacketLoggingServiceImpl
                 ipHeader[6] = (byte)0x06;
         }
 
-        long current = System.currentTimeMillis();
+        long current = packet.timestamp;
         int tsSec = (int)(current/1000);
         int tsUsec = (int)((current%1000) * 1000);
         int feakHeaderLen = fakeEthernetHeader.length +
@@ -546,50 +640,73 @@ public class PacketLoggingServiceImpl
         int inclLen = packet.packetLength + feakHeaderLen;
         int origLen = inclLen;
 
-        synchronized(this)
+        // open files only if needed
+        if(channel == null)
         {
-            // open files only if needed
-            if(outputStream == null)
-            {
-                getFileNames();
-                rotateFiles();// this one opens the file for write
-            }
+            getFileNames();
+            rotateFiles();// this one opens the file for write
+        }
+
+        long limit = getConfiguration().getLimit();
+
+        if((limit > 0) && (written > limit))
+            rotateFiles();
 
-            long limit = getConfiguration().getLimit();
+        if(writeBuffer.remaining() < 16 + feakHeaderLen)
+            flushBuffer();
 
-            if((limit > 0) && (written > limit))
-                rotateFiles();
+        writeBuffer.putInt(tsSec);
+        writeBuffer.putInt(tsUsec);
+        writeBuffer.putInt(inclLen);
+        writeBuffer.putInt(origLen);
 
-            addInt(tsSec);
-            addInt(tsUsec);
-            addInt(inclLen);
-            addInt(origLen);
+        writeBuffer.put(fakeEthernetHeader);
+        writeBuffer.put(ipHeader);
+        writeBuffer.put(transportHeader);
+
+        if(writeBuffer.remaining() >= packet.packetLength)
+        {
+            writeBuffer.put(packet.packetContent, 0, packet.packetLength);
+        }
+        else
+        {
+            flushBuffer();
+            writeFully(
+                ByteBuffer.wrap(packet.packetContent, 0, packet.packetLength));
+        }
 
-            outputStream.write(fakeEthernetHeader);
-            outputStream.write(ipHeader);
-            outputStream.write(transportHeader);
-            outputStream.write(
-                    packet.packetContent,
-                    packet.packetOffset,
-                    packet.packetLength);
-            outputStream.flush();
+        written += inclLen + 16;
+    }
 
-            written += inclLen + 16;
+    /**
+     * Writes the gathered packets to the current file.
+     * @throws IOException
+     */
+    private void flushBuffer()
+        throws IOException
+    {
+        writeBuffer.flip();
+        try
+        {
+            if(channel != null)
+                writeFully(writeBuffer);
+        }
+        finally
+        {
+            writeBuffer.clear();
         }
     }
 
     /**
-     * Writes int to the file. Used for packet headers.
-     * @param d the value to write.
+     * Writes all the remaining bytes of a buffer to the current file.
+     * @param buffer the buffer to write.
      * @throws IOException
      */
-    private void addInt(int d)
+    private void writeFully(ByteBuffer buffer)
         throws IOException
     {
-        outputStream.write ((d & 0xff));
-        outputStream.write(((d & 0xff00) >> 8));
-        outputStream.write(((d & 0xff0000) >> 16));
-        outputStream.write(((d & 0xff000000) >> 24));
+        while(buffer.hasRemaining())
+            channel.write(buffer);
     }
 
     /**
@@ -647,100 +764,6 @@ public class PacketLoggingServiceImpl
         return total;
     }
 
-    /**
-     * The data we receive and that we will dump in a file.
-     */
-    private static class Packet
-    {
-        /**
-         * The protocol logging this packet.
-         */
-        ProtocolName protocol;
-
-        /**
-         * The source address of the packet.
-         */
-        byte[] sourceAddress;
-
-        /**
-         * The source port of the packet.
-         */
-        int sourcePort;
-
-        /**
-         * The destination address of the packet.
-         */
-        byte[] destinationAddress;
-
-        /**
-         * The destination port of the packet.
-         */
-        int destinationPort;
-
-        /**
-         * Is the packet a udp one.
-         */
-        TransportName transport;
-
-        /**
-         * Are we sending the packet, or false if we are receiving.
-         */
-        boolean sender;
-
-        /**
-         * Array containing packet content.
-         */
-        byte[] packetContent;
-
-        /**
-         * The offset in the packetContent where packet content is.
-         */
-        int packetOffset;
-
-        /**
-         * The length of the packet content.
-         */
-        int packetLength;
-
-        /**
-         * Creates a packet with the needed data.
-         * @param protocol the source protocol that logs this packet.
-         * @param sourceAddress The source address of the packet.
-         * @param sourcePort The source port of the packet.
-         * @param destinationAddress The destination address of the packet.
-         * @param destinationPort The destination port of the packet.
-         * @param transport the transport this packet uses.
-         * @param sender Are we sending the packet,
-         *  or false if we are receiving.
-         * @param packetContent Array containing packet content.
-         * @param packetOffset The offset in the packetContent
-         *  where packet content is.
-         * @param packetLength The length of the packet content.
-         */
-        private Packet(ProtocolName protocol,
-                       byte[] sourceAddress,
-                       int sourcePort,
-                       byte[] destinationAddress,
-                       int destinationPort,
-                       TransportName transport,
-                       boolean sender,
-                       byte[] packetContent,
-                       int packetOffset,
-                       int packetLength)
-        {
-            this.protocol = protocol;
-            this.sourceAddress = sourceAddress;
-            this.sourcePort = sourcePort;
-            this.destinationAddress = destinationAddress;
-            this.destinationPort = destinationPort;
-            this.transport = transport;
-            this.sender = sender;
-            this.packetContent = packetContent;
-            this.packetOffset = packetOffset;
-            this.packetLength = packetLength;
-        }
-    }
-
     /**
      * Dumps packet in separate thread so we don't block
      * our calling thread.
@@ -751,80 +774,117 @@ public class PacketLoggingServiceImpl
         /**
          * start/stop indicator.
          */
-        private boolean stopped = true;
+        private volatile boolean stopped = false;
 
         /**
-         * List of packets queued to be written in the file.
+         * Whether the thread is about to wait for packets and has to be
+         * woken up when one is queued.
          */
-        private final List<Packet> pktsToSave = new ArrayList<Packet>();
+        private volatile boolean waiting = false;
 
         /**
-         * Sends instant messages in separate thread so we don't block
-         * our calling thread.
+         * Saves the queued packets, writing them to the file when the queue
+         * is empty or the write buffer is full, until stopped. The packets
+         * still queued when stopped are saved before the file is closed.
          */
         @Override
         public void run()
         {
-            stopped = false;
-            while(!stopped)
+            try
             {
-                Packet pktToSave;
-
-                synchronized(this)
+                while(true)
                 {
-                    if(pktsToSave.isEmpty())
+                    PacketQueue.Packet pktToSave = queue.poll();
+
+                    if(pktToSave != null)
                     {
-                        try
-                        {
-                            wait();
-                        }
-                        catch (InterruptedException iex)
-                        {
-                        }
+                        save(pktToSave);
                         continue;
                     }
 
-                    pktToSave = pktsToSave.remove(0);
-                }
+                    flush();
+                    if(stopped)
+                        break;
 
-                if(pktToSave != null)
+                    waiting = true;
+                    // recheck so a packet queued meanwhile is not left behind
+                    if(queue.size() == 0 && !stopped)
+                        LockSupport.parkNanos(this, 1000000000L);
+                    waiting = false;
+                }
+            }
+            finally
+            {
+                try
                 {
-                    try
-                    {
-                        savePacket(pktToSave);
-                    }
-                    catch(Throwable t)
-                    {
-                        /*
-                         * XXX ThreadDeath must be rethrown; otherwise, the
-                         * related Thread will not die.
-                         */
-                        if (t instanceof ThreadDeath)
-                            throw (ThreadDeath) t;
-                        else
-                            logger.error("Error writing packet to file", t);
-                    }
+                    closeFile();
                 }
+                catch(IOException e)
+                {
+                    logger.error("Error closing packet log file", e);
+                }
+            }
+        }
+
+        /**
+         * Saves a packet and frees its slot.
+         * @param pktToSave the packet to save.
+         */
+        private void save(PacketQueue.Packet pktToSave)
+        {
+            try
+            {
+                savePacket(pktToSave);
+                writtenPackets.incrementAndGet();
+            }
+            catch(Throwable t)
+            {
+                /*
+                 * XXX ThreadDeath must be rethrown; otherwise, the
+                 * related Thread will not die.
+                 */
+                if (t instanceof ThreadDeath)
+                    throw (ThreadDeath) t;
+                else
+                    logger.error("Error writing packet to file", t);
+            }
+            finally
+            {
+                queue.release(pktToSave);
+            }
+        }
+
+        /**
+         * Writes the gathered packets to the file.
+         */
+        private void flush()
+        {
+            try
+            {
+                flushBuffer();
+            }
+            catch(IOException e)
+            {
+                logger.error("Error writing packets to file", e);
             }
         }
 
         /**
          * Interrupts this sender so that it would no longer send messages.
          */
-        public synchronized void stopRunning()
+        public void stopRunning()
         {
             stopped = true;
-            notifyAll();
+            LockSupport.unpark(this);
         }
 
         /**
-         * Schedule new packet for save.
-         * @param packet new packet to save.
+         * Wakes the thread up if it waits for packets.
          */
-        public synchronized void queuePacket(Packet packet)
+        public void packetQueued()
         {
-            pktsToSave.add(packet);
-            notifyAll();
+            if(waiting)
+                LockSupport.unpark(this);
         }
     }
 }
@@ -0,0 +1,369 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package net.java.sip.communicator.impl.packetlogging;
+
+import java.util.concurrent.atomic.*;
+
+import org.jitsi.service.packetlogging.*;
+import org.jitsi.service.packetlogging.PacketLoggingService.*;
+
+/**
+ * A bounded queue of the packets waiting to be written, filled by the
+ * threads logging packets without locking and emptied by the thread saving
+ * them. The queue is a ring of preallocated packets: a logged packet is
+ * copied in a free slot, so the caller may reuse its buffers and logging
+ * allocates nothing once the slots have grown to the usual packet size.
+ * <p>
+ * Every slot carries a sequence telling whether it is free for the position
+ * a producer claims or published for the position the consumer claims.
+ * When the queue is full the packet being logged is dropped or, with the
+ * drop oldest policy, the oldest queued packet is dropped in its favour.
+ */
+class PacketQueue
+{
+    /**
+     * The content buffers of slots are kept between packets up to this
+     * size, larger packets get a buffer of their own.
+     */
+    private static final int MAX_RETAINED_CONTENT_SIZE = 4096;
+
+    /**
+     * The slots of the ring.
+     */
+    private final Packet[] slots;
+
+    /**
+     * The sequences of the slots.
+     */
+    private final AtomicLongArray sequences;
+
+    /**
+     * The mask turning a position in the index of its slot.
+     */
+    private final int mask;
+
+    /**
+     * The position the next logged packet is stored at.
+     */
+    private final AtomicLong tail = new AtomicLong();
+
+    /**
+     * The position of the oldest queued packet.
+     */
+    private final AtomicLong head = new AtomicLong();
+
+    /**
+     * Whether the oldest packet is dropped when the queue is full.
+     */
+    private final boolean dropOldest;
+
+    /**
+     * The number of packets which were queued.
+     */
+    private final AtomicLong queued = new AtomicLong();
+
+    /**
+     * The number of packets which were dropped because the queue was full.
+     */
+    private final AtomicLong dropped = new AtomicLong();
+
+    /**
+     * Creates a queue.
+     *
+     * @param capacity the number of packets the queue holds, rounded up to
+     * a power of two.
+     * @param dropOldest <tt>true</tt> to drop the oldest packet when the
+     * queue is full, <tt>false</tt> to drop the packet being logged.
+     */
+    PacketQueue(int capacity, boolean dropOldest)
+    {
+        int size = 1;
+        while (size < capacity)
+            size <<= 1;
+
+        slots = new Packet[size];
+        sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++)
+        {
+            slots[i] = new Packet(i);
+            sequences.set(i, i);
+        }
+        mask = size - 1;
+        this.dropOldest = dropOldest;
+    }
+
+    /**
+     * Copies a packet in the queue.
+     *
+     * @param protocol the source protocol that logs this packet.
+     * @param sourceAddress the source address of the packet.
+     * @param sourcePort the source port of the packet.
+     * @param destinationAddress the destination address.
+     * @param destinationPort the destination port.
+     * @param transport the transport this packet uses.
+     * @param sender are we the sender of the packet or not.
+     * @param packetContent the packet content.
+     * @param packetOffset the packet content offset.
+     * @param packetLength the packet content length.
+     * @return <tt>false</tt> if the packet was dropped because the queue is
+     * full.
+     */
+    boolean offer(ProtocolName protocol,
+                  byte[] sourceAddress,
+                  int sourcePort,
+                  byte[] destinationAddress,
+                  int destinationPort,
+                  TransportName transport,
+                  boolean sender,
+                  byte[] packetContent,
+                  int packetOffset,
+                  int packetLength)
+    {
+        long position;
+
+        while (true)
+        {
+            position = tail.get();
+
+            int index = (int) position & mask;
+            long sequence = sequences.get(index);
+            long diff = sequence - position;
+
+            if (diff == 0)
+            {
+                if (tail.compareAndSet(position, position + 1))
+                    break;
+            }
+            else if (diff < 0)
+            {
+                // the slot still holds the packet of the previous lap
+                if (!dropOldest || !discardOldest())
+                {
+                    // another producer may have just dropped the oldest
+                    // packet and freed the slot
+                    if (dropOldest
+                        && (tail.get() != position
+                            || sequences.get(index) != sequence))
+                    {
+                        continue;
+                    }
+
+                    dropped.incrementAndGet();
+                    return false;
+                }
+            }
+        }
+
+        Packet packet = slots[(int) position & mask];
+
+        packet.position = position;
+        packet.timestamp = System.currentTimeMillis();
+        packet.protocol = protocol;
+        packet.sourceAddress = copy(sourceAddress, packet.sourceAddress);
+        packet.sourcePort = sourcePort;
+        packet.destinationAddress
+            = copy(destinationAddress, packet.destinationAddress);
+        packet.destinationPort = destinationPort;
+        packet.transport = transport;
+        packet.sender = sender;
+        if (packet.packetContent.length < packetLength)
+            packet.packetContent = new byte[packetLength];
+        System.arraycopy(
+            packetContent, packetOffset,
+            packet.packetContent, 0,
+            packetLength);
+        packet.packetLength = packetLength;
+
+        sequences.set(packet.index, position + 1);
+        queued.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Takes the oldest packet of the queue. The packet stays in its slot
+     * until it is released.
+     *
+     * @return the oldest packet or <tt>null</tt> if the queue is empty.
+     */
+    Packet poll()
+    {
+        while (true)
+        {
+            long position = head.get();
+            int index = (int) position & mask;
+            long diff = sequences.get(index) - (position + 1);
+
+            if (diff == 0)
+            {
+                if (head.compareAndSet(position, position + 1))
+                    return slots[index];
+            }
+            else if (diff < 0)
+                return null;
+        }
+    }
+
+    /**
+     * Frees the slot of a packet taken by <tt>poll</tt>.
+     *
+     * @param packet the packet.
+     */
+    void release(Packet packet)
+    {
+        if (packet.packetContent.length > MAX_RETAINED_CONTENT_SIZE)
+            packet.packetContent = new byte[0];
+        sequences.set(packet.index, packet.position + slots.length);
+    }
+
+    /**
+     * Drops the oldest packet to make room in a full queue.
+     *
+     * @return <tt>false</tt> if no packet could be dropped, because the
+     * queue is no longer full or its oldest slot is being written.
+     */
+    private boolean discardOldest()
+    {
+        long position = head.get();
+
+        if (tail.get() - position < slots.length)
+            return false;
+
+        int index = (int) position & mask;
+
+        if (sequences.get(index) != position + 1
+            || !head.compareAndSet(position, position + 1))
+        {
+            return false;
+        }
+
+        dropped.incrementAndGet();
+        sequences.set(index, position + slots.length);
+        return true;
+    }
+
+    /**
+     * Copies an address in a reusable array.
+     *
+     * @param address the address.
+     * @param array the array of the previous address of the slot.
+     * @return <tt>array</tt> or a new array if <tt>address</tt> has another
+     * length.
+     */
+    private static byte[] copy(byte[] address, byte[] array)
+    {
+        if (array == null || array.length != address.length)
+            array = new byte[address.length];
+        System.arraycopy(address, 0, array, 0, address.length);
+        return array;
+    }
+
+    /**
+     * Returns the number of packets waiting to be written.
+     *
+     * @return the number of packets waiting to be written.
+     */
+    int size()
+    {
+        return (int) Math.max(0, tail.get() - head.get());
+    }
+
+    /**
+     * Returns the number of packets which were queued.
+     *
+     * @return the number of packets which were queued.
+     */
+    long getQueuedCount()
+    {
+        return queued.get();
+    }
+
+    /**
+     * Returns the number of packets which were dropped.
+     *
+     * @return the number of packets which were dropped.
+     */
+    long getDroppedCount()
+    {
+        return dropped.get();
+    }
+
+    /**
+     * A slot of the queue and the packet it holds.
+     */
+    static class Packet
+    {
+        /**
+         * The index of the slot.
+         */
+        private final int index;
+
+        /**
+         * The position the packet was queued at.
+         */
+        private long position;
+
+        /**
+         * The time the packet was logged.
+         */
+        long timestamp;
+
+        /**
+         * The protocol logging this packet.
+         */
+        ProtocolName protocol;
+
+        /**
+         * The source address of the packet.
+         */
+        byte[] sourceAddress;
+
+        /**
+         * The source port of the packet.
+         */
+        int sourcePort;
+
+        /**
+         * The destination address of the packet.
+         */
+        byte[] destinationAddress;
+
+        /**
+         * The destination port of the packet.
+         */
+        int destinationPort;
+
+        /**
+         * The transport of the packet.
+         */
+        TransportName transport;
+
+        /**
+         * Are we sending the packet, or false if we are receiving.
+         */
+        boolean sender;
+
+        /**
+         * Array starting with the packet content.
+         */
+        byte[] packetContent = new byte[0];
+
+        /**
+         * The length of the packet content.
+         */
+        int packetLength;
+
+        /**
+         * Creates the slot with an index.
+         *
+         * @param index the index of the slot.
+         */
+        private Packet(int index)
+        {
+            this.index = index;
+        }
+    }
+}
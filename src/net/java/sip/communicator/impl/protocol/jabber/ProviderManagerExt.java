@@ -6,6 +6,9 @@
  */
 package net.java.sip.communicator.impl.protocol.jabber;
 
+import java.util.*;
+import java.util.concurrent.*;
+
 import net.java.sip.communicator.impl.protocol.jabber.extensions.usersearch.*;
 import net.java.sip.communicator.util.*;
 
@@ -33,6 +36,16 @@ public class ProviderManagerExt
     private static final Logger logger =
         Logger.getLogger(ProviderManagerExt.class);
 
+    /**
+     * The extension providers by namespace and element name. Smack looks
+     * them up by a key concatenating the element name and the namespace,
+     * built for every child element of every received packet, so we keep
+     * our own index of the providers added through this manager.
+     */
+    private final ConcurrentMap<String, Map<String, Object>>
+        extensionProviderIndex
+            = new ConcurrentHashMap<String, Map<String, Object>>();
+
     /**
      * Creates and loads the providers and extensions used by us.
      */
@@ -456,4 +469,75 @@ public class ProviderManagerExt
             logger.error("Error adding extension provider.", t);
         }
     }
+
+    /**
+     * Adds an extension provider and indexes it by namespace and element
+     * name.
+     *
+     * @param elementName the XML element name.
+     * @param namespace the XML namespace.
+     * @param provider the extension provider.
+     */
+    @Override
+    public void addExtensionProvider(
+            String elementName,
+            String namespace,
+            Object provider)
+    {
+        super.addExtensionProvider(elementName, namespace, provider);
+
+        String namespaceKey = String.valueOf(namespace);
+        Map<String, Object> providers
+            = extensionProviderIndex.get(namespaceKey);
+
+        if (providers == null)
+        {
+            providers = new ConcurrentHashMap<String, Object>();
+
+            Map<String, Object> existing
+                = extensionProviderIndex.putIfAbsent(namespaceKey, providers);
+
+            if (existing != null)
+                providers = existing;
+        }
+        providers.put(String.valueOf(elementName), provider);
+    }
+
+    /**
+     * Removes an extension provider and its index entry.
+     *
+     * @param elementName the XML element name.
+     * @param namespace the XML namespace.
+     */
+    @Override
+    public void removeExtensionProvider(String elementName, String namespace)
+    {
+        super.removeExtensionProvider(elementName, namespace);
+
+        Map<String, Object> providers
+            = extensionProviderIndex.get(String.valueOf(namespace));
+
+        if (providers != null)
+            providers.remove(String.valueOf(elementName));
+    }
+
+    /**
+     * Returns the extension provider of an element name and a namespace
+     * from the index, without building a key string.
+     *
+     * @param elementName the XML element name.
+     * @param namespace the XML namespace.
+     * @return the extension provider or <tt>null</tt> if there is none.
+     */
+    @Override
+    public Object getExtensionProvider(String elementName, String namespace)
+    {
+        Map<String, Object> providers
+            = extensionProviderIndex.get(String.valueOf(namespace));
+
+        return
+            (providers == null)
+                ? null
+                : providers.get(String.valueOf(elementName));
+    }
 }
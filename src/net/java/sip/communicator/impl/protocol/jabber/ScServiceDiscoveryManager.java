@@ -16,6 +16,7 @@ import net.java.sip.communicator.util.*;
 import org.jivesoftware.smack.*;
 import org.jivesoftware.smack.filter.*;
 import org.jivesoftware.smack.packet.*;
+import org.jivesoftware.smack.util.StringUtils;
 import org.jivesoftware.smackx.*;
 import org.jivesoftware.smackx.packet.*;
 
@@ -528,13 +529,19 @@ public class ScServiceDiscoveryManager
     public DiscoverInfo discoverInfoNonBlocking(String entityID)
         throws XMPPException
     {
-        DiscoverInfo discoverInfo = capsManager.getDiscoverInfoByUser(entityID);
+        EntityCapsManager.Caps caps = capsManager.getCapsByUser(entityID);
+        /*
+         * Do not read the persisted caps here, the retriever does it before
+         * querying the entity.
+         */
+        DiscoverInfo discoverInfo
+            = (caps == null)
+                ? null
+                : EntityCapsManager.getCachedDiscoverInfoByCaps(caps);
 
         if (discoverInfo != null)
             return discoverInfo;
 
-        EntityCapsManager.Caps caps = capsManager.getCapsByUser(entityID);
-
         // if caps is not valid, has empty hash
         if (CACHE_NON_CAPS && (caps == null || !caps.isValid(discoverInfo)))
         {
@@ -653,27 +660,80 @@ public class ScServiceDiscoveryManager
     }
 
     /**
-     * Thread that runs the discovery info.
+     * Retrieves the discovery info of the queued entities on a small pool of
+     * threads, so that the queries to different entities are in flight at the
+     * same time. Entities advertising the same caps are queried once and the
+     * number of queries in flight to the entities of a server is limited.
      */
     private class DiscoveryInfoRetriever
         implements Runnable
     {
+        /**
+         * The maximum number of threads retrieving discovery info.
+         */
+        private static final int MAX_THREADS = 4;
+
+        /**
+         * The maximum number of queries in flight to the entities of a
+         * server.
+         */
+        private static final int MAX_IN_FLIGHT_PER_SERVER = 2;
+
+        /**
+         * The time in milliseconds to wait for the reply to a query.
+         */
+        private static final long REPLY_TIMEOUT = 10000;
+
         /**
          * start/stop.
          */
         private boolean stopped = true;
 
         /**
-         * The thread that runs this dispatcher.
+         * The number of threads running this retriever.
          */
-        private Thread retrieverThread = null;
+        private int threads = 0;
 
         /**
-         * Entities to be processed and their caps.
-         * HashMap so we can store null caps.
+         * The number of threads waiting for entities to process.
+         */
+        private int idleThreads = 0;
+
+        /**
+         * Entities to be processed and their caps, in the order they were
+         * queued. A map so we can store null caps.
          */
         private Map<String, EntityCapsManager.Caps> entities
-            = new HashMap<String, EntityCapsManager.Caps>();
+            = new LinkedHashMap<String, EntityCapsManager.Caps>();
+
+        /**
+         * The caps being queried and the entities advertising them which
+         * wait for the reply.
+         */
+        private final Map<EntityCapsManager.Caps, List<String>> capsWaiters
+            = new HashMap<EntityCapsManager.Caps, List<String>>();
+
+        /**
+         * The number of queries in flight by server.
+         */
+        private final Map<String, Integer> inFlightByServer
+            = new HashMap<String, Integer>();
+
+        /**
+         * The number of queries in flight.
+         */
+        private int inFlight = 0;
+
+        /**
+         * The number of entities which discovery info was retrieved since the
+         * queue was last empty, including the ones sharing queried caps.
+         */
+        private int resolved = 0;
+
+        /**
+         * The number of queries which failed since the queue was last empty.
+         */
+        private int failed = 0;
 
         /**
          * Our capability operation set.
@@ -687,48 +747,171 @@ public class ScServiceDiscoveryManager
         {
             try
             {
-                stopped = false;
-
-                while(!stopped)
+                while(true)
                 {
                     Map.Entry<String, EntityCapsManager.Caps>
                         entityToProcess = null;
 
                     synchronized(entities)
                     {
-                        if(entities.size() == 0)
+                        while(!stopped
+                                && (entityToProcess = takeEntity()) == null)
                         {
+                            idleThreads++;
                             try
                             {
                                 entities.wait();
                             }
                             catch (InterruptedException iex){}
+                            idleThreads--;
                         }
-
-                        Iterator<Map.Entry<String, EntityCapsManager.Caps>>
-                            iter = entities.entrySet().iterator();
-                        if(iter.hasNext())
-                        {
-                            entityToProcess = iter.next();
-                            iter.remove();
-                        }
+                        if(stopped)
+                            break;
                     }
 
-                    if(entityToProcess != null)
+                    String entityID = entityToProcess.getKey();
+                    EntityCapsManager.Caps caps = entityToProcess.getValue();
+                    boolean success = false;
+
+                    try
                     {
                         // process
-                        requestDiscoveryInfo(
-                            entityToProcess.getKey(),
-                            entityToProcess.getValue());
+                        success = requestDiscoveryInfo(entityID, caps);
+                    }
+                    finally
+                    {
+                        processed(entityID, caps, success);
                     }
-
-                    entityToProcess = null;
                 }
             } catch(Throwable t)
             {
                 logger.error("Error requesting discovery info, " +
                     "thread ended unexpectedly", t);
             }
+            finally
+            {
+                synchronized(entities)
+                {
+                    threads--;
+                }
+            }
+        }
+
+        /**
+         * Removes from the queue the first entity which may be queried now,
+         * moving the entities advertising caps already being queried to
+         * {@link #capsWaiters}. Must be called with {@link #entities} locked.
+         *
+         * @return the entity to query and its caps or <tt>null</tt> if no
+         * entity may be queried now.
+         */
+        private Map.Entry<String, EntityCapsManager.Caps> takeEntity()
+        {
+            Iterator<Map.Entry<String, EntityCapsManager.Caps>> iter
+                = entities.entrySet().iterator();
+
+            while(iter.hasNext())
+            {
+                Map.Entry<String, EntityCapsManager.Caps> entity = iter.next();
+                EntityCapsManager.Caps caps = entity.getValue();
+
+                if(caps != null)
+                {
+                    List<String> waiters = capsWaiters.get(caps);
+
+                    if(waiters != null)
+                    {
+                        waiters.add(entity.getKey());
+                        iter.remove();
+                        continue;
+                    }
+                }
+
+                String server = StringUtils.parseServer(entity.getKey());
+                Integer serverInFlight = inFlightByServer.get(server);
+
+                if(serverInFlight == null)
+                    serverInFlight = 0;
+                else if(serverInFlight >= MAX_IN_FLIGHT_PER_SERVER)
+                    continue;
+
+                iter.remove();
+                inFlightByServer.put(server, serverInFlight + 1);
+                inFlight++;
+                if(caps != null)
+                    capsWaiters.put(caps, new ArrayList<String>());
+                return entity;
+            }
+            return null;
+        }
+
+        /**
+         * Releases the query to an entity and notifies the entities which
+         * were waiting for its caps, or queues them again if the caps were
+         * not retrieved.
+         *
+         * @param entityID the queried entity.
+         * @param caps its caps.
+         * @param success whether the discovery info was retrieved.
+         */
+        private void processed(String entityID,
+                               EntityCapsManager.Caps caps,
+                               boolean success)
+        {
+            List<String> waiters;
+
+            synchronized(entities)
+            {
+                String server = StringUtils.parseServer(entityID);
+                int serverInFlight = inFlightByServer.get(server) - 1;
+
+                if(serverInFlight == 0)
+                    inFlightByServer.remove(server);
+                else
+                    inFlightByServer.put(server, serverInFlight);
+                inFlight--;
+
+                waiters = (caps == null) ? null : capsWaiters.remove(caps);
+                if((waiters != null) && !waiters.isEmpty()
+                        && (EntityCapsManager.getCachedDiscoverInfoByCaps(caps)
+                                == null))
+                {
+                    for(String waiter : waiters)
+                        entities.put(waiter, caps);
+                    waiters = null;
+                }
+
+                if(success)
+                    resolved += 1 + ((waiters == null) ? 0 : waiters.size());
+                else
+                    failed++;
+                if(entities.isEmpty() && inFlight == 0)
+                {
+                    if(logger.isDebugEnabled())
+                    {
+                        logger.debug("Retrieved discovery info of "
+                            + resolved + " entities, " + failed + " failed");
+                    }
+                    resolved = 0;
+                    failed = 0;
+                }
+                else if(logger.isTraceEnabled())
+                {
+                    logger.trace("Discovery info pending: "
+                        + (entities.size() + capsWaiters.size())
+                        + ", in flight: " + inFlight
+                        + ", retrieved: " + resolved
+                        + ", failed: " + failed);
+                }
+
+                entities.notifyAll();
+            }
+
+            if((waiters != null) && (capabilitiesOpSet != null))
+            {
+                for(String waiter : waiters)
+                    capabilitiesOpSet.fireContactCapabilitiesChanged(waiter);
+            }
         }
 
         /**
@@ -736,13 +919,27 @@ public class ScServiceDiscoveryManager
          * retrieved.
          * @param entityID the entity to request
          * @param caps and its capability.
+         * @return whether the discovery info was retrieved.
          */
-        private void requestDiscoveryInfo(final String entityID,
-                                          EntityCapsManager.Caps caps)
+        private boolean requestDiscoveryInfo(final String entityID,
+                                             EntityCapsManager.Caps caps)
         {
             try
             {
-                DiscoverInfo discoverInfo = discoverInfo(
+                // we may have learnt the caps in a previous session
+                if ((caps != null)
+                        && (EntityCapsManager.getDiscoverInfoByCaps(caps)
+                                != null))
+                {
+                    if (capabilitiesOpSet != null)
+                    {
+                        capabilitiesOpSet.fireContactCapabilitiesChanged(
+                                entityID);
+                    }
+                    return true;
+                }
+
+                DiscoverInfo discoverInfo = requestDiscoverInfo(
                             entityID,
                             (caps == null ) ? null : caps.getNodeVer());
 
@@ -777,6 +974,7 @@ public class ScServiceDiscoveryManager
                 {
                     capabilitiesOpSet.fireContactCapabilitiesChanged(entityID);
                 }
+                return true;
             }
             catch(XMPPException ex)
             {
@@ -784,9 +982,52 @@ public class ScServiceDiscoveryManager
                 if(logger.isTraceEnabled())
                     logger.error("Error requesting discover info for "
                         + entityID, ex);
+                return false;
             }
         }
 
+        /**
+         * Queries the discovery info of an entity, waiting at most
+         * {@link #REPLY_TIMEOUT} for the reply. The other threads of the
+         * retriever send their queries meanwhile.
+         *
+         * @param entityID the address of the entity.
+         * @param node the node to query or <tt>null</tt>.
+         * @return the discovery info of the entity.
+         * @throws XMPPException if there is no reply in time or the reply is
+         * an error.
+         */
+        private DiscoverInfo requestDiscoverInfo(String entityID, String node)
+            throws XMPPException
+        {
+            DiscoverInfo request = new DiscoverInfo();
+
+            request.setType(IQ.Type.GET);
+            request.setTo(entityID);
+            request.setNode(node);
+
+            PacketCollector collector
+                = connection.createPacketCollector(
+                        new PacketIDFilter(request.getPacketID()));
+            IQ result;
+
+            try
+            {
+                connection.sendPacket(request);
+                result = (IQ) collector.nextResult(REPLY_TIMEOUT);
+            }
+            finally
+            {
+                collector.cancel();
+            }
+
+            if (result == null)
+                throw new XMPPException("No response from " + entityID);
+            if (result.getType() == IQ.Type.ERROR)
+                throw new XMPPException(result.getError());
+            return (DiscoverInfo) result;
+        }
+
         /**
          * Queue entities for retrieval.
          * @param entityID the entity.
@@ -803,16 +1044,16 @@ public class ScServiceDiscoveryManager
                     entities.put(entityID, caps);
                     entities.notifyAll();
 
-                    if(retrieverThread == null)
-                    {
+                    if(stopped)
                         start();
-                    }
+                    if(idleThreads == 0 && threads < MAX_THREADS)
+                        startThread();
                 }
             }
         }
 
         /**
-         * Start thread.
+         * Start retrieving. Must be called with {@link #entities} locked.
          */
         private void start()
         {
@@ -820,14 +1061,22 @@ public class ScServiceDiscoveryManager
                 parentProvider.getOperationSet(
                     OperationSetContactCapabilities.class);
 
-            retrieverThread = new Thread(
+            stopped = false;
+        }
+
+        /**
+         * Starts a thread running this retriever. Must be called with
+         * {@link #entities} locked.
+         */
+        private void startThread()
+        {
+            Thread retrieverThread = new Thread(
                 this,
                 ScServiceDiscoveryManager.class.getName());
             retrieverThread.setDaemon(true);
 
             retrieverThread.start();
-
-
+            threads++;
         }
 
         /**
@@ -839,8 +1088,6 @@ public class ScServiceDiscoveryManager
             {
                 stopped = true;
                 entities.notifyAll();
-
-                retrieverThread = null;
             }
         }
     }
@@ -111,21 +111,26 @@ public abstract class AbstractPacketExtension
      */
     public String toXML()
     {
-        StringBuilder bldr = new StringBuilder();
+        StringBuilder xml = new StringBuilder();
 
-        bldr.append("<").append(getElementName()).append(" ");
-
-        String namespace = getNamespace();
-
-        if(namespace != null)
-            bldr.append("xmlns='").append(namespace).append("'");
+        toXML(xml);
+        return xml.toString();
+    }
 
-        //add the rest of the attributes if any
-        for(Map.Entry<String, Object> entry : attributes.entrySet())
-        {
-            bldr.append(" ").append(entry.getKey()).append("='")
-                    .append(entry.getValue()).append("'");
-        }
+    /**
+     * Appends the XML representation of this extension to a
+     * <tt>StringBuilder</tt>. The child extensions are appended to the same
+     * <tt>StringBuilder</tt> so a tree of extensions is serialized without
+     * copying the XML of every level into its parent. Extensions with a
+     * custom XML representation should override this method rather than
+     * {@link #toXML()}.
+     *
+     * @param xml the <tt>StringBuilder</tt> to append the XML representation
+     * of this extension to.
+     */
+    public void toXML(StringBuilder xml)
+    {
+        appendStartTag(xml);
 
         //add child elements if any
         List<? extends PacketExtension> childElements = getChildExtensions();
@@ -136,11 +141,11 @@ public abstract class AbstractPacketExtension
         {
             if ((text == null) || (text.length() == 0))
             {
-                bldr.append("/>");
-                return bldr.toString();
+                xml.append("/>");
+                return;
             }
             else
-                bldr.append('>');
+                xml.append('>');
         }
         else
         {
@@ -149,28 +154,156 @@ public abstract class AbstractPacketExtension
                 if (childElements.isEmpty() && packets.isEmpty()
                         && ((text == null) || (text.length() == 0)))
                 {
-                    bldr.append("/>");
-                    return bldr.toString();
+                    xml.append("/>");
+                    return;
                 }
                 else
                 {
-                    bldr.append(">");
+                    xml.append('>');
                     for(PacketExtension packExt : childElements)
-                        bldr.append(packExt.toXML());
+                        appendXML(xml, packExt);
                     for(Packet packet : packets)
-                        bldr.append(packet.toXML());
+                        xml.append(packet.toXML());
                 }
             }
         }
 
         //text content if any
         if((text != null) && (text.trim().length() > 0))
-            bldr.append(text);
+            xml.append(text);
+
+        appendEndTag(xml);
+    }
+
+    /**
+     * Appends the start tag of this extension, with its namespace and its
+     * attributes, to a <tt>StringBuilder</tt> without closing it so that
+     * the caller may append either <tt>&gt;</tt> or <tt>/&gt;</tt>.
+     *
+     * @param xml the <tt>StringBuilder</tt> to append the start tag to.
+     */
+    protected void appendStartTag(StringBuilder xml)
+    {
+        xml.append('<').append(getElementName());
+
+        String namespace = getNamespace();
+
+        if(namespace != null)
+            appendAttribute(xml, "xmlns", namespace);
 
-        
-        bldr.append("</").append(getElementName()).append(">");
+        //add the rest of the attributes if any
+        synchronized(attributes)
+        {
+            for(Map.Entry<String, Object> entry : attributes.entrySet())
+                appendAttribute(xml, entry.getKey(), entry.getValue());
+        }
+    }
 
-        return bldr.toString();
+    /**
+     * Appends the end tag of this extension to a <tt>StringBuilder</tt>.
+     *
+     * @param xml the <tt>StringBuilder</tt> to append the end tag to.
+     */
+    protected void appendEndTag(StringBuilder xml)
+    {
+        xml.append("</").append(getElementName()).append('>');
+    }
+
+    /**
+     * Appends the XML representation of an extension to a
+     * <tt>StringBuilder</tt>, without an intermediate <tt>String</tt> if the
+     * extension is an <tt>AbstractPacketExtension</tt>.
+     *
+     * @param xml the <tt>StringBuilder</tt> to append to.
+     * @param extension the extension to append.
+     */
+    public static void appendXML(StringBuilder xml, PacketExtension extension)
+    {
+        if (extension instanceof AbstractPacketExtension)
+            ((AbstractPacketExtension) extension).toXML(xml);
+        else
+            xml.append(extension.toXML());
+    }
+
+    /**
+     * Appends an attribute to a start tag, escaping its value.
+     *
+     * @param xml the <tt>StringBuilder</tt> to append the attribute to.
+     * @param name the name of the attribute.
+     * @param value the value of the attribute, an <tt>Object</tt> whose
+     * <tt>toString()</tt> method returns the value to escape.
+     */
+    public static void appendAttribute(
+            StringBuilder xml,
+            String name,
+            Object value)
+    {
+        xml.append(' ').append(name).append("='");
+        appendEscaped(xml, value.toString());
+        xml.append('\'');
+    }
+
+    /**
+     * Appends an element which only contains text to a
+     * <tt>StringBuilder</tt>, escaping the text.
+     *
+     * @param xml the <tt>StringBuilder</tt> to append the element to.
+     * @param name the name of the element.
+     * @param text an <tt>Object</tt> whose <tt>toString()</tt> method returns
+     * the text of the element.
+     */
+    public static void appendTextElement(
+            StringBuilder xml,
+            String name,
+            Object text)
+    {
+        xml.append('<').append(name).append('>');
+        appendEscaped(xml, text.toString());
+        xml.append("</").append(name).append('>');
+    }
+
+    /**
+     * Appends a string to a <tt>StringBuilder</tt>, replacing the characters
+     * which are markup in XML text and attribute values with entity
+     * references. The string is appended at once when it does not contain
+     * any such character, which is the common case.
+     *
+     * @param xml the <tt>StringBuilder</tt> to append to.
+     * @param s the string to escape.
+     */
+    public static void appendEscaped(StringBuilder xml, String s)
+    {
+        int length = s.length();
+        int start = 0;
+
+        for (int i = 0; i < length; i++)
+        {
+            String entity;
+
+            switch (s.charAt(i))
+            {
+            case '&':
+                entity = "&amp;";
+                break;
+            case '<':
+                entity = "&lt;";
+                break;
+            case '>':
+                entity = "&gt;";
+                break;
+            case '\'':
+                entity = "&apos;";
+                break;
+            case '"':
+                entity = "&quot;";
+                break;
+            default:
+                continue;
+            }
+            xml.append(s, start, i).append(entity);
+            start = i + 1;
+        }
+        xml.append(s, start, length);
     }
 
     /**
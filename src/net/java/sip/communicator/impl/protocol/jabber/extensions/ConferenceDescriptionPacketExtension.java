@@ -9,7 +9,6 @@ package net.java.sip.communicator.impl.protocol.jabber.extensions;
 import net.java.sip.communicator.service.protocol.*;
 import org.jivesoftware.smack.packet.*;
 import org.jivesoftware.smack.provider.*;
-import org.jivesoftware.smack.util.*;
 import org.xmlpull.v1.*;
 
 import java.util.*;
@@ -170,7 +169,7 @@ public class ConferenceDescriptionPacketExtension
      */
     public void setUri(String uri)
     {
-        setAttribute(URI_ATTR_NAME, StringUtils.escapeForXML(uri));
+        setAttribute(URI_ATTR_NAME, uri);
     }
 
     /**
@@ -206,7 +205,7 @@ public class ConferenceDescriptionPacketExtension
      */
     public void setName(String name)
     {
-       setAttribute(CONFERENCE_NAME_ATTR_NAME, StringUtils.escapeForXML(name));
+       setAttribute(CONFERENCE_NAME_ATTR_NAME, name);
     }
 
     /**
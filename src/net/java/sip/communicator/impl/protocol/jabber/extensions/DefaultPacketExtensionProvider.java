@@ -6,6 +6,7 @@
  */
 package net.java.sip.communicator.impl.protocol.jabber.extensions;
 
+import java.lang.reflect.*;
 import java.util.logging.*;
 
 import org.jivesoftware.smack.packet.*;
@@ -34,6 +35,20 @@ public class DefaultPacketExtensionProvider<C extends AbstractPacketExtension>
      */
     private final Class<C> packetClass;
 
+    /**
+     * The public no-argument constructor of <tt>packetClass</tt>, resolved
+     * once rather than for every parsed element, or <tt>null</tt> if there
+     * is none.
+     */
+    private final Constructor<C> packetConstructor;
+
+    /**
+     * The <tt>ProviderManager</tt> looking up the providers of the child
+     * elements. <tt>ProviderManager.getInstance()</tt> is synchronized and
+     * the instance never changes once created, so it is kept here.
+     */
+    private static volatile ProviderManager providerManager;
+
     /**
      * Creates a new packet provider for the specified packet extensions.
      *
@@ -42,6 +57,38 @@ public class DefaultPacketExtensionProvider<C extends AbstractPacketExtension>
     public DefaultPacketExtensionProvider(Class<C> c)
     {
         this.packetClass = c;
+
+        Constructor<C> packetConstructor;
+
+        try
+        {
+            packetConstructor = c.getConstructor();
+        }
+        catch (NoSuchMethodException nsme)
+        {
+            // Class.newInstance() will report the error when parsing.
+            packetConstructor = null;
+        }
+        this.packetConstructor = packetConstructor;
+    }
+
+    /**
+     * Returns the <tt>ProviderManager</tt> looking up the providers of the
+     * child elements.
+     *
+     * @return the <tt>ProviderManager</tt> instance.
+     */
+    private static ProviderManager getProviderManager()
+    {
+        ProviderManager providerManager
+            = DefaultPacketExtensionProvider.providerManager;
+
+        if (providerManager == null)
+        {
+            providerManager = ProviderManager.getInstance();
+            DefaultPacketExtensionProvider.providerManager = providerManager;
+        }
+        return providerManager;
     }
 
     /**
@@ -58,7 +105,10 @@ public class DefaultPacketExtensionProvider<C extends AbstractPacketExtension>
      */
     public C parseExtension(XmlPullParser parser) throws Exception
     {
-        C packetExtension = packetClass.newInstance();
+        C packetExtension
+            = (packetConstructor == null)
+                ? packetClass.newInstance()
+                : packetConstructor.newInstance();
 
         //first, set all attributes
         int attrCount = parser.getAttributeCount();
@@ -90,14 +140,15 @@ public class DefaultPacketExtensionProvider<C extends AbstractPacketExtension>
             if (eventType == XmlPullParser.START_TAG)
             {
                 PacketExtensionProvider provider
-                    = (PacketExtensionProvider)ProviderManager.getInstance()
+                    = (PacketExtensionProvider)getProviderManager()
                         .getExtensionProvider( elementName, namespace );
 
                 if(provider == null)
                 {
                     //we don't know how to handle this kind of extensions.
-                    logger.fine("Could not add a provider for element "
-                        + elementName + " from namespace " + namespace);
+                    if (logger.isLoggable(Level.FINE))
+                        logger.fine("Could not add a provider for element "
+                            + elementName + " from namespace " + namespace);
                 }
                 else
                 {
@@ -16,6 +16,7 @@ import net.java.sip.communicator.service.protocol.*;
 import net.java.sip.communicator.util.*;
 
 import org.jitsi.service.configuration.*;
+import org.jitsi.service.fileaccess.*;
 import org.jitsi.util.OSUtils;
 import org.jivesoftware.smack.*;
 import org.jivesoftware.smack.filter.*;
@@ -57,8 +58,15 @@ public class EntityCapsManager
     private static ConfigurationService configService;
 
     /**
-     * The prefix of the <tt>ConfigurationService</tt> properties which persist
-     * {@link #caps2discoverInfo}.
+     * The store which persists {@link #caps2discoverInfo} or <tt>null</tt> if
+     * it has not been opened yet.
+     */
+    private static EntityCapsStore capsStore;
+
+    /**
+     * The prefix of the <tt>ConfigurationService</tt> properties which
+     * persisted {@link #caps2discoverInfo} before {@link #capsStore}. They
+     * are moved to the store when it is opened.
      */
     private static final String CAPS_PROPERTY_NAME_PREFIX
         = "net.java.sip.communicator.impl.protocol.jabber.extensions.caps."
@@ -77,6 +85,12 @@ public class EntityCapsManager
     private static String entityNode
         = OSUtils.IS_ANDROID ? "http://android.altel.org" : "http://altel.org";
 
+    /**
+     * The number of <tt>DiscoverInfo</tt>s kept in {@link #caps2discoverInfo},
+     * the others being read again from {@link #capsStore} when needed.
+     */
+    private static final int CAPS_CACHE_SIZE = 256;
+
     /**
      * The <tt>Map</tt> of <tt>Caps</tt> to <tt>DiscoverInfo</tt> which
      * associates a node#ver with the entity capabilities so that they don't
@@ -85,10 +99,20 @@ public class EntityCapsManager
      * the hash method is also associated with the entity capabilities along
      * with the node and the ver in order to disambiguate cases of equal ver
      * values for different entity capabilities constructed using different hash
-     * methods.
+     * methods. Only the most recently used entries are kept.
      */
     private static final Map<Caps, DiscoverInfo> caps2discoverInfo
-        = new ConcurrentHashMap<Caps, DiscoverInfo>();
+        = new LinkedHashMap<Caps, DiscoverInfo>(16, 0.75f, true)
+        {
+            private static final long serialVersionUID = 0L;
+
+            @Override
+            protected boolean removeEldestEntry(
+                    Map.Entry<Caps, DiscoverInfo> eldest)
+            {
+                return size() > CAPS_CACHE_SIZE;
+            }
+        };
 
     /**
      * Map of Full JID -&gt; DiscoverInfo/null. In case of c2s connection the
@@ -147,42 +171,119 @@ public class EntityCapsManager
          */
         info.setNode(caps.getNodeVer());
 
+        DiscoverInfo oldInfo;
+
         synchronized (caps2discoverInfo)
         {
-            DiscoverInfo oldInfo = caps2discoverInfo.put(caps, info);
+            oldInfo = caps2discoverInfo.put(caps, info);
+        }
+
+        /*
+         * If the specified info is a new association for the specified
+         * node, remember it across application instances in order to not
+         * query for it over the network.
+         */
+        if ((oldInfo == null) || !oldInfo.equals(info))
+        {
+            String xml = info.getChildElementXML();
+            EntityCapsStore store;
 
-            /*
-             * If the specified info is a new association for the specified
-             * node, remember it across application instances in order to not
-             * query for it over the network.
-             */
-            if ((oldInfo == null) || !oldInfo.equals(info))
+            if ((xml != null)
+                    && (xml.length() != 0)
+                    && ((store = getCapsStore()) != null))
             {
-                String xml = info.getChildElementXML();
+                store.save(caps, xml);
+            }
+        }
+    }
 
-                if ((xml != null) && (xml.length() != 0))
+    /**
+     * Returns the store which persists the <tt>DiscoverInfo</tt>s by
+     * <tt>Caps</tt>, opening it the first time and moving to it the
+     * <tt>DiscoverInfo</tt>s persisted in the <tt>ConfigurationService</tt>
+     * by earlier versions.
+     *
+     * @return the store or <tt>null</tt> if it could not be opened.
+     */
+    private static synchronized EntityCapsStore getCapsStore()
+    {
+        if ((capsStore == null) && (bundleContext != null))
+        {
+            FileAccessService fileAccessService
+                = ServiceUtils.getService(
+                        bundleContext, FileAccessService.class);
+
+            if (fileAccessService != null)
+            {
+                try
+                {
+                    capsStore
+                        = new EntityCapsStore(
+                                fileAccessService
+                                    .getPrivatePersistentDirectory(
+                                            EntityCapsStore.DIRECTORY_NAME,
+                                            FileCategory.CACHE));
+                }
+                catch (Exception e)
                 {
-                    getConfigService()
-                        .setProperty(getCapsPropertyName(caps), xml);
+                    logger.error("Failed to open the entity caps store", e);
                 }
+                if (capsStore != null)
+                    moveCapsProperties(capsStore);
             }
         }
+        return capsStore;
     }
 
     /**
-     * Gets the name of the property in the <tt>ConfigurationService</tt> which
-     * is or is to be associated with a specific <tt>Caps</tt> value.
+     * Moves the <tt>DiscoverInfo</tt>s persisted in the
+     * <tt>ConfigurationService</tt> to a specific store and removes them from
+     * the configuration at once.
      *
-     * @param caps the <tt>Caps</tt> value for which the associated
-     * <tt>ConfigurationService</tt> property name is to be returned
-     * @return the name of the property in the <tt>ConfigurationService</tt>
-     * which is or is to be associated with a specific <tt>Caps</tt> value
+     * @param store the store to move the <tt>DiscoverInfo</tt>s to.
      */
-    private static String getCapsPropertyName(Caps caps)
+    private static void moveCapsProperties(EntityCapsStore store)
     {
-        return
-            CAPS_PROPERTY_NAME_PREFIX
-                + caps.node + '#' + caps.hash + '#' + caps.ver;
+        ConfigurationService configurationService = getConfigService();
+
+        if (configurationService == null)
+            return;
+
+        List<String> propertyNames
+            = configurationService.getPropertyNamesByPrefix(
+                    CAPS_PROPERTY_NAME_PREFIX,
+                    false);
+
+        if ((propertyNames == null) || propertyNames.isEmpty())
+            return;
+
+        Map<String, Object> removed
+            = new HashMap<String, Object>(propertyNames.size());
+
+        for (String propertyName : propertyNames)
+        {
+            // node#hash#ver where only the node may contain '#'
+            String nodeHashVer
+                = propertyName.substring(CAPS_PROPERTY_NAME_PREFIX.length());
+            int verIndex = nodeHashVer.lastIndexOf('#');
+            int hashIndex
+                = (verIndex > 0) ? nodeHashVer.lastIndexOf('#', verIndex - 1)
+                    : -1;
+            String xml = configurationService.getString(propertyName);
+
+            if ((hashIndex > 0) && (xml != null) && (xml.length() != 0))
+            {
+                store.save(
+                        new Caps(
+                                nodeHashVer.substring(0, hashIndex),
+                                nodeHashVer.substring(hashIndex + 1, verIndex),
+                                nodeHashVer.substring(verIndex + 1),
+                                null),
+                        xml);
+            }
+            removed.put(propertyName, null);
+        }
+        configurationService.setProperties(removed);
     }
 
     /**
@@ -447,90 +548,97 @@ public class EntityCapsManager
      */
     public static DiscoverInfo getDiscoverInfoByCaps(Caps caps)
     {
-        synchronized (caps2discoverInfo)
+        DiscoverInfo discoverInfo = getCachedDiscoverInfoByCaps(caps);
+
+        /*
+         * If we don't have the discoverInfo in the runtime cache yet, we may
+         * have it remembered in a previous application instance.
+         */
+        if (discoverInfo == null)
         {
-            DiscoverInfo discoverInfo = caps2discoverInfo.get(caps);
+            EntityCapsStore store = getCapsStore();
+            String xml = (store == null) ? null : store.load(caps);
 
-            /*
-             * If we don't have the discoverInfo in the runtime cache yet, we
-             * may have it remembered in a previous application instance.
-             */
-            if (discoverInfo == null)
+            if ((xml != null) && (xml.length() != 0))
             {
-                ConfigurationService configurationService
-                    = getConfigService();
-                String capsPropertyName = getCapsPropertyName(caps);
-                String xml = configurationService.getString(capsPropertyName);
-
-                if ((xml != null) && (xml.length() != 0))
+                discoverInfo = parseDiscoverInfo(xml);
+                if (discoverInfo != null)
                 {
-                    IQProvider discoverInfoProvider
-                        = (IQProvider)
-                            ProviderManager.getInstance().getIQProvider(
-                                    "query",
-                                    "http://jabber.org/protocol/disco#info");
-
-                    if (discoverInfoProvider != null)
+                    if (caps.isValid(discoverInfo))
                     {
-                        XmlPullParser parser = new MXParser();
-
-                        try
-                        {
-                            parser.setFeature(
-                                    XmlPullParser.FEATURE_PROCESS_NAMESPACES,
-                                    true);
-                            parser.setInput(new StringReader(xml));
-                            // Start the parser.
-                            parser.next();
-                        }
-                        catch (XmlPullParserException xppex)
+                        synchronized (caps2discoverInfo)
                         {
-                            parser = null;
-                        }
-                        catch (IOException ioex)
-                        {
-                            parser = null;
-                        }
-
-                        if (parser != null)
-                        {
-                            try
-                            {
-                                discoverInfo
-                                    = (DiscoverInfo)
-                                        discoverInfoProvider.parseIQ(parser);
-                            }
-                            catch (Exception ex)
-                            {
-                            }
-
-                            if (discoverInfo != null)
-                            {
-                                if (caps.isValid(discoverInfo))
-                                    caps2discoverInfo.put(caps, discoverInfo);
-                                else
-                                {
-                                    logger.error(
-                                            "Invalid DiscoverInfo for "
-                                                + caps.getNodeVer()
-                                                + ": "
-                                                + discoverInfo);
-                                    /*
-                                     * The discoverInfo doesn't seem valid
-                                     * according to the caps which means that we
-                                     * must have stored invalid information.
-                                     * Delete the invalid information in order
-                                     * to not try to validate it again.
-                                     */
-                                    configurationService.removeProperty(
-                                            capsPropertyName);
-                                }
-                            }
+                            caps2discoverInfo.put(caps, discoverInfo);
                         }
                     }
+                    else
+                    {
+                        logger.error(
+                                "Invalid DiscoverInfo for "
+                                    + caps.getNodeVer()
+                                    + ": "
+                                    + discoverInfo);
+                        /*
+                         * The discoverInfo doesn't seem valid according to
+                         * the caps which means that we must have stored
+                         * invalid information. Delete the invalid
+                         * information in order to not try to validate it
+                         * again.
+                         */
+                        store.remove(caps);
+                    }
                 }
             }
-            return discoverInfo;
+        }
+        return discoverInfo;
+    }
+
+    /**
+     * Retrieve DiscoverInfo for a specific node if it is in the runtime
+     * cache, without reading the persisted ones.
+     *
+     * @param caps the <tt>Caps</tt> i.e. the node, the hash and the ver
+     * @return The corresponding DiscoverInfo or null if none is cached.
+     */
+    public static DiscoverInfo getCachedDiscoverInfoByCaps(Caps caps)
+    {
+        synchronized (caps2discoverInfo)
+        {
+            return caps2discoverInfo.get(caps);
+        }
+    }
+
+    /**
+     * Parses a persisted disco#info query.
+     *
+     * @param xml the XML of the query.
+     * @return the parsed <tt>DiscoverInfo</tt> or <tt>null</tt> if
+     * <tt>xml</tt> could not be parsed.
+     */
+    private static DiscoverInfo parseDiscoverInfo(String xml)
+    {
+        IQProvider discoverInfoProvider
+            = (IQProvider)
+                ProviderManager.getInstance().getIQProvider(
+                        "query",
+                        "http://jabber.org/protocol/disco#info");
+
+        if (discoverInfoProvider == null)
+            return null;
+
+        XmlPullParser parser = new MXParser();
+
+        try
+        {
+            parser.setFeature(XmlPullParser.FEATURE_PROCESS_NAMESPACES, true);
+            parser.setInput(new StringReader(xml));
+            // Start the parser.
+            parser.next();
+            return (DiscoverInfo) discoverInfoProvider.parseIQ(parser);
+        }
+        catch (Exception ex)
+        {
+            return null;
         }
     }
 
@@ -0,0 +1,190 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package net.java.sip.communicator.impl.protocol.jabber.extensions.caps;
+
+import java.io.*;
+import java.security.*;
+
+import net.java.sip.communicator.util.*;
+
+/**
+ * Persists the disco#info XML of the entity capabilities we have learnt in
+ * a cache directory of the user profile, one file per node, hash and ver, so
+ * that an entry is read only when a contact advertising it is seen and a new
+ * entry does not rewrite the others.
+ */
+class EntityCapsStore
+{
+    /**
+     * The <tt>Logger</tt> used by the <tt>EntityCapsStore</tt> class for
+     * logging output.
+     */
+    private static final Logger logger
+        = Logger.getLogger(EntityCapsStore.class);
+
+    /**
+     * The name of the private cache directory of the store.
+     */
+    static final String DIRECTORY_NAME = "entitycaps";
+
+    /**
+     * The hexadecimal digits of the file names.
+     */
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    /**
+     * The directory of the entries.
+     */
+    private final File directory;
+
+    /**
+     * Initializes a new store keeping its entries in a specific directory.
+     *
+     * @param directory the directory of the entries, created when the first
+     * entry is saved.
+     */
+    EntityCapsStore(File directory)
+    {
+        this.directory = directory;
+    }
+
+    /**
+     * Reads the disco#info XML saved for a specific node, hash and ver.
+     *
+     * @param caps the node, the hash and the ver.
+     * @return the saved XML or <tt>null</tt> if there is none or it could not
+     * be read.
+     */
+    String load(EntityCapsManager.Caps caps)
+    {
+        File file = getFile(caps);
+
+        if (!file.isFile())
+            return null;
+
+        try
+        {
+            Reader reader
+                = new InputStreamReader(new FileInputStream(file), "UTF-8");
+
+            try
+            {
+                StringBuilder xml = new StringBuilder((int) file.length());
+                char[] buffer = new char[4096];
+                int read;
+
+                while ((read = reader.read(buffer)) != -1)
+                    xml.append(buffer, 0, read);
+                return xml.toString();
+            }
+            finally
+            {
+                reader.close();
+            }
+        }
+        catch (IOException ioe)
+        {
+            logger.warn("Failed to read entity caps " + file, ioe);
+            return null;
+        }
+    }
+
+    /**
+     * Saves the disco#info XML of a specific node, hash and ver. The XML is
+     * written to a temporary file first so that a failure does not leave a
+     * truncated entry behind.
+     *
+     * @param caps the node, the hash and the ver.
+     * @param xml the disco#info XML.
+     */
+    void save(EntityCapsManager.Caps caps, String xml)
+    {
+        File file = getFile(caps);
+        File tmp = new File(directory, file.getName() + ".tmp");
+
+        try
+        {
+            if (!directory.isDirectory() && !directory.mkdirs())
+            {
+                throw new IOException(
+                        "Failed to create directory: " + directory);
+            }
+
+            Writer writer
+                = new OutputStreamWriter(new FileOutputStream(tmp), "UTF-8");
+
+            try
+            {
+                writer.write(xml);
+            }
+            finally
+            {
+                writer.close();
+            }
+            if (!tmp.renameTo(file) && !(file.delete() && tmp.renameTo(file)))
+                throw new IOException("Failed to rename " + tmp);
+        }
+        catch (IOException ioe)
+        {
+            logger.error("Failed to save entity caps " + file, ioe);
+            tmp.delete();
+        }
+    }
+
+    /**
+     * Deletes the disco#info XML saved for a specific node, hash and ver.
+     *
+     * @param caps the node, the hash and the ver.
+     */
+    void remove(EntityCapsManager.Caps caps)
+    {
+        File file = getFile(caps);
+
+        if (file.exists() && !file.delete())
+            logger.warn("Failed to delete entity caps " + file);
+    }
+
+    /**
+     * Gets the file of a specific node, hash and ver, named by the SHA-1 of
+     * the three of them since the node is a URI and the ver may contain
+     * characters which are not allowed in file names.
+     *
+     * @param caps the node, the hash and the ver.
+     * @return the file of <tt>caps</tt>.
+     */
+    private File getFile(EntityCapsManager.Caps caps)
+    {
+        String key = caps.node + '#' + caps.hash + '#' + caps.ver;
+        byte[] digest;
+
+        try
+        {
+            digest
+                = MessageDigest.getInstance("SHA-1").digest(
+                        key.getBytes("UTF-8"));
+        }
+        catch (GeneralSecurityException gse)
+        {
+            // SHA-1 is required of every Java platform
+            throw new IllegalStateException(gse);
+        }
+        catch (UnsupportedEncodingException uee)
+        {
+            // and so is UTF-8
+            throw new IllegalStateException(uee);
+        }
+
+        char[] name = new char[digest.length * 2];
+
+        for (int i = 0; i < digest.length; i++)
+        {
+            name[2 * i] = HEX_DIGITS[(digest[i] >> 4) & 0xf];
+            name[2 * i + 1] = HEX_DIGITS[digest[i] & 0xf];
+        }
+        return new File(directory, new String(name));
+    }
+}
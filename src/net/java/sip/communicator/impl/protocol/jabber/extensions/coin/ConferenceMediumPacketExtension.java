@@ -137,53 +137,28 @@ public class ConferenceMediumPacketExtension
     }
 
     /**
-     * Get an XML string representation.
+     * Appends an XML string representation to a <tt>StringBuilder</tt>.
      *
-     * @return XML string representation
+     * @param xml the <tt>StringBuilder</tt> to append to.
      */
     @Override
-    public String toXML()
+    public void toXML(StringBuilder xml)
     {
-        StringBuilder bldr = new StringBuilder();
-
-        bldr.append("<").append(getElementName()).append(" ");
-
-        if(getNamespace() != null)
-            bldr.append("xmlns='").append(getNamespace()).append("'");
-
-        //add the rest of the attributes if any
-        for(Map.Entry<String, Object> entry : attributes.entrySet())
-        {
-            bldr.append(" ")
-                    .append(entry.getKey())
-                        .append("='")
-                            .append(entry.getValue())
-                                .append("'");
-        }
-
-        bldr.append(">");
+        appendStartTag(xml);
+        xml.append('>');
 
         if(displayText != null)
-            bldr.append("<").append(ELEMENT_DISPLAY_TEXT).append(">").append(
-                    displayText).append("</").append(
-                            ELEMENT_DISPLAY_TEXT).append(">");
+            appendTextElement(xml, ELEMENT_DISPLAY_TEXT, displayText);
 
         if(type != null)
-            bldr.append("<").append(ELEMENT_TYPE).append(">").append(
-                    type).append("</").append(
-                            ELEMENT_TYPE).append(">");
+            appendTextElement(xml, ELEMENT_TYPE, type);
 
         if(status != null)
-            bldr.append("<").append(ELEMENT_STATUS).append(">").append(
-                    status).append("</").append(
-                            ELEMENT_STATUS).append(">");
+            appendTextElement(xml, ELEMENT_STATUS, status);
 
         for(PacketExtension ext : getChildExtensions())
-        {
-            bldr.append(ext.toXML());
-        }
+            appendXML(xml, ext);
 
-        bldr.append("</").append(getElementName()).append(">");
-        return bldr.toString();
+        appendEndTag(xml);
     }
 }
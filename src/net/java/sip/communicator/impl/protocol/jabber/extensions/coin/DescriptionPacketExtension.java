@@ -140,57 +140,31 @@ public class DescriptionPacketExtension
     }
 
     /**
-     * Get an XML string representation.
+     * Appends an XML string representation to a <tt>StringBuilder</tt>.
      *
-     * @return XML string representation
+     * @param xml the <tt>StringBuilder</tt> to append to.
      */
     @Override
-    public String toXML()
+    public void toXML(StringBuilder xml)
     {
-        StringBuilder bldr = new StringBuilder();
-
-        bldr.append("<").append(getElementName()).append(" ");
-
-        if(getNamespace() != null)
-            bldr.append("xmlns='").append(getNamespace()).append("'");
-
-        //add the rest of the attributes if any
-        for(Map.Entry<String, Object> entry : attributes.entrySet())
-        {
-            bldr.append(" ")
-                    .append(entry.getKey())
-                        .append("='")
-                            .append(entry.getValue())
-                                .append("'");
-        }
-
-        bldr.append(">");
+        appendStartTag(xml);
+        xml.append('>');
 
         if(subject != null)
-            bldr.append("<").append(ELEMENT_SUBJECT).append(">").append(
-                    subject).append("</").append(ELEMENT_SUBJECT).append(">");
+            appendTextElement(xml, ELEMENT_SUBJECT, subject);
 
         if(displayText != null)
-            bldr.append("<").append(ELEMENT_DISPLAY_TEXT).append(">").append(
-                    displayText).append("</").append(
-                            ELEMENT_DISPLAY_TEXT).append(">");
+            appendTextElement(xml, ELEMENT_DISPLAY_TEXT, displayText);
 
         if(freeText != null)
-            bldr.append("<").append(ELEMENT_FREE_TEXT).append(">").append(
-                    freeText).append("</").append(
-                            ELEMENT_FREE_TEXT).append(">");
+            appendTextElement(xml, ELEMENT_FREE_TEXT, freeText);
 
         if(maximumUserCount != 0)
-            bldr.append("<").append(ELEMENT_MAX_USER_COUNT).append(">").append(
-                    maximumUserCount).append("</").append(
-                            ELEMENT_MAX_USER_COUNT).append(">");
+            appendTextElement(xml, ELEMENT_MAX_USER_COUNT, maximumUserCount);
 
         for(PacketExtension ext : getChildExtensions())
-        {
-            bldr.append(ext.toXML());
-        }
+            appendXML(xml, ext);
 
-        bldr.append("</").append(getElementName()).append(">");
-        return bldr.toString();
+        appendEndTag(xml);
     }
 }
@@ -172,57 +172,32 @@ public class EndpointPacketExtension
     }
 
     /**
-     * Returns an XML representation of this extension.
+     * Appends an XML representation of this extension to a
+     * <tt>StringBuilder</tt>.
      *
-     * @return an XML representation of this extension.
+     * @param xml the <tt>StringBuilder</tt> to append to.
      */
     @Override
-    public String toXML()
+    public void toXML(StringBuilder xml)
     {
-        StringBuilder bldr = new StringBuilder();
-
-        bldr.append("<").append(getElementName()).append(" ");
-
-        if(getNamespace() != null)
-            bldr.append("xmlns='").append(getNamespace()).append("'");
-
-        //add the rest of the attributes if any
-        for(Map.Entry<String, Object> entry : attributes.entrySet())
-        {
-            bldr.append(" ")
-                    .append(entry.getKey())
-                        .append("='")
-                            .append(entry.getValue())
-                                .append("'");
-        }
-
-        bldr.append(">");
+        appendStartTag(xml);
+        xml.append('>');
 
         if(displayText != null)
-            bldr.append("<").append(ELEMENT_DISPLAY_TEXT).append(">").append(
-                    displayText).append("</").append(
-                            ELEMENT_DISPLAY_TEXT).append(">");
+            appendTextElement(xml, ELEMENT_DISPLAY_TEXT, displayText);
+
         if(status != null)
-            bldr.append("<").append(ELEMENT_STATUS).append(">").append(
-                    status).append("</").append(
-                            ELEMENT_STATUS).append(">");
+            appendTextElement(xml, ELEMENT_STATUS, status);
 
         if(disconnectionType != null)
-            bldr.append("<").append(ELEMENT_DISCONNECTION).append(">").append(
-                    disconnectionType).append("</").append(
-                            ELEMENT_DISCONNECTION).append(">");
+            appendTextElement(xml, ELEMENT_DISCONNECTION, disconnectionType);
 
         if(joiningType != null)
-            bldr.append("<").append(ELEMENT_JOINING).append(">").append(
-                    joiningType).append("</").append(
-                            ELEMENT_JOINING).append(">");
+            appendTextElement(xml, ELEMENT_JOINING, joiningType);
 
         for(PacketExtension ext : getChildExtensions())
-        {
-            bldr.append(ext.toXML());
-        }
+            appendXML(xml, ext);
 
-        bldr.append("</").append(ELEMENT_NAME).append(">");
-        return bldr.toString();
+        appendEndTag(xml);
     }
 }
@@ -147,54 +147,28 @@ public class ExecutionPacketExtension
     }
 
     /**
-     * Get an XML string representation.
+     * Appends an XML string representation to a <tt>StringBuilder</tt>.
      *
-     * @return XML string representation
+     * @param xml the <tt>StringBuilder</tt> to append to.
      */
     @Override
-    public String toXML()
+    public void toXML(StringBuilder xml)
     {
-        StringBuilder bldr = new StringBuilder();
-
-        bldr.append("<").append(getElementName()).append(" ");
-
-        if(getNamespace() != null)
-            bldr.append("xmlns='").append(getNamespace()).append("'");
-
-        //add the rest of the attributes if any
-        for(Map.Entry<String, Object> entry : attributes.entrySet())
-        {
-            bldr.append(" ")
-                    .append(entry.getKey())
-                        .append("='")
-                            .append(entry.getValue())
-                                .append("'");
-        }
-
-        bldr.append(">");
+        appendStartTag(xml);
+        xml.append('>');
 
         if(by != null)
-            bldr.append("<").append(ELEMENT_BY).append(">").append(
-                    by).append("</").append(
-                            ELEMENT_BY).append(">");
+            appendTextElement(xml, ELEMENT_BY, by);
 
         if(when != null)
-            bldr.append("<").append(ELEMENT_WHEN).append(">").append(
-                    when).append("</").append(
-                            ELEMENT_WHEN).append(">");
+            appendTextElement(xml, ELEMENT_WHEN, when);
 
         if(reason != null)
-            bldr.append("<").append(ELEMENT_REASON).append(">").append(
-                    reason).append("</").append(
-                            ELEMENT_REASON).append(">");
-
+            appendTextElement(xml, ELEMENT_REASON, reason);
 
         for(PacketExtension ext : getChildExtensions())
-        {
-            bldr.append(ext.toXML());
-        }
+            appendXML(xml, ext);
 
-        bldr.append("</").append(getElementName()).append(">");
-        return bldr.toString();
+        appendEndTag(xml);
     }
 }
@@ -97,49 +97,25 @@ public class HostInfoPacketExtension
     }
 
     /**
-     * Get an XML string representation.
+     * Appends an XML string representation to a <tt>StringBuilder</tt>.
      *
-     * @return XML string representation
+     * @param xml the <tt>StringBuilder</tt> to append to.
      */
     @Override
-    public String toXML()
+    public void toXML(StringBuilder xml)
     {
-        StringBuilder bldr = new StringBuilder();
-
-        bldr.append("<").append(getElementName()).append(" ");
-
-        if(getNamespace() != null)
-            bldr.append("xmlns='").append(getNamespace()).append("'");
-
-        //add the rest of the attributes if any
-        for(Map.Entry<String, Object> entry : attributes.entrySet())
-        {
-            bldr.append(" ")
-                    .append(entry.getKey())
-                        .append("='")
-                            .append(entry.getValue())
-                                .append("'");
-        }
-
-        bldr.append(">");
+        appendStartTag(xml);
+        xml.append('>');
 
         if(displayText != null)
-            bldr.append("<").append(ELEMENT_DISPLAY_TEXT).append(">").append(
-                    displayText).append("</").append(
-                            ELEMENT_DISPLAY_TEXT).append(">");
+            appendTextElement(xml, ELEMENT_DISPLAY_TEXT, displayText);
 
         if(webPage != null)
-            bldr.append("<").append(ELEMENT_WEB_PAGE).append(">").append(
-                    webPage).append("</").append(
-                            ELEMENT_WEB_PAGE).append(">");
+            appendTextElement(xml, ELEMENT_WEB_PAGE, webPage);
 
         for(PacketExtension ext : getChildExtensions())
-        {
-            bldr.append(ext.toXML());
-        }
-
-        bldr.append("</").append(ELEMENT_NAME).append(">");
+            appendXML(xml, ext);
 
-        return bldr.toString();
+        appendEndTag(xml);
     }
 }
@@ -79,59 +79,32 @@ public class SIPDialogIDPacketExtension
     }
 
     /**
-     * Returns an XML representation of this extension.
+     * Appends an XML representation of this extension to a
+     * <tt>StringBuilder</tt>.
      *
-     * @return an XML representation of this extension.
+     * @param xml the <tt>StringBuilder</tt> to append to.
      */
     @Override
-    public String toXML()
+    public void toXML(StringBuilder xml)
     {
-        StringBuilder bldr = new StringBuilder();
-
-        bldr.append("<").append(getElementName()).append(" ");
-
-        if(getNamespace() != null)
-            bldr.append("xmlns='").append(getNamespace()).append("'");
-
-        //add the rest of the attributes if any
-        for(Map.Entry<String, Object> entry : attributes.entrySet())
-        {
-            bldr.append(" ")
-                    .append(entry.getKey())
-                        .append("='")
-                            .append(entry.getValue())
-                                .append("'");
-        }
-
-        bldr.append(">");
+        appendStartTag(xml);
+        xml.append('>');
 
         if(displayText != null)
-            bldr.append("<").append(ELEMENT_DISPLAY_TEXT).append(">").append(
-                    displayText).append("</").append(
-                            ELEMENT_DISPLAY_TEXT).append(">");
+            appendTextElement(xml, ELEMENT_DISPLAY_TEXT, displayText);
 
         if(callID != null)
-            bldr.append("<").append(ELEMENT_CALLID).append(">").append(
-                    callID).append("</").append(
-                            ELEMENT_CALLID).append(">");
+            appendTextElement(xml, ELEMENT_CALLID, callID);
 
         if(fromTag != null)
-            bldr.append("<").append(ELEMENT_FROMTAG).append(">").append(
-                    fromTag).append("</").append(
-                            ELEMENT_FROMTAG).append(">");
+            appendTextElement(xml, ELEMENT_FROMTAG, fromTag);
 
         if(toTag != null)
-            bldr.append("<").append(ELEMENT_TOTAG).append(">").append(
-                    toTag).append("</").append(
-                            ELEMENT_TOTAG).append(">");
+            appendTextElement(xml, ELEMENT_TOTAG, toTag);
 
         for(PacketExtension ext : getChildExtensions())
-        {
-            bldr.append(ext.toXML());
-        }
-
-        bldr.append("</").append(getElementName()).append(">");
+            appendXML(xml, ext);
 
-        return bldr.toString();
+        appendEndTag(xml);
     }
 }
@@ -129,53 +129,28 @@ public class StatePacketExtension
     }
 
     /**
-     * Get an XML string representation.
+     * Appends an XML string representation to a <tt>StringBuilder</tt>.
      *
-     * @return XML string representation
+     * @param xml the <tt>StringBuilder</tt> to append to.
      */
     @Override
-    public String toXML()
+    public void toXML(StringBuilder xml)
     {
-       StringBuilder bldr = new StringBuilder();
-
-       bldr.append("<").append(getElementName()).append(" ");
-
-       if(getNamespace() != null)
-           bldr.append("xmlns='").append(getNamespace()).append("'");
-
-       //add the rest of the attributes if any
-       for(Map.Entry<String, Object> entry : attributes.entrySet())
-       {
-           bldr.append(" ")
-                   .append(entry.getKey())
-                       .append("='")
-                           .append(entry.getValue())
-                               .append("'");
-       }
-
-       bldr.append(">");
-
-       if(userCount != 0)
-           bldr.append("<").append(ELEMENT_USER_COUNT).append(">").append(
-                   userCount).append("</").append(ELEMENT_USER_COUNT).append(
-                           ">");
-
-       if(active != -1)
-           bldr.append("<").append(ELEMENT_ACTIVE).append(">").append(
-                   (active > 0)).append("</").append(ELEMENT_ACTIVE).append(
-                           ">");
-
-       if(locked != -1)
-           bldr.append("<").append(ELEMENT_LOCKED).append(">").append(
-                   (active > 0)).append("</").append(ELEMENT_LOCKED).append(
-                           ">");
-
-       for(PacketExtension ext : getChildExtensions())
-       {
-           bldr.append(ext.toXML());
-       }
-
-       bldr.append("</").append(getElementName()).append(">");
-       return bldr.toString();
+        appendStartTag(xml);
+        xml.append('>');
+
+        if(userCount != 0)
+            appendTextElement(xml, ELEMENT_USER_COUNT, userCount);
+
+        if(active != -1)
+            appendTextElement(xml, ELEMENT_ACTIVE, active > 0);
+
+        if(locked != -1)
+            appendTextElement(xml, ELEMENT_LOCKED, active > 0);
+
+        for(PacketExtension ext : getChildExtensions())
+            appendXML(xml, ext);
+
+        appendEndTag(xml);
     }
 }
@@ -69,45 +69,23 @@ public class UserRolesPacketExtension
     }
 
     /**
-     * Returns an XML representation of this extension.
+     * Appends an XML representation of this extension to a
+     * <tt>StringBuilder</tt>.
      *
-     * @return an XML representation of this extension.
+     * @param xml the <tt>StringBuilder</tt> to append to.
      */
     @Override
-    public String toXML()
+    public void toXML(StringBuilder xml)
     {
-        StringBuilder bldr = new StringBuilder();
-
-        bldr.append("<").append(getElementName()).append(" ");
-
-        if(getNamespace() != null)
-            bldr.append("xmlns='").append(getNamespace()).append("'");
-
-        //add the rest of the attributes if any
-        for(Map.Entry<String, Object> entry : attributes.entrySet())
-        {
-            bldr.append(" ")
-                    .append(entry.getKey())
-                        .append("='")
-                            .append(entry.getValue())
-                                .append("'");
-        }
-
-        bldr.append(">");
+        appendStartTag(xml);
+        xml.append('>');
 
         for(String role : roles)
-        {
-            bldr.append("<").append(ELEMENT_ROLE).append(">").append(
-                    role).append("</").append(ELEMENT_ROLE).append(">");
-        }
+            appendTextElement(xml, ELEMENT_ROLE, role);
 
         for(PacketExtension ext : getChildExtensions())
-        {
-            bldr.append(ext.toXML());
-        }
-
-        bldr.append("</").append(getElementName()).append(">");
+            appendXML(xml, ext);
 
-        return bldr.toString();
+        appendEndTag(xml);
     }
 }
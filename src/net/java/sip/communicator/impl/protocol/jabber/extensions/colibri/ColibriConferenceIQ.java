@@ -267,7 +267,7 @@ public class ColibriConferenceIQ
             if (rtcpTerminationStrategy != null)
                 rtcpTerminationStrategy.toXML(xml);
             if (gracefulShutdown)
-                xml.append(new GracefulShutdown().toXML());
+                new GracefulShutdown().toXML(xml);
 
             xml.append("</").append(ELEMENT_NAME).append('>');
         }
@@ -1042,17 +1042,17 @@ public class ColibriConferenceIQ
             int[] ssrcs = getSSRCs();
 
             for (PayloadTypePacketExtension payloadType : payloadTypes)
-                xml.append(payloadType.toXML());
+                payloadType.toXML(xml);
 
             for (RTPHdrExtPacketExtension ext : rtpHdrExtPacketExtensions)
-                xml.append(ext.toXML());
+                ext.toXML(xml);
 
             for (SourcePacketExtension source : sources)
-                xml.append(source.toXML());
+                source.toXML(xml);
 
             if (sourceGroups != null && sourceGroups.size() != 0)
                 for (SourceGroupPacketExtension sourceGroup : sourceGroups)
-                    xml.append(sourceGroup.toXML());
+                    sourceGroup.toXML(xml);
 
             for (int i = 0; i < ssrcs.length; i++)
             {
@@ -1401,7 +1401,7 @@ public class ColibriConferenceIQ
             if (transport != null)
             {
                 xml.append('>');
-                xml.append(transport.toXML());
+                transport.toXML(xml);
                 xml.append("</").append(ELEMENT_NAME).append('>');
             }
             else
@@ -1742,7 +1742,7 @@ public class ColibriConferenceIQ
                 if(hasContent())
                     printContent(xml);
                 if (hasTransport)
-                    xml.append(transport.toXML());
+                    transport.toXML(xml);
                 xml.append("</").append(elementName).append('>');
             }
             else
@@ -137,9 +137,7 @@ public class JingleIQ extends IQ
 
             //content
             for(ContentPacketExtension cpe : contentList)
-            {
-                bldr.append(cpe.toXML());
-            }
+                cpe.toXML(bldr);
 
             //reason
             if (reason != null)
@@ -149,7 +147,7 @@ public class JingleIQ extends IQ
             //XXX: this is RTP specific so we should probably handle it in a
             //subclass
             if (sessionInfo != null)
-                bldr.append(sessionInfo.toXML());
+                sessionInfo.toXML(bldr);
 
             // extensions
             if ((extensionsXML != null) && (extensionsXML.length() != 0))
@@ -6,6 +6,8 @@
  */
 package net.java.sip.communicator.impl.protocol.jabber.extensions.jingleinfo;
 
+import net.java.sip.communicator.impl.protocol.jabber.extensions.*;
+
 import org.jivesoftware.smack.packet.*;
 
 /**
@@ -50,9 +52,7 @@ public class JingleInfoQueryIQ
             bld.append(">");
 
             for(PacketExtension pe : getExtensions())
-            {
-                bld.append(pe.toXML());
-            }
+                AbstractPacketExtension.appendXML(bld, pe);
 
             bld.append("</").append(ELEMENT_NAME).append(">");
         }
@@ -62,30 +62,21 @@ public class RelayPacketExtension
     }
 
     /**
-     * Get an XML string representation.
+     * Appends an XML string representation to a <tt>StringBuilder</tt>.
      *
-     * @return XML string representation
+     * @param xml the <tt>StringBuilder</tt> to append to.
      */
     @Override
-    public String toXML()
+    public void toXML(StringBuilder xml)
     {
-        StringBuilder bld = new StringBuilder();
-
-        bld.append("<").append(ELEMENT_NAME).append(">");
+        xml.append("<").append(ELEMENT_NAME).append(">");
 
         if(token != null)
-        {
-            bld.append("<").append("token").append(">");
-            bld.append(token);
-            bld.append("</").append("token").append(">");
-        }
+            appendTextElement(xml, "token", token);
 
         for(PacketExtension pe : getChildExtensions())
-        {
-            bld.append(pe.toXML());
-        }
-        bld.append("</").append(ELEMENT_NAME).append(">");
+            appendXML(xml, pe);
 
-        return bld.toString();
+        xml.append("</").append(ELEMENT_NAME).append(">");
     }
 }
@@ -6,6 +6,8 @@
  */
 package net.java.sip.communicator.impl.protocol.jabber.extensions.jirecon;
 
+import net.java.sip.communicator.impl.protocol.jabber.extensions.*;
+
 import org.jitsi.util.*;
 
 import org.jivesoftware.smack.packet.*;
@@ -109,9 +111,7 @@ public class JireconIq
         {
             xml.append(">");
             for (PacketExtension extension : extensions)
-            {
-                xml.append(extension.toXML());
-            }
+                AbstractPacketExtension.appendXML(xml, extension);
             xml.append("</").append(ELEMENT_NAME).append(">");
         }
         else
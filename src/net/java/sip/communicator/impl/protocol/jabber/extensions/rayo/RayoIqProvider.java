@@ -261,9 +261,7 @@ public class RayoIqProvider
             {
                 xml.append(">");
                 for (PacketExtension extension : extensions)
-                {
-                    xml.append(extension.toXML());
-                }
+                    AbstractPacketExtension.appendXML(xml, extension);
                 xml.append("</").append(elementName).append(">");
             }
             else
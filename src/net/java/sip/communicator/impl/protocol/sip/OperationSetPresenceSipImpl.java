@@ -7,6 +7,7 @@
 package net.java.sip.communicator.impl.protocol.sip;
 
 import java.net.URI;
+import java.io.*;
 import java.text.*;
 import java.util.*;
 
@@ -14,12 +15,17 @@ import javax.sip.*;
 import javax.sip.address.*;
 import javax.sip.header.*;
 import javax.sip.message.*;
+import javax.xml.parsers.*;
+import javax.xml.transform.*;
+import javax.xml.transform.dom.*;
+import javax.xml.transform.stream.*;
 
 import net.java.sip.communicator.service.protocol.*;
 import net.java.sip.communicator.service.protocol.event.*;
 import net.java.sip.communicator.service.protocol.sip.*;
 import net.java.sip.communicator.util.*;
 
+import org.jitsi.util.StringUtils;
 import org.jitsi.util.xml.XMLUtils;
 import org.w3c.dom.*;
 
@@ -85,6 +91,19 @@ public class OperationSetPresenceSipImpl
      */
     private static final int REFRESH_MARGIN = 60;
 
+    /**
+     * The interval in milliseconds between two runs of the task polling the
+     * offline contacts.
+     */
+    private static final int POLLING_TICK = 1000;
+
+    /**
+     * The maximum number of SUBSCRIBE requests sent to poll offline contacts
+     * in a run of the polling task, so that a large contact list does not
+     * send them all at once to the registrar.
+     */
+    private static final int MAX_POLLS_PER_TICK = 20;
+
     /**
      * User chosen expiration value of any of our subscriptions.
      * Currently, the value is the default value defined in the rfc.
@@ -121,6 +140,36 @@ public class OperationSetPresenceSipImpl
      */
     private final boolean presenceEnabled;
 
+    /**
+     * The <tt>DocumentBuilder</tt> of every thread parsing and creating
+     * presence documents. Looking up a <tt>DocumentBuilderFactory</tt> is
+     * expensive and was done for every NOTIFY and PUBLISH body.
+     */
+    private static final ThreadLocal<DocumentBuilder> documentBuilders
+        = new ThreadLocal<DocumentBuilder>();
+
+    /**
+     * The <tt>Transformer</tt> of every thread serializing presence
+     * documents.
+     */
+    private static final ThreadLocal<Transformer> transformers
+        = new ThreadLocal<Transformer>();
+
+    /**
+     * The maximum number of PIDF documents kept in
+     * <tt>pidfDocuments</tt>, we have one local contact per registrar or
+     * peer we publish or notify our status to.
+     */
+    private static final int PIDF_DOCUMENT_CACHE_SIZE = 16;
+
+    /**
+     * The last PIDF documents generated by <tt>getPidfPresenceStatus</tt> by
+     * local contact URI, only generated again when the status they describe
+     * changes.
+     */
+    private final Map<String, PidfDocument> pidfDocuments
+        = new HashMap<String, PidfDocument>();
+
     private final SipStatusEnum sipStatusEnum;
 
     /**
@@ -1913,7 +1962,7 @@ public class OperationSetPresenceSipImpl
     {
         try
         {
-            return XMLUtils.createDocument();
+            return getDocumentBuilder().newDocument();
         }
         catch (Exception e)
         {
@@ -1934,7 +1983,12 @@ public class OperationSetPresenceSipImpl
     {
         try
         {
-            return XMLUtils.createXml(document);
+            StringWriter writer = new StringWriter();
+
+            getTransformer().transform(
+                    new DOMSource(document),
+                    new StreamResult(writer));
+            return writer.toString();
         }
         catch (Exception e)
         {
@@ -1955,7 +2009,12 @@ public class OperationSetPresenceSipImpl
     {
         try
         {
-            return XMLUtils.createDocument(document);
+            DocumentBuilder builder = getDocumentBuilder();
+
+            return
+                StringUtils.isNullOrEmpty(document)
+                    ? builder.newDocument()
+                    : builder.parse(StringUtils.fromString(document));
         }
         catch (Exception e)
         {
@@ -1964,6 +2023,55 @@ public class OperationSetPresenceSipImpl
         }
     }
 
+    /**
+     * Returns the <tt>DocumentBuilder</tt> of the current thread, configured
+     * like the ones of <tt>XMLUtils.createDocument</tt>.
+     *
+     * @return the <tt>DocumentBuilder</tt> of the current thread
+     * @throws ParserConfigurationException if the builder cannot be created
+     */
+    private static DocumentBuilder getDocumentBuilder()
+        throws ParserConfigurationException
+    {
+        DocumentBuilder builder = documentBuilders.get();
+
+        if (builder == null)
+        {
+            DocumentBuilderFactory factory
+                = XMLUtils.newDocumentBuilderFactory(false);
+
+            factory.setNamespaceAware(true);
+            builder = factory.newDocumentBuilder();
+            documentBuilders.set(builder);
+        }
+        else
+            builder.reset();
+        return builder;
+    }
+
+    /**
+     * Returns the <tt>Transformer</tt> of the current thread, configured
+     * like the ones of <tt>XMLUtils.createXml</tt>.
+     *
+     * @return the <tt>Transformer</tt> of the current thread
+     * @throws TransformerConfigurationException if the transformer cannot be
+     * created
+     */
+    private static Transformer getTransformer()
+        throws TransformerConfigurationException
+    {
+        Transformer transformer = transformers.get();
+
+        if (transformer == null)
+        {
+            transformer = TransformerFactory.newInstance().newTransformer();
+            transformers.set(transformer);
+        }
+        else
+            transformer.reset();
+        return transformer;
+    }
+
     /**
      * Converts the <tt>PresenceStatus</tt> of <tt>contact</tt> into a PIDF
      * document.
@@ -1975,13 +2083,24 @@ public class OperationSetPresenceSipImpl
      */
      public byte[] getPidfPresenceStatus(ContactSipImpl contact)
      {
+         String contactUri = contact.getSipAddress().getURI().toString();
+         PresenceStatus presenceStatus = contact.getPresenceStatus();
+         URI imageUri = ssContactList.getImageUri();
+         PidfDocument pidfDocument;
+
+         synchronized (pidfDocuments)
+         {
+             pidfDocument = pidfDocuments.get(contactUri);
+         }
+         if (pidfDocument != null
+                 && pidfDocument.describes(presenceStatus, imageUri))
+             return pidfDocument.content.clone();
+
          Document doc = this.createDocument();
 
          if (doc == null)
              return null;
 
-         String contactUri = contact.getSipAddress().getURI().toString();
-
          // <presence>
          Element presence = doc.createElement(PRESENCE_ELEMENT);
          presence.setAttribute(NS_ELEMENT, PIDF_NS_VALUE);
@@ -2000,7 +2119,6 @@ public class OperationSetPresenceSipImpl
          person.appendChild(activities);
 
          // <status-icon>
-         URI imageUri = ssContactList.getImageUri();
          if(imageUri != null)
          {
              Element statusIcon = doc.createElement(NS_STATUS_ICON_ELT);
@@ -2068,7 +2186,17 @@ public class OperationSetPresenceSipImpl
          if (res == null)
              return null;
 
-         return res.getBytes();
+         byte[] content = res.getBytes();
+
+         synchronized (pidfDocuments)
+         {
+             if (pidfDocuments.size() >= PIDF_DOCUMENT_CACHE_SIZE)
+                 pidfDocuments.clear();
+             pidfDocuments.put(
+                     contactUri,
+                     new PidfDocument(presenceStatus, imageUri, content));
+         }
+         return content.clone();
      }
 
      /**
@@ -2842,6 +2970,37 @@ public class OperationSetPresenceSipImpl
          return curStatus;
      }
 
+     /**
+      * Polls a contact the way {@link #forcePollContact(ContactSipImpl)}
+      * does, telling whether a SUBSCRIBE request was sent.
+      *
+      * @param contact the contact to poll
+      * @return <tt>true</tt> if we were not subscribed to <tt>contact</tt>
+      * and a SUBSCRIBE request was sent, otherwise <tt>false</tt>
+      */
+     private boolean pollContact(ContactSipImpl contact)
+     {
+         if (this.presenceEnabled == false
+             || !contact.isResolvable()
+             || !contact.isPersistent())
+             return false;
+
+         try
+         {
+             if (subscriber.getSubscription(getAddress(contact), null)
+                     != null)
+                 return false;
+
+             subscriber.subscribe(new PresenceSubscriberSubscription(contact));
+             return true;
+         }
+         catch (OperationFailedException ex)
+         {
+             logger.error("Failed to create and send the subcription", ex);
+             return false;
+         }
+     }
+
      /**
       * Forces the poll of a contact to update its current state.
       *
@@ -3019,45 +3178,80 @@ public class OperationSetPresenceSipImpl
      }
 
      /**
-      * A task handling polling of offline contacts.
+      * A task handling polling of offline contacts. Every polling period the
+      * contacts are shuffled and spread over the period, and a run polls at
+      * most <tt>MAX_POLLS_PER_TICK</tt> contacts we are not subscribed to,
+      * so that the SUBSCRIBE requests of a large contact list are neither
+      * sent at once nor at the same time by all the clients of a registrar.
+      * A new round starts once the contacts of the previous one are polled.
       */
      private class PollOfflineContactsTask extends TimerTask
      {
          /**
-          * Check if we can't subscribe to this contact now
+          * The source of the order in which the contacts are polled.
           */
-         @Override
-        public void run()
-         {
-             // send a subscription for every contact
-             Iterator<Contact> rootContactsIter
-                = getServerStoredContactListRoot().contacts();
+         private final Random random = new Random();
 
-            while (rootContactsIter.hasNext())
-            {
-                ContactSipImpl contact =
-                    (ContactSipImpl) rootContactsIter.next();
+         /**
+          * The contacts of the current round.
+          */
+         private List<ContactSipImpl> contacts
+             = Collections.emptyList();
 
-                 // poll this contact
-                 forcePollContact(contact);
-             }
+         /**
+          * The index in <tt>contacts</tt> of the next contact to poll.
+          */
+         private int next = 0;
+
+         /**
+          * The time the current round started.
+          */
+         private long roundStart = 0;
+
+         /**
+          * The time the next round may start, 0 before the first round.
+          */
+         private long nextRoundStart = 0;
+
+         /**
+          * The time in milliseconds the contacts of the current round are
+          * spread over, 0 for the first round which polls them as fast as
+          * allowed.
+          */
+         private long roundPeriod = 0;
 
-             Iterator<ContactGroup> groupsIter
-                 = getServerStoredContactListRoot().subgroups();
+         /**
+          * Polls the contacts of the current round which are due.
+          */
+         @Override
+         public void run()
+         {
+             long now = System.currentTimeMillis();
 
-             while (groupsIter.hasNext())
+             if (next >= contacts.size())
              {
-                 ContactGroup group = groupsIter.next();
-                 Iterator<Contact> contactsIter = group.contacts();
+                 if (now < nextRoundStart)
+                     return;
+
+                 contacts
+                     = ssContactList.getUniqueContacts(
+                             ssContactList.getRootGroup());
+                 Collections.shuffle(contacts, random);
+                 next = 0;
+                 roundPeriod = (nextRoundStart == 0) ? 0 : pollingTaskPeriod;
+                 roundStart = now;
+                 nextRoundStart = now + pollingTaskPeriod;
+             }
 
-                 while (contactsIter.hasNext())
-                 {
-                     ContactSipImpl contact
-                         = (ContactSipImpl) contactsIter.next();
+             int polls = 0;
 
-                     // poll this contact
-                     forcePollContact(contact);
-                 }
+             while ((next < contacts.size())
+                     && (polls < MAX_POLLS_PER_TICK)
+                     && (now - roundStart
+                             >= roundPeriod * next / contacts.size()))
+             {
+                 if (pollContact(contacts.get(next++)))
+                     polls++;
              }
          }
      }
@@ -3151,18 +3345,12 @@ public class OperationSetPresenceSipImpl
                 return;
             }
 
-            // Subcribe to each contact in the list
-            for (ContactSipImpl contact : ssContactList
-                    .getAllContacts(ssContactList.getRootGroup()))
-            {
-                forcePollContact(contact);
-            }
-
             // create the new polling task
             pollingTask = new PollOfflineContactsTask();
 
-            // start polling the offline contacts
-            timer.schedule(pollingTask, pollingTaskPeriod, pollingTaskPeriod);
+            // subscribe to each contact in the list, then keep polling the
+            // offline ones
+            timer.schedule(pollingTask, 0, POLLING_TICK);
 
             if(this.useDistantPA)
             {
@@ -3728,4 +3916,58 @@ public class OperationSetPresenceSipImpl
             logger.error("Subscription to presence watcher info terminated!");
         }
     }
+
+    /**
+     * A PIDF document generated by <tt>getPidfPresenceStatus</tt> with the
+     * state it describes.
+     */
+    private static class PidfDocument
+    {
+        /**
+         * The presence status described by the document.
+         */
+        private final PresenceStatus presenceStatus;
+
+        /**
+         * The status icon of the document or <tt>null</tt> if there is none.
+         */
+        private final URI imageUri;
+
+        /**
+         * The serialized document.
+         */
+        private final byte[] content;
+
+        /**
+         * Creates a <tt>PidfDocument</tt>.
+         *
+         * @param presenceStatus the presence status described by the
+         * document
+         * @param imageUri the status icon of the document or <tt>null</tt>
+         * @param content the serialized document
+         */
+        PidfDocument(PresenceStatus presenceStatus, URI imageUri,
+                     byte[] content)
+        {
+            this.presenceStatus = presenceStatus;
+            this.imageUri = imageUri;
+            this.content = content;
+        }
+
+        /**
+         * Checks whether the document describes a state.
+         *
+         * @param presenceStatus the presence status
+         * @param imageUri the status icon or <tt>null</tt>
+         * @return <tt>true</tt> if the document describes
+         * <tt>presenceStatus</tt> and <tt>imageUri</tt>
+         */
+        boolean describes(PresenceStatus presenceStatus, URI imageUri)
+        {
+            return this.presenceStatus.equals(presenceStatus)
+                && ((this.imageUri == null)
+                        ? (imageUri == null)
+                        : this.imageUri.equals(imageUri));
+        }
+    }
 }
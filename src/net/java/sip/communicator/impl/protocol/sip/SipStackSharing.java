@@ -82,6 +82,17 @@ public class SipStackSharing
     private final Set<ProtocolProviderServiceSipImpl> listeners
         = new HashSet<ProtocolProviderServiceSipImpl>();
 
+    /**
+     * The <tt>listeners</tt> by the user ID of their account, so that a
+     * request is matched against the accounts of its Request-URI user only
+     * rather than against every account. A listener is added when it
+     * registers and removed when it unregisters, and its account does not
+     * change in between. Guarded by <tt>listeners</tt>.
+     */
+    private final Map<String, List<ProtocolProviderServiceSipImpl>>
+        listenersByUserID
+            = new HashMap<String, List<ProtocolProviderServiceSipImpl>>();
+
     /**
      * The property indicating the preferred UDP and TCP
      * port to bind to for clear communications.
@@ -160,7 +171,20 @@ public class SipStackSharing
         {
             if(this.listeners.size() == 0)
                 startListening();
-            this.listeners.add(listener);
+            if (this.listeners.add(listener))
+            {
+                String userID = listener.getAccountID().getUserID();
+                List<ProtocolProviderServiceSipImpl> userListeners
+                    = listenersByUserID.get(userID);
+
+                if (userListeners == null)
+                {
+                    userListeners
+                        = new ArrayList<ProtocolProviderServiceSipImpl>(1);
+                    listenersByUserID.put(userID, userListeners);
+                }
+                userListeners.add(listener);
+            }
             if (logger.isTraceEnabled())
                 logger.trace(this.listeners.size() + " listeners now");
         }
@@ -177,7 +201,19 @@ public class SipStackSharing
     {
         synchronized(this.listeners)
         {
-            this.listeners.remove(listener);
+            if (this.listeners.remove(listener))
+            {
+                String userID = listener.getAccountID().getUserID();
+                List<ProtocolProviderServiceSipImpl> userListeners
+                    = listenersByUserID.get(userID);
+
+                if (userListeners != null)
+                {
+                    userListeners.remove(listener);
+                    if (userListeners.isEmpty())
+                        listenersByUserID.remove(userID);
+                }
+            }
 
             int listenerCount = listeners.size();
             if (logger.isTraceEnabled())
@@ -200,6 +236,28 @@ public class SipStackSharing
         }
     }
 
+    /**
+     * Returns a copy of the <tt>listeners</tt> whose account has a specific
+     * user ID.
+     *
+     * @param userID the user ID.
+     * @return the listeners whose account has <tt>userID</tt> as user ID.
+     */
+    private List<ProtocolProviderServiceSipImpl> getSipListeners(String userID)
+    {
+        synchronized(this.listeners)
+        {
+            List<ProtocolProviderServiceSipImpl> userListeners
+                = listenersByUserID.get(userID);
+
+            return
+                (userListeners == null)
+                    ? new ArrayList<ProtocolProviderServiceSipImpl>()
+                    : new ArrayList<ProtocolProviderServiceSipImpl>(
+                            userListeners);
+        }
+    }
+
     /**
      * Returns the JAIN-SIP <tt>ListeningPoint</tt> associated to the given
      * transport string.
@@ -868,43 +926,27 @@ public class SipStackSharing
             return null;
         }
 
-        List<ProtocolProviderServiceSipImpl> currentListenersCopy
-            = new ArrayList<ProtocolProviderServiceSipImpl>(
-                                this.getSipListeners());
-
-        // Let's first narrow down candidate choice by comparing
-        // addresses and ports (no point in delivering to a provider with a
-        // non matching IP address  since they will reject it anyway).
-        filterByAddress(currentListenersCopy, request);
-
-        if(currentListenersCopy.size() == 0)
-        {
-            logger.error("no listeners");
-            return null;
-        }
-
         URI requestURI = request.getRequestURI();
 
         if(requestURI.isSipURI())
         {
             String requestUser = ((SipURI) requestURI).getUser();
 
-            List<ProtocolProviderServiceSipImpl> candidates =
-                new ArrayList<ProtocolProviderServiceSipImpl>();
-
             // check if the Request-URI username is
             // one of ours usernames
-            for(ProtocolProviderServiceSipImpl listener : currentListenersCopy)
+            List<ProtocolProviderServiceSipImpl> candidates
+                = getSipListeners(requestUser);
+
+            // Let's narrow down candidate choice by comparing
+            // addresses and ports (no point in delivering to a provider with a
+            // non matching IP address  since they will reject it anyway).
+            filterByAddress(candidates, request);
+
+            if (logger.isTraceEnabled())
             {
-                String ourUserID = listener.getAccountID().getUserID();
-                //logger.trace(ourUserID + " *** " + requestUser);
-                if(ourUserID.equals(requestUser))
-                {
-                    if (logger.isTraceEnabled())
-                        logger.trace("suitable candidate found: "
-                                + listener.getAccountID());
-                    candidates.add(listener);
-                }
+                for(ProtocolProviderServiceSipImpl candidate : candidates)
+                    logger.trace("suitable candidate found: "
+                            + candidate.getAccountID());
             }
 
             // the perfect match
@@ -986,6 +1028,18 @@ public class SipStackSharing
             }
 
             // fallback on any account
+            List<ProtocolProviderServiceSipImpl> currentListenersCopy
+                = new ArrayList<ProtocolProviderServiceSipImpl>(
+                                    this.getSipListeners());
+
+            filterByAddress(currentListenersCopy, request);
+
+            if(currentListenersCopy.size() == 0)
+            {
+                logger.error("no listeners");
+                return null;
+            }
+
             ProtocolProviderServiceSipImpl target =
                 currentListenersCopy.iterator().next();
             if (logger.isDebugEnabled())
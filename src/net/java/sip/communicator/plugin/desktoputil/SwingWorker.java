@@ -224,6 +224,17 @@ public abstract class SwingWorker
             executorService = SwingWorker.executorService;
         }
 
+        start(executorService);
+    }
+
+    /**
+     * Start the worker in a thread of the given executor, so callers
+     * starting many workers can bound the number of threads running them.
+     *
+     * @param executorService the executor to run the worker with
+     */
+    public void start(ExecutorService executorService)
+    {
         synchronized (this)
         {
             if (future == null || future.isDone())
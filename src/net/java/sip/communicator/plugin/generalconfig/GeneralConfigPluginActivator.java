@@ -15,6 +15,7 @@ import javax.swing.border.*;
 import net.java.sip.communicator.plugin.generalconfig.autoaway.*;
 import net.java.sip.communicator.plugin.desktoputil.*;
 import net.java.sip.communicator.service.gui.*;
+import net.java.sip.communicator.service.history.*;
 import net.java.sip.communicator.service.msghistory.*;
 import net.java.sip.communicator.service.protocol.*;
 import net.java.sip.communicator.service.resources.*;
@@ -81,6 +82,11 @@ public class GeneralConfigPluginActivator
      */
     private static MessageHistoryService messageHistoryService;
 
+    /**
+     * The history service.
+     */
+    private static HistoryService historyService;
+
     /**
      * Indicates if the general configuration form should be disabled, i.e.
      * not visible to the user.
@@ -164,6 +170,15 @@ public class GeneralConfigPluginActivator
                         "plugin.generalconfig.OPUS_CONFIG",
                         20, true),
                 properties);
+        bundleContext.registerService(
+                ConfigurationForm.class.getName(),
+                new LazyConfigurationForm(
+                        HistoryCacheConfigForm.class.getName(),
+                        getClass().getClassLoader(),
+                        null,
+                        "plugin.generalconfig.HISTORY_CACHE_CONFIG",
+                        30, true),
+                properties);
 
         try
         {
@@ -398,6 +413,19 @@ public class GeneralConfigPluginActivator
         return messageHistoryService;
     }
 
+    /**
+     * Returns the <tt>HistoryService</tt> obtained from the bundle context.
+     *
+     * @return the <tt>HistoryService</tt> obtained from the bundle context
+     */
+    public static HistoryService getHistoryService()
+    {
+        if (historyService == null)
+            historyService = ServiceUtils.getService(bundleContext,
+                HistoryService.class);
+        return historyService;
+    }
+
     /**
      * Creates a config section label from the given text.
      * @param labelText the text of the label.
@@ -0,0 +1,232 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package net.java.sip.communicator.plugin.generalconfig;
+
+import java.awt.*;
+import java.awt.event.*;
+
+import javax.swing.*;
+
+import net.java.sip.communicator.plugin.desktoputil.*;
+import net.java.sip.communicator.service.history.*;
+
+import org.jitsi.service.configuration.*;
+
+/**
+ * Implements the configuration panel of the cache of parsed history
+ * documents, showing its current state and the state of the queue of
+ * history files waiting to be written.
+ */
+public class HistoryCacheConfigForm
+        extends TransparentPanel
+{
+    /**
+     * Serial version UID.
+     */
+    private static final long serialVersionUID = 0L;
+
+    /**
+     * The "cache enabled" checkbox.
+     */
+    private final JCheckBox enabledCheckbox = new SIPCommCheckBox();
+
+    /**
+     * The "maximum number of documents" field.
+     */
+    private final JTextField maxDocumentsField = new JTextField(6);
+
+    /**
+     * The "maximum memory" field.
+     */
+    private final JTextField maxSizeField = new JTextField(6);
+
+    /**
+     * Shows the counters of the cache.
+     */
+    private final JLabel statisticsLabel = new JLabel();
+
+    /**
+     * Shows the counters of the write queue.
+     */
+    private final JLabel writeStatisticsLabel = new JLabel();
+
+    /**
+     * The <tt>ConfigurationService</tt> to be used to access configuration
+     */
+    private final ConfigurationService configurationService
+            = GeneralConfigPluginActivator.getConfigurationService();
+
+    /**
+     * Initialize a new <tt>HistoryCacheConfigForm</tt> instance.
+     */
+    public HistoryCacheConfigForm()
+    {
+        super(new BorderLayout());
+        Box box = Box.createVerticalBox();
+        add(box, BorderLayout.NORTH);
+
+        TransparentPanel contentPanel = new TransparentPanel();
+        contentPanel.setLayout(new BorderLayout(10, 10));
+
+        box.add(contentPanel);
+
+        TransparentPanel labelPanel
+                = new TransparentPanel(new GridLayout(0, 1, 2, 2));
+        TransparentPanel valuePanel
+                = new TransparentPanel(new GridLayout(0, 1, 2, 2));
+        TransparentPanel southPanel
+                = new TransparentPanel(new GridLayout(0, 1, 2, 2));
+
+        contentPanel.add(labelPanel, BorderLayout.WEST);
+        contentPanel.add(valuePanel, BorderLayout.CENTER);
+        contentPanel.add(southPanel, BorderLayout.SOUTH);
+
+        labelPanel.add(new JLabel(Resources.getString(
+                        "plugin.generalconfig.HISTORY_CACHE_ENABLED")));
+        labelPanel.add(new JLabel(Resources.getString(
+                        "plugin.generalconfig.HISTORY_CACHE_MAX_DOCUMENTS")));
+        labelPanel.add(new JLabel(Resources.getString(
+                        "plugin.generalconfig.HISTORY_CACHE_MAX_SIZE")));
+
+        enabledCheckbox.addActionListener(new ActionListener() {
+            public void actionPerformed(ActionEvent actionEvent) {
+                configurationService.setProperty(
+                        HistoryService.CACHE_ENABLED_PROPERTY,
+                        enabledCheckbox.isSelected());
+            }
+        });
+        enabledCheckbox.setSelected(configurationService.getBoolean(
+                HistoryService.CACHE_ENABLED_PROPERTY, false));
+        valuePanel.add(enabledCheckbox);
+
+        maxDocumentsField.addFocusListener(new FocusListener() {
+            public void focusGained(FocusEvent focusEvent){}
+
+            public void focusLost(FocusEvent focusEvent)
+            {
+                saveLimit(
+                    maxDocumentsField,
+                    HistoryService.CACHE_MAX_DOCUMENTS_PROPERTY,
+                    HistoryService.DEFAULT_CACHE_MAX_DOCUMENTS);
+            }
+        });
+        maxDocumentsField.setText(String.valueOf(configurationService.getInt(
+                HistoryService.CACHE_MAX_DOCUMENTS_PROPERTY,
+                HistoryService.DEFAULT_CACHE_MAX_DOCUMENTS)));
+        valuePanel.add(maxDocumentsField);
+
+        maxSizeField.addFocusListener(new FocusListener() {
+            public void focusGained(FocusEvent focusEvent){}
+
+            public void focusLost(FocusEvent focusEvent)
+            {
+                saveLimit(
+                    maxSizeField,
+                    HistoryService.CACHE_MAX_SIZE_PROPERTY,
+                    HistoryService.DEFAULT_CACHE_MAX_SIZE);
+            }
+        });
+        maxSizeField.setText(String.valueOf(configurationService.getInt(
+                HistoryService.CACHE_MAX_SIZE_PROPERTY,
+                HistoryService.DEFAULT_CACHE_MAX_SIZE)));
+        valuePanel.add(maxSizeField);
+
+        JButton refreshButton = new JButton(Resources.getString(
+                "plugin.generalconfig.HISTORY_CACHE_REFRESH"));
+        refreshButton.addActionListener(new ActionListener(){
+            public void actionPerformed(ActionEvent e)
+            {
+                updateStatistics();
+            }
+        });
+
+        TransparentPanel statisticsPanel
+                = new TransparentPanel(new BorderLayout(10, 10));
+        statisticsPanel.add(statisticsLabel, BorderLayout.CENTER);
+        statisticsPanel.add(refreshButton, BorderLayout.EAST);
+
+        southPanel.add(statisticsPanel);
+        southPanel.add(writeStatisticsLabel);
+        southPanel.add(new JLabel(Resources.getString(
+                        "plugin.generalconfig.HISTORY_CACHE_ENABLED_HINT")));
+
+        updateStatistics();
+    }
+
+    /**
+     * Stores the value of a limit field, restoring the current value if the
+     * entered one is not a positive number.
+     *
+     * @param field the field
+     * @param property the property of the limit
+     * @param defaultValue the default value of the limit
+     */
+    private void saveLimit(JTextField field, String property, int defaultValue)
+    {
+        try
+        {
+            int value = Integer.parseInt(field.getText().trim());
+
+            if (value > 0)
+            {
+                configurationService.setProperty(property, value);
+                updateStatistics();
+                return;
+            }
+        }
+        catch (NumberFormatException e)
+        {
+        }
+
+        field.setText(String.valueOf(
+            configurationService.getInt(property, defaultValue)));
+    }
+
+    /**
+     * Shows the current counters of the cache and of the write queue.
+     */
+    private void updateStatistics()
+    {
+        HistoryService historyService
+            = GeneralConfigPluginActivator.getHistoryService();
+
+        if (historyService == null)
+        {
+            statisticsLabel.setText("");
+            writeStatisticsLabel.setText("");
+            return;
+        }
+
+        HistoryCacheStatistics statistics
+            = historyService.getCacheStatistics();
+
+        statisticsLabel.setText(Resources.getString(
+            "plugin.generalconfig.HISTORY_CACHE_STATISTICS",
+            new String[]
+            {
+                String.valueOf(statistics.getDocumentCount()),
+                String.valueOf(statistics.getSize() / 1024),
+                String.valueOf(statistics.getHits()),
+                String.valueOf(statistics.getMisses()),
+                String.valueOf(statistics.getEvictions())
+            }));
+
+        HistoryWriteStatistics writeStatistics
+            = historyService.getWriteStatistics();
+
+        writeStatisticsLabel.setText(Resources.getString(
+            "plugin.generalconfig.HISTORY_WRITE_STATISTICS",
+            new String[]
+            {
+                String.valueOf(writeStatistics.getPendingFiles()),
+                String.valueOf(writeStatistics.getPendingRecords()),
+                String.valueOf(writeStatistics.getFlushes()),
+                String.valueOf(writeStatistics.getAverageFlushTime()),
+                String.valueOf(writeStatistics.getMaxFlushTime())
+            }));
+    }
+}
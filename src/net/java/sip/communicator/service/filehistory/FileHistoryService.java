@@ -55,6 +55,23 @@ public interface FileHistoryService
             MetaContact contact, Date startDate, Date endDate)
         throws RuntimeException;
 
+    /**
+     * Counts the file transfers made between the given dates by the
+     * calendar bucket (day, month...) they were made in, without reading
+     * the transfers.
+     *
+     * @param contact MetaContact the receiver or sender of the file
+     * @param startDate Date the start date of the transfers or <tt>null</tt>
+     * @param endDate Date the end date of the transfers or <tt>null</tt>
+     * @param calendarField the <tt>Calendar</tt> field of the buckets, for
+     * example <tt>Calendar.DAY_OF_MONTH</tt> to count the transfers by day
+     * @return the number of transfers by bucket start, in ascending order
+     * and without the buckets holding no transfer
+     */
+    public SortedMap<Date, Integer> countRecordsByPeriod(
+            MetaContact contact, Date startDate, Date endDate,
+            int calendarField);
+
     /**
      * Returns all the file transfers made between the given dates and
      * having the given keywords in the filename
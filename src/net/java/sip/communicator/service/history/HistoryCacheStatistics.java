@@ -0,0 +1,130 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package net.java.sip.communicator.service.history;
+
+/**
+ * A snapshot of the state of the cache of parsed history documents shared by
+ * all histories.
+ */
+public class HistoryCacheStatistics
+{
+    private final int documentCount;
+
+    private final long size;
+
+    private final int maxDocuments;
+
+    private final long maxSize;
+
+    private final long hits;
+
+    private final long misses;
+
+    private final long evictions;
+
+    /**
+     * Creates a snapshot of the cache state.
+     *
+     * @param documentCount the number of cached documents
+     * @param size the estimated memory used by the cached documents in bytes
+     * @param maxDocuments the maximum number of cached documents
+     * @param maxSize the maximum estimated memory used by the cached
+     * documents in bytes
+     * @param hits the number of documents found in the cache
+     * @param misses the number of documents parsed because they were not in
+     * the cache
+     * @param evictions the number of documents removed from the cache to
+     * stay within its limits
+     */
+    public HistoryCacheStatistics(int documentCount,
+                                  long size,
+                                  int maxDocuments,
+                                  long maxSize,
+                                  long hits,
+                                  long misses,
+                                  long evictions)
+    {
+        this.documentCount = documentCount;
+        this.size = size;
+        this.maxDocuments = maxDocuments;
+        this.maxSize = maxSize;
+        this.hits = hits;
+        this.misses = misses;
+        this.evictions = evictions;
+    }
+
+    /**
+     * Returns the number of cached documents.
+     *
+     * @return the number of cached documents
+     */
+    public int getDocumentCount()
+    {
+        return documentCount;
+    }
+
+    /**
+     * Returns the estimated memory used by the cached documents.
+     *
+     * @return the estimated memory used by the cached documents in bytes
+     */
+    public long getSize()
+    {
+        return size;
+    }
+
+    /**
+     * Returns the maximum number of cached documents.
+     *
+     * @return the maximum number of cached documents
+     */
+    public int getMaxDocuments()
+    {
+        return maxDocuments;
+    }
+
+    /**
+     * Returns the maximum estimated memory used by the cached documents.
+     *
+     * @return the maximum estimated memory in bytes
+     */
+    public long getMaxSize()
+    {
+        return maxSize;
+    }
+
+    /**
+     * Returns the number of documents found in the cache.
+     *
+     * @return the number of cache hits
+     */
+    public long getHits()
+    {
+        return hits;
+    }
+
+    /**
+     * Returns the number of documents parsed because they were not cached.
+     *
+     * @return the number of cache misses
+     */
+    public long getMisses()
+    {
+        return misses;
+    }
+
+    /**
+     * Returns the number of documents removed from the cache to stay within
+     * its limits.
+     *
+     * @return the number of evictions
+     */
+    public long getEvictions()
+    {
+        return evictions;
+    }
+}
@@ -237,4 +237,23 @@ public interface HistoryReader {
      */
     public int countRecords()
         throws UnsupportedOperationException;
+
+    /**
+     * Counts the records with timestamp between <tt>startDate</tt> and
+     * <tt>endDate</tt> by the calendar bucket (day, month...) of their
+     * timestamp in the default time zone. The counts are computed from the
+     * stored timestamps, without reading the records.
+     *
+     * @param startDate start of the interval or <tt>null</tt>
+     * @param endDate end of the interval (exclusive) or <tt>null</tt>
+     * @param calendarField the <tt>Calendar</tt> field of the buckets, for
+     * example <tt>Calendar.DAY_OF_MONTH</tt> to count the records by day
+     * @return the number of records by bucket start, in ascending order and
+     * without the buckets holding no record
+     * @throws IllegalArgumentException if <tt>calendarField</tt> cannot be
+     * used for buckets
+     */
+    public SortedMap<Date, Integer> countRecordsByPeriod(Date startDate,
+                                                         Date endDate,
+                                                         int calendarField);
 }
@@ -30,6 +30,81 @@ public interface HistoryService {
     public static String CACHE_ENABLED_PROPERTY =
         "net.java.sip.communicator.service.history.CACHE_ENABLED";
 
+    /**
+     * Property used to set the maximum number of parsed documents kept in
+     * the cache shared by all histories when caching is enabled.
+     */
+    public static final String CACHE_MAX_DOCUMENTS_PROPERTY =
+        "net.java.sip.communicator.service.history.CACHE_MAX_DOCUMENTS";
+
+    /**
+     * Property used to set the maximum memory in megabytes used by the
+     * parsed documents kept in the cache shared by all histories when
+     * caching is enabled. The memory used by a document is estimated from
+     * the size of its file.
+     */
+    public static final String CACHE_MAX_SIZE_PROPERTY =
+        "net.java.sip.communicator.service.history.CACHE_MAX_SIZE";
+
+    /**
+     * The default value of {@link #CACHE_MAX_DOCUMENTS_PROPERTY}.
+     */
+    public static final int DEFAULT_CACHE_MAX_DOCUMENTS = 100;
+
+    /**
+     * The default value of {@link #CACHE_MAX_SIZE_PROPERTY}.
+     */
+    public static final int DEFAULT_CACHE_MAX_SIZE = 32;
+
+    /**
+     * Property used to set the maximum time in milliseconds a changed
+     * history file waits in memory before being written to disk. Changes
+     * made in the meantime are written together. A value of <tt>0</tt>
+     * writes every change to disk before the writing method returns.
+     */
+    public static final String FLUSH_INTERVAL_PROPERTY =
+        "net.java.sip.communicator.service.history.FLUSH_INTERVAL";
+
+    /**
+     * Property used to set the number of pending record changes which
+     * triggers writing the changed history files before the flush interval
+     * elapses.
+     */
+    public static final String FLUSH_RECORDS_PROPERTY =
+        "net.java.sip.communicator.service.history.FLUSH_RECORDS";
+
+    /**
+     * The default value of {@link #FLUSH_INTERVAL_PROPERTY}.
+     */
+    public static final int DEFAULT_FLUSH_INTERVAL = 1000;
+
+    /**
+     * The default value of {@link #FLUSH_RECORDS_PROPERTY}.
+     */
+    public static final int DEFAULT_FLUSH_RECORDS = 50;
+
+    /**
+     * Property used to select the storage format of the histories. The
+     * format can be set for all histories with this property or for a
+     * particular kind of histories by appending the first component of their
+     * <tt>HistoryID</tt>, e.g. <tt>STORAGE_FORMAT.messages</tt>.
+     * Supported values are {@link #STORAGE_FORMAT_XML} (the default) and
+     * {@link #STORAGE_FORMAT_LOG}.
+     */
+    public static final String STORAGE_FORMAT_PROPERTY =
+        "net.java.sip.communicator.service.history.STORAGE_FORMAT";
+
+    /**
+     * Histories stored as a directory of XML documents.
+     */
+    public static final String STORAGE_FORMAT_XML = "xml";
+
+    /**
+     * Histories stored as an append-only segmented binary log with a
+     * timestamp index. Existing XML histories are migrated on first load.
+     */
+    public static final String STORAGE_FORMAT_LOG = "log";
+
     /**
      * Date format used in the XML history database.
      */
@@ -120,4 +195,29 @@ public interface HistoryService {
      * @return whether a history is created and stored.
      */
     public boolean isHistoryCreated(HistoryID id);
+
+    /**
+     * Drops and builds again the keyword search indexes of the history with
+     * the given id and of all its sub-histories.
+     *
+     * @param id the id of the history, may be the id of a parent history
+     * like the one of all message histories
+     * @param field a field to index even if no keyword search was done on it
+     * yet or <tt>null</tt> to only rebuild the already indexed fields
+     */
+    public void rebuildKeywordIndexes(HistoryID id, String field);
+
+    /**
+     * Returns the state of the cache of parsed history documents.
+     *
+     * @return the state of the cache of parsed history documents
+     */
+    public HistoryCacheStatistics getCacheStatistics();
+
+    /**
+     * Returns the state of the queue of history files waiting to be written.
+     *
+     * @return the state of the queue of history files waiting to be written
+     */
+    public HistoryWriteStatistics getWriteStatistics();
 }
@@ -0,0 +1,113 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package net.java.sip.communicator.service.history;
+
+/**
+ * A snapshot of the state of the queue of history files waiting to be
+ * written to disk.
+ */
+public class HistoryWriteStatistics
+{
+    private final int pendingFiles;
+
+    private final int pendingRecords;
+
+    private final long flushes;
+
+    private final long writtenFiles;
+
+    private final long totalFlushTime;
+
+    private final long maxFlushTime;
+
+    /**
+     * Creates a snapshot of the write queue state.
+     *
+     * @param pendingFiles the number of files waiting to be written
+     * @param pendingRecords the number of record changes waiting to be
+     * written
+     * @param flushes the number of times the queue was written
+     * @param writtenFiles the number of files written by all flushes
+     * @param totalFlushTime the time spent writing the queue in milliseconds
+     * @param maxFlushTime the longest time spent writing the queue at once
+     * in milliseconds
+     */
+    public HistoryWriteStatistics(int pendingFiles,
+                                  int pendingRecords,
+                                  long flushes,
+                                  long writtenFiles,
+                                  long totalFlushTime,
+                                  long maxFlushTime)
+    {
+        this.pendingFiles = pendingFiles;
+        this.pendingRecords = pendingRecords;
+        this.flushes = flushes;
+        this.writtenFiles = writtenFiles;
+        this.totalFlushTime = totalFlushTime;
+        this.maxFlushTime = maxFlushTime;
+    }
+
+    /**
+     * Returns the number of files waiting to be written.
+     *
+     * @return the number of files waiting to be written
+     */
+    public int getPendingFiles()
+    {
+        return pendingFiles;
+    }
+
+    /**
+     * Returns the number of record changes waiting to be written.
+     *
+     * @return the number of record changes waiting to be written
+     */
+    public int getPendingRecords()
+    {
+        return pendingRecords;
+    }
+
+    /**
+     * Returns the number of times the queue was written.
+     *
+     * @return the number of flushes
+     */
+    public long getFlushes()
+    {
+        return flushes;
+    }
+
+    /**
+     * Returns the number of files written by all flushes.
+     *
+     * @return the number of written files
+     */
+    public long getWrittenFiles()
+    {
+        return writtenFiles;
+    }
+
+    /**
+     * Returns the average time spent writing the queue.
+     *
+     * @return the average flush time in milliseconds
+     */
+    public long getAverageFlushTime()
+    {
+        return (flushes == 0) ? 0 : totalFlushTime / flushes;
+    }
+
+    /**
+     * Returns the longest time spent writing the queue at once.
+     *
+     * @return the longest flush time in milliseconds
+     */
+    public long getMaxFlushTime()
+    {
+        return maxFlushTime;
+    }
+}
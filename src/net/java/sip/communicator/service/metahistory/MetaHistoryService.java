@@ -65,6 +65,26 @@ public interface MetaHistoryService
             Object descriptor, Date startDate, Date endDate)
         throws RuntimeException;
 
+    /**
+     * Counts the records between the given dates by the calendar bucket
+     * (day, month...) of their date, without reading the records. Only the
+     * message and the file history services are counted.
+     *
+     * @param services the services classnames we will query
+     * @param descriptor MetaContact or ChatRoom.
+     * @param startDate Date the date of the first record to count or
+     * <tt>null</tt>
+     * @param endDate Date the date after the last record to count or
+     * <tt>null</tt>
+     * @param calendarField the <tt>Calendar</tt> field of the buckets, for
+     * example <tt>Calendar.DAY_OF_MONTH</tt> to count the records by day
+     * @return the number of records of all the services by bucket start, in
+     * ascending order and without the buckets holding no record
+     */
+    public SortedMap<Date, Integer> countRecordsByPeriod(String[] services,
+            Object descriptor, Date startDate, Date endDate,
+            int calendarField);
+
     /**
      * Returns all the records between the given dates and having the given
      * keywords
@@ -85,6 +85,24 @@ public interface MessageHistoryService
             MetaContact contact, Date startDate, Date endDate)
         throws RuntimeException;
 
+    /**
+     * Counts the messages exchanged by all the contacts in the supplied
+     * metacontact between the given dates by the calendar bucket (day,
+     * month...) they were exchanged in, without reading the messages.
+     *
+     * @param contact MetaContact
+     * @param startDate Date the start date of the conversations or
+     * <tt>null</tt>
+     * @param endDate Date the end date of the conversations or <tt>null</tt>
+     * @param calendarField the <tt>Calendar</tt> field of the buckets, for
+     * example <tt>Calendar.DAY_OF_MONTH</tt> to count the messages by day
+     * @return the number of messages by bucket start, in ascending order
+     * and without the buckets holding no message
+     */
+    public SortedMap<Date, Integer> countRecordsByPeriod(
+            MetaContact contact, Date startDate, Date endDate,
+            int calendarField);
+
     /**
      * Returns all the messages exchanged by all the contacts
      * in the supplied metacontact between the given dates and having the given
@@ -270,6 +288,23 @@ public interface MessageHistoryService
             ChatRoom room, Date startDate, Date endDate)
         throws RuntimeException;
 
+    /**
+     * Counts the messages exchanged in the supplied chat room between the
+     * given dates by the calendar bucket (day, month...) they were
+     * exchanged in, without reading the messages.
+     *
+     * @param room The chat room
+     * @param startDate Date the start date of the conversations or
+     * <tt>null</tt>
+     * @param endDate Date the end date of the conversations or <tt>null</tt>
+     * @param calendarField the <tt>Calendar</tt> field of the buckets, for
+     * example <tt>Calendar.DAY_OF_MONTH</tt> to count the messages by day
+     * @return the number of messages by bucket start, in ascending order
+     * and without the buckets holding no message
+     */
+    public SortedMap<Date, Integer> countRecordsByPeriod(
+            ChatRoom room, Date startDate, Date endDate, int calendarField);
+
     /**
      * Returns all the messages exchanged
      * in the supplied chat room between the given dates and having the given
@@ -462,4 +497,11 @@ public interface MessageHistoryService
     * enabled for the contact.
     */
    public void setHistoryLoggingEnabled(boolean isEnabled, String id);
+
+   /**
+    * Drops and builds again the indexes used by the keyword searches in the
+    * message history. Searches stay correct without it, the indexes are only
+    * used to avoid reading the messages which cannot match.
+    */
+   public void rebuildKeywordIndex();
 }
@@ -0,0 +1,214 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package net.java.sip.communicator.impl.callhistory;
+
+import java.lang.reflect.*;
+import java.util.*;
+
+import junit.framework.*;
+import net.java.sip.communicator.service.callhistory.*;
+import net.java.sip.communicator.service.protocol.*;
+
+import org.jitsi.service.resources.*;
+
+public class CallPeerIndexTest
+    extends TestCase
+{
+    /**
+     * Normalizes the numbers made of digits, spaces and punctuation.
+     */
+    private static final PhoneNumberI18nService PHONE_NUMBERS
+        = new PhoneNumberI18nService()
+        {
+            public String normalize(String possibleNumber)
+            {
+                return possibleNumber.replaceAll("[^0-9]", "");
+            }
+
+            public boolean phoneNumbersMatch(String a, String b)
+            {
+                return normalize(a).equals(normalize(b));
+            }
+
+            public boolean isPhoneNumber(String possibleNumber)
+            {
+                return possibleNumber.matches("[+0-9 ().-]+");
+            }
+        };
+
+    @Override
+    protected void setUp()
+        throws Exception
+    {
+        // the states of the peer records are localized with the resource
+        // service of the protocol bundle, which is not started here
+        Field resourceService
+            = ProtocolProviderActivator.class.getDeclaredField(
+                    "resourceService");
+
+        resourceService.setAccessible(true);
+        resourceService.set(
+            null,
+            Proxy.newProxyInstance(
+                getClass().getClassLoader(),
+                new Class<?>[] { ResourceManagementService.class },
+                new InvocationHandler()
+                {
+                    public Object invoke(
+                            Object proxy, Method method, Object[] args)
+                    {
+                        return null;
+                    }
+                }));
+    }
+
+    private static CallRecord record(long start, String... addresses)
+    {
+        Date date = new Date(start);
+        CallRecord record = new CallRecordImpl("out", date, date);
+
+        for (String address : addresses)
+        {
+            record.getPeerRecords().add(
+                new CallPeerRecordImpl(address, date, date));
+        }
+        return record;
+    }
+
+    private static CallPeerIndex index(
+            PhoneNumberI18nService phoneNumberService,
+            CallRecord... records)
+    {
+        CallPeerIndex index = new CallPeerIndex();
+
+        index.build(Arrays.asList(records), phoneNumberService);
+        return index;
+    }
+
+    public void testPrefix()
+    {
+        CallRecord alice = record(1, "sip:alice@example.com");
+        CallRecord bob = record(2, "sip:bob@example.org");
+        CallPeerIndex index = index(null, alice, bob);
+
+        assertEquals(
+            Collections.singletonList(alice), index.find("SIP:Ali", 10));
+        assertEquals(
+            Collections.singletonList(alice),
+            index.find("sip:alice@example.com", 10));
+        assertTrue(index.find("sip:carol", 10).isEmpty());
+        assertEquals(Arrays.asList(bob, alice), index.find("sip:", 10));
+        assertEquals(Collections.singletonList(bob), index.find("sip:", 1));
+    }
+
+    public void testSchemeLess()
+    {
+        CallRecord alice = record(1, "sip:alice@example.com");
+        CallPeerIndex index = index(null, alice);
+
+        assertEquals(
+            Collections.singletonList(alice),
+            index.find("alice@example.com", 10));
+        assertEquals(
+            Collections.singletonList(alice), index.find("alice@ex", 10));
+    }
+
+    public void testWords()
+    {
+        CallRecord alice = record(1, "sip:alice.smith@example.com");
+        CallRecord bob = record(2, "xmpp:bob@example.org");
+        CallPeerIndex index = index(null, alice, bob);
+
+        assertEquals(
+            Collections.singletonList(alice), index.find("smi", 10));
+        assertEquals(Arrays.asList(bob, alice), index.find("example", 10));
+        assertEquals(Collections.singletonList(bob), index.find("org", 10));
+    }
+
+    public void testPhoneNumbers()
+    {
+        CallRecord call = record(1, "sip:+1 (555) 123-4567@pbx.example.com");
+        CallPeerIndex index = index(PHONE_NUMBERS, call);
+
+        assertEquals(
+            Collections.singletonList(call), index.find("15551234567", 10));
+        assertEquals(
+            Collections.singletonList(call),
+            index.find("+1 555 123 4567", 10));
+        assertEquals(
+            Collections.singletonList(call), index.find("1555", 10));
+    }
+
+    public void testSubstring()
+    {
+        CallRecord alice = record(1, "sip:alice.smith@example.com");
+        CallRecord bob = record(2, "xmpp:bob@example.org");
+        CallPeerIndex index = index(null, alice, bob);
+
+        assertEquals(
+            Collections.singletonList(alice), index.find("ICE.SM", 10));
+        assertEquals(
+            Collections.singletonList(alice), index.find("th@exa", 10));
+        assertEquals(Arrays.asList(bob, alice), index.find("ample.", 10));
+        assertEquals(Collections.singletonList(bob), index.find("rg", 10));
+        assertTrue(index.find("alice.bob", 10).isEmpty());
+    }
+
+    public void testPhoneNumberParts()
+    {
+        CallRecord call = record(1, "sip:+1 (555) 123-4567@pbx.example.com");
+        CallRecord other = record(2, "sip:+1 (555) 765-4321@pbx.example.com");
+        CallPeerIndex index = index(PHONE_NUMBERS, call, other);
+
+        // the tail and the middle of the number however it is written
+        assertEquals(
+            Collections.singletonList(call), index.find("4567", 10));
+        assertEquals(
+            Collections.singletonList(call), index.find("123-45", 10));
+        assertEquals(
+            Collections.singletonList(call), index.find("5551234", 10));
+        assertEquals(
+            Arrays.asList(other, call), index.find("(555)", 10));
+        assertTrue(index.find("1234321", 10).isEmpty());
+    }
+
+    public void testAddAndClear()
+    {
+        CallPeerIndex index = index(null);
+        CallRecord alice = record(1, "sip:alice@example.com");
+
+        assertTrue(index.isBuilt());
+        assertTrue(index.find("alice", 10).isEmpty());
+
+        index.add(alice);
+        assertEquals(
+            Collections.singletonList(alice), index.find("alice", 10));
+
+        index.clear();
+        assertTrue(index.find("alice", 10).isEmpty());
+    }
+
+    public void testUpdateSecondaryAddress()
+    {
+        CallRecord first = record(1, "sip:alice@example.com");
+        CallRecord second = record(2, "sip:alice@example.com");
+        CallPeerIndex index = index(null, first, second);
+
+        index.updateSecondaryAddress(
+            new Date(2), "sip:alice@example.com", "alice@jabber.org");
+
+        assertNull(first.getPeerRecords().get(0).getPeerSecondaryAddress());
+        assertEquals(
+            "alice@jabber.org",
+            second.getPeerRecords().get(0).getPeerSecondaryAddress());
+
+        // another peer address is not updated
+        index.updateSecondaryAddress(
+            new Date(1), "sip:bob@example.com", "bob@jabber.org");
+        assertNull(first.getPeerRecords().get(0).getPeerSecondaryAddress());
+    }
+}
@@ -0,0 +1,312 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package net.java.sip.communicator.impl.configuration;
+
+import java.io.*;
+import java.sql.*;
+import java.util.*;
+
+import junit.framework.*;
+
+import org.jitsi.service.fileaccess.*;
+
+public class JdbcConfigServiceTest
+    extends TestCase
+{
+    private static final String ACCOUNT_PREFIX
+        = "net.java.sip.communicator.impl.protocol.sip";
+
+    private static final int ACCOUNTS = 50;
+
+    private static final int PROPERTIES_PER_ACCOUNT = 40;
+
+    private File directory;
+
+    @Override
+    protected void setUp()
+        throws Exception
+    {
+        directory = File.createTempFile("jdbccfg", "");
+        directory.delete();
+        directory.mkdirs();
+    }
+
+    @Override
+    protected void tearDown()
+    {
+        for (File f : directory.listFiles())
+        {
+            if (f.isDirectory())
+            {
+                for (File child : f.listFiles())
+                    child.delete();
+            }
+            f.delete();
+        }
+        directory.delete();
+    }
+
+    public void testQueriesAndPersistence()
+        throws Exception
+    {
+        JdbcConfigService cs = new JdbcConfigService(
+            new DirectoryFileAccessService(directory), 10000);
+
+        cs.setProperty("a.b.c", "1");
+        cs.setProperty("a.b.c.d", "2");
+        cs.setProperty("a.bc", "3");
+        cs.setProperty("x.c", "4");
+
+        assertEquals("1", cs.getString("a.b.c"));
+        assertEquals(
+            new HashSet<String>(Arrays.asList("a.b.c", "a.b.c.d")),
+            new HashSet<String>(cs.getPropertyNamesByPrefix("a.b.", false)));
+        assertEquals(
+            Arrays.asList("a.b.c"),
+            cs.getPropertyNamesByPrefix("a.b", true));
+        assertEquals(
+            new HashSet<String>(Arrays.asList("a.b.c", "x.c")),
+            new HashSet<String>(cs.getPropertyNamesBySuffix("c")));
+
+        cs.removeProperty("a.b.c");
+        assertNull(cs.getProperty("a.b.c"));
+        assertNull(cs.getProperty("a.b.c.d"));
+        assertEquals(
+            Arrays.asList("x.c"), cs.getPropertyNamesBySuffix("c"));
+
+        // the changes are still pending, storing writes them
+        cs.storeConfiguration();
+
+        cs = new JdbcConfigService(
+            new DirectoryFileAccessService(directory), 0);
+        assertNull(cs.getProperty("a.b.c.d"));
+        assertEquals("3", cs.getString("a.bc"));
+        assertEquals("4", cs.getString("x.c"));
+        cs.storeConfiguration();
+    }
+
+    /**
+     * Compares loading accounts the way the protocol providers do through
+     * the service with the statements the service used to issue for every
+     * call: both find the same properties, also after a restart, and the
+     * service is faster.
+     */
+    public void testAccountLoad()
+        throws Exception
+    {
+        File oldDirectory = new File(directory, "old");
+        oldDirectory.mkdirs();
+
+        // load the database classes before timing
+        File warmDirectory = new File(directory, "warm");
+        warmDirectory.mkdirs();
+        new JdbcConfigService(new DirectoryFileAccessService(warmDirectory), 0)
+            .storeConfiguration();
+
+        long newTime = System.nanoTime();
+        JdbcConfigService cs = new JdbcConfigService(
+            new DirectoryFileAccessService(directory),
+            JdbcConfigService.DEFAULT_WRITE_DELAY);
+        List<String> newNames = runAccountLoad(cs);
+        cs.storeConfiguration();
+        newTime = System.nanoTime() - newTime;
+
+        long oldTime = System.nanoTime();
+        List<String> oldNames = runDirectJdbc(oldDirectory);
+        oldTime = System.nanoTime() - oldTime;
+
+        assertEquals(oldNames, newNames);
+        assertTrue(
+            "cached " + newTime / 1000000 + " ms, per call statements "
+                + oldTime / 1000000 + " ms",
+            newTime < oldTime);
+        assertEquals(ACCOUNTS * PROPERTIES_PER_ACCOUNT, newNames.size());
+
+        // the accounts and their properties
+        cs = new JdbcConfigService(
+            new DirectoryFileAccessService(directory), 0);
+        assertEquals(
+            ACCOUNTS * (PROPERTIES_PER_ACCOUNT + 1),
+            cs.getPropertyNamesByPrefix(ACCOUNT_PREFIX, false).size());
+        cs.storeConfiguration();
+    }
+
+    private static List<String> runAccountLoad(JdbcConfigService cs)
+    {
+        List<String> names = new ArrayList<String>();
+
+        for (int a = 0; a < ACCOUNTS; a++)
+        {
+            String account = ACCOUNT_PREFIX + ".acc" + a;
+
+            cs.setProperty(account, "acc" + a);
+            for (int p = 0; p < PROPERTIES_PER_ACCOUNT; p++)
+                cs.setProperty(account + ".P" + p, String.valueOf(p));
+        }
+        for (String account
+                : cs.getPropertyNamesByPrefix(ACCOUNT_PREFIX, true))
+        {
+            for (String name : cs.getPropertyNamesByPrefix(account, true))
+            {
+                cs.getString(name);
+                names.add(name);
+            }
+        }
+        Collections.sort(names);
+        return names;
+    }
+
+    private static List<String> runDirectJdbc(File directory)
+        throws Exception
+    {
+        Class.forName("org.hsqldb.jdbc.JDBCDriver");
+
+        Connection connection = DriverManager.getConnection(
+            "jdbc:hsqldb:file:"
+            + new File(directory, "props.hsql").getAbsolutePath()
+            + ";shutdown=true;hsqldb.write_delay=false;"
+            + "hsqldb.write_delay_millis=0");
+        List<String> names = new ArrayList<String>();
+
+        try
+        {
+            connection.createStatement().executeUpdate(
+                "CREATE TABLE IF NOT EXISTS Props ("
+                + "k LONGVARCHAR UNIQUE, v LONGVARCHAR)");
+
+            PreparedStatement selectExact = connection.prepareStatement(
+                "SELECT v FROM Props WHERE k=?");
+            PreparedStatement selectLike = connection.prepareStatement(
+                "SELECT k, v FROM Props WHERE k LIKE ?");
+            PreparedStatement insertOrUpdate = connection.prepareStatement(
+                "MERGE INTO Props"
+                + " USING (VALUES(?,?)) AS i(k,v) ON Props.k = i.k"
+                + " WHEN MATCHED THEN UPDATE SET Props.v = i.v"
+                + " WHEN NOT MATCHED THEN INSERT (k, v)"
+                + " VALUES (i.k, i.v)");
+
+            for (int a = 0; a < ACCOUNTS; a++)
+            {
+                String account = ACCOUNT_PREFIX + ".acc" + a;
+
+                set(selectExact, insertOrUpdate, account, "acc" + a);
+                for (int p = 0; p < PROPERTIES_PER_ACCOUNT; p++)
+                {
+                    set(selectExact, insertOrUpdate,
+                        account + ".P" + p, String.valueOf(p));
+                }
+            }
+            for (String account : like(selectLike, ACCOUNT_PREFIX))
+            {
+                for (String name : like(selectLike, account))
+                {
+                    selectExact.setString(1, name);
+                    selectExact.executeQuery().close();
+                    names.add(name);
+                }
+            }
+        }
+        finally
+        {
+            connection.close();
+        }
+        Collections.sort(names);
+        return names;
+    }
+
+    private static void set(PreparedStatement selectExact,
+                            PreparedStatement insertOrUpdate,
+                            String name,
+                            String value)
+        throws SQLException
+    {
+        // the old value was read for the change events
+        selectExact.setString(1, name);
+        selectExact.executeQuery().close();
+
+        insertOrUpdate.setString(1, name);
+        insertOrUpdate.setString(2, value);
+        insertOrUpdate.execute();
+    }
+
+    private static List<String> like(PreparedStatement selectLike,
+                                     String prefix)
+        throws SQLException
+    {
+        List<String> names = new ArrayList<String>();
+
+        selectLike.setString(1, prefix + "%");
+        ResultSet q = selectLike.executeQuery();
+        while (q.next())
+        {
+            String key = q.getString(1);
+            int ix = key.lastIndexOf('.');
+
+            if (ix != -1 && prefix.equals(key.substring(0, ix)))
+                names.add(key);
+        }
+        q.close();
+        return names;
+    }
+
+    private static class DirectoryFileAccessService
+        implements FileAccessService
+    {
+        private final File directory;
+
+        DirectoryFileAccessService(File directory)
+        {
+            this.directory = directory;
+        }
+
+        public File getTemporaryFile()
+            throws IOException
+        {
+            return File.createTempFile("jdbccfg", null, directory);
+        }
+
+        public File getTemporaryDirectory()
+            throws IOException
+        {
+            return directory;
+        }
+
+        @Deprecated
+        public File getPrivatePersistentFile(String fileName)
+        {
+            return new File(directory, fileName);
+        }
+
+        public File getPrivatePersistentFile(String fileName,
+                                             FileCategory category)
+        {
+            return new File(directory, fileName);
+        }
+
+        @Deprecated
+        public File getPrivatePersistentDirectory(String dirName)
+        {
+            return new File(directory, dirName);
+        }
+
+        public File getPrivatePersistentDirectory(String dirName,
+                                                  FileCategory category)
+        {
+            return new File(directory, dirName);
+        }
+
+        public File getDefaultDownloadDirectory()
+        {
+            return directory;
+        }
+
+        public FailSafeTransaction createFailSafeTransaction(File file)
+        {
+            return null;
+        }
+    }
+}
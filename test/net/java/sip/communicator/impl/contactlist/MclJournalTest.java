@@ -0,0 +1,143 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package net.java.sip.communicator.impl.contactlist;
+
+import java.io.*;
+import java.util.*;
+
+import javax.xml.parsers.*;
+
+import junit.framework.*;
+
+import org.w3c.dom.*;
+
+public class MclJournalTest
+    extends TestCase
+{
+    private File file;
+
+    private Document doc;
+
+    @Override
+    protected void setUp()
+        throws Exception
+    {
+        file = File.createTempFile("mcljournal", ".tmp");
+        file.delete();
+        doc = DocumentBuilderFactory.newInstance().newDocumentBuilder()
+            .newDocument();
+    }
+
+    @Override
+    protected void tearDown()
+    {
+        file.delete();
+    }
+
+    private MclJournal.Entry contact(String uid, String name)
+    {
+        Element element = doc.createElement("meta-contact");
+
+        element.setAttribute("uid", uid);
+        element.appendChild(doc.createElement("display-name"))
+            .appendChild(doc.createTextNode(name));
+        return new MclJournal.Entry(
+            MclJournal.OP_PUT_CONTACT, uid, "group", element);
+    }
+
+    private MclJournal.Entry removal(String uid)
+    {
+        return new MclJournal.Entry(MclJournal.OP_REMOVE, uid, null, null);
+    }
+
+    public void testRoundTrip()
+        throws IOException
+    {
+        MclJournal journal = new MclJournal(file);
+
+        journal.append(3, Arrays.asList(contact("a", "Alice")));
+        journal.append(3, Arrays.asList(removal("b"), contact("c", "Carol")));
+
+        List<MclJournal.Entry> entries = journal.read(doc);
+
+        assertEquals(3, entries.size());
+        assertEquals(MclJournal.OP_PUT_CONTACT, entries.get(0).op);
+        assertEquals("a", entries.get(0).uid);
+        assertEquals("group", entries.get(0).parentUID);
+        assertEquals("a", entries.get(0).element.getAttribute("uid"));
+        assertEquals("Alice", entries.get(0).element.getTextContent());
+        assertEquals(MclJournal.OP_REMOVE, entries.get(1).op);
+        assertEquals("b", entries.get(1).uid);
+        assertNull(entries.get(1).element);
+        assertEquals("Carol", entries.get(2).element.getTextContent());
+    }
+
+    public void testTornTail()
+        throws IOException
+    {
+        MclJournal journal = new MclJournal(file);
+
+        journal.append(1, Arrays.asList(contact("a", "Alice")));
+        long length = journal.length();
+        journal.append(1, Arrays.asList(contact("b", "Bob")));
+
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.setLength(journal.length() - 3);
+        raf.close();
+
+        List<MclJournal.Entry> entries = journal.read(doc);
+        assertEquals(1, entries.size());
+        assertEquals("a", entries.get(0).uid);
+
+        // a damaged length must not be allocated
+        raf = new RandomAccessFile(file, "rw");
+        raf.setLength(length);
+        raf.seek(length);
+        raf.writeByte(MclJournal.OP_PUT_CONTACT);
+        raf.writeUTF("b");
+        raf.writeUTF("group");
+        raf.writeByte(1);
+        raf.writeUTF("meta-contact");
+        raf.writeInt(Integer.MAX_VALUE);
+        raf.close();
+
+        entries = journal.read(doc);
+        assertEquals(1, entries.size());
+        assertEquals("a", entries.get(0).uid);
+
+        // as must an unknown entry
+        raf = new RandomAccessFile(file, "rw");
+        raf.setLength(length);
+        raf.seek(length);
+        raf.writeByte(42);
+        raf.close();
+
+        assertEquals(1, journal.read(doc).size());
+    }
+
+    public void testGeneration()
+        throws IOException
+    {
+        MclJournal journal = new MclJournal(file);
+
+        assertEquals(-1, journal.getGeneration());
+
+        journal.append(7, Arrays.asList(removal("a")));
+        assertEquals(7, journal.getGeneration());
+
+        // the generation is only written when the journal starts
+        journal.append(8, Arrays.asList(removal("b")));
+        assertEquals(7, journal.getGeneration());
+        assertEquals(2, journal.read(doc).size());
+
+        journal.delete();
+        assertEquals(-1, journal.getGeneration());
+
+        journal.append(8, Arrays.asList(removal("c")));
+        assertEquals(8, journal.getGeneration());
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package net.java.sip.communicator.impl.gui.main.chat;
+
+import java.util.*;
+
+import junit.framework.*;
+import net.java.sip.communicator.service.replacement.*;
+import net.java.sip.communicator.service.replacement.directimage.*;
+import net.java.sip.communicator.service.replacement.smilies.*;
+
+/**
+ * Tests the single scan matching of the replacement sources.
+ */
+public class ReplacementEngineTest
+    extends TestCase
+{
+    public void testSmileyTrie()
+    {
+        SmileyTrie trie = new SmileyTrie(
+            Arrays.asList(":)", ":))", ":-)", ":P", "8-)", "-)"));
+        List<Integer> starts = new ArrayList<Integer>();
+        List<Integer> ends = new ArrayList<Integer>();
+        String text = "a :)) b :p 8-) alt=':) :-)";
+
+        trie.find(text, 0, text.length(), starts, ends);
+
+        // the longest smiley wins, case is ignored, alt values are skipped
+        assertEquals(Arrays.asList(2, 8, 11, 23), starts);
+        assertEquals(Arrays.asList(5, 10, 14, 26), ends);
+    }
+
+    public void testSingleScan()
+    {
+        ReplacementService video
+            = new Source("VIDEO", "https?://v\\.tv/(\\w+)");
+        ReplacementService image = new ImageSource();
+        ReplacementService smileys = new SmileySource();
+        ReplacementEngine engine = ReplacementEngine.getInstance(
+            Arrays.asList(image, smileys, video));
+        String text = "http://v.tv/a.jpg :) http://i.org/b.jpg";
+        List<ReplacementEngine.Match> matches = engine.match(text);
+
+        assertEquals(3, matches.size());
+        // the direct image source does not take the links of other sources
+        assertSame(video, matches.get(0).source);
+        assertEquals("http://v.tv/a", text.substring(
+            matches.get(0).start, matches.get(0).end));
+        assertSame(smileys, matches.get(1).source);
+        assertSame(image, matches.get(2).source);
+
+        assertSame(engine, ReplacementEngine.getInstance(
+            Arrays.asList(image, smileys, video)));
+        assertEquals("thumb:x", engine.getReplacement(video, "x"));
+        assertEquals("thumb:x", engine.getReplacement(video, "x"));
+        assertEquals(1, ((Source) video).replacements);
+    }
+
+    private static class Source
+        implements ReplacementService
+    {
+        private final String name;
+
+        private final String pattern;
+
+        int replacements = 0;
+
+        Source(String name, String pattern)
+        {
+            this.name = name;
+            this.pattern = pattern;
+        }
+
+        public String getReplacement(String sourceString)
+        {
+            replacements++;
+            return "thumb:" + sourceString;
+        }
+
+        public String getSourceName()
+        {
+            return name;
+        }
+
+        public String getPattern()
+        {
+            return pattern;
+        }
+    }
+
+    private static class ImageSource
+        extends Source
+        implements DirectImageReplacementService
+    {
+        ImageSource()
+        {
+            super("IMAGE", "https?://\\S*\\.jpg");
+        }
+
+        public int getImageSize(String sourceString)
+        {
+            return 1;
+        }
+
+        public boolean isDirectImage(String sourceString)
+        {
+            return true;
+        }
+    }
+
+    private static class SmileySource
+        extends Source
+        implements SmiliesReplacementService, Smiley
+    {
+        SmileySource()
+        {
+            super("SMILEY", ":\\)");
+        }
+
+        public Collection<Smiley> getSmiliesPack()
+        {
+            return Collections.<Smiley>singletonList(this);
+        }
+
+        public void reloadSmiliesPack()
+        {
+        }
+
+        public String getDescription()
+        {
+            return null;
+        }
+
+        public List<String> getSmileyStrings()
+        {
+            return Arrays.asList(":)");
+        }
+
+        public String getDefaultString()
+        {
+            return ":)";
+        }
+
+        public String getImageID()
+        {
+            return null;
+        }
+
+        public String getImagePath()
+        {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package net.java.sip.communicator.impl.gui.main.contactlist.contactsource;
+
+import java.lang.reflect.*;
+import java.util.*;
+import java.util.regex.*;
+
+import junit.framework.*;
+import net.java.sip.communicator.service.contactlist.*;
+import net.java.sip.communicator.service.protocol.*;
+
+/**
+ * Tests the lookups and the updates of the meta contact search index.
+ */
+public class MetaContactSearchIndexTest
+    extends TestCase
+{
+    private final List<MetaContact> rootContacts = new ArrayList<MetaContact>();
+
+    private final List<MetaContactGroup> rootGroups
+        = new ArrayList<MetaContactGroup>();
+
+    private final MetaContactGroup root = group(rootContacts, rootGroups);
+
+    private static MetaContactGroup group(
+            final List<MetaContact> childContacts,
+            final List<MetaContactGroup> subgroups)
+    {
+        return proxy(
+            MetaContactGroup.class,
+            new InvocationHandler()
+            {
+                public Object invoke(Object proxy, Method m, Object[] args)
+                {
+                    if (m.getName().equals("getChildContacts"))
+                        return childContacts.iterator();
+                    if (m.getName().equals("getSubgroups"))
+                        return subgroups.iterator();
+                    return defaultValue(proxy, m, args);
+                }
+            });
+    }
+
+    private static <T> T proxy(Class<T> c, InvocationHandler handler)
+    {
+        return c.cast(
+            Proxy.newProxyInstance(
+                    c.getClassLoader(), new Class<?>[] { c }, handler));
+    }
+
+    private static Object defaultValue(Object proxy, Method m, Object[] args)
+    {
+        if (m.getName().equals("equals"))
+            return proxy == args[0];
+        if (m.getName().equals("hashCode"))
+            return System.identityHashCode(proxy);
+        return null;
+    }
+
+    private static Contact contact(final String address)
+    {
+        return proxy(
+            Contact.class,
+            new InvocationHandler()
+            {
+                public Object invoke(Object proxy, Method m, Object[] args)
+                {
+                    if (m.getName().equals("getDisplayName")
+                            || m.getName().equals("getAddress"))
+                        return address;
+                    return defaultValue(proxy, m, args);
+                }
+            });
+    }
+
+    private MetaContact metaContact(final String[] name,
+                                    final String address)
+    {
+        return proxy(
+            MetaContact.class,
+            new InvocationHandler()
+            {
+                public Object invoke(Object proxy, Method m, Object[] args)
+                {
+                    if (m.getName().equals("getDisplayName"))
+                        return name[0];
+                    if (m.getName().equals("getContacts"))
+                        return Arrays.asList(contact(address)).iterator();
+                    if (m.getName().equals("getParentMetaContactGroup"))
+                        return rootContacts.contains(proxy) ? root : null;
+                    return defaultValue(proxy, m, args);
+                }
+            });
+    }
+
+    private static Pattern pattern(String filter)
+    {
+        return Pattern.compile(
+            Pattern.quote(filter),
+            Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE);
+    }
+
+    private List<MetaContact> find(MetaContactSearchIndex index, String s)
+    {
+        return index.find(s, pattern(s), root);
+    }
+
+    public void testFindAndRefine()
+    {
+        MetaContactSearchIndex index = new MetaContactSearchIndex();
+        MetaContact john
+            = metaContact(new String[] { "John Doe" }, "john@example.com");
+        MetaContact jane
+            = metaContact(new String[] { "Jane Roe" }, "jane@example.org");
+
+        rootContacts.add(john);
+        rootContacts.add(jane);
+
+        assertEquals(2, find(index, "j").size());
+        assertEquals(Arrays.asList(john), find(index, "jo"));
+        assertEquals(Arrays.asList(john), find(index, "JOHN"));
+        assertEquals(Arrays.asList(jane), find(index, "example.org"));
+        assertEquals(Arrays.asList(john), find(index, "n D"));
+        assertTrue(find(index, "smith").isEmpty());
+    }
+
+    public void testGroupAddedWithoutContactEvents()
+    {
+        MetaContactSearchIndex index = new MetaContactSearchIndex();
+
+        rootContacts.add(
+            metaContact(new String[] { "John Doe" }, "john@example.com"));
+        assertTrue(find(index, "smith").isEmpty());
+
+        // a group of a second account brings its contacts along
+        List<MetaContact> groupContacts = new ArrayList<MetaContact>();
+        MetaContactGroup group
+            = group(groupContacts, new ArrayList<MetaContactGroup>());
+        MetaContact jane
+            = metaContact(new String[] { "Jane Smith" }, "jane@example.org");
+
+        groupContacts.add(jane);
+        rootGroups.add(group);
+        index.updateGroup(group);
+        assertEquals(Arrays.asList(jane), find(index, "smith"));
+
+        // and so does a protocol group merged into an existing group
+        MetaContact bob
+            = metaContact(new String[] { "Bob Smith" }, "bob@example.net");
+
+        groupContacts.add(bob);
+        index.updateGroup(group);
+        assertEquals(2, find(index, "smith").size());
+    }
+
+    public void testUpdates()
+    {
+        MetaContactSearchIndex index = new MetaContactSearchIndex();
+        String[] name = new String[] { "John Doe" };
+        MetaContact john = metaContact(name, "john@example.com");
+
+        rootContacts.add(john);
+        assertEquals(Arrays.asList(john), find(index, "doe"));
+
+        name[0] = "John Smith";
+        index.update(john);
+        assertTrue(find(index, "doe").isEmpty());
+        assertEquals(Arrays.asList(john), find(index, "smith"));
+
+        MetaContact jane
+            = metaContact(new String[] { "Jane Smith" }, "jane@example.org");
+
+        rootContacts.add(jane);
+        index.update(jane);
+        assertEquals(2, find(index, "smith").size());
+
+        rootContacts.remove(john);
+        index.remove(john);
+        assertEquals(Arrays.asList(jane), find(index, "smith"));
+
+        // many updates compact the index
+        for (int i = 0; i < 200; i++)
+            index.update(jane);
+        assertEquals(Arrays.asList(jane), find(index, "smi"));
+    }
+}
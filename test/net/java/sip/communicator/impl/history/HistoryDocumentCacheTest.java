@@ -0,0 +1,137 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package net.java.sip.communicator.impl.history;
+
+import java.io.*;
+
+import javax.xml.parsers.*;
+
+import junit.framework.*;
+import net.java.sip.communicator.service.history.*;
+
+import org.w3c.dom.*;
+
+public class HistoryDocumentCacheTest
+    extends TestCase
+{
+    private File directory;
+
+    private Document document;
+
+    @Override
+    protected void setUp()
+        throws Exception
+    {
+        directory = File.createTempFile("historycache", "");
+        directory.delete();
+        directory.mkdirs();
+
+        document = DocumentBuilderFactory.newInstance().newDocumentBuilder()
+            .newDocument();
+    }
+
+    @Override
+    protected void tearDown()
+        throws Exception
+    {
+        for (File f : directory.listFiles())
+            f.delete();
+        directory.delete();
+    }
+
+    private File createFile(String name, int length)
+        throws IOException
+    {
+        File file = new File(directory, name);
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.setLength(length);
+        raf.close();
+        return file;
+    }
+
+    public void testEvictsLeastRecentlyUsed()
+        throws Exception
+    {
+        HistoryDocumentCache cache = new HistoryDocumentCache(2, 1024 * 1024);
+        File f1 = createFile("1.xml", 10);
+        File f2 = createFile("2.xml", 10);
+        File f3 = createFile("3.xml", 10);
+
+        cache.put(f1, document);
+        cache.put(f2, document);
+        assertNotNull(cache.get(f1));
+        cache.put(f3, document);
+
+        assertNull(cache.get(f2));
+        assertNotNull(cache.get(f1));
+        assertNotNull(cache.get(f3));
+
+        HistoryCacheStatistics statistics = cache.getStatistics();
+        assertEquals(2, statistics.getDocumentCount());
+        assertEquals(3, statistics.getHits());
+        assertEquals(1, statistics.getMisses());
+        assertEquals(1, statistics.getEvictions());
+        assertEquals(
+            20 * HistoryDocumentCache.DOM_SIZE_FACTOR, statistics.getSize());
+    }
+
+    public void testSizeLimit()
+        throws Exception
+    {
+        long maxSize = 100 * HistoryDocumentCache.DOM_SIZE_FACTOR;
+        HistoryDocumentCache cache = new HistoryDocumentCache(10, maxSize);
+        File small = createFile("1.xml", 40);
+        File big = createFile("2.xml", 70);
+
+        cache.put(small, document);
+        cache.put(big, document);
+
+        assertNull(cache.get(small));
+        assertNotNull(cache.get(big));
+
+        cache.setLimits(10, maxSize / 2);
+        assertEquals(0, cache.getStatistics().getDocumentCount());
+        assertEquals(0, cache.getStatistics().getSize());
+    }
+
+    public void testPinnedNotEvicted()
+        throws Exception
+    {
+        HistoryDocumentCache cache = new HistoryDocumentCache(2, 1024 * 1024);
+        File f1 = createFile("1.xml", 10);
+        File f2 = createFile("2.xml", 10);
+        File f3 = createFile("3.xml", 10);
+
+        cache.pin(f1);
+        cache.put(f1, document);
+        cache.put(f2, document);
+        cache.put(f3, document);
+
+        assertNotNull(cache.get(f1));
+        assertNull(cache.get(f2));
+        assertNotNull(cache.get(f3));
+
+        cache.unpin(f1);
+        cache.setLimits(1, 1024 * 1024);
+        assertNull(cache.get(f1));
+        assertNotNull(cache.get(f3));
+    }
+
+    public void testRemoveAll()
+        throws Exception
+    {
+        HistoryDocumentCache cache = new HistoryDocumentCache(10, 1024 * 1024);
+        File file = createFile("1.xml", 10);
+
+        cache.put(file, document);
+        cache.put(new File(directory.getPath() + "other", "1.xml"), document);
+        cache.removeAll(directory);
+
+        assertNull(cache.get(file));
+        assertEquals(1, cache.getStatistics().getDocumentCount());
+    }
+}
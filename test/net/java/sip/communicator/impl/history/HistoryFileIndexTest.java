@@ -0,0 +1,116 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package net.java.sip.communicator.impl.history;
+
+import java.io.*;
+import java.util.*;
+
+import javax.xml.parsers.*;
+
+import junit.framework.*;
+
+import org.w3c.dom.*;
+
+public class HistoryFileIndexTest
+    extends TestCase
+{
+    private static final String XML
+        = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<history>"
+            + "<record timestamp=\"2000\"><msg>a</msg></record>"
+            + "<record timestamp=\"1000\"><msg>b</msg></record>"
+            + "<record timestamp=\"3000\"><msg>c</msg></record>"
+            + "</history>";
+
+    private File directory;
+
+    @Override
+    protected void setUp()
+        throws Exception
+    {
+        directory = File.createTempFile("histidx", "");
+        directory.delete();
+        directory.mkdirs();
+    }
+
+    @Override
+    protected void tearDown()
+    {
+        for (File f : directory.listFiles())
+            f.delete();
+        directory.delete();
+    }
+
+    private void writeFile(String name, String content)
+        throws IOException
+    {
+        Writer out = new OutputStreamWriter(
+            new FileOutputStream(new File(directory, name)), "UTF-8");
+        try
+        {
+            out.write(content);
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+
+    public void testScanAndPersist()
+        throws Exception
+    {
+        writeFile("1000.xml", XML);
+
+        HistoryFileIndex index = new HistoryFileIndex(directory);
+        HistoryFileIndex.Entry entry = index.get("1000.xml");
+
+        assertEquals(3, entry.getRecordCount());
+        assertTrue(entry.overlaps(null, null));
+        assertTrue(entry.overlaps(new Date(3000), null));
+        assertFalse(entry.overlaps(new Date(3001), null));
+        assertTrue(entry.overlaps(null, new Date(1001)));
+        assertFalse(entry.overlaps(null, new Date(1000)));
+        index.save();
+
+        // the file is not streamed again, so the entry is the persisted one
+        entry = new HistoryFileIndex(directory).get("1000.xml");
+        assertEquals(3, entry.getRecordCount());
+        assertFalse(entry.overlaps(new Date(3001), new Date(5000)));
+
+        // all the records are in the same year
+        HistoryRecordHistogram histogram
+            = new HistoryRecordHistogram(null, null, Calendar.YEAR);
+        assertTrue(entry.addTo(histogram));
+        assertEquals(
+            Integer.valueOf(3),
+            histogram.getCounts().values().iterator().next());
+    }
+
+    public void testUpdateFromDocument()
+        throws Exception
+    {
+        writeFile("1000.xml", XML);
+
+        Document doc = DocumentBuilderFactory.newInstance()
+            .newDocumentBuilder().parse(new File(directory, "1000.xml"));
+        Element record = doc.createElement("record");
+        record.setAttribute("timestamp", "9000");
+        doc.getDocumentElement().appendChild(record);
+
+        HistoryFileIndex index = new HistoryFileIndex(directory);
+        HistoryFileIndex.Entry entry = HistoryFileIndex.summarize(doc);
+
+        assertEquals(4, entry.getRecordCount());
+        assertTrue(entry.overlaps(new Date(5000), null));
+
+        index.update("1000.xml", entry);
+        assertEquals(4, index.get("1000.xml").getRecordCount());
+
+        // a file changed behind the index is streamed again
+        writeFile("1000.xml", XML + " ");
+        assertEquals(3, index.get("1000.xml").getRecordCount());
+    }
+}
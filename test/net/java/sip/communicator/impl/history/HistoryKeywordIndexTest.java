@@ -0,0 +1,173 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package net.java.sip.communicator.impl.history;
+
+import java.io.*;
+import java.util.*;
+
+import junit.framework.*;
+import net.java.sip.communicator.service.history.records.*;
+
+public class HistoryKeywordIndexTest
+    extends TestCase
+{
+    private static final String[] NAMES = new String[] { "dir", "msg_CDATA" };
+
+    private File directory;
+
+    @Override
+    protected void setUp()
+        throws Exception
+    {
+        directory = File.createTempFile("historyindex", "");
+        directory.delete();
+        directory.mkdirs();
+    }
+
+    @Override
+    protected void tearDown()
+        throws Exception
+    {
+        for (File f : directory.listFiles())
+            f.delete();
+        directory.delete();
+    }
+
+    private static List<HistoryRecord> records(String... messages)
+    {
+        List<HistoryRecord> records = new ArrayList<HistoryRecord>();
+
+        for (String message : messages)
+        {
+            records.add(new HistoryRecord(
+                NAMES, new String[] { "in", message }, new Date()));
+        }
+        return records;
+    }
+
+    public void testTokenize()
+    {
+        assertEquals(
+            Arrays.asList("hello", "wörld", "42"),
+            HistoryKeywordIndex.tokenize("Hello, WÖRLD! 42"));
+        assertTrue(HistoryKeywordIndex.tokenize(" ... ").isEmpty());
+    }
+
+    public void testFoldCase()
+    {
+        assertEquals(
+            Arrays.asList("κοσμοσ"),
+            HistoryKeywordIndex.tokenize("ΚΟΣΜΟΣ"));
+        assertEquals(
+            HistoryKeywordIndex.tokenize("κόσμος"),
+            HistoryKeywordIndex.tokenize("ΚΌΣΜΟΣ"));
+
+        HistoryKeywordIndex index = new HistoryKeywordIndex(directory);
+        Map<String, List<HistoryRecord>> files
+            = new HashMap<String, List<HistoryRecord>>();
+
+        files.put("1.xml", records("ΚΟΣΜΟΣ", "hello"));
+        index.addField("msg", files);
+
+        BitSet first = BitSet.valueOf(new long[] { 1 });
+        for (String keyword
+                : new String[] { "ΚΟΣ", "κοσ", "κοσμος", "ΜΟΣ" })
+        {
+            Map<String, BitSet> candidates
+                = index.findCandidates("msg", new String[] { keyword });
+
+            assertEquals(keyword, first, candidates.get("1.xml"));
+        }
+    }
+
+    public void testFindCandidates()
+    {
+        HistoryKeywordIndex index = new HistoryKeywordIndex(directory);
+        Map<String, List<HistoryRecord>> files
+            = new HashMap<String, List<HistoryRecord>>();
+
+        files.put("1.xml", records("hello world", "nothing here"));
+        files.put("2.xml", records("say Hello", "hello there world"));
+        index.addField("msg", files);
+
+        Map<String, BitSet> candidates
+            = index.findCandidates("msg", new String[] { "ell", "worl" });
+        assertEquals(2, candidates.size());
+        assertEquals(BitSet.valueOf(new long[] { 1 }), candidates.get("1.xml"));
+        assertEquals(BitSet.valueOf(new long[] { 2 }), candidates.get("2.xml"));
+
+        assertTrue(
+            index.findCandidates("msg", new String[] { "missing" }).isEmpty());
+
+        // keywords without terms cannot be looked up
+        assertNull(index.findCandidates("msg", new String[] { "?" }));
+        assertNull(index.findCandidates("dir", new String[] { "in" }));
+    }
+
+    public void testJournalReplay()
+    {
+        HistoryKeywordIndex index = new HistoryKeywordIndex(directory);
+        Map<String, List<HistoryRecord>> files
+            = new HashMap<String, List<HistoryRecord>>();
+
+        files.put("1.xml", records("first message"));
+        index.addField("msg", files);
+
+        index.addRecord(
+            "1.xml", 1, NAMES, new String[] { "out", "second message" });
+        index.reindexFile("2.xml", records("third"));
+        index.removeFile("1.xml");
+        index.addRecord("1.xml", 0, NAMES, new String[] { "out", "again" });
+
+        HistoryKeywordIndex reloaded = new HistoryKeywordIndex(directory);
+        assertTrue(reloaded.isIndexed("msg"));
+        assertTrue(reloaded.findCandidates(
+            "msg", new String[] { "message" }).isEmpty());
+        assertEquals(
+            Collections.singleton("2.xml"),
+            reloaded.findCandidates("msg", new String[] { "third" }).keySet());
+        assertEquals(
+            Collections.singleton("1.xml"),
+            reloaded.findCandidates("msg", new String[] { "gain" }).keySet());
+    }
+
+    public void testChangedFiles()
+        throws IOException
+    {
+        File file = new File(directory, "1.xml");
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(1);
+        out.close();
+
+        Map<String, File> files = Collections.singletonMap("1.xml", file);
+        HistoryKeywordIndex index = new HistoryKeywordIndex(directory);
+        Map<String, List<HistoryRecord>> content
+            = new HashMap<String, List<HistoryRecord>>();
+
+        content.put("1.xml", records("first message"));
+        index.setStamps(files);
+        index.addField("msg", content);
+
+        HistoryKeywordIndex reloaded = new HistoryKeywordIndex(directory);
+        assertTrue(reloaded.getChangedFiles(files).isEmpty());
+
+        // a file written after the index was saved is indexed again
+        out = new FileOutputStream(file, true);
+        out.write(2);
+        out.close();
+        assertEquals(
+            Collections.singletonList("1.xml"),
+            reloaded.getChangedFiles(files));
+
+        Map<String, File> newFiles = new HashMap<String, File>(files);
+        newFiles.put("2.xml", new File(directory, "2.xml"));
+        reloaded.setStamps(files);
+        assertEquals(
+            Collections.singletonList("2.xml"),
+            reloaded.getChangedFiles(newFiles));
+    }
+}
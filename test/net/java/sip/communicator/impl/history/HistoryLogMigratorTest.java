@@ -0,0 +1,96 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package net.java.sip.communicator.impl.history;
+
+import java.io.*;
+import java.util.*;
+
+import junit.framework.*;
+import net.java.sip.communicator.service.history.*;
+import net.java.sip.communicator.service.history.records.*;
+
+public class HistoryLogMigratorTest
+    extends TestCase
+{
+    private static final String[] NAMES = new String[] { "dir", "msg" };
+
+    private static final HistoryID ID
+        = HistoryID.createFromRawID(new String[] { "test" });
+
+    private File directory;
+
+    @Override
+    protected void setUp()
+        throws Exception
+    {
+        directory = File.createTempFile("historymigrator", "");
+        directory.delete();
+        directory.mkdirs();
+    }
+
+    @Override
+    protected void tearDown()
+        throws Exception
+    {
+        for (File f : directory.listFiles())
+            f.delete();
+        directory.delete();
+    }
+
+    public void testReadersWaitForMigration()
+        throws Exception
+    {
+        // write the records in the XML format
+        HistoryServiceImpl xmlService
+            = HistoryWriterImplTest.createHistoryService(
+                new HashMap<String, Object>());
+        HistoryWriter xmlWriter = createHistory(xmlService).getWriter();
+
+        for (int i = 0; i < 10; i++)
+            xmlWriter.addRecord(new String[] { "in", "message " + i });
+        xmlService.stop();
+
+        Map<String, Object> properties = new HashMap<String, Object>();
+        properties.put(
+            HistoryService.STORAGE_FORMAT_PROPERTY,
+            HistoryService.STORAGE_FORMAT_LOG);
+        HistoryServiceImpl logService
+            = HistoryWriterImplTest.createHistoryService(properties);
+
+        try
+        {
+            HistoryImpl history = createHistory(logService);
+
+            // the records are there as soon as the history is used
+            assertEquals(10, history.getReader().countRecords());
+            history.getWriter().addRecord(new String[] { "out", "reply" });
+            assertEquals(11, history.getReader().countRecords());
+
+            boolean migrated = false;
+            for (File f : directory.listFiles())
+            {
+                if (f.getName().endsWith(HistoryLogMigrator.MIGRATED_SUFFIX))
+                    migrated = true;
+            }
+            assertTrue(migrated);
+
+            // the documents are not imported again
+            assertEquals(11, createHistory(logService).getReader()
+                .countRecords());
+        }
+        finally
+        {
+            logService.stop();
+        }
+    }
+
+    private HistoryImpl createHistory(HistoryServiceImpl service)
+    {
+        return new HistoryImpl(
+            ID, directory, new HistoryRecordStructure(NAMES), service);
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package net.java.sip.communicator.impl.history;
+
+import java.io.*;
+import java.util.*;
+
+import junit.framework.*;
+import net.java.sip.communicator.service.history.records.*;
+
+public class HistoryLogTest
+    extends TestCase
+{
+    private static final String[] NAMES = new String[] { "dir", "msg" };
+
+    private File directory;
+
+    @Override
+    protected void setUp()
+        throws Exception
+    {
+        directory = File.createTempFile("historylog", "");
+        directory.delete();
+        directory.mkdirs();
+    }
+
+    @Override
+    protected void tearDown()
+        throws Exception
+    {
+        for (File f : directory.listFiles())
+            f.delete();
+        directory.delete();
+    }
+
+    public void testAppendAndReload()
+        throws Exception
+    {
+        HistoryLog log = new HistoryLog(directory);
+
+        for (int i = 0; i < 10; i++)
+            log.append(1000 + i, NAMES, new String[] { "in", "message " + i });
+
+        // null values are not stored
+        log.append(2000, NAMES, new String[] { "out", null });
+
+        assertEquals(11, log.getRecordCount());
+
+        HistoryLog reloaded = new HistoryLog(directory);
+        List<HistoryLog.Segment> segments = reloaded.getSegments();
+
+        assertEquals(1, segments.size());
+        assertEquals(1000, segments.get(0).getMinTimestamp());
+        assertEquals(2000, segments.get(0).getMaxTimestamp());
+
+        List<HistoryRecord> records = segments.get(0).read(3, 5);
+        assertEquals(2, records.size());
+        assertEquals("message 3", records.get(0).getPropertyValues()[1]);
+        assertEquals(1004, records.get(1).getTimestamp().getTime());
+
+        HistoryRecord last = segments.get(0).read(10, 11).get(0);
+        assertEquals(1, last.getPropertyNames().length);
+        assertEquals("out", last.getPropertyValues()[0]);
+    }
+
+    public void testSegmentRollover()
+        throws Exception
+    {
+        HistoryLog log = new HistoryLog(directory);
+        List<HistoryRecord> records = new ArrayList<HistoryRecord>();
+
+        for (int i = 0; i < HistoryLog.MAX_RECORDS_PER_SEGMENT + 10; i++)
+        {
+            records.add(
+                new HistoryRecord(
+                    NAMES, new String[] { "in", "m" + i }, new Date(i)));
+        }
+        log.appendAll(records);
+        log.append(Long.MAX_VALUE / 2, NAMES, new String[] { "in", "last" });
+
+        List<HistoryLog.Segment> segments = new HistoryLog(directory)
+            .getSegments();
+        assertEquals(2, segments.size());
+        assertEquals(HistoryLog.MAX_RECORDS_PER_SEGMENT, segments.get(0).size());
+        assertEquals(11, segments.get(1).size());
+        assertFalse(segments.get(0).overlaps(
+            new Date(HistoryLog.MAX_RECORDS_PER_SEGMENT), null));
+        assertTrue(segments.get(1).overlaps(
+            new Date(HistoryLog.MAX_RECORDS_PER_SEGMENT), null));
+    }
+
+    public void testRewrite()
+        throws Exception
+    {
+        HistoryLog log = new HistoryLog(directory);
+
+        for (int i = 0; i < 5; i++)
+            log.append(i, NAMES, new String[] { "in", "m" + i });
+
+        HistoryLog.Segment segment = log.getSegments().get(0);
+        List<HistoryRecord> records = segment.readAll();
+        records.remove(0);
+        records.set(0, new HistoryRecord(
+            NAMES, new String[] { "in", "changed" }, new Date(100)));
+        log.rewrite(segment, records);
+
+        assertEquals(4, log.getRecordCount());
+        assertEquals(100, segment.getMaxTimestamp());
+
+        HistoryLog.Segment reloaded
+            = new HistoryLog(directory).getSegments().get(0);
+        assertEquals("changed", reloaded.readAll().get(0).getPropertyValues()[1]);
+        assertEquals(2, reloaded.getMinTimestamp());
+    }
+
+    public void testRecoverFromPartialAppend()
+        throws Exception
+    {
+        HistoryLog log = new HistoryLog(directory);
+
+        for (int i = 0; i < 3; i++)
+            log.append(i, NAMES, new String[] { "in", "m" + i });
+
+        HistoryLog.Segment segment = log.getSegments().get(0);
+
+        // simulate a crash in the middle of writing a record
+        RandomAccessFile raf = new RandomAccessFile(segment.getFile(), "rw");
+        raf.setLength(raf.length() - 3);
+        raf.close();
+
+        HistoryLog recovered = new HistoryLog(directory);
+        assertEquals(2, recovered.getRecordCount());
+
+        recovered.append(10, NAMES, new String[] { "in", "after" });
+        List<HistoryRecord> records
+            = new HistoryLog(directory).getSegments().get(0).readAll();
+        assertEquals(3, records.size());
+        assertEquals("after", records.get(2).getPropertyValues()[1]);
+    }
+
+    public void testRestoreBackup()
+        throws Exception
+    {
+        HistoryLog log = new HistoryLog(directory);
+
+        log.append(1000, NAMES, new String[] { "in", "message" });
+
+        File segment = log.getSegments().get(0).getFile();
+        File backup = new File(directory, segment.getName() + ".bak");
+
+        // a crash after the segment was renamed to its backup
+        assertTrue(segment.renameTo(backup));
+        assertEquals(1, new HistoryLog(directory).getRecordCount());
+        assertTrue(segment.exists());
+        assertFalse(backup.exists());
+
+        // a crash before the backup was deleted
+        log = new HistoryLog(directory);
+        log.append(2000, NAMES, new String[] { "out", "reply" });
+        new FileOutputStream(backup).close();
+        assertEquals(2, new HistoryLog(directory).getRecordCount());
+        assertFalse(backup.exists());
+    }
+}
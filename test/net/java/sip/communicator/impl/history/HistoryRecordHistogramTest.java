@@ -0,0 +1,140 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package net.java.sip.communicator.impl.history;
+
+import java.util.*;
+
+import junit.framework.*;
+
+public class HistoryRecordHistogramTest
+    extends TestCase
+{
+    private static long time(int year, int month, int day, int hour)
+    {
+        Calendar c = Calendar.getInstance();
+
+        c.clear();
+        c.set(year, month, day, hour, 0);
+        return c.getTimeInMillis();
+    }
+
+    public void testDays()
+    {
+        HistoryRecordHistogram histogram = new HistoryRecordHistogram(
+            null, new Date(time(2014, Calendar.MARCH, 3, 0)),
+            Calendar.DAY_OF_MONTH);
+
+        histogram.add(time(2014, Calendar.MARCH, 1, 10));
+        histogram.add(time(2014, Calendar.MARCH, 1, 23));
+        histogram.add(time(2014, Calendar.MARCH, 2, 0));
+        histogram.add(time(2014, Calendar.MARCH, 1, 5));
+        // out of the period
+        histogram.add(time(2014, Calendar.MARCH, 3, 0));
+
+        SortedMap<Date, Integer> counts = histogram.getCounts();
+
+        assertEquals(2, counts.size());
+        assertEquals(
+            Integer.valueOf(3),
+            counts.get(new Date(time(2014, Calendar.MARCH, 1, 0))));
+        assertEquals(
+            Integer.valueOf(1),
+            counts.get(new Date(time(2014, Calendar.MARCH, 2, 0))));
+    }
+
+    public void testAddAll()
+    {
+        HistoryRecordHistogram histogram = new HistoryRecordHistogram(
+            new Date(time(2014, Calendar.MARCH, 1, 12)), null,
+            Calendar.MONTH);
+
+        // partly before the period
+        assertFalse(histogram.addAll(
+            time(2014, Calendar.MARCH, 1, 0),
+            time(2014, Calendar.MARCH, 2, 0),
+            5));
+        // spanning two buckets
+        assertFalse(histogram.addAll(
+            time(2014, Calendar.MARCH, 20, 0),
+            time(2014, Calendar.APRIL, 2, 0),
+            5));
+        assertTrue(histogram.addAll(
+            time(2014, Calendar.MARCH, 2, 0),
+            time(2014, Calendar.MARCH, 31, 23),
+            5));
+        histogram.add(time(2014, Calendar.APRIL, 1, 0));
+
+        SortedMap<Date, Integer> counts = histogram.getCounts();
+
+        assertEquals(
+            Integer.valueOf(5),
+            counts.get(new Date(time(2014, Calendar.MARCH, 1, 0))));
+        assertEquals(
+            Integer.valueOf(1),
+            counts.get(new Date(time(2014, Calendar.APRIL, 1, 0))));
+    }
+
+    public void testWeeks()
+    {
+        HistoryRecordHistogram histogram = new HistoryRecordHistogram(
+            null, null, Calendar.WEEK_OF_YEAR);
+        Calendar c = Calendar.getInstance();
+
+        c.setTimeInMillis(time(2014, Calendar.MARCH, 12, 15));
+        histogram.add(c.getTimeInMillis());
+        c.set(Calendar.DAY_OF_WEEK, c.getFirstDayOfWeek());
+        c.set(Calendar.HOUR_OF_DAY, 0);
+        histogram.add(c.getTimeInMillis());
+
+        SortedMap<Date, Integer> counts = histogram.getCounts();
+
+        assertEquals(1, counts.size());
+        assertEquals(Integer.valueOf(2), counts.get(c.getTime()));
+    }
+
+    public void testYearsAndMonths()
+    {
+        HistoryRecordHistogram years
+            = new HistoryRecordHistogram(null, null, Calendar.YEAR);
+        HistoryRecordHistogram months
+            = new HistoryRecordHistogram(null, null, Calendar.MONTH);
+
+        for (long time : new long[] {
+                time(2013, Calendar.DECEMBER, 31, 23),
+                time(2014, Calendar.MARCH, 1, 10),
+                time(2014, Calendar.MARCH, 31, 23) })
+        {
+            years.add(time);
+            months.add(time);
+        }
+
+        assertEquals(
+            Integer.valueOf(2),
+            years.getCounts().get(
+                new Date(time(2014, Calendar.JANUARY, 1, 0))));
+        assertEquals(
+            Integer.valueOf(2),
+            months.getCounts().get(
+                new Date(time(2014, Calendar.MARCH, 1, 0))));
+        assertEquals(
+            Integer.valueOf(1),
+            months.getCounts().get(
+                new Date(time(2013, Calendar.DECEMBER, 1, 0))));
+    }
+
+    public void testUnsupportedField()
+    {
+        try
+        {
+            new HistoryRecordHistogram(null, null, Calendar.ERA);
+            fail();
+        }
+        catch (IllegalArgumentException e)
+        {
+        }
+    }
+}
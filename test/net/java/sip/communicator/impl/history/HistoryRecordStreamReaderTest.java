@@ -0,0 +1,118 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package net.java.sip.communicator.impl.history;
+
+import static
+    net.java.sip.communicator.service.history.HistoryService.DATE_FORMAT;
+
+import java.io.*;
+import java.text.*;
+import java.util.*;
+
+import javax.xml.parsers.*;
+
+import junit.framework.*;
+import net.java.sip.communicator.service.history.records.*;
+
+import org.w3c.dom.*;
+
+public class HistoryRecordStreamReaderTest
+    extends TestCase
+{
+    private static final String XML
+        = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<history>"
+            + "<record timestamp=\"1000\"><dir>in</dir>"
+            + "<msg><![CDATA[first &amp; one]]></msg></record>\n"
+            + "<record timestamp=\"2000\"><dir>out</dir><msg/></record>"
+            + "<record timestamp=\"3000\"><dir>in</dir><msg>third</msg>"
+            + "</record>"
+            + "<record timestamp=\"4000\"><dir>out</dir><msg>last</msg>"
+            + "</record></history>";
+
+    private static HistoryRecordStreamReader stream()
+        throws Exception
+    {
+        return new HistoryRecordStreamReader(
+            new ByteArrayInputStream(XML.getBytes("UTF-8")));
+    }
+
+    private static Document document()
+        throws Exception
+    {
+        return DocumentBuilderFactory.newInstance().newDocumentBuilder()
+            .parse(new ByteArrayInputStream(XML.getBytes("UTF-8")));
+    }
+
+    private static String toString(List<HistoryRecord> records)
+    {
+        StringBuilder s = new StringBuilder();
+
+        for (HistoryRecord record : records)
+        {
+            s.append(record.getTimestamp().getTime())
+                .append(Arrays.asList(record.getPropertyNames()))
+                .append(Arrays.asList(record.getPropertyValues()));
+        }
+        return s.toString();
+    }
+
+    public void testParseTimestamp()
+        throws Exception
+    {
+        SimpleDateFormat sdf = new SimpleDateFormat(DATE_FORMAT);
+        Random random = new Random(42);
+
+        for (int i = 0; i < 1000; i++)
+        {
+            Date date = new Date(random.nextLong() % (200L * 365 * 86400000));
+            String value = sdf.format(date);
+
+            assertEquals(value, date,
+                HistoryRecordStreamReader.parseTimestamp(value));
+        }
+
+        String value = "2013-05-14T10:22:33.123-0230";
+        assertEquals(sdf.parse(value),
+            HistoryRecordStreamReader.parseTimestamp(value));
+        assertEquals(new Date(1234),
+            HistoryRecordStreamReader.parseTimestamp("1234"));
+        assertNull(HistoryRecordStreamReader.parseTimestamp("bad"));
+    }
+
+    public void testReadFirst()
+        throws Exception
+    {
+        List<HistoryRecord> records = HistoryRecordStreamReader.read(
+            stream(), new Date(1001), null, 2, false, true);
+
+        assertEquals(
+            "3000[dir, msg][in, third]4000[dir, msg][out, last]",
+            toString(records));
+        assertEquals(toString(records), toString(
+            HistoryRecordStreamReader.read(
+                document(), new Date(1001), null, 2, false, true)));
+    }
+
+    public void testReadLast()
+        throws Exception
+    {
+        List<HistoryRecord> records = HistoryRecordStreamReader.read(
+            stream(), null, null, 3, true, false);
+
+        assertEquals(
+            "2000[dir][out]3000[dir, msg][in, third]4000[dir, msg][out, last]",
+            toString(records));
+        assertEquals(toString(records), toString(
+            HistoryRecordStreamReader.read(
+                document(), null, null, 3, true, false)));
+
+        records = HistoryRecordStreamReader.read(
+            stream(), null, new Date(3000), 5, true, false);
+        assertEquals(2, records.size());
+        assertEquals("first & one", records.get(0).getPropertyValues()[1]);
+    }
+}
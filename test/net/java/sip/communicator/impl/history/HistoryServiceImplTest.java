@@ -0,0 +1,215 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package net.java.sip.communicator.impl.history;
+
+import java.io.*;
+import java.util.*;
+
+import javax.xml.parsers.*;
+
+import junit.framework.*;
+
+import org.w3c.dom.*;
+
+public class HistoryServiceImplTest
+    extends TestCase
+{
+    private static final int THREADS = 4;
+
+    private static final int PARSES_PER_THREAD = 50;
+
+    private static final int RECORDS = 150;
+
+    private File directory;
+
+    private File file;
+
+    private HistoryServiceImpl service;
+
+    @Override
+    protected void setUp()
+        throws Exception
+    {
+        directory = File.createTempFile("historyservice", "");
+        directory.delete();
+        directory.mkdirs();
+
+        file = new File(directory, "1.xml");
+        Writer out = new OutputStreamWriter(
+            new FileOutputStream(file), "UTF-8");
+        try
+        {
+            out.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?><history>");
+            for (int i = 0; i < RECORDS; i++)
+            {
+                out.write("<record timestamp=\"" + i + "\"><dir>in</dir>"
+                    + "<msg>message number " + i + "</msg></record>");
+            }
+            out.write("</history>");
+        }
+        finally
+        {
+            out.close();
+        }
+
+        service = HistoryWriterImplTest.createHistoryService(
+            new HashMap<String, Object>());
+    }
+
+    @Override
+    protected void tearDown()
+        throws Exception
+    {
+        service.stop();
+
+        file.delete();
+        directory.delete();
+    }
+
+    /**
+     * Parses the same file from several threads at once, each with its own
+     * builder.
+     */
+    public void testConcurrentParse()
+        throws Exception
+    {
+        assertEquals(THREADS * PARSES_PER_THREAD, runParsers(new Parser()
+        {
+            public Document parse(File file)
+                throws Exception
+            {
+                return service.parse(file);
+            }
+        }));
+    }
+
+    /**
+     * Compares parsing from several threads with a builder per thread to
+     * the single builder the service used to share under a lock. The
+     * threads only run in parallel with several processors.
+     */
+    public void testParseTime()
+        throws Exception
+    {
+        final DocumentBuilder shared
+            = DocumentBuilderFactory.newInstance().newDocumentBuilder();
+
+        // load the parser classes before timing
+        service.parse(file);
+
+        long oldTime = System.nanoTime();
+        int oldCount = runParsers(new Parser()
+        {
+            public Document parse(File file)
+                throws Exception
+            {
+                synchronized (shared)
+                {
+                    return shared.parse(file);
+                }
+            }
+        });
+        oldTime = System.nanoTime() - oldTime;
+
+        long newTime = System.nanoTime();
+        int newCount = runParsers(new Parser()
+        {
+            public Document parse(File file)
+                throws Exception
+            {
+                return service.parse(file);
+            }
+        });
+        newTime = System.nanoTime() - newTime;
+
+        assertEquals(THREADS * PARSES_PER_THREAD, oldCount);
+        assertEquals(oldCount, newCount);
+        if (Runtime.getRuntime().availableProcessors() > 1)
+        {
+            assertTrue(
+                "builder per thread " + newTime / 1000000 + " ms, "
+                    + "shared builder " + oldTime / 1000000 + " ms",
+                newTime < oldTime);
+        }
+    }
+
+    /**
+     * Parses the file <tt>PARSES_PER_THREAD</tt> times from each of
+     * <tt>THREADS</tt> threads started together.
+     *
+     * @param parser the parser
+     * @return the number of documents parsed with all their records
+     */
+    private int runParsers(final Parser parser)
+        throws Exception
+    {
+        final Object startLock = new Object();
+        final boolean[] started = new boolean[1];
+        final int[] parsed = new int[1];
+        final List<Throwable> failures
+            = Collections.synchronizedList(new ArrayList<Throwable>());
+        Thread[] threads = new Thread[THREADS];
+
+        for (int t = 0; t < THREADS; t++)
+        {
+            threads[t] = new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        synchronized (startLock)
+                        {
+                            while (!started[0])
+                                startLock.wait();
+                        }
+
+                        for (int i = 0; i < PARSES_PER_THREAD; i++)
+                        {
+                            Document doc = parser.parse(file);
+
+                            if (doc.getElementsByTagName("record")
+                                    .getLength() == RECORDS)
+                            {
+                                synchronized (parsed)
+                                {
+                                    parsed[0]++;
+                                }
+                            }
+                        }
+                    }
+                    catch (Throwable t)
+                    {
+                        failures.add(t);
+                    }
+                }
+            };
+            threads[t].start();
+        }
+
+        synchronized (startLock)
+        {
+            started[0] = true;
+            startLock.notifyAll();
+        }
+        for (Thread thread : threads)
+            thread.join();
+
+        assertEquals(failures.toString(), 0, failures.size());
+        return parsed[0];
+    }
+
+    /**
+     * Parses a file the way a parse path of the service does.
+     */
+    private interface Parser
+    {
+        Document parse(File file)
+            throws Exception;
+    }
+}
@@ -0,0 +1,246 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package net.java.sip.communicator.impl.history;
+
+import java.io.*;
+import java.lang.reflect.*;
+import java.util.*;
+
+import junit.framework.*;
+import net.java.sip.communicator.service.history.*;
+import net.java.sip.communicator.service.history.records.*;
+
+import org.jitsi.service.configuration.*;
+import org.osgi.framework.*;
+import org.w3c.dom.*;
+
+public class HistoryWriterImplTest
+    extends TestCase
+{
+    private static final String[] NAMES = new String[] { "id", "msg" };
+
+    private File directory;
+
+    private HistoryServiceImpl service;
+
+    @Override
+    protected void setUp()
+        throws Exception
+    {
+        directory = File.createTempFile("historywriter", "");
+        directory.delete();
+        directory.mkdirs();
+
+        // writes wait in the queue until it is flushed
+        Map<String, Object> properties = new HashMap<String, Object>();
+        properties.put(HistoryService.FLUSH_INTERVAL_PROPERTY, 60000);
+        service = createHistoryService(properties);
+    }
+
+    @Override
+    protected void tearDown()
+        throws Exception
+    {
+        service.stop();
+
+        for (File f : directory.listFiles())
+            f.delete();
+        directory.delete();
+    }
+
+    public void testUpdateOfWrittenCurrentFile()
+        throws Exception
+    {
+        HistoryImpl history = createHistory();
+        HistoryWriter writer = history.getWriter();
+
+        writer.addRecord(new String[] { "1", "first" });
+        service.getWriteQueue().flush();
+
+        writer.updateRecord("id", "1", "msg", "changed");
+        writer.addRecord(new String[] { "2", "second" });
+        service.getWriteQueue().flush();
+
+        // read the file written to disk
+        HistoryImpl reloaded = createHistory();
+        Iterator<String> files = reloaded.getFileList();
+        Document doc = reloaded.getDocumentForFile(files.next());
+        NodeList messages = doc.getElementsByTagName("msg");
+
+        assertFalse(files.hasNext());
+        assertEquals(2, messages.getLength());
+        assertEquals("changed", messages.item(0).getTextContent());
+        assertEquals("second", messages.item(1).getTextContent());
+    }
+
+    public void testUpdateAddingProperty()
+        throws Exception
+    {
+        HistoryImpl history = createHistory();
+        HistoryWriter writer = history.getWriter();
+
+        writer.addRecord(new String[] { "1", null });
+        service.getWriteQueue().flush();
+
+        writer.updateRecord("id", "1", "msg", "added");
+        writer.addRecord(new String[] { "2", "second" });
+        service.getWriteQueue().flush();
+
+        HistoryImpl reloaded = createHistory();
+        Document doc
+            = reloaded.getDocumentForFile(reloaded.getFileList().next());
+        NodeList messages = doc.getElementsByTagName("msg");
+
+        assertEquals(2, messages.getLength());
+        assertEquals("added", messages.item(0).getTextContent());
+    }
+
+    public void testConcurrentUpdatesAndAppends()
+        throws Exception
+    {
+        HistoryImpl history = createHistory();
+        final HistoryWriter writer = history.getWriter();
+        final int records = 100;
+        final Throwable[] failure = new Throwable[1];
+
+        writer.addRecord(new String[] { "0", "first" });
+        service.getWriteQueue().flush();
+
+        Thread appender = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    for (int i = 1; i <= records; i++)
+                    {
+                        writer.addRecord(
+                            new String[] { Integer.toString(i), "m" + i });
+                        service.getWriteQueue().flush();
+                    }
+                }
+                catch (Throwable t)
+                {
+                    failure[0] = t;
+                }
+            }
+        };
+        appender.start();
+
+        for (int i = 0; i < records; i++)
+        {
+            writer.updateRecord("id", "0", "msg", "changed" + i);
+            service.getWriteQueue().flush();
+        }
+        appender.join();
+        service.getWriteQueue().flush();
+
+        assertNull(failure[0]);
+
+        HistoryImpl reloaded = createHistory();
+        Document doc
+            = reloaded.getDocumentForFile(reloaded.getFileList().next());
+        NodeList messages = doc.getElementsByTagName("msg");
+
+        assertEquals(records + 1, messages.getLength());
+        assertEquals("changed" + (records - 1),
+            messages.item(0).getTextContent());
+    }
+
+    public void testUpdateWithoutQueue()
+        throws Exception
+    {
+        service.stop();
+
+        HistoryImpl history = createHistory();
+        HistoryWriter writer = history.getWriter();
+
+        writer.addRecord(new String[] { "1", "first" });
+        writer.updateRecord("id", "1", "msg", "changed");
+        writer.addRecord(new String[] { "2", "second" });
+
+        HistoryImpl reloaded = createHistory();
+        Document doc
+            = reloaded.getDocumentForFile(reloaded.getFileList().next());
+        NodeList messages = doc.getElementsByTagName("msg");
+
+        assertEquals(2, messages.getLength());
+        assertEquals("changed", messages.item(0).getTextContent());
+    }
+
+    private HistoryImpl createHistory()
+    {
+        return new HistoryImpl(
+            HistoryID.createFromRawID(new String[] { "test" }),
+            directory,
+            new HistoryRecordStructure(NAMES),
+            service);
+    }
+
+    /**
+     * Creates a history service reading its configuration from a map.
+     *
+     * @param properties the configuration properties
+     * @return the history service
+     */
+    static HistoryServiceImpl createHistoryService(
+            final Map<String, Object> properties)
+        throws Exception
+    {
+        final Object configuration = Proxy.newProxyInstance(
+            HistoryWriterImplTest.class.getClassLoader(),
+            new Class<?>[] { ConfigurationService.class },
+            new InvocationHandler()
+            {
+                public Object invoke(Object proxy, Method method,
+                                     Object[] args)
+                {
+                    if (!method.getName().startsWith("get")
+                            || args == null)
+                        return null;
+
+                    // the second argument of the getters is the default
+                    Object value = properties.get(args[0]);
+                    return (value != null || args.length < 2)
+                        ? value : args[1];
+                }
+            });
+        final Object reference = Proxy.newProxyInstance(
+            HistoryWriterImplTest.class.getClassLoader(),
+            new Class<?>[] { ServiceReference.class },
+            new InvocationHandler()
+            {
+                public Object invoke(Object proxy, Method method,
+                                     Object[] args)
+                {
+                    return null;
+                }
+            });
+        BundleContext bundleContext = (BundleContext) Proxy.newProxyInstance(
+            HistoryWriterImplTest.class.getClassLoader(),
+            new Class<?>[] { BundleContext.class },
+            new InvocationHandler()
+            {
+                public Object invoke(Object proxy, Method method,
+                                     Object[] args)
+                {
+                    String name = method.getName();
+
+                    if (name.equals("getServiceReference")
+                            && ConfigurationService.class.getName()
+                                .equals(args[0]))
+                        return reference;
+                    if (name.equals("getService") && args[0] == reference)
+                        return configuration;
+                    return null;
+                }
+            });
+
+        return new HistoryServiceImpl(bundleContext);
+    }
+}
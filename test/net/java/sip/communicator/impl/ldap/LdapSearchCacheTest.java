@@ -0,0 +1,66 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package net.java.sip.communicator.impl.ldap;
+
+import java.util.*;
+
+import junit.framework.*;
+
+/**
+ * Tests the expiry and the refinement of the kept LDAP search results.
+ */
+public class LdapSearchCacheTest
+    extends TestCase
+{
+    private static List<LdapSearchCache.Result> results(String... names)
+    {
+        List<LdapSearchCache.Result> results
+            = new ArrayList<LdapSearchCache.Result>();
+
+        for (String name : names)
+        {
+            results.add(
+                new LdapSearchCache.Result(
+                        name, new HashMap<String, Set<Object>>()));
+        }
+        return results;
+    }
+
+    public void testExactHitExpires()
+    {
+        LdapSearchCache cache = new LdapSearchCache();
+
+        cache.put("f", "jo", "s", results("a"), true, 1000);
+        assertEquals(1, cache.get("f", 1000).size());
+        assertNull(cache.get("f", 1000 + LdapSearchCache.TIME_TO_LIVE + 1));
+    }
+
+    public void testBroaderSearch()
+    {
+        LdapSearchCache cache = new LdapSearchCache();
+
+        cache.put("f1", "j", "s", results("a", "b", "c"), true, 0);
+        cache.put("f2", "Jo", "s", results("a", "b"), true, 0);
+        cache.put("f3", "joh", "s", results("a"), false, 0);
+
+        // the longest complete search contained in the query
+        assertEquals(2, cache.getBroader("john", "s", 0).size());
+        // not for other settings
+        assertNull(cache.getBroader("john", "t", 0));
+        assertNull(cache.getBroader("mary", "s", 0));
+    }
+
+    public void testSearchesAreLimited()
+    {
+        LdapSearchCache cache = new LdapSearchCache();
+
+        for (int i = 0; i <= LdapSearchCache.MAX_SEARCHES; i++)
+            cache.put("f" + i, null, "s", results(), true, 0);
+        assertNull(cache.get("f0", 0));
+        assertNotNull(cache.get("f1", 0));
+    }
+}
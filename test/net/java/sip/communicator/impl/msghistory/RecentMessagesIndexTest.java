@@ -0,0 +1,73 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package net.java.sip.communicator.impl.msghistory;
+
+import java.io.*;
+import java.util.*;
+
+import junit.framework.*;
+import net.java.sip.communicator.service.history.*;
+
+/**
+ * Tests the persistence and the order of the recent messages index.
+ */
+public class RecentMessagesIndexTest
+    extends TestCase
+{
+    private File file;
+
+    @Override
+    protected void setUp()
+        throws Exception
+    {
+        file = File.createTempFile("recent", ".idx");
+        file.delete();
+    }
+
+    @Override
+    protected void tearDown()
+    {
+        file.delete();
+    }
+
+    private static HistoryID id(String contact)
+    {
+        return HistoryID.createFromRawID(
+            new String[] { "messages", "default", "acc", contact });
+    }
+
+    public void testIndex()
+    {
+        RecentMessagesIndex index = new RecentMessagesIndex(file);
+
+        assertFalse(index.load());
+        // written before the index is built
+        index.update(id("a@x"), 30, false);
+        index.build(Collections.singletonMap(id("b@x"), new long[] { 10, 5 }));
+        index.update(id("c x"), 20, true);
+        index.update(id("b@x"), 40, false);
+        index.update(
+            HistoryID.createFromRawID(new String[] { "callhistory" }), 50,
+            false);
+
+        assertEquals(
+            Arrays.asList(id("b@x"), id("a@x"), id("c x")),
+            index.getRecent(false));
+        assertEquals(
+            Arrays.asList(id("c x"), id("b@x")), index.getRecent(true));
+
+        index.remove(id("a@x"));
+
+        RecentMessagesIndex reloaded = new RecentMessagesIndex(file);
+
+        assertTrue(reloaded.load());
+        assertEquals(
+            Arrays.asList(id("b@x"), id("c x")), reloaded.getRecent(false));
+        assertEquals(
+            Arrays.asList(id("c x"), id("b@x")), reloaded.getRecent(true));
+    }
+}
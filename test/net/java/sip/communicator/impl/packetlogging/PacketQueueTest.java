@@ -0,0 +1,207 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package net.java.sip.communicator.impl.packetlogging;
+
+import java.nio.*;
+import java.util.*;
+
+import junit.framework.*;
+
+import org.jitsi.service.packetlogging.PacketLoggingService.*;
+
+public class PacketQueueTest
+    extends TestCase
+{
+    private static final byte[] ADDRESS = new byte[] { 127, 0, 0, 1 };
+
+    /**
+     * Queues a packet which content is its id followed by the complement of
+     * the id, so a packet overwritten while it is read can be detected.
+     */
+    private static boolean offer(PacketQueue queue, int id)
+    {
+        byte[] content
+            = ByteBuffer.allocate(8).putInt(id).putInt(~id).array();
+
+        return queue.offer(
+            ProtocolName.SIP, ADDRESS, 5060, ADDRESS, 5061,
+            TransportName.UDP, true, content, 0, content.length);
+    }
+
+    /**
+     * Takes a packet and returns its id, or <tt>-1</tt> if the queue is
+     * empty.
+     */
+    private static int poll(PacketQueue queue)
+    {
+        PacketQueue.Packet packet = queue.poll();
+
+        if (packet == null)
+            return -1;
+
+        ByteBuffer content = ByteBuffer.wrap(packet.packetContent);
+        int id = content.getInt();
+
+        assertEquals(8, packet.packetLength);
+        assertEquals(~id, content.getInt());
+        queue.release(packet);
+        return id;
+    }
+
+    public void testFullRingDrop()
+    {
+        PacketQueue queue = new PacketQueue(3, false);
+
+        for (int id = 0; id < 4; id++)
+            assertTrue(offer(queue, id));
+        assertFalse(offer(queue, 4));
+        assertEquals(4, queue.size());
+        assertEquals(4, queue.getQueuedCount());
+        assertEquals(1, queue.getDroppedCount());
+
+        assertEquals(0, poll(queue));
+        assertTrue(offer(queue, 5));
+        assertFalse(offer(queue, 6));
+
+        for (int id : new int[] { 1, 2, 3, 5 })
+            assertEquals(id, poll(queue));
+        assertEquals(-1, poll(queue));
+        assertEquals(0, queue.size());
+        assertEquals(2, queue.getDroppedCount());
+    }
+
+    public void testDropOldest()
+    {
+        PacketQueue queue = new PacketQueue(4, true);
+
+        for (int id = 0; id < 6; id++)
+            assertTrue(offer(queue, id));
+        assertEquals(4, queue.size());
+        assertEquals(6, queue.getQueuedCount());
+        assertEquals(2, queue.getDroppedCount());
+
+        for (int id = 2; id < 6; id++)
+            assertEquals(id, poll(queue));
+        assertEquals(-1, poll(queue));
+    }
+
+    public void testDropOldestKeepsPolledPacket()
+    {
+        PacketQueue queue = new PacketQueue(2, true);
+
+        assertTrue(offer(queue, 0));
+        assertTrue(offer(queue, 1));
+
+        // the slot of a packet being written is not reused before release
+        PacketQueue.Packet packet = queue.poll();
+        assertFalse(offer(queue, 2));
+        assertEquals(0, ByteBuffer.wrap(packet.packetContent).getInt());
+        queue.release(packet);
+        assertTrue(offer(queue, 2));
+
+        assertEquals(1, poll(queue));
+        assertEquals(2, poll(queue));
+        assertEquals(-1, poll(queue));
+    }
+
+    public void testConcurrentProducersDropNewest()
+        throws Exception
+    {
+        stress(false);
+    }
+
+    public void testConcurrentProducersDropOldest()
+        throws Exception
+    {
+        stress(true);
+    }
+
+    /**
+     * Logs packets from several threads into a small queue while another
+     * thread takes them, and checks that every packet is either delivered
+     * once or counted as dropped.
+     */
+    private void stress(boolean dropOldest)
+        throws Exception
+    {
+        final int producerCount = 4;
+        final int packetsPerProducer = 50000;
+        final PacketQueue queue = new PacketQueue(64, dropOldest);
+        final BitSet delivered = new BitSet();
+        final int[] duplicates = new int[1];
+        final int[] rejected = new int[producerCount];
+        final Thread[] producers = new Thread[producerCount];
+
+        for (int p = 0; p < producerCount; p++)
+        {
+            final int producer = p;
+
+            producers[p] = new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    int first = producer * packetsPerProducer;
+
+                    for (int i = 0; i < packetsPerProducer; i++)
+                    {
+                        if (!offer(queue, first + i))
+                            rejected[producer]++;
+                    }
+                }
+            };
+        }
+
+        Thread consumer = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                while (true)
+                {
+                    boolean producing = false;
+
+                    for (Thread producer : producers)
+                        producing |= producer.isAlive();
+
+                    int id = poll(queue);
+
+                    if (id == -1)
+                    {
+                        if (!producing)
+                            return;
+                        Thread.yield();
+                    }
+                    else if (delivered.get(id))
+                        duplicates[0]++;
+                    else
+                        delivered.set(id);
+                }
+            }
+        };
+
+        for (Thread producer : producers)
+            producer.start();
+        consumer.start();
+        for (Thread producer : producers)
+            producer.join();
+        consumer.join();
+
+        int total = producerCount * packetsPerProducer;
+        int totalRejected = 0;
+
+        for (int r : rejected)
+            totalRejected += r;
+
+        assertEquals(0, duplicates[0]);
+        assertEquals(0, queue.size());
+        assertEquals(total, delivered.cardinality() + queue.getDroppedCount());
+        assertEquals(total - totalRejected, queue.getQueuedCount());
+        if (!dropOldest)
+            assertEquals(totalRejected, queue.getDroppedCount());
+    }
+}
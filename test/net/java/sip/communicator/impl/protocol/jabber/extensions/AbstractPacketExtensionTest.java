@@ -0,0 +1,104 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package net.java.sip.communicator.impl.protocol.jabber.extensions;
+
+import java.io.*;
+
+import junit.framework.*;
+import net.java.sip.communicator.impl.protocol.jabber.extensions.coin.*;
+
+import org.xmlpull.mxp1.*;
+import org.xmlpull.v1.*;
+
+/**
+ * Tests the XML serialization of <tt>AbstractPacketExtension</tt>s.
+ */
+public class AbstractPacketExtensionTest
+    extends TestCase
+{
+    private static AbstractPacketExtension create(String name)
+    {
+        return new AbstractPacketExtension("urn:test", name)
+        {
+        };
+    }
+
+    public void testEmptyElement()
+    {
+        AbstractPacketExtension ext = create("empty");
+
+        ext.setAttribute("id", 1);
+        assertEquals("<empty xmlns='urn:test' id='1'/>", ext.toXML());
+    }
+
+    public void testNestedElements()
+    {
+        AbstractPacketExtension parent = create("parent");
+        AbstractPacketExtension child = create("child");
+
+        child.setText("text");
+        parent.addChildExtension(child);
+        parent.addChildExtension(create("leaf"));
+
+        StringBuilder xml = new StringBuilder("<iq>");
+
+        parent.toXML(xml);
+        assertEquals(
+            "<iq><parent xmlns='urn:test'>"
+                + "<child xmlns='urn:test'>text</child>"
+                + "<leaf xmlns='urn:test'/>"
+                + "</parent>",
+            xml.toString());
+        assertEquals(xml.substring(4), parent.toXML());
+    }
+
+    public void testEscaping()
+    {
+        UserPacketExtension user = new UserPacketExtension("xmpp:a'b@c");
+
+        user.setDisplayText("Tom & Jerry <\"cat\">");
+        assertEquals(
+            "<user entity='xmpp:a&apos;b@c'>"
+                + "<display-text>"
+                + "Tom &amp; Jerry &lt;&quot;cat&quot;&gt;"
+                + "</display-text>"
+                + "</user>",
+            user.toXML());
+    }
+
+    public void testAttributeRoundTrip()
+        throws Exception
+    {
+        ConferenceDescriptionPacketExtension conference
+            = new ConferenceDescriptionPacketExtension(
+                    "sip:conf@example.com?a=1&b=<2>");
+
+        conference.setName("Tom & Jerry <cat>");
+
+        String xml = conference.toXML();
+
+        assertTrue(xml, xml.contains("a=1&amp;b=&lt;2&gt;"));
+
+        XmlPullParser parser = new MXParser();
+
+        parser.setFeature(XmlPullParser.FEATURE_PROCESS_NAMESPACES, true);
+        parser.setInput(new StringReader(xml));
+        parser.next();
+
+        ConferenceDescriptionPacketExtension parsed
+            = (ConferenceDescriptionPacketExtension)
+                new ConferenceDescriptionPacketExtension.Provider()
+                    .parseExtension(parser);
+
+        assertEquals("sip:conf@example.com?a=1&b=<2>", parsed.getUri());
+        assertEquals(
+            "Tom & Jerry <cat>",
+            parsed.getAttributeAsString(
+                ConferenceDescriptionPacketExtension
+                    .CONFERENCE_NAME_ATTR_NAME));
+    }
+}